@@ -1,8 +1,6 @@
 package org.totschnig.fints
 
-import android.annotation.SuppressLint
 import android.app.Application
-import android.content.ContentUris
 import android.graphics.Bitmap
 import android.graphics.BitmapFactory
 import android.os.Bundle
@@ -45,7 +43,8 @@ import org.totschnig.myexpenses.db2.importedAccounts
 import org.totschnig.myexpenses.db2.loadBank
 import org.totschnig.myexpenses.db2.loadBanks
 import org.totschnig.myexpenses.db2.saveAccountAttributes
-import org.totschnig.myexpenses.db2.saveTransactionAttributes
+import org.totschnig.myexpenses.db2.saveNewTransactionsWithAttributes
+import org.totschnig.myexpenses.db2.saveTransactionsWithAttributes
 import org.totschnig.myexpenses.db2.updateAccount
 import org.totschnig.myexpenses.feature.BankingFeature
 import org.totschnig.myexpenses.model.AccountType
@@ -53,19 +52,7 @@ import org.totschnig.myexpenses.model.ContribFeature
 import org.totschnig.myexpenses.model.Transaction
 import org.totschnig.myexpenses.model2.Bank
 import org.totschnig.myexpenses.provider.DatabaseConstants
-import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
-import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ATTRIBUTE_ID
-import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ATTRIBUTE_NAME
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_BANK_ID
-import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DATE
-import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
-import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSACTIONID
-import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_VALUE
-import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_ATTRIBUTES
-import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTION_ATTRIBUTES
-import org.totschnig.myexpenses.provider.DatabaseConstants.VIEW_COMMITTED
-import org.totschnig.myexpenses.provider.TransactionProvider
-import org.totschnig.myexpenses.provider.useAndMapToList
 import org.totschnig.myexpenses.util.Utils
 import org.totschnig.myexpenses.util.crashreporting.CrashHandler
 import org.totschnig.myexpenses.util.safeMessage
@@ -400,22 +387,10 @@ class BankingViewModel(application: Application, private val savedStateHandle: S
                         return@doHBCI
                     }
 
-                    var importCount = 0
-                    for (umsLine in result.flatData) {
-                        log(umsLine.toString())
-                        with(converter) {
-                            val (transaction, attributes: Map<out Attribute, String>) =
-                                umsLine.toTransaction(accountId, currencyContext)
-                            if (isDuplicate(transaction, attributes[FinTsAttribute.CHECKSUM]!!)) {
-                                Timber.d("Found duplicate for $umsLine")
-                            } else {
-                                val id = ContentUris.parseId(transaction.save(contentResolver)!!)
-                                repository.saveTransactionAttributes(id, attributes)
-
-                                importCount++
-                            }
-                        }
-                    }
+                    val importCount = repository.saveNewTransactionsWithAttributes(
+                        convert(result, accountId),
+                        FinTsAttribute.CHECKSUM
+                    )
                     setAccountLastSynced(accountId)
                     _workState.value =
                         WorkState.Success(
@@ -446,16 +421,14 @@ class BankingViewModel(application: Application, private val savedStateHandle: S
         )
     }
 
-    @SuppressLint("Recycle")
-    private fun isDuplicate(transaction: Transaction, checkSum: String): Boolean {
-        return contentResolver.query(
-            TransactionProvider.TRANSACTIONS_URI,
-            arrayOf(KEY_AMOUNT, KEY_DATE),
-            "(select $KEY_VALUE from $TABLE_TRANSACTION_ATTRIBUTES left join $TABLE_ATTRIBUTES on $KEY_ATTRIBUTE_ID = $TABLE_ATTRIBUTES.$KEY_ROWID WHERE $KEY_ATTRIBUTE_NAME = ? and $KEY_TRANSACTIONID = $VIEW_COMMITTED.$KEY_ROWID) = ? ",
-            arrayOf(FinTsAttribute.CHECKSUM.name, checkSum), null
-        )?.useAndMapToList {
-            it.getLong(0) == transaction.amount.amountMinor && it.getLong(1) == transaction.date
-        }?.any { it } == true
+    private fun convert(
+        result: GVRKUms,
+        accountId: Long
+    ): List<Pair<Transaction, Map<out Attribute, String>>> = with(converter) {
+        result.flatData.map { umsLine ->
+            log(umsLine.toString())
+            umsLine.toTransaction(accountId, currencyContext)
+        }
     }
 
     private fun HBCIJob.setStartParam(localDate: LocalDate) {
@@ -523,17 +496,7 @@ class BankingViewModel(application: Application, private val savedStateHandle: S
 
                         repository.saveAccountAttributes(accountId, konto.asAttributes)
 
-                        for (umsLine in result.flatData) {
-                            log(umsLine.toString())
-                            with(converter) {
-                                val (transaction, transactionAttributes: Map<out Attribute, String>) = umsLine.toTransaction(
-                                    accountId,
-                                    currencyContext
-                                )
-                                val id = ContentUris.parseId(transaction.save(contentResolver)!!)
-                                repository.saveTransactionAttributes(id, transactionAttributes)
-                            }
-                        }
+                        repository.saveTransactionsWithAttributes(convert(result, accountId))
                         setAccountLastSynced(accountId)
                         logEvent(Tracker.EVENT_FINTS_ACCOUNT_IMPORTED, bankingCredentials)
                         successCount++
@@ -47,7 +47,7 @@ class DecoratingMyExpensesViewModel(application: Application,
             viewModelScope,
             countingResource,
             prefHandler
-        )
+        ) { scrollToCurrentDate.getValue(account.id).value }
 }
 
 class FakeSyncBackendViewModel(application: Application) :
@@ -85,7 +85,8 @@ class DecoratedTransactionPagingSource(
     currencyContext: CurrencyContext,
     coroutineScope: CoroutineScope,
     private val countingIdlingResource: CountingIdlingResource,
-    prefHandler: PrefHandler
+    prefHandler: PrefHandler,
+    startAtCurrentDate: () -> Boolean
 ) : TransactionPagingSource(
     context,
     account,
@@ -93,7 +94,8 @@ class DecoratedTransactionPagingSource(
     homeCurrencyProvider,
     currencyContext,
     coroutineScope,
-    prefHandler
+    prefHandler,
+    startAtCurrentDate
 ) {
 
     override suspend fun load(params: LoadParams<Int>): LoadResult<Int, Transaction2> {
@@ -27,16 +27,21 @@ import android.os.Build
 import android.os.Process
 import android.os.StrictMode
 import android.provider.CalendarContract
+import androidx.annotation.VisibleForTesting
 import androidx.appcompat.app.AppCompatDelegate
 import androidx.core.database.getLongOrNull
 import androidx.lifecycle.DefaultLifecycleObserver
 import androidx.lifecycle.LifecycleOwner
 import androidx.lifecycle.ProcessLifecycleOwner
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.MainScope
 import kotlinx.coroutines.launch
 import org.acra.util.StreamReader
 import org.totschnig.myexpenses.activity.OnboardingActivity
+import org.totschnig.myexpenses.db2.Repository
+import org.totschnig.myexpenses.db2.checkDailyCategorySums
+import org.totschnig.myexpenses.db2.resumePendingDeletions
 import org.totschnig.myexpenses.di.AppComponent
 import org.totschnig.myexpenses.di.DaggerAppComponent
 import org.totschnig.myexpenses.feature.BankingFeature
@@ -64,6 +69,7 @@ import org.totschnig.myexpenses.util.crashreporting.CrashHandler
 import org.totschnig.myexpenses.util.crashreporting.CrashHandler.Companion.report
 import org.totschnig.myexpenses.util.io.isConnectedWifi
 import org.totschnig.myexpenses.util.licence.LicenceHandler
+import org.totschnig.myexpenses.util.log.StartupTrace
 import org.totschnig.myexpenses.util.log.TagFilterFileLoggingTree
 import org.totschnig.myexpenses.util.ui.setNightMode
 import org.totschnig.myexpenses.viewmodel.WebUiViewModel.Companion.serviceIntent
@@ -105,6 +111,9 @@ open class MyApplication : Application(), SharedPreferences.OnSharedPreferenceCh
     @Inject
     lateinit var plannerUtils: PlannerUtils
 
+    @Inject
+    lateinit var repository: Repository
+
     private var lastPause: Long = 0
 
     @JvmField
@@ -128,31 +137,78 @@ open class MyApplication : Application(), SharedPreferences.OnSharedPreferenceCh
         ?.let { ContextHelper.wrap(context, it) }
         ?: context
 
+    val startupTrace = StartupTrace()
+
+    /**
+     * Initialization that is not needed before the first frame, run on a background thread
+     */
+    @VisibleForTesting
+    lateinit var deferredInitialization: Job
+        private set
+
     override fun onCreate() {
         if (BuildConfig.DEBUG) {
             enableStrictMode()
         }
         super<Application>.onCreate()
         checkAppReplacingState()
-        AppCompatDelegate.setCompatVectorFromResourcesEnabled(true)
-        setNightMode(prefHandler, this)
         val syncService = isSyncService
-        crashHandler.initProcess(this, syncService)
-        setupLogging()
+        startupTrace.phase("nightMode") {
+            AppCompatDelegate.setCompatVectorFromResourcesEnabled(true)
+            setNightMode(prefHandler, this)
+        }
+        startupTrace.phase("crashHandler") {
+            crashHandler.initProcess(this, syncService)
+        }
         if (!syncService) {
-            ProcessLifecycleOwner.get().lifecycle.addObserver(this)
-            settings.registerOnSharedPreferenceChangeListener(this)
-            register(this)
+            startupTrace.phase("listeners") {
+                ProcessLifecycleOwner.get().lifecycle.addObserver(this)
+                settings.registerOnSharedPreferenceChangeListener(this)
+            }
         }
-        licenceHandler.init()
-        NotificationBuilderWrapper.createChannels(this)
-        if (BuildConfig.DEBUG) {
-            contentResolver.persistedUriPermissions.forEach(Consumer { uriPermission: UriPermission? ->
-                Timber.d(
-                    "persisted permissions: %s",
-                    uriPermission
-                )
-            })
+        startupTrace.phase("licence") {
+            licenceHandler.init()
+        }
+        //components started in this process, e.g. PlanExecutor, may post notifications as soon as
+        //onCreate returns, hence the channels must exist by then
+        startupTrace.phase("notificationChannels") {
+            NotificationBuilderWrapper.createChannels(this)
+        }
+        deferredInitialization = MainScope().launch(Dispatchers.IO) {
+            startupTrace.phase("logging") {
+                initLogging()
+            }
+            //the sync process does not update widgets
+            if (!syncService) {
+                startupTrace.phase("widgetObserver") {
+                    register(this@MyApplication)
+                }
+                //deletions of accounts or transactions interrupted by the process being killed
+                startupTrace.phase("pendingDeletions") {
+                    try {
+                        repository.resumePendingDeletions()
+                    } catch (e: Exception) {
+                        report(e)
+                    }
+                }
+                //the time zone may have changed while the app was not running
+                startupTrace.phase("dailySumsZone") {
+                    try {
+                        repository.checkDailyCategorySums()
+                    } catch (e: Exception) {
+                        report(e)
+                    }
+                }
+            }
+            if (BuildConfig.DEBUG) {
+                contentResolver.persistedUriPermissions.forEach(Consumer { uriPermission: UriPermission? ->
+                    Timber.d(
+                        "persisted permissions: %s",
+                        uriPermission
+                    )
+                })
+            }
+            startupTrace.write(this@MyApplication, if (syncService) "sync" else "main")
         }
     }
 
@@ -182,9 +238,13 @@ open class MyApplication : Application(), SharedPreferences.OnSharedPreferenceCh
     override fun attachBaseContext(base: Context) {
         instance = this
         super.attachBaseContext(base)
-        appComponent = buildAppComponent()
-        appComponent.inject(this)
-        featureManager.initApplication(this)
+        startupTrace.phase("appComponent") {
+            appComponent = buildAppComponent()
+            appComponent.inject(this)
+        }
+        startupTrace.phase("features") {
+            featureManager.initApplication(this)
+        }
         crashHandler.onAttachBaseContext(this)
     }
 
@@ -200,25 +260,29 @@ open class MyApplication : Application(), SharedPreferences.OnSharedPreferenceCh
 
     private fun setupLogging() {
         MainScope().launch(Dispatchers.IO) {
-            Timber.uprootAll()
-            if (prefHandler.getBoolean(PrefKey.DEBUG_LOGGING, BuildConfig.DEBUG)) {
-
-                Timber.plant(Timber.DebugTree())
-                try {
-                    plantTree(PlanExecutor.TAG)
-                    plantTree(SyncAdapter.TAG)
-                    plantTree(LicenceHandler.TAG)
-                    plantTree(BaseTransactionProvider.TAG)
-                    plantTree(OcrFeature.TAG)
-                    plantTree(BankingFeature.TAG)
-                } catch (e: Exception) {
-                    report(e)
-                }
-            }
-            if (prefHandler.getBoolean(PrefKey.CRASHREPORT_ENABLED, true)) {
-                crashHandler.setupLogging(this@MyApplication)
+            initLogging()
+        }
+    }
+
+    private suspend fun initLogging() {
+        Timber.uprootAll()
+        if (prefHandler.getBoolean(PrefKey.DEBUG_LOGGING, BuildConfig.DEBUG)) {
+
+            Timber.plant(Timber.DebugTree())
+            try {
+                plantTree(PlanExecutor.TAG)
+                plantTree(SyncAdapter.TAG)
+                plantTree(LicenceHandler.TAG)
+                plantTree(BaseTransactionProvider.TAG)
+                plantTree(OcrFeature.TAG)
+                plantTree(BankingFeature.TAG)
+            } catch (e: Exception) {
+                report(e)
             }
         }
+        if (prefHandler.getBoolean(PrefKey.CRASHREPORT_ENABLED, true)) {
+            crashHandler.setupLogging(this)
+        }
     }
 
     override fun onConfigurationChanged(newConfig: Configuration) {
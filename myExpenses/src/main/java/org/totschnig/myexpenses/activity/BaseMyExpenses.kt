@@ -70,6 +70,7 @@ import kotlinx.coroutines.launch
 import org.totschnig.myexpenses.R
 import org.totschnig.myexpenses.activity.ExpenseEdit.Companion.KEY_OCR_RESULT
 import org.totschnig.myexpenses.activity.FilterHandler.Companion.FILTER_COMMENT_DIALOG
+import org.totschnig.myexpenses.activity.FilterHandler.Companion.FILTER_TEXT_DIALOG
 import org.totschnig.myexpenses.compose.*
 import org.totschnig.myexpenses.compose.MenuEntry.Companion.delete
 import org.totschnig.myexpenses.compose.MenuEntry.Companion.edit
@@ -121,6 +122,7 @@ import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_YEAR
 import org.totschnig.myexpenses.provider.TransactionDatabase.SQLiteDowngradeFailedException
 import org.totschnig.myexpenses.provider.TransactionDatabase.SQLiteUpgradeFailedException
 import org.totschnig.myexpenses.provider.filter.CommentCriterion
+import org.totschnig.myexpenses.provider.filter.FullTextCriterion
 import org.totschnig.myexpenses.provider.filter.Criterion
 import org.totschnig.myexpenses.provider.filter.FilterPersistence
 import org.totschnig.myexpenses.provider.filter.KEY_FILTER
@@ -1262,6 +1264,13 @@ abstract class BaseMyExpenses : LaunchActivity(), OcrHost, OnDialogResultListene
                     true
                 }
 
+                FILTER_TEXT_DIALOG -> {
+                    extras.getString(SimpleInputDialog.TEXT)?.let {
+                        addFilterCriterion(FullTextCriterion(it))
+                    }
+                    true
+                }
+
                 DIALOG_TAG_GROUPING ->
                     handleAccountsGrouping(extras.getLong(SELECTED_SINGLE_ID).toInt())
 
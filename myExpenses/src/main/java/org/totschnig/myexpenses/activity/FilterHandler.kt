@@ -93,6 +93,11 @@ class FilterHandler(private val activity: BaseMyExpenses) {
                     .pos(R.string.menu_search)
                     .neut()
                     .show(this, FILTER_COMMENT_DIALOG)
+                R.id.FILTER_TEXT_COMMAND -> SimpleInputDialog.build()
+                    .title(R.string.search_full_text)
+                    .pos(R.string.menu_search)
+                    .neut()
+                    .show(this, FILTER_TEXT_DIALOG)
                 R.id.FILTER_STATUS_COMMAND -> SelectCrStatusDialogFragment.newInstance()
                     .show(supportFragmentManager, "STATUS_FILTER")
                 R.id.FILTER_METHOD_COMMAND -> SelectMethodDialogFragment.newInstance(accountId)
@@ -194,5 +199,6 @@ class FilterHandler(private val activity: BaseMyExpenses) {
         const val FILTER_PAYEE_REQUEST = "filterPayee"
         const val FILTER_TAGS_REQUEST = "filterTags"
         const val FILTER_COMMENT_DIALOG = "dialogFilterComment"
+        const val FILTER_TEXT_DIALOG = "dialogFilterText"
     }
 }
\ No newline at end of file
@@ -149,6 +149,12 @@ class PreferenceActivity : ProtectedFragmentActivity(), ContribIFace {
                 true
             }
 
+            R.id.ARCHIVE_COMMAND -> {
+                twoPanePreference.getDetailFragment<PreferenceDataFragment>()
+                    ?.archiveTransactions(tag as Int)
+                true
+            }
+
             R.id.REMOVE_LICENCE_COMMAND -> {
                 showSnackBarIndefinite(R.string.progress_removing_licence)
                 licenceValidationViewModel.removeLicence()
@@ -5,6 +5,7 @@ import android.content.ContentResolver
 import android.content.Context
 import android.database.ContentObserver
 import android.net.Uri
+import android.os.Bundle
 import android.os.Handler
 import android.os.Looper
 import androidx.paging.PagingState
@@ -16,20 +17,26 @@ import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import org.totschnig.myexpenses.BuildConfig
 import org.totschnig.myexpenses.model.CurrencyContext
+import org.totschnig.myexpenses.model.SortDirection
 import org.totschnig.myexpenses.preference.PrefHandler
 import org.totschnig.myexpenses.provider.DatabaseConstants
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DATE
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PARENTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SORT_DIRECTION
 import org.totschnig.myexpenses.provider.TransactionProvider
 import org.totschnig.myexpenses.provider.asSequence
 import org.totschnig.myexpenses.provider.filter.WhereFilter
 import org.totschnig.myexpenses.provider.withLimit
 import org.totschnig.myexpenses.util.locale.HomeCurrencyProvider
+import org.totschnig.myexpenses.util.localDateTime2Epoch
 import org.totschnig.myexpenses.viewmodel.data.PageAccount
 import org.totschnig.myexpenses.viewmodel.data.Transaction2
 import timber.log.Timber
 import java.time.Duration
 import java.time.Instant
+import java.time.LocalDate
 
 open class TransactionPagingSource(
     val context: Context,
@@ -38,7 +45,8 @@ open class TransactionPagingSource(
     val homeCurrencyProvider: HomeCurrencyProvider,
     val currencyContext: CurrencyContext,
     coroutineScope: CoroutineScope,
-    prefHandler: PrefHandler
+    prefHandler: PrefHandler,
+    private val startAtCurrentDate: () -> Boolean = { false }
 ) :
     ClearingPagingSource<Int, Transaction2>() {
 
@@ -85,23 +93,82 @@ open class TransactionPagingSource(
 
     }
 
+    private val selection: Pair<String, Array<String>?>
+        get() {
+            var selection = "$KEY_PARENTID is null"
+            var selectionArgs: Array<String>? = null
+            if (!whereFilter.value.isEmpty) {
+                val selectionForParents =
+                    whereFilter.value.getSelectionForParents(DatabaseConstants.VIEW_EXTENDED)
+                if (selectionForParents.isNotEmpty()) {
+                    selection += " AND $selectionForParents"
+                    selectionArgs = whereFilter.value.getSelectionArgsIfNotEmpty(false)
+                }
+            }
+            return selection to selectionArgs
+        }
+
+    /**
+     * @return the position in the list of the first transaction that is dated before
+     * [epochSeconds] for descending order, or after it for ascending order, or 0 if the list is not
+     * sorted by date. Clamped to the last transaction. For a single account without filter, this is
+     * one count on the transactions table, see [TransactionProvider.METHOD_POSITION_OF_DATE].
+     * Aggregate accounts merge transfers and filters refer to the extended view, so they are
+     * counted on the list query instead.
+     */
+    fun positionOfDate(epochSeconds: Long): Int {
+        if (account.sortBy != KEY_DATE) return 0
+        if (!account.isAggregate && whereFilter.value.isEmpty) {
+            return contentResolver.call(
+                TransactionProvider.DUAL_URI,
+                TransactionProvider.METHOD_POSITION_OF_DATE,
+                null,
+                Bundle(3).apply {
+                    putLong(KEY_ACCOUNTID, account.id)
+                    putLong(KEY_DATE, epochSeconds)
+                    putString(KEY_SORT_DIRECTION, account.sortDirection.name)
+                }
+            )?.getInt(TransactionProvider.KEY_RESULT) ?: 0
+        }
+        val (selection, selectionArgs) = selection
+        val before = when (account.sortDirection) {
+            SortDirection.ASC -> "$KEY_DATE <= $epochSeconds"
+            SortDirection.DESC -> "$KEY_DATE >= $epochSeconds"
+        }
+        return contentResolver.query(
+            uri,
+            arrayOf("count(*)", "sum($before)"),
+            selection,
+            selectionArgs,
+            null
+        )?.use { cursor ->
+            if (cursor.moveToFirst()) {
+                //if no transaction comes after the date, we jump to the last one
+                cursor.getInt(1).coerceAtMost(cursor.getInt(0) - 1).coerceAtLeast(0)
+            } else 0
+        } ?: 0
+    }
+
+    /**
+     * start of today for ascending, end of today for descending order
+     */
+    private val currentDateLimit: Long
+        get() = localDateTime2Epoch(
+            LocalDate.now().let {
+                if (account.sortDirection == SortDirection.DESC) it.plusDays(1) else it
+            }.atStartOfDay()
+        )
+
     @SuppressLint("InlinedApi")
     override suspend fun load(params: LoadParams<Int>): LoadResult<Int, Transaction2> {
-        val position = params.key ?: 0
+        val position = params.key ?: if (startAtCurrentDate()) {
+            withContext(Dispatchers.IO) { positionOfDate(currentDateLimit) }
+        } else 0
         //if the previous page was loaded from an offset between 0 and loadsize,
         //we must take care to load only the missing items before the offset
         val loadSize = if (position < 0) params.loadSize + position else params.loadSize
         Timber.i("Requesting data for account %d at position %d", account.id, position)
-        var selection = "$KEY_PARENTID is null"
-        var selectionArgs: Array<String>? = null
-        if (!whereFilter.value.isEmpty) {
-            val selectionForParents =
-                whereFilter.value.getSelectionForParents(DatabaseConstants.VIEW_EXTENDED)
-            if (selectionForParents.isNotEmpty()) {
-                selection += " AND $selectionForParents"
-                selectionArgs = whereFilter.value.getSelectionArgsIfNotEmpty(false)
-            }
-        }
+        val (selection, selectionArgs) = selection
         val startTime = if (BuildConfig.DEBUG) Instant.now() else null
         val sortBy = when(account.sortBy) {
             KEY_AMOUNT -> "abs($KEY_AMOUNT)"
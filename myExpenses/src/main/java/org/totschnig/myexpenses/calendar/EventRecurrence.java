@@ -16,16 +16,18 @@
 
 package org.totschnig.myexpenses.calendar;
 
-import android.text.TextUtils;
-import android.text.format.Time;
-import android.util.Log;
-import android.util.TimeFormatException;
 
 import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.Locale;
+import java.util.Objects;
+
+import timber.log.Timber;
 
 /**
  * Event recurrence utility functions.
@@ -49,7 +51,7 @@ public class EventRecurrence {
     public static final int FR = 0x00200000;
     public static final int SA = 0x00400000;
 
-    public Time      startDate;     // set by setStartDate(), not parse()
+    public LocalDate startDate;     // set by setStartDate(), not parse()
 
     public int       freq;          // SECONDLY, MINUTELY, etc.
     public String    until;
@@ -159,7 +161,7 @@ public class EventRecurrence {
     }
 
 
-    public void setStartDate(Time date) {
+    public void setStartDate(LocalDate date) {
         startDate = date;
     }
 
@@ -191,46 +193,27 @@ public class EventRecurrence {
         }
     }
 
-    public static int timeDay2Day(int day)
-    {
-        switch (day)
-        {
-            case Time.SUNDAY:
-                return SU;
-            case Time.MONDAY:
-                return MO;
-            case Time.TUESDAY:
-                return TU;
-            case Time.WEDNESDAY:
-                return WE;
-            case Time.THURSDAY:
-                return TH;
-            case Time.FRIDAY:
-                return FR;
-            case Time.SATURDAY:
-                return SA;
-            default:
-                throw new RuntimeException("bad day of week: " + day);
-        }
-    }
-    public static int day2TimeDay(int day)
+    /**
+     * Converts one of the SU, MO, etc. constants to {@link DayOfWeek}.
+     */
+    public static DayOfWeek day2DayOfWeek(int day)
     {
         switch (day)
         {
             case SU:
-                return Time.SUNDAY;
+                return DayOfWeek.SUNDAY;
             case MO:
-                return Time.MONDAY;
+                return DayOfWeek.MONDAY;
             case TU:
-                return Time.TUESDAY;
+                return DayOfWeek.TUESDAY;
             case WE:
-                return Time.WEDNESDAY;
+                return DayOfWeek.WEDNESDAY;
             case TH:
-                return Time.THURSDAY;
+                return DayOfWeek.THURSDAY;
             case FR:
-                return Time.FRIDAY;
+                return DayOfWeek.FRIDAY;
             case SA:
-                return Time.SATURDAY;
+                return DayOfWeek.SATURDAY;
             default:
                 throw new RuntimeException("bad day of week: " + day);
         }
@@ -351,7 +334,7 @@ public class EventRecurrence {
                 break;
         }
 
-        if (!TextUtils.isEmpty(this.until)) {
+        if (this.until != null && !this.until.isEmpty()) {
             s.append(";UNTIL=");
             s.append(until);
         }
@@ -479,7 +462,7 @@ public class EventRecurrence {
 
         EventRecurrence er = (EventRecurrence) obj;
         return  (startDate == null ?
-                        er.startDate == null : Time.compare(startDate, er.startDate) == 0) &&
+                        er.startDate == null : Objects.equals(startDate, er.startDate)) &&
                 freq == er.freq &&
                 (until == null ? er.until == null : until.equals(er.until)) &&
                 count == er.count &&
@@ -602,7 +585,7 @@ public class EventRecurrence {
         }
         for (String part : parts) {
             // allow empty part (e.g., double semicolon ";;")
-            if (TextUtils.isEmpty(part)) {
+            if (part.isEmpty()) {
                 continue;
             }
             int equalIndex = part.indexOf('=');
@@ -652,7 +635,7 @@ public class EventRecurrence {
             if (ONLY_ONE_UNTIL_COUNT) {
                 throw new InvalidFormatException("Must not specify both UNTIL and COUNT: " + recur);
             } else {
-                Log.w(TAG, "Warning: rrule has both UNTIL and COUNT: " + recur);
+                Timber.tag(TAG).w("Warning: rrule has both UNTIL and COUNT: %s", recur);
             }
         }
     }
@@ -741,9 +724,9 @@ public class EventRecurrence {
             if (VALIDATE_UNTIL) {
                 try {
                     // Parse the time to validate it.  The result isn't retained.
-                    Time until = new Time();
-                    until.parse(value);
-                } catch (TimeFormatException tfe) {
+                    LocalDate.parse(value.substring(0, Math.min(value.length(), 8)),
+                            DateTimeFormatter.BASIC_ISO_DATE);
+                } catch (DateTimeParseException e) {
                     throw new InvalidFormatException("Invalid UNTIL value: " + value);
                 }
             }
@@ -756,7 +739,7 @@ public class EventRecurrence {
         @Override public int parsePart(String value, EventRecurrence er) {
             er.count = parseIntRange(value, Integer.MIN_VALUE, Integer.MAX_VALUE, true);
             if (er.count < 0) {
-                Log.d(TAG, "Invalid Count. Forcing COUNT to 1 from " + value);
+                Timber.tag(TAG).d("Invalid Count. Forcing COUNT to 1 from %s", value);
                 er.count = 1; // invalid count. assume one time recurrence.
             }
             return PARSED_COUNT;
@@ -767,7 +750,7 @@ public class EventRecurrence {
         @Override public int parsePart(String value, EventRecurrence er) {
             er.interval = parseIntRange(value, Integer.MIN_VALUE, Integer.MAX_VALUE, true);
             if (er.interval < 1) {
-                Log.d(TAG, "Invalid Interval. Forcing INTERVAL to 1 from " + value);
+                Timber.tag(TAG).d("Invalid Interval. Forcing INTERVAL to 1 from %s", value);
                 er.interval = 1;
             }
             return PARSED_INTERVAL;
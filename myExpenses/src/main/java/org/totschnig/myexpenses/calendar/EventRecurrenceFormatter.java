@@ -25,6 +25,7 @@ import android.util.TimeFormatException;
 import org.totschnig.myexpenses.R;
 
 import java.text.SimpleDateFormat;
+import java.time.ZoneId;
 import java.util.Calendar;
 
 public class EventRecurrenceFormatter
@@ -98,7 +99,7 @@ public class EventRecurrenceFormatter
                             return null;
                         }
 
-                        int day = EventRecurrence.timeDay2Day(recurrence.startDate.weekDay);
+                        int day = EventRecurrence.dayOfWeek2Day(recurrence.startDate.getDayOfWeek());
                         string = dayToString(day, DateUtils.LENGTH_LONG);
                     }
                     return r.getQuantityString(R.plurals.weekly, interval, interval, string)
@@ -109,10 +110,10 @@ public class EventRecurrenceFormatter
                 StringBuilder sb = new StringBuilder();
                 sb.append(r.getQuantityString(R.plurals.monthly, interval, interval));
                 if (recurrence.bydayCount == 1) {
-                    int weekday = recurrence.startDate.weekDay;
+                    int weekday = recurrence.startDate.getDayOfWeek().getValue() % 7;
                     // Cache this stuff so we won't have to redo work again later.
                     cacheMonthRepeatStrings(r, weekday);
-                    int dayNumber = (recurrence.startDate.monthDay - 1) / 7;
+                    int dayNumber = (recurrence.startDate.getDayOfMonth() - 1) / 7;
                     sb.append(" (");
                     sb.append(mMonthRepeatByDayOfWeekStrs[weekday][dayNumber]);
                     sb.append(")");
@@ -123,14 +124,15 @@ public class EventRecurrenceFormatter
                     sb.append(")");
                 }
                 else {
-                    sb.append(r.getString(R.string.monthly_on_day, String.valueOf(recurrence.startDate.monthDay)));
+                    sb.append(r.getString(R.string.monthly_on_day, String.valueOf(recurrence.startDate.getDayOfMonth())));
                 }
                 sb.append(endString);
                 return sb.toString();
             }
             case EventRecurrence.YEARLY:
                 return r.getQuantityString(R.plurals.yearly, interval, interval) + r.getString(R.string.yearly_on_day,
-                    DateUtils.formatDateTime(context, recurrence.startDate.toMillis(false), 0))
+                    DateUtils.formatDateTime(context,
+                        recurrence.startDate.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli(), 0))
                   + endString;
         }
 
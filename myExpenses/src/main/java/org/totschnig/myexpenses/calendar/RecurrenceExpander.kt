@@ -0,0 +1,266 @@
+package org.totschnig.myexpenses.calendar
+
+import java.time.DayOfWeek
+import java.time.Instant
+import java.time.LocalDate
+import java.time.LocalDateTime
+import java.time.ZoneId
+import java.time.ZoneOffset
+import java.time.ZonedDateTime
+import java.time.format.DateTimeFormatter
+import java.time.temporal.ChronoUnit
+import java.time.temporal.TemporalAdjusters
+
+/**
+ * Computes the instances of recurring events without the help of the Calendar provider.
+ * Supports the subset of RFC 5545 that is relevant for plans, i.e. DAILY, WEEKLY, MONTHLY and
+ * YEARLY rules with INTERVAL, COUNT, UNTIL, BYDAY, BYMONTHDAY, BYMONTH, BYSETPOS and WKST, as well
+ * as EXDATE. Rules using other parts are reported as not [isSupported], callers should fall back
+ * to the Calendar provider for them.
+ */
+object RecurrenceExpander {
+
+    data class Event(
+        val id: Long,
+        /**
+         * epoch millis
+         */
+        val dtStart: Long,
+        val rRule: String?,
+        val exDate: String? = null,
+        val zoneId: ZoneId = ZoneId.systemDefault(),
+        /**
+         * begin (epoch millis) of instances that have been replaced by exception events
+         */
+        val excluded: Set<Long> = emptySet()
+    )
+
+    /**
+     * [begin] in epoch millis
+     */
+    data class Instance(val eventId: Long, val begin: Long)
+
+    private val untilDateTime = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss")
+    private val untilDate = DateTimeFormatter.ofPattern("yyyyMMdd")
+
+    fun parse(rRule: String) = EventRecurrence().apply { parse(rRule) }
+
+    fun isSupported(recurrence: EventRecurrence) = with(recurrence) {
+        freq in EventRecurrence.DAILY..EventRecurrence.YEARLY &&
+                bysecondCount == 0 && byminuteCount == 0 && byhourCount == 0 &&
+                byyeardayCount == 0 && byweeknoCount == 0
+    }
+
+    fun isSupported(event: Event) = try {
+        event.rRule.isNullOrEmpty() || isSupported(parse(event.rRule))
+    } catch (e: EventRecurrence.InvalidFormatException) {
+        false
+    }
+
+    /**
+     * Expands all [events] in one pass.
+     * @return instances beginning between [from] and [to] (epoch millis, both inclusive),
+     * ordered by begin
+     */
+    fun expandAll(events: Collection<Event>, from: Long, to: Long): List<Instance> =
+        events.flatMap { event ->
+            expand(event, from, to).map { Instance(event.id, it) }
+        }.sortedWith(compareBy({ it.begin }, { it.eventId }))
+
+    /**
+     * @return begin (epoch millis) of instances of [event] between [from] and [to] (both inclusive)
+     * @throws UnsupportedOperationException if the rule is not [isSupported]
+     */
+    fun expand(event: Event, from: Long, to: Long): List<Long> {
+        val start = ZonedDateTime.ofInstant(
+            Instant.ofEpochMilli(event.dtStart),
+            event.zoneId
+        )
+        if (event.rRule.isNullOrEmpty()) {
+            return if (event.dtStart in from..to) listOf(event.dtStart) else emptyList()
+        }
+        val recurrence = parse(event.rRule)
+        if (!isSupported(recurrence)) throw UnsupportedOperationException(event.rRule)
+        val excluded = parseExDates(event.exDate, event.zoneId) + event.excluded
+        val result = mutableListOf<Long>()
+        occurrences(recurrence, start.toLocalDateTime(), event.zoneId, from, to)
+            .map { it.atZone(event.zoneId).toInstant().toEpochMilli() }
+            .takeWhile { it <= to }
+            .filter { it >= from && it !in excluded }
+            .toCollection(result)
+        return result
+    }
+
+    private fun parseExDates(exDate: String?, zoneId: ZoneId): Set<Long> = exDate
+        ?.split(',', '\n')
+        ?.map { it.substringAfter(':').trim() }
+        ?.filter { it.isNotEmpty() }
+        ?.mapNotNull { value ->
+            try {
+                if (value.endsWith('Z')) {
+                    LocalDateTime.parse(value.dropLast(1), untilDateTime)
+                        .toInstant(ZoneOffset.UTC).toEpochMilli()
+                } else {
+                    LocalDateTime.parse(value, untilDateTime)
+                        .atZone(zoneId).toInstant().toEpochMilli()
+                }
+            } catch (e: Exception) {
+                null
+            }
+        }?.toSet() ?: emptySet()
+
+    private fun parseUntil(until: String?, zoneId: ZoneId): LocalDateTime? = until?.let {
+        when {
+            it.length == 8 -> LocalDate.parse(it, untilDate).atTime(23, 59, 59)
+            it.endsWith('Z') -> LocalDateTime.parse(it.dropLast(1), untilDateTime)
+                .atZone(ZoneOffset.UTC).withZoneSameInstant(zoneId).toLocalDateTime()
+            else -> LocalDateTime.parse(it, untilDateTime)
+        }
+    }
+
+    /**
+     * Lazily generates occurrences in local time, starting with [start], which by definition
+     * is the first one, stopping at COUNT, UNTIL or once a period starts after [to]. Without COUNT,
+     * periods before [from] are skipped, so that the cost depends on the size of the window, not
+     * on the age of the event.
+     */
+    private fun occurrences(
+        recurrence: EventRecurrence,
+        start: LocalDateTime,
+        zoneId: ZoneId,
+        from: Long,
+        to: Long
+    ): Sequence<LocalDateTime> = sequence {
+        val interval = recurrence.interval.coerceAtLeast(1).toLong()
+        val until = parseUntil(recurrence.until, zoneId)
+        val limit = LocalDateTime.ofInstant(Instant.ofEpochMilli(to), zoneId)
+        val time = start.toLocalTime()
+        val startDate = start.toLocalDate()
+        val unit = when (recurrence.freq) {
+            EventRecurrence.DAILY -> ChronoUnit.DAYS
+            EventRecurrence.WEEKLY -> ChronoUnit.WEEKS
+            EventRecurrence.MONTHLY -> ChronoUnit.MONTHS
+            else -> ChronoUnit.YEARS
+        }
+        var period = periodStart(recurrence, startDate)
+        var count = 0
+        yield(start)
+        count++
+        if (recurrence.count <= 0) {
+            val fromDate = LocalDateTime.ofInstant(Instant.ofEpochMilli(from), zoneId).toLocalDate()
+            val skip = unit.between(period, periodStart(recurrence, fromDate)) / interval * interval
+            if (skip > 0) period = period.plus(skip, unit)
+        }
+        while (true) {
+            if (recurrence.count in 1..count) break
+            if (period.atStartOfDay().isAfter(limit)) break
+            for (date in candidates(recurrence, period, startDate)) {
+                if (!date.isAfter(startDate)) continue
+                val occurrence = date.atTime(time)
+                if (until != null && occurrence.isAfter(until)) return@sequence
+                yield(occurrence)
+                count++
+                if (recurrence.count in 1..count) return@sequence
+            }
+            period = period.plus(interval, unit)
+        }
+    }
+
+    private fun weekStart(recurrence: EventRecurrence) =
+        if (recurrence.wkst == 0) DayOfWeek.MONDAY else EventRecurrence.day2DayOfWeek(recurrence.wkst)
+
+    private fun periodStart(recurrence: EventRecurrence, date: LocalDate): LocalDate =
+        when (recurrence.freq) {
+            EventRecurrence.DAILY -> date
+            EventRecurrence.WEEKLY -> date.with(TemporalAdjusters.previousOrSame(weekStart(recurrence)))
+            EventRecurrence.MONTHLY -> date.withDayOfMonth(1)
+            else -> date.withDayOfYear(1)
+        }
+
+    private fun weekdays(recurrence: EventRecurrence) = (0 until recurrence.bydayCount).map {
+        EventRecurrence.day2DayOfWeek(recurrence.byday[it]) to recurrence.bydayNum[it]
+    }
+
+    private fun EventRecurrence.monthMatches(date: LocalDate) =
+        bymonthCount == 0 || (0 until bymonthCount).any { bymonth[it] == date.monthValue }
+
+    private fun EventRecurrence.monthDayMatches(date: LocalDate) =
+        bymonthdayCount == 0 || (0 until bymonthdayCount).any {
+            val day = bymonthday[it]
+            if (day > 0) date.dayOfMonth == day else date.lengthOfMonth() + day + 1 == date.dayOfMonth
+        }
+
+    /**
+     * Days within [from]..[to] matching BYDAY, where ordinals count within that range
+     */
+    private fun daysMatchingWeekdays(
+        weekdays: List<Pair<DayOfWeek, Int>>,
+        from: LocalDate,
+        to: LocalDate
+    ): List<LocalDate> = weekdays.flatMap { (dayOfWeek, ordinal) ->
+        val all = generateSequence(from.with(TemporalAdjusters.nextOrSame(dayOfWeek))) {
+            it.plusWeeks(1)
+        }.takeWhile { !it.isAfter(to) }.toList()
+        when {
+            ordinal == 0 -> all
+            ordinal > 0 -> listOfNotNull(all.getOrNull(ordinal - 1))
+            else -> listOfNotNull(all.getOrNull(all.size + ordinal))
+        }
+    }
+
+    private fun daysOfMonth(recurrence: EventRecurrence, month: LocalDate, startDate: LocalDate) =
+        with(recurrence) {
+            val last = month.withDayOfMonth(month.lengthOfMonth())
+            when {
+                bydayCount > 0 -> daysMatchingWeekdays(weekdays(this), month, last)
+                    .filter { monthDayMatches(it) }
+                bymonthdayCount > 0 -> (0 until bymonthdayCount).mapNotNull {
+                    val day = bymonthday[it]
+                    val dayOfMonth = if (day > 0) day else month.lengthOfMonth() + day + 1
+                    if (dayOfMonth in 1..month.lengthOfMonth()) month.withDayOfMonth(dayOfMonth) else null
+                }
+                startDate.dayOfMonth <= month.lengthOfMonth() ->
+                    listOf(month.withDayOfMonth(startDate.dayOfMonth))
+                else -> emptyList()
+            }
+        }
+
+    private fun candidates(
+        recurrence: EventRecurrence,
+        period: LocalDate,
+        startDate: LocalDate
+    ): List<LocalDate> = with(recurrence) {
+        val days = when (freq) {
+            EventRecurrence.DAILY -> listOf(period).filter { date ->
+                monthDayMatches(date) &&
+                        (bydayCount == 0 || weekdays(this).any { it.first == date.dayOfWeek })
+            }
+
+            EventRecurrence.WEEKLY -> {
+                val days = if (bydayCount > 0) weekdays(this).map { it.first }.toSet()
+                else setOf(startDate.dayOfWeek)
+                (0L..6L).map { period.plusDays(it) }.filter { it.dayOfWeek in days }
+            }
+
+            EventRecurrence.MONTHLY -> daysOfMonth(this, period, startDate)
+
+            else -> when {
+                bymonthCount == 0 && bydayCount > 0 && bymonthdayCount == 0 ->
+                    daysMatchingWeekdays(weekdays(this), period, period.withDayOfYear(period.lengthOfYear()))
+
+                else -> (if (bymonthCount == 0) listOf(startDate.monthValue)
+                else (0 until bymonthCount).map { bymonth[it] }).flatMap {
+                    val month = period.withMonth(it)
+                    if (bymonthdayCount == 0 && bydayCount == 0) {
+                        if (startDate.dayOfMonth <= month.lengthOfMonth())
+                            listOf(month.withDayOfMonth(startDate.dayOfMonth)) else emptyList()
+                    } else daysOfMonth(this, month, startDate)
+                }
+            }
+        }.filter { monthMatches(it) }.distinct().sorted()
+        if (bysetposCount == 0) days else (0 until bysetposCount).mapNotNull {
+            val pos = bysetpos[it]
+            if (pos > 0) days.getOrNull(pos - 1) else days.getOrNull(days.size + pos)
+        }.distinct().sorted()
+    }
+}
@@ -1,25 +1,25 @@
 package org.totschnig.myexpenses.compose
 
-import androidx.compose.animation.AnimatedVisibility
 import androidx.compose.foundation.ExperimentalFoundationApi
 import androidx.compose.foundation.background
 import androidx.compose.foundation.clickable
 import androidx.compose.foundation.combinedClickable
 import androidx.compose.foundation.layout.*
 import androidx.compose.foundation.lazy.LazyColumn
-import androidx.compose.foundation.lazy.itemsIndexed
-import androidx.compose.foundation.shape.RoundedCornerShape
+import androidx.compose.foundation.lazy.items
 import androidx.compose.material3.Divider
 import androidx.compose.material3.Text
 import androidx.compose.runtime.Composable
+import androidx.compose.runtime.Immutable
 import androidx.compose.runtime.MutableState
+import androidx.compose.runtime.derivedStateOf
+import androidx.compose.runtime.getValue
 import androidx.compose.runtime.mutableStateListOf
 import androidx.compose.runtime.mutableStateOf
 import androidx.compose.runtime.remember
 import androidx.compose.runtime.snapshots.SnapshotStateList
 import androidx.compose.ui.Alignment
 import androidx.compose.ui.Modifier
-import androidx.compose.ui.draw.clip
 import androidx.compose.ui.graphics.Color
 import androidx.compose.ui.platform.testTag
 import androidx.compose.ui.res.colorResource
@@ -45,93 +45,108 @@ val Byte?.asColor: Color
         else -> Color.Unspecified
     }
 
+/**
+ * A visible row of the category tree, see [flattenTree]
+ */
+@Immutable
+data class FlatCategory(
+    val category: Category,
+    /**
+     * the outermost selected ancestor, which is toggled instead of the category itself
+     */
+    val selectedAncestor: Category?,
+    val isInSelectedTree: Boolean,
+    val showDivider: Boolean
+)
+
+/**
+ * Flattens the expanded part of the tree into the list of rows, in the order they are rendered.
+ * Only expanded nodes are visited, so that the cost depends on the number of visible rows.
+ */
+fun flattenTree(
+    root: Category,
+    expansionMode: ExpansionMode,
+    choiceMode: ChoiceMode,
+    excludedSubTree: Long? = null,
+    withRoot: Boolean = false
+): List<FlatCategory> {
+    val rows = mutableListOf<FlatCategory>()
+    fun visit(
+        category: Category,
+        selectedAncestor: Category?,
+        isInSelectedTree: Boolean,
+        isRow: Boolean
+    ) {
+        if (isRow) {
+            rows.add(FlatCategory(category, selectedAncestor, isInSelectedTree, false))
+            if (!expansionMode.isExpanded(category.id)) return
+        }
+        val childAncestor = selectedAncestor
+            ?: if (category.level > 0 && choiceMode.isSelected(category.id)) category else null
+        category.children.forEach {
+            if (it.id != excludedSubTree) {
+                visit(it, childAncestor, isInSelectedTree || choiceMode.isTreeSelected(it.id), true)
+            }
+        }
+    }
+    visit(root, null, withRoot && choiceMode.isTreeSelected(root.id), withRoot)
+    //top level categories are separated by dividers
+    rows.forEachIndexed { index, row ->
+        if (index < rows.lastIndex && rows[index + 1].category.level == 1 && row.category.level > 0) {
+            rows[index] = row.copy(showDivider = true)
+        }
+    }
+    return rows
+}
+
+@OptIn(ExperimentalFoundationApi::class)
 @Composable
 fun Category(
     modifier: Modifier = Modifier,
     category: Category,
     expansionMode: ExpansionMode,
     menuGenerator: (Category) -> Menu? = { null },
-    selectedAncestor: Category? = null,
     choiceMode: ChoiceMode,
     excludedSubTree: Long? = null,
     withRoot: Boolean = false,
-    startPadding: Dp = 0.dp,
     sumCurrency: CurrencyUnit? = null,
     withTypeColors: Boolean = true
 ) {
     val activatedBackgroundColor = colorResource(id = R.color.activatedBackground)
-
-    Column(
-        modifier = modifier.conditional(choiceMode.isTreeSelected(category.id)) {
-            padding(2.dp)
-                .clip(RoundedCornerShape(15.dp))
-                .background(activatedBackgroundColor)
-        }
+    val rows = flattenTree(category, expansionMode, choiceMode, excludedSubTree, withRoot)
+    LazyColumn(
+        modifier = modifier
+            .testTag(TEST_TAG_LIST)
+            .semantics {
+                collectionInfo = CollectionInfo(1, category.children.size)
+            },
+        verticalArrangement = Arrangement.Center
     ) {
-        val filteredChildren =
-            if (excludedSubTree == null) category.children else category.children.filter { it.id != excludedSubTree }
-        val subTreePadding = startPadding + 12.dp
-        if (withRoot || category.level > 0) {
-            CategoryRenderer(
-                category = category,
-                expansionMode = expansionMode,
-                choiceMode = choiceMode,
-                menuGenerator = menuGenerator,
-                startPadding = startPadding,
-                onToggleSelection = {
-                    choiceMode.toggleSelection(selectedAncestor, category)
-                },
-                sumCurrency = sumCurrency,
-                withTypeColors = withTypeColors
-            )
-        }
-        if (category.level > 0) {
-            AnimatedVisibility(visible = expansionMode.isExpanded(category.id)) {
-                Column(
-                    verticalArrangement = Arrangement.Center
-                ) {
-                    filteredChildren.forEach { model ->
-                        Category(
-                            category = model,
-                            expansionMode = expansionMode,
-                            menuGenerator = menuGenerator,
-                            selectedAncestor = selectedAncestor
-                                ?: if (choiceMode.isSelected(category.id)) category else null,
-                            choiceMode = choiceMode,
-                            excludedSubTree = excludedSubTree,
-                            startPadding = subTreePadding,
-                            sumCurrency = sumCurrency,
-                            withTypeColors = withTypeColors
-                        )
-                    }
-                }
-            }
-        } else if (!withRoot || expansionMode.isExpanded(category.id)) {
-            LazyColumn(
+        items(
+            items = rows,
+            key = { it.category.id }
+        ) { row ->
+            Column(
                 modifier = Modifier
-                    .testTag(TEST_TAG_LIST)
-                    .semantics {
-                        collectionInfo = CollectionInfo(1, filteredChildren.size)
-                    },
-                verticalArrangement = Arrangement.Center
-            ) {
-                itemsIndexed(
-                    items = filteredChildren,
-                    key = { _, item -> item.id }
-                ) { index, item ->
-                    Category(
-                        category = item,
-                        expansionMode = expansionMode,
-                        menuGenerator = menuGenerator,
-                        choiceMode = choiceMode,
-                        excludedSubTree = excludedSubTree,
-                        startPadding = subTreePadding,
-                        sumCurrency = sumCurrency,
-                        withTypeColors = withTypeColors
-                    )
-                    if (index < filteredChildren.lastIndex) {
-                        Divider()
+                    .animateItemPlacement()
+                    .conditional(row.isInSelectedTree) {
+                        background(activatedBackgroundColor)
                     }
+            ) {
+                CategoryRenderer(
+                    category = row.category,
+                    expansionMode = expansionMode,
+                    choiceMode = choiceMode,
+                    menuGenerator = menuGenerator,
+                    startPadding = 12.dp * row.category.level,
+                    onToggleSelection = {
+                        choiceMode.toggleSelection(row.selectedAncestor, row.category)
+                    },
+                    sumCurrency = sumCurrency,
+                    withTypeColors = withTypeColors
+                )
+                if (row.showDivider) {
+                    Divider()
                 }
             }
         }
@@ -322,21 +337,26 @@ interface ExpansionMode {
     fun isExpanded(id: Long): Boolean
     fun toggle(category: Category)
     abstract class MultiExpand(val state: SnapshotStateList<Long>) : ExpansionMode {
+        /**
+         * hash based lookup, rebuilt only when [state] changes
+         */
+        protected val ids by derivedStateOf { state.toHashSet() }
         override fun toggle(category: Category) {
             state.toggle(category.id)
         }
     }
 
     class DefaultExpanded(state: SnapshotStateList<Long>) : MultiExpand(state) {
-        override fun isExpanded(id: Long) = !state.contains(id)
+        override fun isExpanded(id: Long) = !ids.contains(id)
     }
 
     class DefaultCollapsed(state: SnapshotStateList<Long>) : MultiExpand(state) {
-        override fun isExpanded(id: Long) = state.contains(id)
+        override fun isExpanded(id: Long) = ids.contains(id)
     }
 
     open class Single(val state: SnapshotStateList<Category>) : ExpansionMode {
-        override fun isExpanded(id: Long) = state.any { it.id == id }
+        private val ids by derivedStateOf { state.mapTo(HashSet()) { it.id } }
+        override fun isExpanded(id: Long) = ids.contains(id)
         override fun toggle(category: Category) {
             val isExpanded = isExpanded(category.id)
             state.removeRange(state.indexOfFirst { it.id == category.parentId } + 1, state.size)
@@ -363,7 +383,8 @@ sealed class ChoiceMode(
 
     class MultiChoiceMode(val selectionState: SnapshotStateList<Category>, selectTree: Boolean) :
         ChoiceMode(selectTree) {
-        override fun isSelected(id: Long) = selectionState.any { it.id == id }
+        private val selectedIds by derivedStateOf { selectionState.mapTo(HashSet()) { it.id } }
+        override fun isSelected(id: Long) = selectedIds.contains(id)
         override fun toggleSelection(selectedAncestor: Category?, category: Category) {
             (selectedAncestor ?: category).let {
                 if (selectionState.toggle(it)) {
@@ -14,7 +14,6 @@ import androidx.compose.runtime.LaunchedEffect
 import androidx.compose.runtime.MutableState
 import androidx.compose.runtime.State
 import androidx.compose.runtime.collectAsState
-import androidx.compose.runtime.mutableStateOf
 import androidx.compose.runtime.remember
 import androidx.compose.ui.Alignment
 import androidx.compose.ui.Modifier
@@ -28,7 +27,6 @@ import androidx.compose.ui.res.stringResource
 import androidx.compose.ui.semantics.CollectionInfo
 import androidx.compose.ui.semantics.collectionInfo
 import androidx.compose.ui.semantics.semantics
-import androidx.compose.ui.text.style.TextAlign
 import androidx.compose.ui.tooling.preview.Preview
 import androidx.compose.ui.unit.TextUnit
 import androidx.compose.ui.unit.TextUnitType
@@ -45,52 +43,15 @@ import org.totschnig.myexpenses.model.SortDirection
 import org.totschnig.myexpenses.model.Transfer
 import org.totschnig.myexpenses.provider.DatabaseConstants
 import org.totschnig.myexpenses.util.formatMoney
-import org.totschnig.myexpenses.util.localDateTime2Epoch
 import org.totschnig.myexpenses.viewmodel.data.*
 import timber.log.Timber
 import java.text.DecimalFormat
 import java.time.LocalDate
-import java.time.LocalDateTime
 import java.time.ZoneId
 import java.time.ZonedDateTime
-import java.time.temporal.ChronoUnit
 import kotlin.math.absoluteValue
 import kotlin.math.roundToInt
 
-private fun LazyPagingItems<Transaction2>.getCurrentPosition(
-    startIndex: Pair<Int, Int>,
-    sortDirection: SortDirection,
-    headerData: HeaderDataResult,
-    collapsedIds: Set<String>
-): Pair<Pair<Int, Int>?, Boolean> {
-    var (index, visibleIndex) = startIndex
-    var lastHeader: Int? = null
-    val limit = when (sortDirection) {
-        SortDirection.ASC -> localDateTime2Epoch(
-            LocalDateTime.now().truncatedTo(ChronoUnit.DAYS)
-        ) //startOfToday
-        SortDirection.DESC -> localDateTime2Epoch(
-            LocalDateTime.now().truncatedTo(ChronoUnit.DAYS).plusDays(1)
-        ) //endOfToday
-    }
-    while (index < itemCount) {
-        val transaction2 = get(index) ?: return null to true
-        val comparisonResult = transaction2._date.compareTo(limit)
-        if ((sortDirection == SortDirection.ASC && comparisonResult > 0) || sortDirection == SortDirection.DESC && comparisonResult < 0) {
-            return (index to visibleIndex) to true
-        }
-        val headerId = headerData.calculateGroupId(transaction2)
-        if (headerId != lastHeader) {
-            visibleIndex++
-            lastHeader = headerId
-        }
-        val isVisible = !collapsedIds.contains(headerId.toString())
-        index++
-        if (isVisible) visibleIndex++
-    }
-    return (index to visibleIndex) to false
-}
-
 const val COMMENT_SEPARATOR = " / "
 
 enum class FutureCriterion {
@@ -128,158 +89,119 @@ fun TransactionList(
         }
     } else {
         val futureBackgroundColor = colorResource(id = R.color.future_background)
-        val scrollToCurrentDateStartIndex = remember {
-            mutableStateOf(if (scrollToCurrentDate.value) 0 to 0 else null)
-        }
-        val scrollToCurrentDateResultIndex = remember {
-            mutableStateOf(0)
-        }
-        LaunchedEffect(lazyPagingItems.loadState.append.endOfPaginationReached) {
-            if (lazyPagingItems.loadState.append.endOfPaginationReached) {
-                scrollToCurrentDateStartIndex.value?.let {
-                    scrollToCurrentDateResultIndex.value = it.second
-                    scrollToCurrentDateStartIndex.value = null
-                }
-            }
-        }
-        if (lazyPagingItems.itemCount > 0 && collapsedIds != null) {
-            scrollToCurrentDateStartIndex.value?.let {
-                LaunchedEffect(lazyPagingItems.itemCount) {
-                    val scrollCalculationResult = lazyPagingItems.getCurrentPosition(
-                        startIndex = it,
-                        sortDirection = headerData.account.sortDirection,
-                        headerData = headerData,
-                        collapsedIds = collapsedIds
-                    )
-                    scrollToCurrentDateStartIndex.value =
-                        if (scrollCalculationResult.second || lazyPagingItems.loadState.append.endOfPaginationReached) {
-                            scrollToCurrentDateResultIndex.value =
-                                scrollCalculationResult.first?.second ?: 0
-                            null
-                        } else scrollCalculationResult.first
-                }
-            }
-        }
         val headerCorrection =
             with(LocalDensity.current) { TextUnit(59f, TextUnitType.Sp).toPx() }.roundToInt()
-        if (scrollToCurrentDateStartIndex.value == null) {
-            if (scrollToCurrentDate.value) {
-                LaunchedEffect(Unit) {
-                    Timber.i(
-                        "Scroll to current date result: %d",
-                        scrollToCurrentDateResultIndex.value
-                    )
-                    listState.scrollToItem(scrollToCurrentDateResultIndex.value, -headerCorrection)
-                    scrollToCurrentDate.value = false
-                }
+        if (scrollToCurrentDate.value && collapsedIds != null && lazyPagingItems.loadState.refresh is LoadState.NotLoading) {
+            LaunchedEffect(Unit) {
+                //the paging source starts loading at the current date, all items before it are
+                //placeholders, that are rendered without header. The target is hence preceded by
+                //exactly one header, the one of its own group
+                val target = lazyPagingItems.itemSnapshotList.placeholdersBefore
+                Timber.i("Scroll to current date result: %d", target)
+                //the target is not rendered if its group is collapsed
+                lazyPagingItems.peek(target)?.let { headerData.calculateGroupId(it).toString() }
+                    ?.takeIf { collapsedIds.contains(it) }
+                    ?.let { expansionHandler?.toggle(it) }
+                listState.scrollToItem(if (target > 0) target + 1 else 0, -headerCorrection)
+                scrollToCurrentDate.value = false
             }
-            val headersWithSumDetails = rememberMutableStateMapOf<Int, Boolean>(
-                defaultValue = showSumDetails,
-                showSumDetails
-            )
-            LazyColumn(
-                modifier = modifier
-                    .testTag(TEST_TAG_LIST)
-                    .semantics {
-                        collectionInfo = CollectionInfo(lazyPagingItems.itemCount, 1)
-                    },
-                state = listState
-            ) {
+        }
+        val headersWithSumDetails = rememberMutableStateMapOf<Int, Boolean>(
+            defaultValue = showSumDetails,
+            showSumDetails
+        )
+        LazyColumn(
+            modifier = modifier
+                .testTag(TEST_TAG_LIST)
+                .semantics {
+                    collectionInfo = CollectionInfo(lazyPagingItems.itemCount, 1)
+                },
+            state = listState
+        ) {
 
-                var lastHeader: Int? = null
+            var lastHeader: Int? = null
 
-                for (index in 0 until lazyPagingItems.itemCount) {
-                    val item = lazyPagingItems.peek(index)
-                    val headerId = item?.let { headerData.calculateGroupId(it) }
-                    val isGroupHidden = collapsedIds?.contains(headerId.toString()) ?: false
-                    if (headerId !== null && headerId != lastHeader) {
-                        stickyHeader(key = headerId) {
-                            when (headerData) {
-                                is HeaderData -> {
-                                    headerData.groups[headerId]?.let { headerRow ->
-                                        // reimplement DbConstants.budgetColumn outside of Database
-                                        val budget = budgetData.value?.let { data ->
-                                            (data.data.find { it.headerId == headerId }
-                                                ?: data.data.lastOrNull { !it.oneTime && it.headerId < headerId })?.let {
-                                                data.budgetId to it.amount
-                                            }
-                                        }
-                                        HeaderRenderer(
-                                            account = headerData.account,
-                                            headerId = headerId,
-                                            headerRow = headerRow,
-                                            dateInfo = headerData.dateInfo,
-                                            budget = budget,
-                                            isExpanded = !isGroupHidden,
-                                            toggle = expansionHandler?.let {
-                                                { expansionHandler.toggle(headerId.toString()) }
-                                            },
-                                            onBudgetClick = onBudgetClick,
-                                            showSumDetails = headersWithSumDetails.getValue(headerId),
-                                            showOnlyDelta = headerData.account.isHomeAggregate || headerData.isFiltered
-                                        ) {
-                                            headersWithSumDetails[headerId] = it
+            for (index in 0 until lazyPagingItems.itemCount) {
+                val item = lazyPagingItems.peek(index)
+                val headerId = item?.let { headerData.calculateGroupId(it) }
+                val isGroupHidden = collapsedIds?.contains(headerId.toString()) ?: false
+                if (headerId !== null && headerId != lastHeader) {
+                    stickyHeader(key = headerId) {
+                        when (headerData) {
+                            is HeaderData -> {
+                                headerData.groups[headerId]?.let { headerRow ->
+                                    // reimplement DbConstants.budgetColumn outside of Database
+                                    val budget = budgetData.value?.let { data ->
+                                        (data.data.find { it.headerId == headerId }
+                                            ?: data.data.lastOrNull { !it.oneTime && it.headerId < headerId })?.let {
+                                            data.budgetId to it.amount
                                         }
-                                        Divider()
                                     }
+                                    HeaderRenderer(
+                                        account = headerData.account,
+                                        headerId = headerId,
+                                        headerRow = headerRow,
+                                        dateInfo = headerData.dateInfo,
+                                        budget = budget,
+                                        isExpanded = !isGroupHidden,
+                                        toggle = expansionHandler?.let {
+                                            { expansionHandler.toggle(headerId.toString()) }
+                                        },
+                                        onBudgetClick = onBudgetClick,
+                                        showSumDetails = headersWithSumDetails.getValue(headerId),
+                                        showOnlyDelta = headerData.account.isHomeAggregate || headerData.isFiltered
+                                    ) {
+                                        headersWithSumDetails[headerId] = it
+                                    }
+                                    Divider()
                                 }
+                            }
 
-                                is HeaderDataEmpty -> {}
-                                is HeaderDataError -> {
-                                    Text(
-                                        "Error loading group header data",
-                                        color = MaterialTheme.colorScheme.error
-                                    )
-                                }
+                            is HeaderDataEmpty -> {}
+                            is HeaderDataError -> {
+                                Text(
+                                    "Error loading group header data",
+                                    color = MaterialTheme.colorScheme.error
+                                )
                             }
                         }
                     }
-                    val isLast = index == lazyPagingItems.itemCount - 1
-                    val futureCriterionDate = when (futureCriterion) {
-                        FutureCriterion.Current -> ZonedDateTime.now(ZoneId.systemDefault())
-                        FutureCriterion.EndOfDay -> LocalDate.now().plusDays(1).atStartOfDay()
-                            .atZone(ZoneId.systemDefault())
-                    }
-                    if (!isGroupHidden || isLast) {
-                        item(key = item?.id) {
-                            lazyPagingItems[index]?.let {
-                                if (!isGroupHidden) {
-                                    renderer.Render(
-                                        transaction = it,
-                                        modifier = Modifier
-                                            .animateItemPlacement()
-                                            .conditional(it.date >= futureCriterionDate) {
-                                                background(futureBackgroundColor)
-                                            },
-                                        selectionHandler = selectionHandler,
-                                        menuGenerator = menuGenerator
-                                    )
-                                }
+                }
+                val isLast = index == lazyPagingItems.itemCount - 1
+                val futureCriterionDate = when (futureCriterion) {
+                    FutureCriterion.Current -> ZonedDateTime.now(ZoneId.systemDefault())
+                    FutureCriterion.EndOfDay -> LocalDate.now().plusDays(1).atStartOfDay()
+                        .atZone(ZoneId.systemDefault())
+                }
+                if (!isGroupHidden || isLast) {
+                    item(key = item?.id) {
+                        lazyPagingItems[index]?.let {
+                            if (!isGroupHidden) {
+                                renderer.Render(
+                                    transaction = it,
+                                    modifier = Modifier
+                                        .animateItemPlacement()
+                                        .conditional(it.date >= futureCriterionDate) {
+                                            background(futureBackgroundColor)
+                                        },
+                                    selectionHandler = selectionHandler,
+                                    menuGenerator = menuGenerator
+                                )
                             }
-                            if (isLast) {
-                                GroupDivider(
-                                    modifier = Modifier.padding(
-                                        bottom = dimensionResource(
-                                            id = R.dimen.fab_related_bottom_padding
-                                        )
+                        }
+                        if (isLast) {
+                            GroupDivider(
+                                modifier = Modifier.padding(
+                                    bottom = dimensionResource(
+                                        id = R.dimen.fab_related_bottom_padding
                                     )
                                 )
-                            } else Divider()
-                        }
+                            )
+                        } else Divider()
                     }
-
-                    lastHeader = headerId
                 }
-            }
-        } else {
-            Box(modifier.fillMaxWidth(), contentAlignment = Alignment.Center) {
-                Text(
-                    text = listOf(
-                        stringResource(id = R.string.pref_scroll_to_current_date_summary),
-                        stringResource(id = R.string.loading),
-                        "(${scrollToCurrentDateStartIndex.value?.first})"
-                    ).joinToString("\n"), textAlign = TextAlign.Center
-                )
+
+                lastHeader = headerId
             }
         }
     }
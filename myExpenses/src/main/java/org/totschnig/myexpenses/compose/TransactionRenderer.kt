@@ -61,7 +61,7 @@ abstract class ItemRenderer(
             if (isSplit) {
                 append(context.getString(R.string.split_transaction))
             } else if (forLegacy && !isTransfer && catId == null &&
-                status != DatabaseConstants.STATUS_HELPER
+                status != DatabaseConstants.STATUS_HELPER && status != DatabaseConstants.STATUS_ARCHIVE
             ) {
                 append(NO_CATEGORY_ASSIGNED_LABEL)
             } else {
@@ -1,7 +1,11 @@
 package org.totschnig.myexpenses.db2
 
+import android.content.ContentProviderOperation
 import org.apache.commons.text.translate.UnicodeUnescaper
 import org.totschnig.myexpenses.model2.Category
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_LABEL
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PARENTID
+import org.totschnig.myexpenses.provider.TransactionProvider
 
 object CategoryHelper {
     private val unicodeEscaper = UnicodeUnescaper()
@@ -31,6 +35,52 @@ object CategoryHelper {
         return countInserted
     }
 
+    /**
+     * Like [insert], but categories that do not exist yet are not written to the database, instead
+     * operations inserting them are appended to [ops], so that they are created in the same batch
+     * as the transactions referring to them.
+     * @param newCategories maps the path of the categories inserted by [ops] to the position of
+     * their operation, to be used as back reference
+     */
+    fun buildInsertOperations(
+        repository: Repository,
+        name: String,
+        categoryToId: MutableMap<String, Long>,
+        newCategories: MutableMap<String, Int>,
+        ops: MutableList<ContentProviderOperation>
+    ) {
+        var parentId: Long? = null
+        var parentOffset: Int? = null
+        var path = ""
+        parse(name).forEach {
+            if (path.isNotEmpty()) path += ":"
+            path += it
+            val unescaped = unicodeEscaper.translate(it)
+            //below a new category, there can only be new categories
+            val id = categoryToId[path] ?: if (parentOffset == null && path !in newCategories) {
+                repository.findCategory(unescaped, parentId).takeIf { found -> found != -1L }
+                    ?.also { found -> categoryToId[path] = found }
+            } else null
+            when {
+                id != null -> {
+                    parentId = id
+                }
+                path in newCategories -> {
+                    parentOffset = newCategories.getValue(path)
+                }
+                else -> {
+                    val builder = ContentProviderOperation.newInsert(TransactionProvider.CATEGORIES_URI)
+                        .withValue(KEY_LABEL, unescaped)
+                    parentOffset?.let { offset -> builder.withValueBackReference(KEY_PARENTID, offset) }
+                        ?: builder.withValue(KEY_PARENTID, parentId)
+                    parentOffset = ops.size
+                    newCategories[path] = ops.size
+                    ops.add(builder.build())
+                }
+            }
+        }
+    }
+
     private fun stripCategoryClass(name: String): String {
         val i = name.indexOf('/')
         return if (i != -1) {
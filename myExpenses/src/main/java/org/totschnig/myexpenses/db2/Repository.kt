@@ -86,6 +86,15 @@ open class Repository @Inject constructor(
         }
     }
 
+    /**
+     * @return ids of debts whose balances maintained by the database do not match a full
+     * recomputation from their transactions
+     */
+    fun checkDebtBalances(): LongArray = contentResolver.call(
+        TransactionProvider.DUAL_URI,
+        TransactionProvider.METHOD_CHECK_DEBT_BALANCES, null, null
+    )?.getLongArray(TransactionProvider.KEY_RESULT) ?: LongArray(0)
+
     fun deleteTransaction(id: Long, markAsVoid: Boolean = false, inBulk: Boolean = false): Boolean {
         val ops = ArrayList<ContentProviderOperation>()
         loadAttachmentIds(id).forEach {
@@ -1,8 +1,10 @@
 package org.totschnig.myexpenses.db2
 
 import android.content.ContentProviderOperation
+import android.content.ContentResolver
 import android.content.ContentUris
 import android.content.ContentValues
+import android.os.Bundle
 import androidx.core.database.getStringOrNull
 import app.cash.copper.flow.mapToOne
 import app.cash.copper.flow.observeQuery
@@ -24,6 +26,17 @@ fun Repository.getUuidForAccount(accountId: Long) = getStringValue(accountId, KE
 fun Repository.getCurrencyForAccount(accountId: Long) = getStringValue(accountId, KEY_CURRENCY)
 fun Repository.getLabelForAccount(accountId: Long) = getStringValue(accountId, KEY_LABEL)
 
+/**
+ * @return a version that changes whenever the data of [accountId], or of any account for an
+ * aggregate account, changes
+ */
+fun ContentResolver.accountDataVersion(accountId: Long) = call(
+    TransactionProvider.DUAL_URI,
+    TransactionProvider.METHOD_ACCOUNT_DATA_VERSION,
+    null,
+    Bundle(1).apply { putLong(KEY_ACCOUNTID, accountId) }
+)!!.getString(TransactionProvider.KEY_RESULT)!!
+
 private fun Repository.getStringValue(accountId: Long, column: String): String? {
     require(accountId > 0L)
     return contentResolver.query(
@@ -196,35 +209,94 @@ private fun buildExchangeRateUri(accountId: Long, currency: String, homeCurrency
         .appendEncodedPath(currency)
         .appendEncodedPath(homeCurrency).build()
 
+const val DELETION_CHUNK_SIZE = 1000
+
 /**
+ * The account is deleted together with the last chunk of its transactions, see [deleteTransactions]
+ * @param onProgress called after each chunk of deleted transactions
  * @return syncAccountName in case account was set up for synchronization in order to allow caller
  * to update AccountManager
  */
-fun Repository.deleteAccount(accountId: Long): String? {
+fun Repository.deleteAccount(
+    accountId: Long,
+    onProgress: (deleted: Int, total: Int) -> Unit = { _, _ -> }
+): String? {
     val syncAccountName = getStringValue(accountId, KEY_SYNC_ACCOUNT_NAME)
-    val ops = java.util.ArrayList<ContentProviderOperation>()
-    val accountIdString = accountId.toString()
-    updateTransferPeersForTransactionDelete(
-        ops,
-        buildTransactionRowSelect(null),
-        arrayOf(accountIdString)
-    )
-    ops.add(
-        ContentProviderOperation.newDelete(
-            TransactionProvider.ACCOUNTS_URI.buildUpon().appendPath(accountIdString).build()
-        ).build()
-    )
-    contentResolver.applyBatch(TransactionProvider.AUTHORITY, ops)
+    deleteTransactions(accountId, null, null, onProgress = onProgress)
     return syncAccountName
 }
 
+/**
+ * Deletes transactions of an account through [TransactionDeletion]: they are hidden at once, and
+ * then removed in chunks of [chunkSize], so that the database is not blocked for the whole deletion.
+ *
+ * @param selection restricts the transactions to be deleted, if null all transactions are
+ * deleted, and the account is deleted together with the last chunk
+ * @param operations applied in the same batch as the hiding of the transactions
+ * @param onProgress called after each chunk with the number of deleted and the total number of
+ * transactions, split parts included
+ * @return the number of deleted transactions
+ */
+fun Repository.deleteTransactions(
+    accountId: Long,
+    selection: String?,
+    selectionArgs: Array<String>?,
+    operations: List<ContentProviderOperation> = emptyList(),
+    chunkSize: Int = DELETION_CHUNK_SIZE,
+    onProgress: (deleted: Int, total: Int) -> Unit = { _, _ -> }
+): Int {
+    val total = contentResolver.applyBatch(
+        TransactionProvider.AUTHORITY,
+        arrayListOf(TransactionProvider.hideForDeletion(accountId, selection, selectionArgs)).apply {
+            addAll(operations)
+        }
+    )[0].count!!
+    deleteHiddenTransactions(accountId, chunkSize) { remaining ->
+        onProgress((total - remaining).coerceAtLeast(0), total)
+    }
+    return total
+}
+
+/**
+ * Calls [TransactionProvider.METHOD_DELETE_HIDDEN_TRANSACTIONS] at least once, so that an account
+ * pending deletion is deleted even if it has no transactions.
+ */
+private fun Repository.deleteHiddenTransactions(
+    accountId: Long,
+    chunkSize: Int,
+    onChunk: (remaining: Int) -> Unit = {}
+) {
+    do {
+        val remaining = contentResolver.call(
+            TransactionProvider.DUAL_URI,
+            TransactionProvider.METHOD_DELETE_HIDDEN_TRANSACTIONS,
+            null,
+            Bundle(2).apply {
+                putLong(KEY_ACCOUNTID, accountId)
+                putInt(TransactionProvider.KEY_CHUNK_SIZE, chunkSize)
+            }
+        )!!.getInt(TransactionProvider.KEY_RESULT)
+        onChunk(remaining)
+    } while (remaining > 0)
+}
+
+/**
+ * Completes deletions started by [deleteTransactions] or [deleteAccount] that have been
+ * interrupted, e.g. because the process was killed.
+ */
+fun Repository.resumePendingDeletions() {
+    contentResolver.call(
+        TransactionProvider.DUAL_URI,
+        TransactionProvider.METHOD_PENDING_DELETIONS,
+        null,
+        null
+    )!!.getLongArray(TransactionProvider.KEY_RESULT)!!.forEach {
+        deleteHiddenTransactions(it, DELETION_CHUNK_SIZE)
+    }
+}
+
 fun Repository.markAsExported(accountId: Long, filter: WhereFilter?) {
     val ops = buildList {
-        val debtUri = TransactionProvider.DEBTS_URI
-        add(
-            ContentProviderOperation.newUpdate(debtUri).withValue(KEY_SEALED, -1)
-                .withSelection("$KEY_SEALED = 1", null).build()
-        )
         var selection =
             "$KEY_ACCOUNTID = ? AND $KEY_PARENTID is null AND $KEY_STATUS = ?"
         var selectionArgs: Array<String>? =
@@ -233,18 +305,14 @@ fun Repository.markAsExported(accountId: Long, filter: WhereFilter?) {
             selection += " AND " + filter.getSelectionForParents(TABLE_TRANSACTIONS, true)
             selectionArgs = joinArrays(selectionArgs, filter.getSelectionArgs(false))
         }
+        add(TransactionProvider.beginBulkWrite(selection, selectionArgs, KEY_STATUS))
         add(
             ContentProviderOperation.newUpdate(Transaction.CONTENT_URI)
                 .withValue(KEY_STATUS, STATUS_EXPORTED)
                 .withSelection(selection, selectionArgs)
                 .build()
         )
-        add(
-            ContentProviderOperation.newUpdate(debtUri).withValue(KEY_SEALED, 1)
-                .withSelection("$KEY_SEALED = -1", null).build()
-        )
-
-
+        add(TransactionProvider.endBulkWrite())
     }
     contentResolver.applyBatch(TransactionProvider.AUTHORITY, ArrayList(ops))
 }
@@ -275,36 +343,6 @@ fun Repository.findAnyOpen(column: String? = null, search: String? = null) = con
     null
 )?.use { if (it.moveToFirst()) it.getLong(0) else null }
 
-fun updateTransferPeersForTransactionDelete(
-    ops: java.util.ArrayList<ContentProviderOperation>,
-    rowSelect: String,
-    selectionArgs: Array<String>?
-) {
-    ops.add(
-        ContentProviderOperation.newUpdate(TransactionProvider.ACCOUNTS_URI)
-            .withValue(KEY_SEALED, -1)
-            .withSelection("$KEY_SEALED = 1", null).build()
-    )
-    val args = ContentValues().apply {
-        putNull(KEY_TRANSFER_ACCOUNT)
-        putNull(KEY_TRANSFER_PEER)
-    }
-    ops.add(
-        ContentProviderOperation.newUpdate(TransactionProvider.TRANSACTIONS_URI)
-            .withValues(args)
-            .withSelection(
-                "$KEY_TRANSFER_PEER IN ($rowSelect)",
-                selectionArgs
-            )
-            .build()
-    )
-    ops.add(
-        ContentProviderOperation.newUpdate(TransactionProvider.ACCOUNTS_URI)
-            .withValue(KEY_SEALED, 1)
-            .withSelection("$KEY_SEALED = -1", null).build()
-    )
-}
-
 fun Repository.countAccounts(selection: String? = null, selectionArgs: Array<String>? = null) =
     contentResolver.query(
         TransactionProvider.ACCOUNTS_URI, arrayOf("count(*)"),
@@ -0,0 +1,75 @@
+package org.totschnig.myexpenses.db2
+
+import android.os.Bundle
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COMMENT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PARENTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PAYEE_NAME
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.TransactionProvider
+import org.totschnig.myexpenses.provider.getLong
+import org.totschnig.myexpenses.provider.getStringOrNull
+import org.totschnig.myexpenses.provider.useAndMapToList
+import org.totschnig.myexpenses.util.epoch2LocalDate
+import java.time.LocalDate
+import java.time.ZoneId
+
+data class ArchivedTransaction(
+    val id: Long,
+    val accountId: Long,
+    val date: LocalDate,
+    val amount: Long,
+    val comment: String?,
+    val payee: String?
+)
+
+/**
+ * Moves the transactions dated before [cutoff] into the archive, see
+ * [org.totschnig.myexpenses.provider.TransactionArchive]
+ * @param comment stored as comment of the monthly rollups that replace them
+ * @return the number of archived transactions, split parts included
+ */
+fun Repository.archiveTransactions(cutoff: LocalDate, comment: String) = contentResolver.call(
+    TransactionProvider.DUAL_URI,
+    TransactionProvider.METHOD_ARCHIVE,
+    null,
+    Bundle(2).apply {
+        putLong(TransactionProvider.KEY_CUTOFF, cutoff.atStartOfDay(ZoneId.systemDefault()).toEpochSecond())
+        putString(KEY_COMMENT, comment)
+    }
+)!!.getInt(TransactionProvider.KEY_RESULT)
+
+/**
+ * @return the number of restored transactions, split parts included
+ */
+fun Repository.restoreArchive() = contentResolver.call(
+    TransactionProvider.DUAL_URI,
+    TransactionProvider.METHOD_RESTORE_ARCHIVE,
+    null,
+    null
+)!!.getInt(TransactionProvider.KEY_RESULT)
+
+/**
+ * @param search matched against comment and payee of archived transactions, split parts are not
+ * returned on their own
+ */
+//noinspection Recycle
+fun Repository.searchArchive(search: String, accountId: Long? = null) = contentResolver.query(
+    TransactionProvider.TRANSACTIONS_ARCHIVE_URI,
+    arrayOf(KEY_ROWID, KEY_ACCOUNTID, KEY_DATE, KEY_AMOUNT, KEY_COMMENT, KEY_PAYEE_NAME),
+    "$KEY_PARENTID IS NULL AND ($KEY_COMMENT LIKE ? OR $KEY_PAYEE_NAME LIKE ?)" +
+            (accountId?.let { " AND $KEY_ACCOUNTID = ?" } ?: ""),
+    listOfNotNull("%$search%", "%$search%", accountId?.toString()).toTypedArray(),
+    "$KEY_DATE DESC"
+)?.useAndMapToList {
+    ArchivedTransaction(
+        it.getLong(KEY_ROWID),
+        it.getLong(KEY_ACCOUNTID),
+        epoch2LocalDate(it.getLong(KEY_DATE)),
+        it.getLong(KEY_AMOUNT),
+        it.getStringOrNull(KEY_COMMENT),
+        it.getStringOrNull(KEY_PAYEE_NAME)
+    )
+} ?: emptyList()
@@ -3,6 +3,7 @@ package org.totschnig.myexpenses.db2
 import android.content.ContentProviderOperation
 import android.net.Uri
 import android.os.Bundle
+import org.totschnig.myexpenses.injector
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ATTACHMENT_ID
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSACTIONID
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_URI
@@ -36,6 +37,8 @@ fun Repository.deleteAttachments(transactionId: Long, attachments: List<Uri>) {
             putLong(KEY_TRANSACTIONID, transactionId)
             putStringArray(KEY_URI_LIST, attachments.map(Uri::toString).toTypedArray())
         })!!.getBoolean(KEY_RESULT)) throw IOException("Deleting attachments failed")
+    val thumbnailCache = context.injector.thumbnailCache()
+    attachments.forEach { thumbnailCache.invalidate(it) }
 }
 
 //noinspection Recycle
@@ -6,18 +6,27 @@ import android.content.ContentValues
 import android.database.Cursor
 import android.net.Uri
 import androidx.sqlite.db.SupportSQLiteDatabase
+import org.totschnig.myexpenses.model.Transaction
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ATTRIBUTE_ID
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ATTRIBUTE_NAME
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CONTEXT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSACTIONID
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_VALUE
 import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_ATTRIBUTES
+import org.totschnig.myexpenses.provider.DatabaseConstants.VIEW_COMMITTED
 import org.totschnig.myexpenses.provider.TransactionProvider
 import org.totschnig.myexpenses.provider.TransactionProvider.ACCOUNTS_ATTRIBUTES_URI
 import org.totschnig.myexpenses.provider.TransactionProvider.TRANSACTIONS_ATTRIBUTES_URI
+import org.totschnig.myexpenses.provider.getLong
+import org.totschnig.myexpenses.provider.getLongOrNull
 import org.totschnig.myexpenses.provider.getString
 import org.totschnig.myexpenses.provider.insert
 import org.totschnig.myexpenses.provider.useAndMapToList
+import timber.log.Timber
 import java.util.EnumSet
 
 interface Attribute {
@@ -101,6 +110,58 @@ fun Repository.saveAccountAttributes(accountId: Long, attributes: Map<out Attrib
     saveAttributes(ACCOUNTS_ATTRIBUTES_URI, KEY_ACCOUNTID, accountId, attributes)
 }
 
+/**
+ * Saves [transactions] together with their attributes in one batch, i.e. one database transaction
+ * @return number of saved transactions
+ */
+fun Repository.saveTransactionsWithAttributes(
+    transactions: List<Pair<Transaction, Map<out Attribute, String>>>
+): Int {
+    if (transactions.isEmpty()) return 0
+    val ops = ArrayList<ContentProviderOperation>()
+    transactions.forEach { (transaction, attributes) ->
+        val offset = ops.size
+        ops.addAll(transaction.buildSaveOperations(contentResolver, offset, -1, false, false))
+        attributes.forEach {
+            ops.add(
+                ContentProviderOperation.newInsert(TRANSACTIONS_ATTRIBUTES_URI)
+                    .withValueBackReference(KEY_TRANSACTIONID, offset)
+                    .withValue(KEY_ATTRIBUTE_NAME, it.key.name)
+                    .withValue(KEY_CONTEXT, it.key.context)
+                    .withValue(KEY_VALUE, it.value)
+                    .build()
+            )
+        }
+    }
+    contentResolver.applyBatch(TransactionProvider.AUTHORITY, ops)
+    return transactions.size
+}
+
+/**
+ * Saves those of [transactions] for which no committed transaction with the same value for
+ * [fingerprint], amount and date exists, neither in the database nor earlier in the list.
+ * Existing fingerprints are looked up once for the whole list.
+ * @return number of saved transactions
+ */
+fun Repository.saveNewTransactionsWithAttributes(
+    transactions: List<Pair<Transaction, Map<out Attribute, String>>>,
+    fingerprint: Attribute
+): Int {
+    val existing = findTransactionsByAttribute(
+        fingerprint,
+        transactions.mapNotNull { it.second[fingerprint] }
+    )
+    val seen = existing.flatMap { (value, matches) ->
+        matches.map { (amount, date) -> Triple(value, amount, date) }
+    }.toMutableSet()
+    return saveTransactionsWithAttributes(transactions.filter { (transaction, attributes) ->
+        val value = attributes[fingerprint] ?: return@filter true
+        seen.add(Triple(value, transaction.amount.amountMinor, transaction.date)).also {
+            if (!it) Timber.d("Found duplicate for %s", value)
+        }
+    })
+}
+
 private fun Repository.saveAttributes(uri: Uri, linkColumn: String, rowId: Long, attributes: Map<out Attribute, String>) {
     val ops = ArrayList<ContentProviderOperation>()
     attributes.forEach {
@@ -116,6 +177,32 @@ private fun Repository.saveAttributes(uri: Uri, linkColumn: String, rowId: Long,
     contentResolver.applyBatch(TransactionProvider.AUTHORITY, ops)
 }
 
+/**
+ * Looks up committed transactions that have [attribute] set to one of [values], using the index
+ * on attribute and value, with one query per chunk of values.
+ * @return for each value found the list of amount and date of transactions
+ */
+fun Repository.findTransactionsByAttribute(
+    attribute: Attribute,
+    values: Collection<String>
+): Map<String, List<Pair<Long, Long>>> = values.distinct().chunked(500).flatMap { chunk ->
+    contentResolver.query(
+        TRANSACTIONS_ATTRIBUTES_URI,
+        arrayOf(
+            KEY_VALUE,
+            "(SELECT $KEY_AMOUNT FROM $VIEW_COMMITTED WHERE $KEY_ROWID = $KEY_TRANSACTIONID) AS $KEY_AMOUNT",
+            "(SELECT $KEY_DATE FROM $VIEW_COMMITTED WHERE $KEY_ROWID = $KEY_TRANSACTIONID) AS $KEY_DATE"
+        ),
+        "$KEY_ATTRIBUTE_ID = (SELECT $KEY_ROWID FROM $TABLE_ATTRIBUTES WHERE $KEY_ATTRIBUTE_NAME = ? AND $KEY_CONTEXT = ?) AND $KEY_VALUE IN (${chunk.joinToString { "?" }})",
+        arrayOf(attribute.name, attribute.context, *chunk.toTypedArray()),
+        null
+    )?.useAndMapToList { cursor ->
+        cursor.getLongOrNull(KEY_AMOUNT)?.let {
+            cursor.getString(KEY_VALUE) to (it to cursor.getLong(KEY_DATE))
+        }
+    }?.filterNotNull() ?: emptyList()
+}.groupBy({ it.first }, { it.second })
+
 @SuppressLint("Recycle")
 fun Repository.loadAttributes(transactionId: Long): List<Pair<Attribute, String>> {
     return contentResolver.query(
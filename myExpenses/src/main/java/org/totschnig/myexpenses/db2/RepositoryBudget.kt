@@ -2,11 +2,15 @@ package org.totschnig.myexpenses.db2
 
 import android.content.ContentUris
 import android.net.Uri
+import android.os.Bundle
 import androidx.datastore.preferences.core.booleanPreferencesKey
 import kotlinx.coroutines.flow.first
 import org.totschnig.myexpenses.model.Grouping
 import org.totschnig.myexpenses.provider.DatabaseConstants
 import org.totschnig.myexpenses.provider.DatabaseConstants.DAY
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_BUDGETID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CATID
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_END
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SECOND_GROUP
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_START
@@ -20,6 +24,7 @@ import org.totschnig.myexpenses.provider.DatabaseConstants.getWeek
 import org.totschnig.myexpenses.provider.DatabaseConstants.getYearOfMonthStart
 import org.totschnig.myexpenses.provider.DatabaseConstants.getYearOfWeekStart
 import org.totschnig.myexpenses.provider.TransactionProvider
+import org.totschnig.myexpenses.provider.appendBooleanQueryParameter
 import org.totschnig.myexpenses.provider.filter.FilterPersistence
 import org.totschnig.myexpenses.provider.getLocalDate
 import org.totschnig.myexpenses.util.toDayOfWeek
@@ -81,6 +86,30 @@ fun budgetAllocationQueryUri(
     } else this
 }
 
+/**
+ * Saves [rollOver], a list of pairs of category id (0 for the budget total) and amount, as
+ * rollover from the period [groupingInfo] to the period [nextGrouping], see
+ * [org.totschnig.myexpenses.provider.BudgetRollover]
+ * @return the number of written allocations, two per category
+ */
+fun Repository.saveBudgetRollover(
+    budgetId: Long,
+    groupingInfo: DistributionViewModelBase.GroupingInfo,
+    nextGrouping: DistributionViewModelBase.GroupingInfo,
+    rollOver: List<Pair<Long, Long>>
+) = contentResolver.call(
+    TransactionProvider.DUAL_URI,
+    TransactionProvider.METHOD_SAVE_BUDGET_ROLLOVER,
+    null,
+    Bundle(5).apply {
+        putLong(KEY_BUDGETID, budgetId)
+        putIntArray(KEY_YEAR, intArrayOf(groupingInfo.year, nextGrouping.year))
+        putIntArray(KEY_SECOND_GROUP, intArrayOf(groupingInfo.second, nextGrouping.second))
+        putLongArray(KEY_CATID, rollOver.map { it.first }.toLongArray())
+        putLongArray(KEY_AMOUNT, rollOver.map { it.second }.toLongArray())
+    }
+)!!.getInt(TransactionProvider.KEY_RESULT)
+
 fun Repository.sumLoaderForBudget(budget: Budget, aggregateNeutral: Boolean): Triple<Uri, String, Array<String>?> {
     val sumBuilder = TransactionProvider.TRANSACTIONS_SUM_URI.buildUpon()
     budget.queryParameter?.let {
@@ -89,6 +118,9 @@ fun Repository.sumLoaderForBudget(budget: Budget, aggregateNeutral: Boolean): Tr
     sumBuilder.appendQueryParameter(TransactionProvider.QUERY_PARAMETER_AGGREGATE_NEUTRAL, aggregateNeutral.toString())
     val filterPersistence =
         FilterPersistence(prefHandler, BudgetViewModel.prefNameForCriteria(budget.id), null, false)
+    if (budget.canUseDailySums(filterPersistence.whereFilter)) {
+        sumBuilder.appendBooleanQueryParameter(TransactionProvider.QUERY_PARAMETER_DAILY_SUMS)
+    }
     var filterClause = buildDateFilterClause(budget)
     val selectionArgs: Array<String>? = if (!filterPersistence.whereFilter.isEmpty) {
         filterClause += " AND " + filterPersistence.whereFilter.getSelectionForParts(
@@ -111,6 +143,16 @@ private fun buildDateFilterClause(budget: Budget): String {
 }
 
 
+/**
+ * @return a version that changes whenever the data of the accounts [budgetId] is defined on changes
+ */
+fun Repository.budgetDataVersion(budgetId: Long) = contentResolver.call(
+    TransactionProvider.DUAL_URI,
+    TransactionProvider.METHOD_ACCOUNT_DATA_VERSION,
+    null,
+    Bundle(1).apply { putLong(KEY_BUDGETID, budgetId) }
+)!!.getString(TransactionProvider.KEY_RESULT)!!
+
 suspend fun Repository.loadBudgetProgress(budgetId: Long): BudgetProgress? = contentResolver.query(
     TransactionProvider.BUDGETS_URI,
     BudgetViewModel.PROJECTION,
@@ -0,0 +1,84 @@
+package org.totschnig.myexpenses.db2
+
+import android.content.ContentProviderOperation
+import android.content.ContentUris
+import android.content.OperationApplicationException
+import android.database.SQLException
+import android.os.Bundle
+import org.totschnig.myexpenses.contract.TransactionsContract.BulkInsert
+import org.totschnig.myexpenses.contract.TransactionsContract.Transactions
+import org.totschnig.myexpenses.model.Transaction
+import org.totschnig.myexpenses.provider.AccountLookup
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CATID
+import org.totschnig.myexpenses.provider.ProviderUtils
+import org.totschnig.myexpenses.provider.TransactionProvider
+
+/**
+ * Inserts [transactions], each described with the extras defined in
+ * [org.totschnig.myexpenses.contract.TransactionsContract.Transactions], either all or none of
+ * them. They are validated first, and then saved with one batch, hence in one database transaction
+ * and with one notification per affected uri. Categories that do not exist yet are inserted at the
+ * start of the same batch, and referenced by the transactions through back references.
+ * @return per transaction, its id under [BulkInsert.RESULT_IDS] and its error code under
+ * [BulkInsert.RESULT_ERRORS]
+ */
+fun Repository.bulkInsertTransactions(transactions: List<Bundle>): Bundle {
+    val ids = LongArray(transactions.size) { -1 }
+    val accounts = AccountLookup(this)
+    val errors = transactions.map { ProviderUtils.validateForBulkInsert(this, it, accounts) }
+    if (errors.any { it != null }) {
+        return bulkInsertResult(ids, errors.map { it ?: BulkInsert.ERROR_NOT_INSERTED })
+    }
+    val ops = ArrayList<ContentProviderOperation>()
+    val categoryToId = mutableMapOf<String, Long>()
+    val newCategories = mutableMapOf<String, Int>()
+    val categoryLabels = transactions.map { extras ->
+        extras.getString(Transactions.CATEGORY_LABEL)?.takeIf {
+            it.isNotEmpty() && extras.getInt(Transactions.OPERATION_TYPE) != Transactions.TYPE_TRANSFER
+        }?.also {
+            CategoryHelper.buildInsertOperations(this, it, categoryToId, newCategories, ops)
+        }
+    }
+    val offsets = transactions.mapIndexed { index, extras ->
+        val newCategory = categoryLabels[index]?.let { newCategories[it] }
+        //the category is set through the back reference
+        val transaction = ProviderUtils.buildFromExtras(
+            this,
+            if (newCategory == null) extras else Bundle(extras).apply { remove(Transactions.CATEGORY_LABEL) },
+            categoryToId,
+            accounts
+        )!!
+        ops.size.also {
+            if (newCategory == null) {
+                ops.addAll(transaction.buildSaveOperations(contentResolver, it, -1, false, false))
+            } else {
+                ops.add(
+                    ContentProviderOperation.newInsert(Transaction.CONTENT_URI)
+                        .withValues(transaction.buildInitialValues(contentResolver))
+                        .withValueBackReference(KEY_CATID, newCategory)
+                        .build()
+                )
+            }
+        }
+    }
+    //failing operations are reported by the provider
+    val results = try {
+        contentResolver.applyBatch(TransactionProvider.AUTHORITY, ops)
+    } catch (e: OperationApplicationException) {
+        null
+    } catch (e: SQLException) {
+        null
+    }
+    if (results == null) {
+        return bulkInsertResult(ids, List(transactions.size) { BulkInsert.ERROR_NOT_INSERTED })
+    }
+    offsets.forEachIndexed { index, offset ->
+        ids[index] = ContentUris.parseId(results[offset].uri!!)
+    }
+    return bulkInsertResult(ids, List(transactions.size) { null })
+}
+
+private fun bulkInsertResult(ids: LongArray, errors: List<String?>) = Bundle(2).apply {
+    putLongArray(BulkInsert.RESULT_IDS, ids)
+    putStringArray(BulkInsert.RESULT_ERRORS, errors.toTypedArray())
+}
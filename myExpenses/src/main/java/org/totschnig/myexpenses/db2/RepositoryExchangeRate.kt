@@ -0,0 +1,75 @@
+package org.totschnig.myexpenses.db2
+
+import android.content.ContentProviderOperation
+import android.content.ContentUris
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CURRENCY
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_EQUIVALENT_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_EXCLUDE_FROM_TOTALS
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PARENTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SEALED
+import org.totschnig.myexpenses.provider.ExchangeRateRepository
+import org.totschnig.myexpenses.provider.TransactionProvider
+import org.totschnig.myexpenses.provider.TransactionProvider.QUERY_PARAMETER_EXTENDED
+import org.totschnig.myexpenses.provider.useAndMapToList
+import org.totschnig.myexpenses.util.calculateRawExchangeRate
+import org.totschnig.myexpenses.util.epoch2LocalDate
+import java.io.IOException
+import java.time.LocalDate
+import kotlin.math.roundToLong
+
+private const val BACKFILL_BATCH_SIZE = 500
+
+private data class MissingEquivalent(
+    val id: Long,
+    val amount: Long,
+    val date: LocalDate,
+    val currency: String
+)
+
+/**
+ * Computes equivalent amounts in home currency for transactions in foreign currency accounts that
+ * do not have one yet. Rates are resolved per currency for all dates at once through
+ * [ExchangeRateRepository.loadExchangeRates], updates are written in batches, each in one database
+ * transaction. Split parts, transactions in sealed accounts and in accounts excluded from totals
+ * are skipped.
+ * @return number of updated transactions
+ */
+@Throws(IOException::class)
+suspend fun Repository.fillMissingEquivalentAmounts(
+    exchangeRateRepository: ExchangeRateRepository
+): Int {
+    val homeCurrency = homeCurrencyProvider.homeCurrencyUnit
+    val missing = contentResolver.query(
+        TransactionProvider.TRANSACTIONS_URI.buildUpon()
+            .appendQueryParameter(QUERY_PARAMETER_EXTENDED, "1").build(),
+        arrayOf(KEY_ROWID, KEY_AMOUNT, KEY_DATE, KEY_CURRENCY),
+        "$KEY_EQUIVALENT_AMOUNT IS NULL AND $KEY_PARENTID IS NULL AND $KEY_SEALED = 0 AND $KEY_EXCLUDE_FROM_TOTALS = 0 AND $KEY_CURRENCY != ?",
+        arrayOf(homeCurrency.code),
+        null
+    )!!.useAndMapToList {
+        MissingEquivalent(it.getLong(0), it.getLong(1), epoch2LocalDate(it.getLong(2)), it.getString(3))
+    }
+    var updated = 0
+    missing.groupBy { it.currency }.forEach { (currency, transactions) ->
+        val currencyUnit = currencyContext[currency]
+        val rates = exchangeRateRepository.loadExchangeRates(
+            homeCurrency.code,
+            currency,
+            transactions.mapTo(HashSet()) { it.date }
+        )
+        transactions.chunked(BACKFILL_BATCH_SIZE).forEach { chunk ->
+            val ops = chunk.mapTo(ArrayList()) {
+                val rate = calculateRawExchangeRate(rates.getValue(it.date), currencyUnit, homeCurrency)
+                ContentProviderOperation.newUpdate(
+                    ContentUris.withAppendedId(TransactionProvider.TRANSACTIONS_URI, it.id)
+                ).withValue(KEY_EQUIVALENT_AMOUNT, (it.amount * rate).roundToLong()).build()
+            }
+            updated += contentResolver.applyBatch(TransactionProvider.AUTHORITY, ops)
+                .sumOf { it.count ?: 0 }
+        }
+    }
+    return updated
+}
@@ -15,9 +15,11 @@ import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TYPE
 import org.totschnig.myexpenses.provider.TransactionProvider.ACCOUNTTYPES_METHODS_URI
 import org.totschnig.myexpenses.provider.TransactionProvider.METHODS_URI
+import org.totschnig.myexpenses.provider.USAGE_TYPE_METHOD
 import org.totschnig.myexpenses.provider.asSequence
 import org.totschnig.myexpenses.provider.getBoolean
 import org.totschnig.myexpenses.provider.getEnumOrNull
+import org.totschnig.myexpenses.provider.usageCount
 
 fun fullProjection(context: Context) = basePaymentMethodProjection(context) + mappingColumns + KEY_ROWID
 
@@ -33,9 +35,8 @@ fun basePaymentMethodProjection(context: Context) = arrayOf(
 )
 
 val mappingColumns = arrayOf(
-    "(select count(*) from " + DatabaseConstants.TABLE_TRANSACTIONS + " WHERE " + KEY_METHODID + "=" + DatabaseConstants.TABLE_METHODS + "." + KEY_ROWID + ") AS " + DatabaseConstants.KEY_MAPPED_TRANSACTIONS,
-    "(select count(*) from " + DatabaseConstants.TABLE_TEMPLATES + " WHERE " + KEY_METHODID + "=" + DatabaseConstants.TABLE_METHODS + "." + KEY_ROWID + ") AS " + DatabaseConstants.KEY_MAPPED_TEMPLATES
-
+    usageCount(USAGE_TYPE_METHOD, DatabaseConstants.KEY_MAPPED_TRANSACTIONS, DatabaseConstants.TABLE_METHODS + "." + KEY_ROWID) + " AS " + DatabaseConstants.KEY_MAPPED_TRANSACTIONS,
+    usageCount(USAGE_TYPE_METHOD, DatabaseConstants.KEY_MAPPED_TEMPLATES, DatabaseConstants.TABLE_METHODS + "." + KEY_ROWID) + " AS " + DatabaseConstants.KEY_MAPPED_TEMPLATES
 )
 
 val preDefinedName = StringBuilder().apply {
@@ -0,0 +1,204 @@
+package org.totschnig.myexpenses.db2
+
+import android.content.ContentUris
+import android.provider.CalendarContract
+import org.totschnig.myexpenses.calendar.RecurrenceExpander
+import org.totschnig.myexpenses.model.Money
+import org.totschnig.myexpenses.model.Template
+import org.totschnig.myexpenses.provider.CalendarProviderProxy
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COLOR
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CURRENCY
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_INSTANCEID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PLANID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SEALED
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TEMPLATEID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TITLE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSACTIONID
+import org.totschnig.myexpenses.provider.TransactionProvider
+import org.totschnig.myexpenses.provider.getLong
+import org.totschnig.myexpenses.provider.getLongOrNull
+import org.totschnig.myexpenses.provider.getString
+import org.totschnig.myexpenses.provider.getStringOrNull
+import org.totschnig.myexpenses.provider.useAndMapToList
+import org.totschnig.myexpenses.viewmodel.data.PlanInstance
+import timber.log.Timber
+import java.time.ZoneId
+
+data class PlanInstanceStatus(val transactionId: Long?, val amount: Long?)
+
+/**
+ * Loads all events of the planner calendar in one query. Instances of recurring events that
+ * have been modified or cancelled individually in a calendar app are stored as separate events,
+ * they are excluded from the expansion of the original event.
+ */
+fun Repository.loadPlanEvents(calendarId: String): List<RecurrenceExpander.Event> {
+    val events = contentResolver.query(
+        CalendarContract.Events.CONTENT_URI,
+        arrayOf(
+            CalendarContract.Events._ID,
+            CalendarContract.Events.DTSTART,
+            CalendarContract.Events.RRULE,
+            CalendarContract.Events.EXDATE,
+            CalendarContract.Events.EVENT_TIMEZONE,
+            CalendarContract.Events.ORIGINAL_ID,
+            CalendarContract.Events.ORIGINAL_INSTANCE_TIME,
+            CalendarContract.Events.STATUS
+        ),
+        "${CalendarContract.Events.CALENDAR_ID} = ? AND ${CalendarContract.Events.DELETED} = 0",
+        arrayOf(calendarId),
+        null
+    )?.useAndMapToList { cursor ->
+        val zoneId = cursor.getStringOrNull(CalendarContract.Events.EVENT_TIMEZONE)?.let {
+            try {
+                ZoneId.of(it)
+            } catch (e: Exception) {
+                null
+            }
+        } ?: ZoneId.systemDefault()
+        Triple(
+            RecurrenceExpander.Event(
+                id = cursor.getLong(CalendarContract.Events._ID),
+                dtStart = cursor.getLong(CalendarContract.Events.DTSTART),
+                rRule = cursor.getStringOrNull(CalendarContract.Events.RRULE),
+                exDate = cursor.getStringOrNull(CalendarContract.Events.EXDATE),
+                zoneId = zoneId
+            ),
+            cursor.getLongOrNull(CalendarContract.Events.ORIGINAL_ID)?.let {
+                it to cursor.getLong(CalendarContract.Events.ORIGINAL_INSTANCE_TIME)
+            },
+            cursor.getLongOrNull(CalendarContract.Events.STATUS)?.toInt() ==
+                    CalendarContract.Events.STATUS_CANCELED
+        )
+    } ?: emptyList()
+    val replaced = events.mapNotNull { it.second }.groupBy({ it.first }, { it.second })
+    return events.filter { !it.third }.map { (event, _, _) ->
+        replaced[event.id]?.let { event.copy(excluded = it.toSet()) } ?: event
+    }
+}
+
+/**
+ * Instances of all plans in the planner calendar beginning between [from] and [to] (epoch millis),
+ * ordered by begin. Rules are expanded by [RecurrenceExpander], only for rules it does not support,
+ * the Calendar provider is queried.
+ */
+fun Repository.loadPlanInstances(
+    calendarId: String,
+    from: Long,
+    to: Long
+): List<RecurrenceExpander.Instance> {
+    val (supported, unsupported) = loadPlanEvents(calendarId)
+        .partition { RecurrenceExpander.isSupported(it) }
+    val expanded = RecurrenceExpander.expandAll(supported, from, to)
+    if (unsupported.isEmpty()) return expanded
+    Timber.w("Falling back to Calendar provider for %d plans", unsupported.size)
+    val builder = CalendarProviderProxy.INSTANCES_URI.buildUpon()
+    ContentUris.appendId(builder, from)
+    ContentUris.appendId(builder, to)
+    val fallback = contentResolver.query(
+        builder.build(),
+        null,
+        "${CalendarContract.Instances.EVENT_ID} IN (${unsupported.joinToString { it.id.toString() }})",
+        null,
+        null
+    )?.useAndMapToList {
+        RecurrenceExpander.Instance(
+            it.getLong(CalendarContract.Instances.EVENT_ID),
+            it.getLong(CalendarContract.Instances.BEGIN)
+        )
+    } ?: emptyList()
+    return (expanded + fallback).sortedWith(compareBy({ it.begin }, { it.eventId }))
+}
+
+/**
+ * @return templates linked to a plan, keyed by plan id
+ */
+fun Repository.loadTemplatesForPlans(): Map<Long, Template> = contentResolver.query(
+    Template.CONTENT_URI,
+    null,
+    "$KEY_PLANID IS NOT NULL",
+    null,
+    null
+)?.useAndMapToList { Template(it) }?.associateBy { it.planId!! } ?: emptyMap()
+
+/**
+ * Status of all plan instances beginning between [from] and [to] (epoch millis), loaded with one
+ * join of [TransactionProvider.PLAN_INSTANCE_STATUS_URI] and transactions.
+ * @return status keyed by template id and instance id
+ */
+fun Repository.loadPlanInstanceStatus(
+    from: Long,
+    to: Long
+): Map<Pair<Long, Long>, PlanInstanceStatus> = contentResolver.query(
+    TransactionProvider.PLAN_INSTANCE_STATUS_URI.buildUpon()
+        .appendQueryParameter(TransactionProvider.QUERY_PARAMETER_EXTENDED, "1").build(),
+    arrayOf(KEY_TEMPLATEID, KEY_INSTANCEID, KEY_TRANSACTIONID, KEY_AMOUNT),
+    "$KEY_INSTANCEID BETWEEN ? AND ?",
+    arrayOf(
+        CalendarProviderProxy.calculateId(from).toString(),
+        CalendarProviderProxy.calculateId(to).toString()
+    ),
+    null
+)?.useAndMapToList {
+    (it.getLong(0) to it.getLong(1)) to PlanInstanceStatus(
+        it.getLongOrNull(KEY_TRANSACTIONID),
+        it.getLongOrNull(KEY_AMOUNT)
+    )
+}?.toMap() ?: emptyMap()
+
+/**
+ * Builds the list shown in the planner for [from]..[to] with one query for events, one for
+ * templates and one for the status of instances, instead of querying each instance separately.
+ */
+fun Repository.loadPlannerInstances(
+    calendarId: String,
+    from: Long,
+    to: Long
+): List<PlanInstance> {
+    data class PlanTemplate(
+        val id: Long,
+        val title: String,
+        val color: Int,
+        val currency: String,
+        val amount: Long,
+        val sealed: Boolean
+    )
+
+    val templates = contentResolver.query(
+        Template.CONTENT_URI,
+        arrayOf(KEY_ROWID, KEY_PLANID, KEY_TITLE, KEY_COLOR, KEY_CURRENCY, KEY_AMOUNT, KEY_SEALED),
+        "$KEY_PLANID IS NOT NULL",
+        null,
+        null
+    )?.useAndMapToList {
+        it.getLong(KEY_PLANID) to PlanTemplate(
+            it.getLong(KEY_ROWID),
+            it.getString(KEY_TITLE),
+            it.getInt(it.getColumnIndexOrThrow(KEY_COLOR)),
+            it.getString(KEY_CURRENCY),
+            it.getLong(KEY_AMOUNT),
+            it.getInt(it.getColumnIndexOrThrow(KEY_SEALED)) == 1
+        )
+    }?.toMap() ?: return emptyList()
+    val status = loadPlanInstanceStatus(from, to)
+    return loadPlanInstances(calendarId, from, to).mapNotNull { instance ->
+        templates[instance.eventId]?.let { template ->
+            val instanceId = CalendarProviderProxy.calculateId(instance.begin)
+            val instanceStatus = status[template.id to instanceId]
+            PlanInstance(
+                template.id,
+                if (instanceStatus == null) null else instanceId,
+                instanceStatus?.transactionId,
+                template.title,
+                instance.begin,
+                template.color,
+                Money(
+                    currencyContext[template.currency],
+                    instanceStatus?.amount ?: template.amount
+                ),
+                template.sealed
+            )
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package org.totschnig.myexpenses.db2
+
+import org.totschnig.myexpenses.provider.TransactionProvider
+
+/**
+ * @return latency histograms and slow statements recorded by the provider, see
+ * [org.totschnig.myexpenses.provider.QueryMetrics]
+ */
+fun Repository.queryMetricsReport(reset: Boolean = false) = contentResolver.call(
+    TransactionProvider.DUAL_URI,
+    TransactionProvider.METHOD_QUERY_METRICS,
+    if (reset) TransactionProvider.KEY_RESET else null,
+    null
+)!!.getString(TransactionProvider.KEY_RESULT)!!
@@ -93,30 +93,81 @@ fun Repository.updateTransaction(id: String, transaction: Transaction): Int {
     return results[0].count ?: 0
 }
 
-fun Repository.createTransaction(transaction: Transaction): Long {
-    val values = toContentValues(transaction).apply {
-        put(KEY_UUID, Model.generateUuid())
-    }
-    val ops = ArrayList<ContentProviderOperation>().apply {
-        add(
+fun Repository.createTransaction(transaction: Transaction): Long =
+    createTransactions(listOf(transaction)).first()
+
+/**
+ * Inserts all [transactions] (together with their tags) in one batch, i.e. in one database
+ * transaction.
+ * @return ids of the new transactions, in the order of [transactions]
+ */
+fun Repository.createTransactions(transactions: List<Transaction>): List<Long> {
+    val ops = ArrayList<ContentProviderOperation>()
+    val insertIndices = transactions.map { transaction ->
+        val index = ops.size
+        ops.add(
             ContentProviderOperation.newInsert(TransactionProvider.TRANSACTIONS_URI)
-                .withValues(values)
+                .withValues(toContentValues(transaction).apply {
+                    put(KEY_UUID, Model.generateUuid())
+                })
                 .build()
         )
         for (tag in transaction.tags) {
-            add(
+            ops.add(
                 ContentProviderOperation.newInsert(TransactionProvider.TRANSACTIONS_TAGS_URI)
-                    .withValueBackReference(KEY_TRANSACTIONID, 0)
+                    .withValueBackReference(KEY_TRANSACTIONID, index)
                     .withValue(KEY_TAGID, tag).build()
             )
         }
+        index
     }
-    return contentResolver.applyBatch(TransactionProvider.AUTHORITY, ops)[0].uri!!.let {
-        ContentUris.parseId(it)
+    val results = contentResolver.applyBatch(TransactionProvider.AUTHORITY, ops)
+    return insertIndices.map { ContentUris.parseId(results[it].uri!!) }
+}
+
+/**
+ * Position of a transaction in the list ordered by date and id descending, used as key for
+ * keyset paging: the next page starts with the first transaction that sorts after it.
+ */
+data class TransactionPageKey(val date: Long, val id: Long) {
+    override fun toString() = "$date:$id"
+
+    companion object {
+        fun parse(key: String) = key.split(':').let {
+            require(it.size == 2) { "Invalid page key $key" }
+            TransactionPageKey(it[0].toLong(), it[1].toLong())
+        }
     }
 }
 
-fun Repository.loadTransactions(accountId: Long): List<Transaction> {
+data class TransactionPage(val transactions: List<Transaction>, val next: TransactionPageKey?)
+
+fun Repository.loadTransactions(accountId: Long): List<Transaction> =
+    queryTransactions(accountId, null, null).map { it.second }
+
+/**
+ * Loads at most [limit] transactions of [accountId] following [after], without skipping over
+ * the rows of previous pages, so that the cost of a page does not depend on its position.
+ */
+fun Repository.loadTransactionPage(
+    accountId: Long,
+    limit: Int,
+    after: TransactionPageKey?
+): TransactionPage {
+    val rows = queryTransactions(accountId, limit, after)
+    return TransactionPage(
+        rows.map { it.second },
+        rows.takeIf { it.size == limit }?.last()?.let { (date, transaction) ->
+            TransactionPageKey(date, transaction.id!!)
+        }
+    )
+}
+
+private fun Repository.queryTransactions(
+    accountId: Long,
+    limit: Int?,
+    after: TransactionPageKey?
+): List<Pair<Long, Transaction>> {
     val filter = FilterPersistence(
         prefHandler = prefHandler,
         keyTemplate = MyExpensesViewModel.prefNameForCriteria(accountId),
@@ -126,38 +177,61 @@ fun Repository.loadTransactions(accountId: Long): List<Transaction> {
     ).whereFilter.takeIf { !it.isEmpty }?.let {
         it.getSelectionForParents(VIEW_EXTENDED) to it.getSelectionArgs(false)
     }
+    val selection = buildList {
+        add("$KEY_ACCOUNTID = ? AND $KEY_PARENTID IS NULL")
+        filter?.first?.takeIf { it != "" }?.let { add(it) }
+        after?.let { add("($KEY_DATE < ? OR ($KEY_DATE = ? AND $KEY_ROWID < ?))") }
+    }.joinToString(" AND ")
+    val selectionArgs = buildList {
+        add(accountId.toString())
+        filter?.second?.let { addAll(it) }
+        after?.let { addAll(listOf(it.date.toString(), it.date.toString(), it.id.toString())) }
+    }.toTypedArray()
+    val uri = DataBaseAccount.uriBuilderForTransactionList(shortenComment = true).apply {
+        //noinspection InlinedApi
+        limit?.let { appendQueryParameter(ContentResolver.QUERY_ARG_LIMIT, it.toString()) }
+    }.build()
+    val currencyUnit = getCurrencyUnitForAccount(accountId)!!
+    val dateFormat = Utils.ensureDateFormatWithShortYear(context)
     //noinspection Recycle
-    return contentResolver.query(
-        DataBaseAccount.uriForTransactionList(true),
+    val transactions = contentResolver.query(
+        uri,
         DatabaseConstants.getProjectionExtended(),
-        "$KEY_ACCOUNTID = ? AND $KEY_PARENTID IS NULL ${
-            filter?.first?.takeIf { it != "" }?.let { "AND $it" } ?: ""
-        }",
-        filter?.let { arrayOf(accountId.toString(), *it.second) }
-            ?: arrayOf(accountId.toString()),
-        null
+        selection,
+        selectionArgs,
+        "$KEY_DATE DESC, $KEY_ROWID DESC"
     )!!.useAndMapToList { cursor ->
-        Transaction.fromCursor(
+        cursor.getLong(KEY_DATE) to Transaction.fromCursor(
             context,
             cursor,
             accountId,
-            getCurrencyUnitForAccount(accountId)!!,
+            currencyUnit,
             currencyFormatter,
-            Utils.ensureDateFormatWithShortYear(context)
-        ).copy(
-            //noinspection Recycle
-            tags = contentResolver.query(
-                TransactionProvider.TRANSACTIONS_TAGS_URI,
-                arrayOf(KEY_ROWID),
-                "$KEY_TRANSACTIONID = ?",
-                arrayOf(cursor.getLong(KEY_ROWID).toString()),
-                null
-            )?.useAndMapToList { it.getLong(0) } ?: emptyList()
+            dateFormat
         )
     }
-
+    val tags = loadTagIds(transactions.map { it.second.id!! })
+    return transactions.map { (date, transaction) ->
+        date to transaction.copy(tags = tags[transaction.id] ?: emptyList())
+    }
 }
 
+/**
+ * tag ids for all [transactionIds], loaded with one query per chunk instead of one per
+ * transaction
+ */
+private fun Repository.loadTagIds(transactionIds: List<Long>): Map<Long, List<Long>> =
+    transactionIds.chunked(500).flatMap { chunk ->
+        //noinspection Recycle
+        contentResolver.query(
+            TransactionProvider.TRANSACTIONS_TAGS_URI,
+            arrayOf(KEY_TRANSACTIONID, KEY_TAGID),
+            "$KEY_TRANSACTIONID IN (${chunk.joinToString()})",
+            null,
+            null
+        )?.useAndMapToList { it.getLong(0) to it.getLong(1) } ?: emptyList()
+    }.groupBy({ it.first }, { it.second })
+
 fun Repository.getTransactionSum(accountId: Long, filter: WhereFilter? = null): Long {
     var selection =
         "$KEY_ACCOUNTID = ? AND $WHERE_NOT_SPLIT_PART AND $WHERE_NOT_VOID"
@@ -178,6 +252,17 @@ fun Repository.getTransactionSum(accountId: Long, filter: WhereFilter? = null):
     }
 }
 
+/**
+ * Rebuilds the daily category sums if the time zone has changed since they were built
+ * @return true if they have been rebuilt
+ */
+fun Repository.checkDailyCategorySums() = contentResolver.call(
+    TransactionProvider.DUAL_URI,
+    TransactionProvider.METHOD_CHECK_DAILY_CATEGORY_SUMS,
+    null,
+    null
+)!!.getBoolean(TransactionProvider.KEY_RESULT)
+
 fun ContentResolver.findByAccountAndUuid(accountId: Long, uuid: String) = findBySelection(
     "$KEY_UUID = ? AND $KEY_ACCOUNTID = ?",
     arrayOf(uuid, accountId.toString()),
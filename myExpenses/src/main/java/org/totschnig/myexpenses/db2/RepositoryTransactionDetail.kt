@@ -0,0 +1,102 @@
+package org.totschnig.myexpenses.db2
+
+import android.content.Context
+import android.net.Uri
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_LABEL
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PARENTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSACTIONID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_URI
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS
+import org.totschnig.myexpenses.provider.TransactionProvider
+import org.totschnig.myexpenses.provider.getLong
+import org.totschnig.myexpenses.provider.getString
+import org.totschnig.myexpenses.provider.useAndMapToList
+import org.totschnig.myexpenses.viewmodel.data.Tag
+import org.totschnig.myexpenses.viewmodel.data.Transaction
+import org.totschnig.myexpenses.viewmodel.data.Transaction.Companion.projection
+import org.totschnig.myexpenses.viewmodel.data.Transaction.Companion.readTransaction
+
+/**
+ * A transaction or split part together with its related entities
+ */
+data class TransactionDetail(
+    val transaction: Transaction,
+    val tags: List<Tag>,
+    val attachments: List<Uri>,
+    val attributes: List<Pair<Attribute, String>>
+)
+
+/**
+ * the transaction itself and its split parts
+ */
+private const val WITH_PARTS =
+    "$KEY_TRANSACTIONID IN (SELECT $KEY_ROWID FROM $TABLE_TRANSACTIONS WHERE $KEY_ROWID = ? OR $KEY_PARENTID = ?)"
+
+/**
+ * Loads the transaction with [transactionId] and, if it is a split, all its parts, each together
+ * with its tags, attachments and attributes. Independent of the number of parts, this takes four
+ * queries: one for the transactions, and one for each kind of related entity, which are then
+ * grouped by transaction.
+ * @param localizedContext used for the labels of methods
+ * @return the transaction, followed by its parts, or null if it does not exist
+ */
+fun Repository.loadTransactionDetails(
+    transactionId: Long,
+    localizedContext: Context = context
+): List<TransactionDetail>? {
+    //noinspection Recycle
+    val transactions = contentResolver.query(
+        TransactionProvider.EXTENDED_URI.buildUpon()
+            .appendQueryParameter(KEY_TRANSACTIONID, transactionId.toString()).build(),
+        projection(localizedContext, homeCurrencyProvider.homeCurrencyString),
+        null,
+        null,
+        "$KEY_PARENTID IS NULL DESC"
+    )?.useAndMapToList {
+        it.readTransaction(localizedContext, currencyContext, homeCurrencyProvider.homeCurrencyUnit)
+    }?.takeIf { it.isNotEmpty() } ?: return null
+    val selectionArgs = arrayOf(transactionId.toString(), transactionId.toString())
+    //noinspection Recycle
+    val tags = contentResolver.query(
+        TransactionProvider.TRANSACTIONS_TAGS_URI,
+        arrayOf(KEY_TRANSACTIONID, KEY_ROWID, KEY_LABEL),
+        WITH_PARTS,
+        selectionArgs,
+        null
+    )?.useAndMapToList {
+        it.getLong(KEY_TRANSACTIONID) to Tag(
+            id = it.getLong(KEY_ROWID),
+            label = it.getString(KEY_LABEL),
+            count = 0
+        )
+    }.orEmpty().groupBy({ it.first }, { it.second })
+    //noinspection Recycle
+    val attachments = contentResolver.query(
+        TransactionProvider.TRANSACTIONS_ATTACHMENTS_URI,
+        arrayOf(KEY_TRANSACTIONID, KEY_URI),
+        WITH_PARTS,
+        selectionArgs,
+        null
+    )?.useAndMapToList {
+        it.getLong(KEY_TRANSACTIONID) to Uri.parse(it.getString(KEY_URI))
+    }.orEmpty().groupBy({ it.first }, { it.second })
+    //noinspection Recycle
+    val attributes = contentResolver.query(
+        TransactionProvider.TRANSACTIONS_ATTRIBUTES_URI,
+        null,
+        WITH_PARTS,
+        selectionArgs,
+        null
+    )?.useAndMapToList {
+        it.getLong(KEY_TRANSACTIONID) to Attribute.from(it)
+    }.orEmpty().groupBy({ it.first }, { it.second })
+    return transactions.map {
+        TransactionDetail(
+            it,
+            tags[it.id].orEmpty(),
+            attachments[it.id].orEmpty(),
+            attributes[it.id].orEmpty()
+        )
+    }
+}
@@ -60,6 +60,7 @@ import org.totschnig.myexpenses.service.SyncNotificationDismissHandler;
 import org.totschnig.myexpenses.sync.SyncAdapter;
 import org.totschnig.myexpenses.task.GrisbiImportTask;
 import org.totschnig.myexpenses.util.ICurrencyFormatter;
+import org.totschnig.myexpenses.util.ThumbnailCache;
 import org.totschnig.myexpenses.util.ads.BaseAdHandler;
 import org.totschnig.myexpenses.util.crashreporting.CrashHandler;
 import org.totschnig.myexpenses.util.licence.LicenceHandler;
@@ -177,6 +178,8 @@ public interface AppComponent {
 
   DataStore<Preferences> preferencesDataStore();
 
+  ThumbnailCache thumbnailCache();
+
   void inject(MyApplication application);
 
   void inject(ExpenseEdit expenseEdit);
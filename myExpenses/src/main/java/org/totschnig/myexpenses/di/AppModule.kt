@@ -9,6 +9,7 @@ import org.totschnig.myexpenses.MyApplication
 import org.totschnig.myexpenses.model.CurrencyContext
 import org.totschnig.myexpenses.model.PreferencesCurrencyContext
 import org.totschnig.myexpenses.preference.PrefHandler
+import org.totschnig.myexpenses.util.ThumbnailCache
 import org.totschnig.myexpenses.util.Utils
 import org.totschnig.myexpenses.util.licence.LicenceStatus
 import org.totschnig.myexpenses.util.locale.HomeCurrencyProvider
@@ -73,4 +74,8 @@ open class AppModule {
         context: Context,
         currencyContext: CurrencyContext
     ): HomeCurrencyProvider = HomeCurrencyProviderImpl(prefHandler, context, currencyContext)
+
+    @Provides
+    @Singleton
+    fun provideThumbnailCache(context: Context) = ThumbnailCache(context)
 }
\ No newline at end of file
@@ -39,6 +39,7 @@ import org.totschnig.myexpenses.databinding.AttributeGroupHeaderBinding
 import org.totschnig.myexpenses.databinding.AttributeGroupTableBinding
 import org.totschnig.myexpenses.databinding.TransactionDetailBinding
 import org.totschnig.myexpenses.db2.FinTsAttribute
+import org.totschnig.myexpenses.db2.TransactionDetail
 import org.totschnig.myexpenses.feature.BankingFeature
 import org.totschnig.myexpenses.injector
 import org.totschnig.myexpenses.model.AccountType
@@ -96,64 +97,9 @@ class TransactionDetailFragment : DialogViewBinding<TransactionDetailBinding>(),
         viewModel = ViewModelProvider(this)[TransactionDetailViewModel::class.java]
         injector.inject(viewModel)
         val rowId = requireArguments().getLong(DatabaseConstants.KEY_ROWID)
-        viewModel.transaction(rowId).observe(this) { o -> fillData(o) }
-        viewModel.tags(rowId).observe(this) { tags ->
-            if (tags.isNotEmpty()) {
-                binding.TagGroup.addChipsBulk(tags)
-            } else {
-                binding.TagRow.visibility = View.GONE
-            }
-        }
-        viewModel.attachments(rowId).observe(this) { attachments ->
-            if (attachments.isEmpty()) {
-                binding.AttachmentsRow.visibility = View.GONE
-            } else {
-                attachments.forEach { uri ->
-                    AttachmentItemBinding.inflate(
-                        layoutInflater,
-                        binding.AttachmentGroup,
-                        false
-                    ).root.apply {
-                        binding.AttachmentGroup.addView(this)
-                        lifecycleScope.launch {
-                            val info = withContext(Dispatchers.IO) {
-                                attachmentInfoMap!!.getValue(uri)
-                            }
-                            setAttachmentInfo(info)
-                            setOnClickListener {
-                                viewIntentProvider.startViewAction(requireActivity(), uri, info.type)
-                            }
-                        }
-                    }
-                }
-            }
-        }
-
-        viewModel.attributes(rowId).observe(this) { groups ->
-            groups.forEach { entry ->
-                binding.OneExpense.addView(
-                    AttributeGroupHeaderBinding.inflate(layoutInflater).root.also {
-                        it.text = entry.key
-                    }, binding.OneExpense.childCount - 1
-                )
-                val attributeTable = AttributeGroupTableBinding.inflate(layoutInflater).root.also {
-                    binding.OneExpense.addView(it, binding.OneExpense.childCount - 1)
-                }
-                entry.value.filter { it.first.userVisible }.forEach {
-                    attributeTable.addView(
-                        with(AttributeBinding.inflate(layoutInflater)) {
-                            Name.text = (it.first as? FinTsAttribute)?.let {
-                                bankingFeature.resolveAttributeLabel(
-                                    requireContext(),
-                                    it
-                                )
-                            } ?: it.first.name
-                            Value.text = it.second
-                            root
-                        }
-                    )
-                }
-            }
+        viewModel.transactionDetails(rowId).observe(this) { details ->
+            fillData(details.map { it.transaction })
+            details.firstOrNull()?.let { fillRelated(it) }
         }
 
         val alertDialog =
@@ -193,6 +139,65 @@ class TransactionDetailFragment : DialogViewBinding<TransactionDetailBinding>(),
         }
     }
 
+    private fun fillRelated(detail: TransactionDetail) {
+        val tags = detail.tags
+        val attachments = detail.attachments
+        val groups = detail.attributes.groupBy { it.first.context }
+        if (tags.isNotEmpty()) {
+            binding.TagGroup.addChipsBulk(tags)
+        } else {
+            binding.TagRow.visibility = View.GONE
+        }
+
+        if (attachments.isEmpty()) {
+            binding.AttachmentsRow.visibility = View.GONE
+        } else {
+            attachments.forEach { uri ->
+                AttachmentItemBinding.inflate(
+                    layoutInflater,
+                    binding.AttachmentGroup,
+                    false
+                ).root.apply {
+                    binding.AttachmentGroup.addView(this)
+                    lifecycleScope.launch {
+                        val info = withContext(Dispatchers.IO) {
+                            attachmentInfoMap!!.getValue(uri)
+                        }
+                        setAttachmentInfo(info)
+                        setOnClickListener {
+                            viewIntentProvider.startViewAction(requireActivity(), uri, info.type)
+                        }
+                    }
+                }
+            }
+        }
+
+        groups.forEach { entry ->
+            binding.OneExpense.addView(
+                AttributeGroupHeaderBinding.inflate(layoutInflater).root.also {
+                    it.text = entry.key
+                }, binding.OneExpense.childCount - 1
+            )
+            val attributeTable = AttributeGroupTableBinding.inflate(layoutInflater).root.also {
+                binding.OneExpense.addView(it, binding.OneExpense.childCount - 1)
+            }
+            entry.value.filter { it.first.userVisible }.forEach {
+                attributeTable.addView(
+                    with(AttributeBinding.inflate(layoutInflater)) {
+                        Name.text = (it.first as? FinTsAttribute)?.let {
+                            bankingFeature.resolveAttributeLabel(
+                                requireContext(),
+                                it
+                            )
+                        } ?: it.first.name
+                        Value.text = it.second
+                        root
+                    }
+                )
+            }
+        }
+    }
+
     private fun fillData(list: List<Transaction>) {
         transactionData = list
         (dialog as? AlertDialog)?.let { dlg ->
@@ -4,7 +4,6 @@ package org.totschnig.myexpenses.export.pdf;
 import static com.itextpdf.text.Chunk.GENERICTAG;
 import static org.totschnig.myexpenses.provider.CursorExtKt.getLocalDateIfExists;
 import static org.totschnig.myexpenses.provider.CursorExtKt.getLongOrNull;
-import static org.totschnig.myexpenses.provider.CursorExtKt.getString;
 import static org.totschnig.myexpenses.provider.CursorExtKt.getStringOrNull;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNT_LABEL;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT;
@@ -20,7 +19,6 @@ import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PARENTID;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PATH;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PAYEE_NAME;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_REFERENCE_NUMBER;
-import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TAGLIST;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSFER_ACCOUNT_LABEL;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSFER_PEER;
@@ -62,7 +60,6 @@ import org.totschnig.myexpenses.model.CurrencyContext;
 import org.totschnig.myexpenses.model.CurrencyUnit;
 import org.totschnig.myexpenses.model.Grouping;
 import org.totschnig.myexpenses.model.Money;
-import org.totschnig.myexpenses.model.Transaction;
 import org.totschnig.myexpenses.model.Transfer;
 import org.totschnig.myexpenses.model2.Account;
 import org.totschnig.myexpenses.provider.CursorExtKt;
@@ -95,6 +92,10 @@ import timber.log.Timber;
 
 public class PdfPrinter {
   private static final String VOID_MARKER = "void";
+  /**
+   * number of transactions after which the rows of the current table are written to the document
+   */
+  private static final int FLUSH_ROWS = 100;
   private final Account account;
   private final DocumentFile destDir;
   private final WhereFilter filter;
@@ -219,7 +220,6 @@ public class PdfPrinter {
     );
     groupCursor.close();
 
-    int columnIndexRowId = transactionCursor.getColumnIndex(KEY_ROWID);
     int columnIndexYear = transactionCursor.getColumnIndex(KEY_YEAR);
     int columnIndexYearOfWeekStart = transactionCursor.getColumnIndex(KEY_YEAR_OF_WEEK_START);
     int columnIndexMonth = transactionCursor.getColumnIndex(KEY_MONTH);
@@ -244,6 +244,8 @@ public class PdfPrinter {
       default -> Utils.localizedYearLessDateFormat(context);
     };
     PdfPTable table = null;
+    int pendingRows = 0;
+    SplitPartsPrefetcher splitPartsPrefetcher = new SplitPartsPrefetcher(context.getContentResolver(), transactionCursor, SplitPartsPrefetcher.BATCH_SIZE);
 
     int prevHeaderId = 0, currentHeaderId;
 
@@ -264,7 +266,7 @@ public class PdfPrinter {
       };
       if (currentHeaderId != prevHeaderId) {
         if (table != null) {
-          document.add(table);
+          completeTable(document, table);
         }
         int second = switch (account.getGrouping()) {
           case DAY -> transactionCursor.getInt(columnIndexDay);
@@ -353,8 +355,11 @@ public class PdfPrinter {
         table.setWidths(table.getRunDirection() == PdfWriter.RUN_DIRECTION_RTL ?
             new int[]{2, 3, 5, 1} : new int[]{1, 5, 3, 2});
         table.setSpacingBefore(2f);
-        table.setSpacingAfter(2f);
         table.setWidthPercentage(100f);
+        //rows are written to the document while the table is being filled, so that memory
+        //does not grow with the number of transactions in the group
+        table.setComplete(false);
+        pendingRows = 0;
         prevHeaderId = currentHeaderId;
       }
       long amount = transactionCursor.getLong(columnIndexAmount);
@@ -379,33 +384,29 @@ public class PdfPrinter {
       }
       Long catId = getLongOrNull(transactionCursor, KEY_CATID);
       if (SPLIT_CATID.equals(catId)) {
-        Cursor splits = context.getContentResolver().query(Transaction.CONTENT_URI, null,
-            KEY_PARENTID + " = " + transactionCursor.getLong(columnIndexRowId), null, null);
-        splits.moveToFirst();
+        List<SplitPartsPrefetcher.Part> parts = splitPartsPrefetcher.partsOfCurrentRow();
         StringBuilder catTextBuilder = new StringBuilder();
-        while (splits.getPosition() < splits.getCount()) {
-          String splitText =  getString(splits, KEY_PATH);
+        for (int i = 0; i < parts.size(); i++) {
+          SplitPartsPrefetcher.Part part = parts.get(i);
+          String splitText = part.getPath();
           if (splitText.length() > 0) {
-            if (getLongOrNull(splits, KEY_TRANSFER_PEER) != null) {
-              splitText += " (" +Transfer.getIndicatorPrefixForLabel(amount) + getStringOrNull(splits, KEY_TRANSFER_ACCOUNT_LABEL) + ")";
+            if (part.isTransfer()) {
+              splitText += " (" +Transfer.getIndicatorPrefixForLabel(amount) + part.getTransferAccountLabel() + ")";
             }
           } else {
             splitText = Category.NO_CATEGORY_ASSIGNED_LABEL;
           }
-          splitText += " " + convAmount(currencyFormatter, splits.getLong(
-              splits.getColumnIndexOrThrow(KEY_DISPLAY_AMOUNT)), currencyUnit());
-          String splitComment = getString(splits, KEY_COMMENT);
+          splitText += " " + convAmount(currencyFormatter, part.getDisplayAmount(), currencyUnit());
+          String splitComment = part.getComment();
           if (splitComment.length() > 0) {
             splitText += " (" + splitComment + ")";
           }
           catTextBuilder.append(splitText);
-          if (splits.getPosition() != splits.getCount() - 1) {
+          if (i != parts.size() - 1) {
             catTextBuilder.append("; ");
           }
-          splits.moveToNext();
         }
         catText += catTextBuilder.toString();
-        splits.close();
       } else {
         if (catId == null) {
           catText += Category.NO_CATEGORY_ASSIGNED_LABEL;
@@ -468,13 +469,24 @@ public class PdfPrinter {
         }
         table.addCell(helper.emptyCell());
       }
+      if (++pendingRows == FLUSH_ROWS) {
+        document.add(table);
+        table.setSpacingBefore(0f);
+        pendingRows = 0;
+      }
       transactionCursor.moveToNext();
     }
     // now add all this to the document
-    document.add(table);
+    completeTable(document, table);
     groupCursor.close();
   }
 
+  private void completeTable(Document document, PdfPTable table) throws DocumentException {
+    table.setSpacingAfter(2f);
+    table.setComplete(true);
+    document.add(table);
+  }
+
   private void addEmptyLine(Paragraph paragraph, int number) {
     for (int i = 0; i < number; i++) {
       paragraph.add(new Paragraph(" "));
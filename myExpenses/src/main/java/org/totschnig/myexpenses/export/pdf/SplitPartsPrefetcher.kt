@@ -0,0 +1,78 @@
+package org.totschnig.myexpenses.export.pdf
+
+import android.content.ContentResolver
+import android.database.Cursor
+import org.totschnig.myexpenses.model.Transaction
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CATID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COMMENT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DISPLAY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PARENTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PATH
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSFER_ACCOUNT_LABEL
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSFER_PEER
+import org.totschnig.myexpenses.provider.DatabaseConstants.SPLIT_CATID
+import org.totschnig.myexpenses.provider.getLong
+import org.totschnig.myexpenses.provider.getLongOrNull
+import org.totschnig.myexpenses.provider.getString
+import org.totschnig.myexpenses.provider.getStringOrNull
+import org.totschnig.myexpenses.provider.useAndMapToList
+
+/**
+ * Loads the parts of the split transactions in [cursor] with one query for each window of
+ * [batchSize] rows, instead of one query for each split transaction. Only the parts of the
+ * current window are kept in memory.
+ */
+class SplitPartsPrefetcher(
+    private val contentResolver: ContentResolver,
+    private val cursor: Cursor,
+    private val batchSize: Int = BATCH_SIZE
+) {
+    data class Part(
+        val path: String,
+        val isTransfer: Boolean,
+        val transferAccountLabel: String?,
+        val displayAmount: Long,
+        val comment: String
+    )
+
+    private var windowStart = -1
+    private var parts: Map<Long, List<Part>> = emptyMap()
+
+    /**
+     * @return the parts of the split transaction at the current position of [cursor]
+     */
+    fun partsOfCurrentRow(): List<Part> {
+        val position = cursor.position
+        if (windowStart == -1 || position < windowStart || position >= windowStart + batchSize) {
+            load(position)
+        }
+        return parts[cursor.getLong(KEY_ROWID)].orEmpty()
+    }
+
+    private fun load(position: Int) {
+        val parentIds = (position until minOf(position + batchSize, cursor.count)).mapNotNull {
+            cursor.moveToPosition(it)
+            if (cursor.getLongOrNull(KEY_CATID) == SPLIT_CATID) cursor.getLong(KEY_ROWID) else null
+        }
+        cursor.moveToPosition(position)
+        windowStart = position
+        parts = if (parentIds.isEmpty()) emptyMap() else contentResolver.query(
+            Transaction.CONTENT_URI, null,
+            "$KEY_PARENTID IN (${parentIds.joinToString()})", null,
+            "$KEY_PARENTID, $KEY_ROWID"
+        )!!.useAndMapToList {
+            it.getLong(KEY_PARENTID) to Part(
+                it.getString(KEY_PATH),
+                it.getLongOrNull(KEY_TRANSFER_PEER) != null,
+                it.getStringOrNull(KEY_TRANSFER_ACCOUNT_LABEL),
+                it.getLong(KEY_DISPLAY_AMOUNT),
+                it.getString(KEY_COMMENT)
+            )
+        }.groupBy({ it.first }, { it.second })
+    }
+
+    companion object {
+        const val BATCH_SIZE = 500
+    }
+}
@@ -20,11 +20,15 @@ import java.io.IOException
  * Created by IntelliJ IDEA.
  * User: Denis Solonenko
  * Date: 10/11/11 10:32 PM
+ *
+ * If [onTransaction] is provided, transactions are handed over to it together with the index of
+ * the account in [accounts] they belong to, instead of being collected in the accounts.
  */
 class QifParser(
     private val r: QifBufferedReader,
     private val dateFormat: QifDateFormat,
-    private val currency: CurrencyUnit
+    private val currency: CurrencyUnit,
+    private val onTransaction: ((accountIndex: Int, transaction: ImportTransaction) -> Unit)? = null
 ) {
     val accounts: MutableList<ImportAccount> = mutableListOf()
     val categories: MutableSet<CategoryInfo> = mutableSetOf()
@@ -109,7 +113,11 @@ class QifParser(
                 } else {
                     addPayeeFromTransaction(t)
                     addCategoryFromTransaction(t)
-                    account.addTransaction(t)
+                    if (onTransaction != null) {
+                        onTransaction.invoke(accounts.size, t.build())
+                    } else {
+                        account.addTransaction(t)
+                    }
                 }
             } while (shouldReadOn())
         }
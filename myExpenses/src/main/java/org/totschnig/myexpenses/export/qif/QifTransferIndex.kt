@@ -0,0 +1,97 @@
+package org.totschnig.myexpenses.export.qif
+
+import org.totschnig.myexpenses.io.ImportAccount
+import org.totschnig.myexpenses.io.ImportTransaction
+import java.math.BigDecimal
+import java.util.Date
+
+/**
+ * Allows to apply the same reduction as [QifUtils.reduceTransfers] to transactions that are
+ * streamed one by one from a QIF file, without keeping all of them in memory: during a first
+ * pass, only the transfers are registered with [add], keyed by account index, target account and
+ * date, together with the amount of the first one for each key. During a second pass, each
+ * transaction is passed through [resolve].
+ */
+class QifTransferIndex {
+    private data class TransferKey(val toAccount: String, val date: Date)
+
+    private class AccountTransfers {
+        val transfers: MutableMap<TransferKey, BigDecimal> = mutableMapOf()
+        val splitTransfers: MutableSet<TransferKey> = mutableSetOf()
+
+        fun hasCounterPart(key: TransferKey) = transfers.containsKey(key) || splitTransfers.contains(key)
+    }
+
+    private val accountTransfers: MutableMap<Int, AccountTransfers> = mutableMapOf()
+
+    fun add(accountIndex: Int, transaction: ImportTransaction) {
+        if (transaction.isTransfer) {
+            transfersOf(accountIndex).transfers.putIfAbsent(
+                TransferKey(transaction.toAccount!!, transaction.date),
+                transaction.amount
+            )
+        }
+        transaction.splits?.forEach { split ->
+            split.toAccount?.let {
+                transfersOf(accountIndex).splitTransfers.add(TransferKey(it, split.date))
+            }
+        }
+    }
+
+    private fun transfersOf(accountIndex: Int) =
+        accountTransfers.getOrPut(accountIndex) { AccountTransfers() }
+
+    /**
+     * @return the transaction as it should be imported into the account at [accountIndex] of
+     * [accounts], or null if it is the side of a transfer that is imported from its peer
+     */
+    fun resolve(
+        accounts: List<ImportAccount>,
+        accountIndex: Int,
+        transaction: ImportTransaction
+    ): ImportTransaction? {
+        val fromAccount = accounts[accountIndex]
+        return reduceTransfer(
+            accounts,
+            fromAccount,
+            transformUnknownTransfer(accounts, fromAccount, transaction)
+        )
+    }
+
+    private fun transformUnknownTransfer(
+        accounts: List<ImportAccount>,
+        fromAccount: ImportAccount,
+        transaction: ImportTransaction
+    ): ImportTransaction = (if (transaction.isTransfer) {
+        val hasCounterPart = transaction.toAccount != fromAccount.memo &&
+                peerTransfers(accounts, transaction.toAccount!!)
+                    ?.hasCounterPart(TransferKey(fromAccount.memo, transaction.date)) == true
+        if (hasCounterPart) transaction else QifUtils.convertIntoRegularTransaction(transaction)
+    } else transaction).copy(splits = transaction.splits?.map {
+        transformUnknownTransfer(accounts, fromAccount, it)
+    })
+
+    private fun reduceTransfer(
+        accounts: List<ImportAccount>,
+        fromAccount: ImportAccount,
+        transaction: ImportTransaction
+    ): ImportTransaction? {
+        if (!transaction.isTransfer || transaction.toAccount == fromAccount.memo) return transaction
+        val toAccountIndex = accounts.indexOfFirst { it.memo == transaction.toAccount }
+        if (toAccountIndex == -1) return null
+        val peerTransfers = accountTransfers[toAccountIndex] ?: return transaction
+        val key = TransferKey(fromAccount.memo, transaction.date)
+        val peerAmount = peerTransfers.transfers[key]
+        return when {
+            peerAmount != null ->
+                if (transaction.amount.signum() == 1) transaction.copy(toAmount = peerAmount) else null
+            peerTransfers.splitTransfers.contains(key) -> null
+            else -> transaction
+        }
+    }
+
+    private fun peerTransfers(accounts: List<ImportAccount>, toAccount: String) =
+        accounts.indexOfFirst { it.memo == toAccount }
+            .takeIf { it != -1 }
+            ?.let { accountTransfers[it] }
+}
@@ -278,7 +278,7 @@ object QifUtils {
         })
     }
 
-    private fun convertIntoRegularTransaction(fromTransaction: ImportTransaction) = fromTransaction.copy(
+    fun convertIntoRegularTransaction(fromTransaction: ImportTransaction) = fromTransaction.copy(
             memo = prependMemo("Transfer: " + fromTransaction.toAccount, fromTransaction),
             toAccount = null
         )
@@ -15,6 +15,7 @@ import org.totschnig.myexpenses.dialog.MessageDialogFragment
 import org.totschnig.myexpenses.injector
 import org.totschnig.myexpenses.preference.PrefKey
 import org.totschnig.myexpenses.util.TextUtils
+import org.totschnig.myexpenses.util.safeMessage
 import org.totschnig.myexpenses.viewmodel.CurrencyViewModel
 import org.totschnig.myexpenses.viewmodel.data.Currency
 
@@ -66,6 +67,24 @@ class PreferenceDataFragment: BasePreferenceFragment() {
             }
         }
 
+        with(requirePreference<ListPreference>(PrefKey.ARCHIVE_TRANSACTIONS)) {
+            entries = ARCHIVE_YEARS.map {
+                resources.getQuantityString(R.plurals.archive_older_than_years, it, it)
+            }.toTypedArray()
+            entryValues = ARCHIVE_YEARS.map { it.toString() }.toTypedArray()
+            onPreferenceChangeListener = OnPreferenceChangeListener { _, newValue ->
+                val years = (newValue as String).toInt()
+                MessageDialogFragment.newInstance(
+                    getString(R.string.dialog_title_information),
+                    resources.getQuantityString(R.plurals.archive_transactions_confirmation, years, years) +
+                            " " + getString(R.string.continue_confirmation),
+                    MessageDialogFragment.Button(android.R.string.ok, R.id.ARCHIVE_COMMAND, years),
+                    null, MessageDialogFragment.noButton()
+                ).show(parentFragmentManager, "CONFIRM")
+                false
+            }
+        }
+
         lifecycleScope.launch {
             repeatOnLifecycle(Lifecycle.State.STARTED) {
                 viewModel.hasStaleImages.collect { result ->
@@ -76,9 +95,43 @@ class PreferenceDataFragment: BasePreferenceFragment() {
         }
     }
 
+    override fun onPreferenceTreeClick(preference: Preference) = when {
+        super.onPreferenceTreeClick(preference) -> true
+        matches(preference, PrefKey.RESTORE_ARCHIVE) -> {
+            viewModel.restoreArchive().observe(this) { result ->
+                result.onSuccess {
+                    preferenceActivity.showSnackBar(
+                        resources.getQuantityString(R.plurals.restore_archive_success, it, it)
+                    )
+                }.onFailure {
+                    preferenceActivity.showSnackBar(it.safeMessage)
+                }
+            }
+            true
+        }
+
+        else -> false
+    }
+
+    fun archiveTransactions(years: Int) {
+        viewModel.archiveTransactions(years).observe(this) { result ->
+            result.onSuccess {
+                preferenceActivity.showSnackBar(
+                    resources.getQuantityString(R.plurals.archive_transactions_success, it, it)
+                )
+            }.onFailure {
+                preferenceActivity.showSnackBar(it.safeMessage)
+            }
+        }
+    }
+
     fun updateHomeCurrency(currencyCode: String) {
         findPreference<ListPreference>(PrefKey.HOME_CURRENCY)?.let {
             it.value = currencyCode
         }
     }
-}
\ No newline at end of file
+
+    companion object {
+        private val ARCHIVE_YEARS = listOf(1, 2, 5, 10)
+    }
+}
@@ -22,6 +22,7 @@ import org.totschnig.myexpenses.preference.PrefKey
 import org.totschnig.myexpenses.provider.DatabaseConstants
 import org.totschnig.myexpenses.util.AppDirHelper
 import org.totschnig.myexpenses.util.distrib.DistributionHelper
+import org.totschnig.myexpenses.util.safeMessage
 import org.totschnig.myexpenses.viewmodel.CategoryViewModel
 import timber.log.Timber
 import java.io.File
@@ -127,6 +128,23 @@ class PreferencesAdvancedFragment : BasePreferenceFragment(),
             true
         }
 
+        matches(preference, PrefKey.DEBUG_QUERY_METRICS_SHARE) -> {
+            viewModel.exportQueryMetrics().observe(this) { result ->
+                result.onSuccess {
+                    startActivity(Intent(Intent.ACTION_SEND).apply {
+                        putExtra(Intent.EXTRA_EMAIL, arrayOf(getString(R.string.support_email)))
+                        putExtra(Intent.EXTRA_SUBJECT, "[${getString(R.string.app_name)}]: Query metrics")
+                        type = "text/plain"
+                        putExtra(Intent.EXTRA_STREAM, it)
+                        flags = Intent.FLAG_GRANT_READ_URI_PERMISSION
+                    })
+                }.onFailure {
+                    preferenceActivity.showSnackBar(it.safeMessage)
+                }
+            }
+            true
+        }
+
         matches(preference, PrefKey.DEFAULT_TRANSFER_CATEGORY) -> {
             SelectDefaultTransferCategoryDialogFragment()
                 .show(childFragmentManager, "SELECT_DEFAULT")
@@ -8,6 +8,7 @@ import androidx.preference.Preference
 import org.totschnig.myexpenses.R
 import org.totschnig.myexpenses.preference.PrefKey
 import org.totschnig.myexpenses.retrofit.ExchangeRateSource
+import org.totschnig.myexpenses.util.safeMessage
 
 @Keep
 class PreferencesExchangeRateFragment : BasePreferenceFragment() {
@@ -42,6 +43,19 @@ class PreferencesExchangeRateFragment : BasePreferenceFragment() {
             true
         }
 
+        matches(preference, PrefKey.EXCHANGE_RATES_FILL_EQUIVALENT_AMOUNTS) -> {
+            viewModel.fillMissingEquivalentAmounts().observe(this) { result ->
+                result.onSuccess {
+                    preferenceActivity.showSnackBar(
+                        getString(R.string.fill_missing_equivalent_amounts_success, it)
+                    )
+                }.onFailure {
+                    preferenceActivity.showSnackBar(it.safeMessage)
+                }
+            }
+            true
+        }
+
         else -> false
     }
 
@@ -9,7 +9,6 @@ import android.database.sqlite.SQLiteException
 import android.net.Uri
 import android.provider.CalendarContract
 import android.text.TextUtils
-import android.text.format.Time
 import androidx.annotation.RequiresPermission
 import org.totschnig.myexpenses.calendar.EventRecurrenceFormatter
 import org.totschnig.myexpenses.calendar.EventRecurrence
@@ -20,6 +19,7 @@ import org.totschnig.myexpenses.provider.PlannerUtils
 import org.totschnig.myexpenses.util.PermissionHelper.PermissionGroup
 import org.totschnig.myexpenses.util.Utils
 import org.totschnig.myexpenses.util.crashreporting.CrashHandler
+import org.totschnig.myexpenses.util.epochMillis2LocalDate
 import org.totschnig.myexpenses.util.localDateTime2EpochMillis
 import org.totschnig.myexpenses.util.safeMessage
 import timber.log.Timber
@@ -239,9 +239,7 @@ class Plan private constructor(
                     CrashHandler.report(e, "rRule", rRule)
                     return e.safeMessage
                 }
-                val date = Time()
-                date.set(start)
-                eventRecurrence.setStartDate(date)
+                eventRecurrence.setStartDate(epochMillis2LocalDate(start))
                 EventRecurrenceFormatter.getRepeatString(ctx, ctx.resources, eventRecurrence, true)
             } ?:  DateFormat
                 .getDateInstance(DateFormat.FULL)
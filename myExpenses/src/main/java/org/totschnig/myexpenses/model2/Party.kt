@@ -5,7 +5,10 @@ import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_BIC
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_IBAN
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PAYEE_NAME
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PAYEE_NAME_NORMALIZED
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SHORT_NAME
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_PAYEES_FTS
+import org.totschnig.myexpenses.provider.filter.TextCriterion
 import org.totschnig.myexpenses.util.Utils
 
 data class Party(
@@ -34,6 +37,20 @@ data class Party(
             "*[ (.;,]$search*"
         )
 
+        /**
+         * Suggestions are looked up in the prefix index [TABLE_PAYEES_FTS], each word of [search]
+         * must match the start of a word in name or short name. If [search] does not contain any
+         * word characters, we fall back to [SELECTION].
+         */
+        fun suggestionSelection(search: String): Pair<String, Array<String>> {
+            val tokens = TextCriterion.tokenize(search)
+            return if (tokens.isEmpty())
+                SELECTION to selectionArgs(Utils.escapeSqlLikeExpression(Utils.normalize(search)))
+            else
+                "$KEY_ROWID IN (SELECT docid FROM $TABLE_PAYEES_FTS WHERE $TABLE_PAYEES_FTS MATCH ?)" to
+                        arrayOf(TextCriterion.matchExpression(tokens, null))
+        }
+
         fun create(
             name: String,
             shortName: String? = null,
@@ -151,7 +151,9 @@ enum class PrefKey(internal val resId: Int, internal val _key: String?) {
     PURGE_BACKUP_KEEP(R.string.pref_purge_backup_keep_key),
     PURGE_BACKUP_REQUIRE_CONFIRMATION(R.string.pref_purge_backup_require_confirmation_key),
     DEBUG_LOG_SHARE(R.string.pref_debug_logging_share_key),
+    DEBUG_QUERY_METRICS_SHARE(R.string.pref_debug_query_metrics_share_key),
     EXCHANGE_RATES_CLEAR_CACHE(R.string.pref_exchange_rates_clear_cache_key),
+    EXCHANGE_RATES_FILL_EQUIVALENT_AMOUNTS(R.string.pref_exchange_rates_fill_equivalent_amounts_key),
     DEBUG_REPAIR_987(R.string.pref_debug_repair_987_key),
     WEBUI_PASSWORD(R.string.pref_web_ui_password_key),
     CSV_EXPORT(R.string.pref_csv_export_key),
@@ -185,7 +187,9 @@ enum class PrefKey(internal val resId: Int, internal val _key: String?) {
     TIME_PICKER_INPUT_MODE("timePickerInputMode"),
     DATE_PICKER_INPUT_MODE("datePickerInputMode"),
     CAMERA_APP(R.string.pref_camera_app_key),
-    CAMERA_CHOOSER(R.string.pref_camera_chooser_key)
+    CAMERA_CHOOSER(R.string.pref_camera_chooser_key),
+    ARCHIVE_TRANSACTIONS(R.string.pref_archive_transactions_key),
+    RESTORE_ARCHIVE(R.string.pref_restore_archive_key)
     ;
 
     @Deprecated("")
@@ -11,6 +11,7 @@ import org.totschnig.myexpenses.db2.Attribute
 import org.totschnig.myexpenses.db2.BankingAttribute
 import org.totschnig.myexpenses.db2.FLAG_TRANSFER
 import org.totschnig.myexpenses.db2.FinTsAttribute
+import org.totschnig.myexpenses.model.CrStatus
 import org.totschnig.myexpenses.model.CurrencyEnum
 import org.totschnig.myexpenses.model.Model
 import org.totschnig.myexpenses.preference.PrefHandler
@@ -19,6 +20,7 @@ import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNT_LABEL
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNT_TYPE
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT_WITHOUT_EQUIVALENT
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ATTACHMENT_COUNT
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ATTACHMENT_ID
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ATTRIBUTE_ID
@@ -29,6 +31,7 @@ import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_BLZ
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CATID
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COLOR
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COMMENT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COUNT
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CONTEXT
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CRITERION
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CR_STATUS
@@ -40,11 +43,19 @@ import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_EQUIVALENT_AMOUNT
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_EXCLUDE_FROM_TOTALS
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_IBAN
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ICON
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_INSTANCEID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_KEY
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_LABEL
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_LAST_USED
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_MAPPED_BUDGETS
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_MAPPED_DEBTS
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_MAPPED_TEMPLATES
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_MAPPED_TRANSACTIONS
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_METHODID
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_METHOD_ICON
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_METHOD_LABEL
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_NEGATIVE_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_OBJECT_ID
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_OPENING_BALANCE
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ORIGINAL_AMOUNT
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ORIGINAL_CURRENCY
@@ -77,21 +88,35 @@ import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_VALUE_DATE
 import org.totschnig.myexpenses.provider.DatabaseConstants.NULL_CHANGE_INDICATOR
 import org.totschnig.myexpenses.provider.DatabaseConstants.NULL_ROW_ID
 import org.totschnig.myexpenses.provider.DatabaseConstants.SPLIT_CATID
+import org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_DELETING
 import org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_UNCOMMITTED
 import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_ACCOUNTS
 import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_ACCOUNT_ATTRIBUTES
 import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_ATTACHMENTS
 import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_ATTRIBUTES
 import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_BANKS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_BUDGET_ALLOCATIONS
 import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_CATEGORIES
 import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_CHANGES
 import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_DEBTS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_DAILY_CATEGORY_SUMS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_DEBT_BALANCES
 import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_METHODS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_OBJECT_USAGES
 import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_PAYEES
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_PAYEES_FTS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_PAYEE_AUTOFILL
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_PENDING_ACCOUNT_DELETIONS
 import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_PLAN_INSTANCE_STATUS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_SETTINGS
 import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_SYNC_STATE
 import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TAGS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TEMPLATES
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TEMPLATES_TAGS
 import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS_ARCHIVE
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS_ARCHIVE_TAGS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS_FTS
 import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS_TAGS
 import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTION_ATTACHMENTS
 import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTION_ATTRIBUTES
@@ -104,8 +129,19 @@ import org.totschnig.myexpenses.provider.DatabaseConstants.VIEW_WITH_ACCOUNT
 import org.totschnig.myexpenses.sync.json.TransactionChange
 import org.totschnig.myexpenses.util.crashreporting.CrashHandler
 import timber.log.Timber
+import java.time.ZoneId
 
-const val DATABASE_VERSION = 161
+const val DATABASE_VERSION = 178
+
+/**
+ * Value of [KEY_STATUS] in the [TABLE_SYNC_STATE] row that marks a [BulkWrite] in progress. Like the
+ * row inserted by the sync adapter, it pauses the change log, and in addition the sealed guards on
+ * [TABLE_TRANSACTIONS]. Both are applied when the bulk write ends.
+ */
+const val SYNC_STATE_BULK = 2
+
+const val NOT_IN_BULK_WRITE =
+    "NOT EXISTS (SELECT 1 FROM $TABLE_SYNC_STATE WHERE $KEY_STATUS = $SYNC_STATE_BULK)"
 
 private const val RAISE_UPDATE_SEALED_DEBT = "SELECT RAISE (FAIL, 'attempt to update sealed debt');"
 private const val RAISE_INCONSISTENT_CATEGORY_HIERARCHY =
@@ -119,19 +155,19 @@ BEGIN $RAISE_UPDATE_SEALED_DEBT END
 
 private const val TRANSACTIONS_SEALED_DEBT_INSERT_TRIGGER_CREATE = """
 CREATE TRIGGER sealed_debt_transaction_insert
-BEFORE INSERT ON $TABLE_TRANSACTIONS WHEN (SELECT $KEY_SEALED FROM $TABLE_DEBTS WHERE $KEY_ROWID = new.$KEY_DEBT_ID) = 1
+BEFORE INSERT ON $TABLE_TRANSACTIONS WHEN (SELECT $KEY_SEALED FROM $TABLE_DEBTS WHERE $KEY_ROWID = new.$KEY_DEBT_ID) = 1 AND $NOT_IN_BULK_WRITE
 BEGIN $RAISE_UPDATE_SEALED_DEBT END
 """
 
 private const val TRANSACTIONS_SEALED_DEBT_UPDATE_TRIGGER_CREATE = """
 CREATE TRIGGER sealed_debt_transaction_update
-BEFORE UPDATE ON $TABLE_TRANSACTIONS WHEN (SELECT max($KEY_SEALED) FROM $TABLE_DEBTS WHERE $KEY_ROWID IN (new.$KEY_DEBT_ID,old.$KEY_DEBT_ID)) = 1
+BEFORE UPDATE ON $TABLE_TRANSACTIONS WHEN (SELECT max($KEY_SEALED) FROM $TABLE_DEBTS WHERE $KEY_ROWID IN (new.$KEY_DEBT_ID,old.$KEY_DEBT_ID)) = 1 AND $NOT_IN_BULK_WRITE
 BEGIN $RAISE_UPDATE_SEALED_DEBT END
 """
 
 private const val TRANSACTIONS_SEALED_DEBT_DELETE_TRIGGER_CREATE = """
 CREATE TRIGGER sealed_debt_transaction_delete
-BEFORE DELETE ON $TABLE_TRANSACTIONS WHEN (SELECT $KEY_SEALED FROM $TABLE_DEBTS WHERE $KEY_ROWID = old.$KEY_DEBT_ID) = 1
+BEFORE DELETE ON $TABLE_TRANSACTIONS WHEN (SELECT $KEY_SEALED FROM $TABLE_DEBTS WHERE $KEY_ROWID = old.$KEY_DEBT_ID) = 1 AND $NOT_IN_BULK_WRITE
 BEGIN $RAISE_UPDATE_SEALED_DEBT END
 """
 
@@ -259,6 +295,12 @@ CREATE TABLE $TABLE_TRANSACTION_ATTRIBUTES (
 );
 """
 
+/**
+ * lookup of transactions by attribute value, e.g. by the checksum of imported bank statement lines
+ */
+const val TRANSACTION_ATTRIBUTES_VALUE_INDEX =
+    "CREATE INDEX transaction_attributes_value_index on $TABLE_TRANSACTION_ATTRIBUTES($KEY_ATTRIBUTE_ID, $KEY_VALUE)"
+
 const val ACCOUNT_ATTRIBUTES_CREATE = """
 CREATE TABLE $TABLE_ACCOUNT_ATTRIBUTES (
     $KEY_ACCOUNTID integer references $TABLE_ACCOUNTS($KEY_ROWID) ON DELETE CASCADE,
@@ -284,15 +326,6 @@ CREATE TABLE $TABLE_TRANSACTION_ATTACHMENTS (
 );
 """
 
-private const val INCREASE_CATEGORY_USAGE_ACTION =
-    " BEGIN UPDATE $TABLE_CATEGORIES SET $KEY_USAGES = $KEY_USAGES + 1, $KEY_LAST_USED = strftime('%s', 'now')  WHERE $KEY_ROWID IN (new.$KEY_CATID , (SELECT $KEY_PARENTID FROM $TABLE_CATEGORIES WHERE $KEY_ROWID = new.$KEY_CATID)); END;"
-
-private val INCREASE_CATEGORY_USAGE_INSERT_TRIGGER =
-    "CREATE TRIGGER insert_increase_category_usage AFTER INSERT ON $TABLE_TRANSACTIONS WHEN new.$KEY_CATID IS NOT NULL AND new.$KEY_CATID != $SPLIT_CATID$INCREASE_CATEGORY_USAGE_ACTION"
-
-private const val INCREASE_CATEGORY_USAGE_UPDATE_TRIGGER =
-    "CREATE TRIGGER update_increase_category_usage AFTER UPDATE ON $TABLE_TRANSACTIONS WHEN new.$KEY_CATID IS NOT NULL AND (old.$KEY_CATID IS NULL OR new.$KEY_CATID != old.$KEY_CATID)$INCREASE_CATEGORY_USAGE_ACTION"
-
 private const val INCREASE_ACCOUNT_USAGE_ACTION =
     " BEGIN UPDATE $TABLE_ACCOUNTS SET $KEY_USAGES = $KEY_USAGES + 1, $KEY_LAST_USED = strftime('%s', 'now')  WHERE $KEY_ROWID = new.$KEY_ACCOUNTID; END;"
 
@@ -302,15 +335,536 @@ private const val INCREASE_ACCOUNT_USAGE_INSERT_TRIGGER =
 private const val INCREASE_ACCOUNT_USAGE_UPDATE_TRIGGER =
     "CREATE TRIGGER update_increase_account_usage AFTER UPDATE ON $TABLE_TRANSACTIONS WHEN new.$KEY_PARENTID IS NULL AND new.$KEY_ACCOUNTID != old.$KEY_ACCOUNTID AND (old.$KEY_TRANSFER_ACCOUNT IS NULL OR new.$KEY_ACCOUNTID != old.$KEY_TRANSFER_ACCOUNT)$INCREASE_ACCOUNT_USAGE_ACTION"
 
+const val OBJECT_USAGES_CREATE = """
+CREATE TABLE $TABLE_OBJECT_USAGES (
+    $KEY_TYPE text not null check ($KEY_TYPE in ('$USAGE_TYPE_PAYEE','$USAGE_TYPE_CATEGORY','$USAGE_TYPE_METHOD','$USAGE_TYPE_TAG')),
+    $KEY_OBJECT_ID integer not null,
+    $KEY_MAPPED_TRANSACTIONS integer not null default 0,
+    $KEY_MAPPED_TEMPLATES integer not null default 0,
+    $KEY_MAPPED_BUDGETS integer not null default 0,
+    $KEY_MAPPED_DEBTS integer not null default 0,
+    $KEY_LAST_USED datetime,
+    primary key ($KEY_TYPE, $KEY_OBJECT_ID)
+) WITHOUT ROWID;
+"""
+
+/**
+ * A reference from [column] in [table] to an object of [type], counted in [counter]
+ */
+private data class UsageSource(
+    val table: String,
+    val column: String,
+    val type: String,
+    val counter: String
+)
+
+private val USAGE_SOURCES = listOf(
+    UsageSource(TABLE_TRANSACTIONS, KEY_PAYEEID, USAGE_TYPE_PAYEE, KEY_MAPPED_TRANSACTIONS),
+    UsageSource(TABLE_TRANSACTIONS, KEY_CATID, USAGE_TYPE_CATEGORY, KEY_MAPPED_TRANSACTIONS),
+    UsageSource(TABLE_TRANSACTIONS, KEY_METHODID, USAGE_TYPE_METHOD, KEY_MAPPED_TRANSACTIONS),
+    UsageSource(TABLE_TRANSACTIONS_TAGS, KEY_TAGID, USAGE_TYPE_TAG, KEY_MAPPED_TRANSACTIONS),
+    UsageSource(TABLE_TEMPLATES, KEY_PAYEEID, USAGE_TYPE_PAYEE, KEY_MAPPED_TEMPLATES),
+    UsageSource(TABLE_TEMPLATES, KEY_CATID, USAGE_TYPE_CATEGORY, KEY_MAPPED_TEMPLATES),
+    UsageSource(TABLE_TEMPLATES, KEY_METHODID, USAGE_TYPE_METHOD, KEY_MAPPED_TEMPLATES),
+    UsageSource(TABLE_TEMPLATES_TAGS, KEY_TAGID, USAGE_TYPE_TAG, KEY_MAPPED_TEMPLATES),
+    UsageSource(TABLE_BUDGET_ALLOCATIONS, KEY_CATID, USAGE_TYPE_CATEGORY, KEY_MAPPED_BUDGETS),
+    UsageSource(TABLE_DEBTS, KEY_PAYEEID, USAGE_TYPE_PAYEE, KEY_MAPPED_DEBTS)
+)
+
+/**
+ * date of the transaction that references the object through [UsageSource.column], for sources
+ * that are transactions or link to them
+ */
+private val UsageSource.transactionDate: String?
+    get() = when (table) {
+        TABLE_TRANSACTIONS -> "new.$KEY_DATE"
+        TABLE_TRANSACTIONS_TAGS -> "(SELECT $KEY_DATE FROM $TABLE_TRANSACTIONS WHERE $KEY_ROWID = new.$KEY_TRANSACTIONID)"
+        else -> null
+    }
+
+private val USAGE_OBJECTS = mapOf(
+    USAGE_TYPE_PAYEE to TABLE_PAYEES,
+    USAGE_TYPE_CATEGORY to TABLE_CATEGORIES,
+    USAGE_TYPE_METHOD to TABLE_METHODS,
+    USAGE_TYPE_TAG to TABLE_TAGS
+)
+
+private fun UsageSource.increment(id: String) =
+    "INSERT OR IGNORE INTO $TABLE_OBJECT_USAGES ($KEY_TYPE, $KEY_OBJECT_ID) SELECT '$type', $id WHERE $id IS NOT NULL; " +
+            "UPDATE $TABLE_OBJECT_USAGES SET $counter = $counter + 1" +
+            (transactionDate?.let { ", $KEY_LAST_USED = max(coalesce($KEY_LAST_USED, 0), $it)" } ?: "") +
+            " WHERE $KEY_TYPE = '$type' AND $KEY_OBJECT_ID = $id;"
+
+private fun UsageSource.decrement(id: String) =
+    "UPDATE $TABLE_OBJECT_USAGES SET $counter = $counter - 1 WHERE $KEY_TYPE = '$type' AND $KEY_OBJECT_ID = $id;"
+
+/**
+ * Triggers that keep [TABLE_OBJECT_USAGES] up to date on every write to a table referencing
+ * payees, categories, payment methods or tags, and remove the entry once the object is deleted.
+ * [KEY_LAST_USED] holds the latest date of a transaction the object has been assigned to.
+ */
+fun objectUsageTriggers(): List<String> = USAGE_SOURCES.flatMap { source ->
+    with(source) {
+        val name = "${table}_${column}_usage"
+        listOf(
+            "CREATE TRIGGER ${name}_insert AFTER INSERT ON $table WHEN new.$column IS NOT NULL BEGIN ${increment("new.$column")} END",
+            "CREATE TRIGGER ${name}_delete AFTER DELETE ON $table WHEN old.$column IS NOT NULL BEGIN ${decrement("old.$column")} END",
+            "CREATE TRIGGER ${name}_update AFTER UPDATE OF $column ON $table WHEN old.$column IS NOT new.$column BEGIN ${decrement("old.$column")} ${increment("new.$column")} END"
+        )
+    }
+} + USAGE_OBJECTS.map { (type, table) ->
+    "CREATE TRIGGER ${table}_usage_delete AFTER DELETE ON $table BEGIN DELETE FROM $TABLE_OBJECT_USAGES WHERE $KEY_TYPE = '$type' AND $KEY_OBJECT_ID = old.$KEY_ROWID; END"
+}
+
+/**
+ * Fills [TABLE_OBJECT_USAGES] from existing data
+ */
+fun populateObjectUsages(db: SupportSQLiteDatabase) {
+    db.execSQL("DELETE FROM $TABLE_OBJECT_USAGES")
+    USAGE_SOURCES.forEach { source ->
+        with(source) {
+            db.execSQL("INSERT OR IGNORE INTO $TABLE_OBJECT_USAGES ($KEY_TYPE, $KEY_OBJECT_ID) SELECT DISTINCT '$type', $column FROM $table WHERE $column IS NOT NULL")
+            db.execSQL("UPDATE $TABLE_OBJECT_USAGES SET $counter = (SELECT count(*) FROM $table WHERE $column = $KEY_OBJECT_ID) WHERE $KEY_TYPE = '$type'")
+        }
+    }
+    populateObjectLastUsed(db)
+}
+
+private fun populateObjectLastUsed(db: SupportSQLiteDatabase) {
+    USAGE_SOURCES.forEach { source ->
+        with(source) {
+            val dates = when (table) {
+                TABLE_TRANSACTIONS -> "SELECT max($KEY_DATE) FROM $TABLE_TRANSACTIONS WHERE $column = $KEY_OBJECT_ID"
+                TABLE_TRANSACTIONS_TAGS -> "SELECT max($KEY_DATE) FROM $TABLE_TRANSACTIONS JOIN $TABLE_TRANSACTIONS_TAGS ON $KEY_ROWID = $KEY_TRANSACTIONID WHERE $column = $KEY_OBJECT_ID"
+                else -> return@forEach
+            }
+            db.execSQL("UPDATE $TABLE_OBJECT_USAGES SET $KEY_LAST_USED = ($dates) WHERE $KEY_TYPE = '$type'")
+        }
+    }
+}
+
+private val objectUsageTriggerNames: List<String>
+    get() = USAGE_SOURCES.flatMap { source ->
+        with(source) {
+            val name = "${table}_${column}_usage"
+            listOf("${name}_insert", "${name}_delete", "${name}_update")
+        }
+    } + USAGE_OBJECTS.values.map { "${it}_usage_delete" }
+
+/**
+ * Restores [KEY_LAST_USED] of [TABLE_OBJECT_USAGES], which now replaces the usage columns of
+ * [TABLE_CATEGORIES] for sorting categories
+ */
+fun SupportSQLiteDatabase.upgradeObjectUsagesLastUsed() {
+    execSQL("DROP TRIGGER IF EXISTS insert_increase_category_usage")
+    execSQL("DROP TRIGGER IF EXISTS update_increase_category_usage")
+    objectUsageTriggerNames.forEach { execSQL("DROP TRIGGER IF EXISTS $it") }
+    execSQL("ALTER TABLE $TABLE_OBJECT_USAGES ADD COLUMN $KEY_LAST_USED datetime")
+    objectUsageTriggers().forEach { execSQL(it) }
+    populateObjectLastUsed(this)
+}
+
 const val TRANSACTIONS_UUID_INDEX_CREATE =
     "CREATE UNIQUE INDEX transactions_account_uuid_index ON $TABLE_TRANSACTIONS($KEY_ACCOUNTID,$KEY_UUID,$KEY_STATUS)"
 
+/**
+ * status of plan instances is looked up for all templates over a range of instances at once
+ */
+const val PLAN_INSTANCE_STATUS_INSTANCE_ID_INDEX =
+    "CREATE INDEX planinstance_transaction_instance_id_index on $TABLE_PLAN_INSTANCE_STATUS($KEY_INSTANCEID)"
+
 const val TRANSACTIONS_CAT_ID_INDEX =
     "CREATE INDEX transactions_cat_id_index on $TABLE_TRANSACTIONS($KEY_CATID)"
 
 const val TRANSACTIONS_PAYEE_ID_INDEX =
     "CREATE INDEX transactions_payee_id_index on $TABLE_TRANSACTIONS($KEY_PAYEEID)"
 
+const val TRANSACTIONS_DEBT_ID_INDEX =
+    "CREATE INDEX transactions_debt_id_index on $TABLE_TRANSACTIONS($KEY_DEBT_ID) WHERE $KEY_DEBT_ID IS NOT NULL"
+
+/**
+ * lookup of the peer when a transfer is unlinked, and of the foreign key referencing a deleted transaction
+ */
+const val TRANSACTIONS_TRANSFER_PEER_INDEX =
+    "CREATE INDEX transactions_transfer_peer_index on $TABLE_TRANSACTIONS($KEY_TRANSFER_PEER) WHERE $KEY_TRANSFER_PEER IS NOT NULL"
+
+/**
+ * lookup of split parts, needed for cascading the deletion of split transactions
+ */
+const val TRANSACTIONS_PARENT_ID_INDEX =
+    "CREATE INDEX transactions_parent_id_index on $TABLE_TRANSACTIONS($KEY_PARENTID) WHERE $KEY_PARENTID IS NOT NULL"
+
+/**
+ * counting the transactions of an account before a given date, needed for jumping to a date in the
+ * transaction list. Covers the count, split parts are not listed on their own.
+ */
+const val TRANSACTIONS_ACCOUNT_ID_DATE_INDEX =
+    "CREATE INDEX transactions_account_id_date_index on $TABLE_TRANSACTIONS($KEY_ACCOUNTID, $KEY_DATE, $KEY_STATUS) WHERE $KEY_PARENTID IS NULL"
+
+/**
+ * the primary key starts with the tag, deleting a transaction needs lookup by transaction
+ */
+const val TRANSACTIONS_TAGS_TRANSACTION_ID_INDEX =
+    "CREATE INDEX transactions_tags_transaction_id_index on $TABLE_TRANSACTIONS_TAGS($KEY_TRANSACTIONID)"
+
+/**
+ * the columns of [TABLE_TRANSACTIONS] that are preserved in [TABLE_TRANSACTIONS_ARCHIVE]
+ */
+val ARCHIVE_COLUMNS = listOf(
+    KEY_ROWID, KEY_COMMENT, KEY_DATE, KEY_VALUE_DATE, KEY_AMOUNT, KEY_CATID, KEY_ACCOUNTID,
+    KEY_PAYEEID, KEY_TRANSFER_PEER, KEY_TRANSFER_ACCOUNT, KEY_METHODID, KEY_PARENTID, KEY_STATUS,
+    KEY_CR_STATUS, KEY_REFERENCE_NUMBER, KEY_UUID, KEY_ORIGINAL_AMOUNT, KEY_ORIGINAL_CURRENCY,
+    KEY_EQUIVALENT_AMOUNT, KEY_DEBT_ID
+).joinToString()
+
+/**
+ * Transactions moved out of [TABLE_TRANSACTIONS] by [TransactionArchive.archive], with their
+ * original ids. Only the account is referenced with a foreign key, so that archived data does not
+ * slow down deletion of categories, payees, methods or debts, references to which are checked when
+ * the archive is restored.
+ */
+const val TRANSACTIONS_ARCHIVE_CREATE = """
+CREATE TABLE $TABLE_TRANSACTIONS_ARCHIVE (
+    $KEY_ROWID integer primary key,
+    $KEY_COMMENT text,
+    $KEY_DATE datetime not null,
+    $KEY_VALUE_DATE datetime not null,
+    $KEY_AMOUNT integer not null,
+    $KEY_CATID integer,
+    $KEY_ACCOUNTID integer not null references $TABLE_ACCOUNTS($KEY_ROWID) ON DELETE CASCADE,
+    $KEY_PAYEEID integer,
+    $KEY_TRANSFER_PEER integer,
+    $KEY_TRANSFER_ACCOUNT integer,
+    $KEY_METHODID integer,
+    $KEY_PARENTID integer,
+    $KEY_STATUS integer,
+    $KEY_CR_STATUS text not null,
+    $KEY_REFERENCE_NUMBER text,
+    $KEY_UUID text,
+    $KEY_ORIGINAL_AMOUNT integer,
+    $KEY_ORIGINAL_CURRENCY text,
+    $KEY_EQUIVALENT_AMOUNT integer,
+    $KEY_DEBT_ID integer
+);
+"""
+
+const val TRANSACTIONS_ARCHIVE_ACCOUNT_ID_INDEX =
+    "CREATE INDEX transactions_archive_account_id_index on $TABLE_TRANSACTIONS_ARCHIVE($KEY_ACCOUNTID, $KEY_DATE)"
+
+const val TRANSACTIONS_ARCHIVE_TAGS_CREATE = """
+CREATE TABLE $TABLE_TRANSACTIONS_ARCHIVE_TAGS (
+    $KEY_TRANSACTIONID integer references $TABLE_TRANSACTIONS_ARCHIVE($KEY_ROWID) ON DELETE CASCADE,
+    $KEY_TAGID integer references $TABLE_TAGS($KEY_ROWID) ON DELETE CASCADE,
+    primary key ($KEY_TRANSACTIONID, $KEY_TAGID)
+);
+"""
+
+/**
+ * Written by [TransactionDeletion.hide] when all transactions of an account are deleted, so that
+ * the deletion can be resumed after the process has been killed. Removed together with the account.
+ */
+const val PENDING_ACCOUNT_DELETIONS_CREATE = """
+CREATE TABLE $TABLE_PENDING_ACCOUNT_DELETIONS (
+    $KEY_ACCOUNTID integer primary key references $TABLE_ACCOUNTS($KEY_ROWID) ON DELETE CASCADE
+);
+"""
+
+private const val RAISE_UPDATE_ACCOUNT_PENDING_DELETION =
+    "SELECT RAISE (FAIL, 'attempt to update account pending deletion');"
+
+private fun isPendingDeletion(account: String) =
+    "$account IN (SELECT $KEY_ACCOUNTID FROM $TABLE_PENDING_ACCOUNT_DELETIONS)"
+
+/**
+ * Transactions written into an account pending deletion would be deleted together with it
+ */
+private val PENDING_DELETION_TRIGGERS = listOf(
+    """CREATE TRIGGER pending_deletion_transaction_insert
+ BEFORE INSERT ON $TABLE_TRANSACTIONS
+ WHEN ${isPendingDeletion("new.$KEY_ACCOUNTID")} OR ${isPendingDeletion("new.$KEY_TRANSFER_ACCOUNT")}
+ BEGIN $RAISE_UPDATE_ACCOUNT_PENDING_DELETION END""",
+    """CREATE TRIGGER pending_deletion_transaction_update
+ BEFORE UPDATE OF $KEY_ACCOUNTID, $KEY_TRANSFER_ACCOUNT ON $TABLE_TRANSACTIONS
+ WHEN (new.$KEY_ACCOUNTID IS NOT old.$KEY_ACCOUNTID AND ${isPendingDeletion("new.$KEY_ACCOUNTID")}) OR (new.$KEY_TRANSFER_ACCOUNT IS NOT old.$KEY_TRANSFER_ACCOUNT AND ${isPendingDeletion("new.$KEY_TRANSFER_ACCOUNT")})
+ BEGIN $RAISE_UPDATE_ACCOUNT_PENDING_DELETION END"""
+)
+
+/**
+ * Per debt and account: the sum of amounts, the sum of equivalent amounts of those transactions
+ * that store one (split parts derive it from their parent), and the sum of amounts of those
+ * that do not, which is converted with the account's current exchange rate when read, and the
+ * number of transactions, so that rows can be removed once it drops to zero.
+ */
+const val DEBT_BALANCES_CREATE = """
+CREATE TABLE $TABLE_DEBT_BALANCES (
+    $KEY_DEBT_ID integer not null references $TABLE_DEBTS($KEY_ROWID) ON DELETE CASCADE,
+    $KEY_ACCOUNTID integer not null,
+    $KEY_AMOUNT integer not null,
+    $KEY_EQUIVALENT_AMOUNT integer not null,
+    $KEY_AMOUNT_WITHOUT_EQUIVALENT integer not null,
+    $KEY_COUNT integer not null,
+    primary key ($KEY_DEBT_ID, $KEY_ACCOUNTID)
+) WITHOUT ROWID;
+"""
+
+private fun debtEquivalentAmount(row: String) = "CASE WHEN $row.$KEY_PARENTID THEN " +
+        "(SELECT 1.0 * parent.$KEY_EQUIVALENT_AMOUNT / parent.$KEY_AMOUNT FROM $TABLE_TRANSACTIONS parent WHERE parent.$KEY_ROWID = $row.$KEY_PARENTID) * $row.$KEY_AMOUNT " +
+        "ELSE $row.$KEY_EQUIVALENT_AMOUNT END"
+
+private fun countsForDebtBalances(row: String) =
+    "$row.$KEY_DEBT_ID IS NOT NULL AND $row.$KEY_STATUS NOT IN ($STATUS_UNCOMMITTED, $STATUS_DELETING)"
+
+/**
+ * @param debtSelection a list of debt ids or a subquery selecting them
+ * @return select statement computing the rows of [TABLE_DEBT_BALANCES] for the selected debts
+ */
+fun debtBalancesSelect(debtSelection: String? = null) = """
+SELECT $KEY_DEBT_ID, $KEY_ACCOUNTID, sum($KEY_AMOUNT), sum(coalesce(cast(equivalent as integer), 0)), sum(CASE WHEN equivalent IS NULL THEN $KEY_AMOUNT ELSE 0 END), count(*)
+FROM (SELECT $KEY_DEBT_ID, $KEY_ACCOUNTID, $KEY_AMOUNT, ${debtEquivalentAmount(TABLE_TRANSACTIONS)} AS equivalent FROM $TABLE_TRANSACTIONS
+WHERE ${countsForDebtBalances(TABLE_TRANSACTIONS)}${debtSelection?.let { " AND $KEY_DEBT_ID IN ($it)" } ?: ""})
+GROUP BY $KEY_DEBT_ID, $KEY_ACCOUNTID
+"""
+
+private fun refreshDebtBalances(debtSelection: String) = """
+    DELETE FROM $TABLE_DEBT_BALANCES WHERE $KEY_DEBT_ID IN ($debtSelection);
+    INSERT INTO $TABLE_DEBT_BALANCES ${debtBalancesSelect(debtSelection)};
+"""
+
+/**
+ * Adds ([sign] +) or removes ([sign] -) the contribution of [row] to its debt balance, if it
+ * counts for it. Split parts read their parent, which therefore must still exist.
+ */
+private fun applyToDebtBalances(row: String, sign: Char): String {
+    val equivalent = debtEquivalentAmount(row)
+    val match = "$KEY_DEBT_ID = $row.$KEY_DEBT_ID AND $KEY_ACCOUNTID = $row.$KEY_ACCOUNTID"
+    return (if (sign == '+') """
+    INSERT OR IGNORE INTO $TABLE_DEBT_BALANCES SELECT $row.$KEY_DEBT_ID, $row.$KEY_ACCOUNTID, 0, 0, 0, 0 WHERE ${countsForDebtBalances(row)};""" else "") + """
+    UPDATE $TABLE_DEBT_BALANCES SET $KEY_AMOUNT = $KEY_AMOUNT $sign $row.$KEY_AMOUNT,
+        $KEY_EQUIVALENT_AMOUNT = $KEY_EQUIVALENT_AMOUNT $sign coalesce(cast(($equivalent) AS integer), 0),
+        $KEY_AMOUNT_WITHOUT_EQUIVALENT = $KEY_AMOUNT_WITHOUT_EQUIVALENT $sign CASE WHEN ($equivalent) IS NULL THEN $row.$KEY_AMOUNT ELSE 0 END,
+        $KEY_COUNT = $KEY_COUNT $sign 1
+    WHERE $match AND ${countsForDebtBalances(row)};
+    DELETE FROM $TABLE_DEBT_BALANCES WHERE $match AND $KEY_COUNT = 0;
+"""
+}
+
+private const val HAS_PARTS_WITH_DEBT =
+    "EXISTS (SELECT 1 FROM $TABLE_TRANSACTIONS WHERE $KEY_PARENTID = new.$KEY_ROWID AND $KEY_DEBT_ID IS NOT NULL)"
+
+private val DEBT_BALANCES_INSERT_TRIGGER = """
+CREATE TRIGGER debt_balances_insert AFTER INSERT ON $TABLE_TRANSACTIONS
+WHEN ${countsForDebtBalances("new")}
+BEGIN
+    ${applyToDebtBalances("new", '+')}
+END
+"""
+
+private const val DEBT_BALANCES_UPDATE_COLUMNS =
+    "$KEY_DEBT_ID, $KEY_AMOUNT, $KEY_EQUIVALENT_AMOUNT, $KEY_ACCOUNTID, $KEY_STATUS, $KEY_PARENTID"
+
+private val DEBT_BALANCES_UPDATE_TRIGGER = """
+CREATE TRIGGER debt_balances_update AFTER UPDATE OF $DEBT_BALANCES_UPDATE_COLUMNS ON $TABLE_TRANSACTIONS
+WHEN (old.$KEY_DEBT_ID IS NOT NULL OR new.$KEY_DEBT_ID IS NOT NULL) AND NOT $HAS_PARTS_WITH_DEBT
+BEGIN
+    ${applyToDebtBalances("old", '-')}
+    ${applyToDebtBalances("new", '+')}
+END
+"""
+
+//changes to a split parent are propagated to the debts of its parts, since their equivalent amount
+//depends on it, this is rare enough to recompute the affected debts
+private val DEBT_BALANCES_SPLIT_UPDATE_TRIGGER = """
+CREATE TRIGGER debt_balances_split_update AFTER UPDATE OF $DEBT_BALANCES_UPDATE_COLUMNS ON $TABLE_TRANSACTIONS
+WHEN $HAS_PARTS_WITH_DEBT
+BEGIN
+    ${refreshDebtBalances("SELECT old.$KEY_DEBT_ID UNION SELECT new.$KEY_DEBT_ID UNION SELECT $KEY_DEBT_ID FROM $TABLE_TRANSACTIONS WHERE $KEY_PARENTID = new.$KEY_ROWID AND $KEY_DEBT_ID IS NOT NULL")}
+END
+"""
+
+private val DEBT_BALANCES_DELETE_TRIGGER = """
+CREATE TRIGGER debt_balances_delete AFTER DELETE ON $TABLE_TRANSACTIONS
+WHEN ${countsForDebtBalances("old")} AND old.$KEY_PARENTID IS NULL
+BEGIN
+    ${applyToDebtBalances("old", '-')}
+END
+"""
+
+//split parts are deleted together with their parent, whose equivalent amount is then gone
+private val DEBT_BALANCES_PART_DELETE_TRIGGER = """
+CREATE TRIGGER debt_balances_part_delete AFTER DELETE ON $TABLE_TRANSACTIONS
+WHEN old.$KEY_DEBT_ID IS NOT NULL AND old.$KEY_PARENTID IS NOT NULL
+BEGIN
+    ${refreshDebtBalances("old.$KEY_DEBT_ID")}
+END
+"""
+
+/**
+ * Per account, category and local day: the sum of amounts, and the sum of negative amounts, which
+ * is what a category of neutral type contributes to expenses. Transactions without category are
+ * stored with a null category, split transactions are represented by their parts. The day is stored
+ * as the timestamp of its noon, so that the date filters used for transactions apply unchanged.
+ */
+const val DAILY_CATEGORY_SUMS_CREATE = """
+CREATE TABLE $TABLE_DAILY_CATEGORY_SUMS (
+    $KEY_ACCOUNTID integer not null,
+    $KEY_CATID integer,
+    $KEY_DATE integer not null,
+    $KEY_AMOUNT integer not null,
+    $KEY_NEGATIVE_AMOUNT integer not null
+);
+"""
+
+const val DAILY_CATEGORY_SUMS_INDEX =
+    "CREATE INDEX daily_category_sums_account_id_date_index on $TABLE_DAILY_CATEGORY_SUMS($KEY_ACCOUNTID, $KEY_DATE)"
+
+private fun localDay(epoch: String) = "date($epoch, 'unixepoch', 'localtime')"
+
+private fun localDayStart(epoch: String, modifier: String = "") =
+    "CAST(strftime('%s', ${localDay(epoch)}$modifier, 'utc') AS integer)"
+
+private fun localDayNoon(epoch: String) = localDayStart(epoch, ", '+12 hours'")
+
+private fun countsForDailySums(row: String) =
+    "$row.$KEY_STATUS NOT IN ($STATUS_UNCOMMITTED, $STATUS_DELETING) AND $row.$KEY_CR_STATUS != '${CrStatus.VOID.name}' AND $row.$KEY_CATID IS NOT $SPLIT_CATID"
+
+/**
+ * @return select statement computing the rows of [TABLE_DAILY_CATEGORY_SUMS] for the transactions
+ * matching [selection]
+ */
+fun dailyCategorySumsSelect(selection: String? = null) = """
+SELECT $KEY_ACCOUNTID, $KEY_CATID, ${localDayNoon(KEY_DATE)} AS day, sum($KEY_AMOUNT), sum(min($KEY_AMOUNT, 0))
+FROM $TABLE_TRANSACTIONS WHERE ${countsForDailySums(TABLE_TRANSACTIONS)}${selection?.let { " AND $it" } ?: ""}
+GROUP BY $KEY_ACCOUNTID, $KEY_CATID, day
+"""
+
+//the range on date lets the lookup use the index on account and date
+private fun refreshDailyCategorySums(row: String) = """
+    DELETE FROM $TABLE_DAILY_CATEGORY_SUMS WHERE $KEY_ACCOUNTID = $row.$KEY_ACCOUNTID AND $KEY_DATE = ${localDayNoon("$row.$KEY_DATE")};
+    INSERT INTO $TABLE_DAILY_CATEGORY_SUMS ${dailyCategorySumsSelect("$KEY_ACCOUNTID = $row.$KEY_ACCOUNTID AND $KEY_DATE >= ${localDayStart("$row.$KEY_DATE")} AND $KEY_DATE < ${localDayStart("$row.$KEY_DATE", ", '+1 day'")}")};
+"""
+
+/**
+ * key in [TABLE_SETTINGS] of the time zone whose local days [TABLE_DAILY_CATEGORY_SUMS] is keyed by
+ */
+private const val DAILY_CATEGORY_SUMS_ZONE = "daily_category_sums_zone"
+
+/**
+ * (re)builds the daily category sums from scratch for the current time zone
+ */
+fun populateDailyCategorySums(db: SupportSQLiteDatabase) {
+    with(db) {
+        execSQL("DELETE FROM $TABLE_DAILY_CATEGORY_SUMS")
+        execSQL("INSERT INTO $TABLE_DAILY_CATEGORY_SUMS ${dailyCategorySumsSelect()}")
+        execSQL(
+            "INSERT OR REPLACE INTO $TABLE_SETTINGS ($KEY_KEY, $KEY_VALUE) VALUES (?, ?)",
+            arrayOf(DAILY_CATEGORY_SUMS_ZONE, ZoneId.systemDefault().id)
+        )
+    }
+}
+
+/**
+ * The triggers key the sums by the local day in the current time zone, so after the zone has
+ * changed, rows of the same day would be stored twice. Rebuilds the sums in that case.
+ * @return true if the sums have been rebuilt
+ */
+fun checkDailyCategorySumsZone(db: SupportSQLiteDatabase): Boolean {
+    val builtFor = db.query(
+        "SELECT $KEY_VALUE FROM $TABLE_SETTINGS WHERE $KEY_KEY = ?",
+        arrayOf(DAILY_CATEGORY_SUMS_ZONE)
+    ).use { if (it.moveToFirst()) it.getString(0) else null }
+    if (builtFor == ZoneId.systemDefault().id) return false
+    db.beginTransaction()
+    try {
+        populateDailyCategorySums(db)
+        db.setTransactionSuccessful()
+    } finally {
+        db.endTransaction()
+    }
+    return true
+}
+
+private val DAILY_CATEGORY_SUMS_INSERT_TRIGGER = """
+CREATE TRIGGER daily_category_sums_insert AFTER INSERT ON $TABLE_TRANSACTIONS
+WHEN ${countsForDailySums("new")}
+BEGIN
+    ${refreshDailyCategorySums("new")}
+END
+"""
+
+private val DAILY_CATEGORY_SUMS_UPDATE_TRIGGER = """
+CREATE TRIGGER daily_category_sums_update AFTER UPDATE OF $KEY_AMOUNT, $KEY_CATID, $KEY_ACCOUNTID, $KEY_DATE, $KEY_STATUS, $KEY_CR_STATUS ON $TABLE_TRANSACTIONS
+WHEN (${countsForDailySums("old")}) OR (${countsForDailySums("new")})
+BEGIN
+    ${refreshDailyCategorySums("old")}
+    ${refreshDailyCategorySums("new")}
+END
+"""
+
+private val DAILY_CATEGORY_SUMS_DELETE_TRIGGER = """
+CREATE TRIGGER daily_category_sums_delete AFTER DELETE ON $TABLE_TRANSACTIONS
+WHEN ${countsForDailySums("old")}
+BEGIN
+    ${refreshDailyCategorySums("old")}
+END
+"""
+
+/**
+ * Per account a counter that is incremented whenever the account, one of its transactions or one
+ * of its exchange rates changes. Widgets compare it with the version they have rendered, so that
+ * change notifications only lead to recomputing widgets whose accounts have been touched. Rows are
+ * only created for existing accounts, so that transactions deleted together with their account do
+ * not recreate the row that has been removed with it.
+ */
+const val ACCOUNT_DATA_VERSIONS_CREATE = """
+CREATE TABLE $TABLE_ACCOUNT_DATA_VERSIONS (
+    $KEY_ACCOUNTID integer primary key,
+    $KEY_DATA_VERSION integer not null
+);
+"""
+
+private fun bumpAccountDataVersion(accountId: String) = """
+    INSERT OR IGNORE INTO $TABLE_ACCOUNT_DATA_VERSIONS ($KEY_ACCOUNTID, $KEY_DATA_VERSION) SELECT $KEY_ROWID, 0 FROM $TABLE_ACCOUNTS WHERE $KEY_ROWID = $accountId;
+    UPDATE $TABLE_ACCOUNT_DATA_VERSIONS SET $KEY_DATA_VERSION = $KEY_DATA_VERSION + 1 WHERE $KEY_ACCOUNTID = $accountId;
+"""
+
+private fun accountDataVersionTrigger(name: String, event: String, vararg accountIds: String) = """
+CREATE TRIGGER $name AFTER $event
+BEGIN
+    ${accountIds.joinToString("") { bumpAccountDataVersion(it) }}
+END
+"""
+
+private val ACCOUNT_DATA_VERSION_TRIGGERS = listOf(
+    accountDataVersionTrigger("account_data_version_transaction_insert", "INSERT ON $TABLE_TRANSACTIONS", "new.$KEY_ACCOUNTID"),
+    accountDataVersionTrigger("account_data_version_transaction_update", "UPDATE ON $TABLE_TRANSACTIONS", "old.$KEY_ACCOUNTID", "new.$KEY_ACCOUNTID"),
+    accountDataVersionTrigger("account_data_version_transaction_delete", "DELETE ON $TABLE_TRANSACTIONS", "old.$KEY_ACCOUNTID"),
+    accountDataVersionTrigger("account_data_version_account_insert", "INSERT ON $TABLE_ACCOUNTS", "new.$KEY_ROWID"),
+    accountDataVersionTrigger("account_data_version_account_update", "UPDATE ON $TABLE_ACCOUNTS", "new.$KEY_ROWID"),
+    """
+CREATE TRIGGER account_data_version_account_delete AFTER DELETE ON $TABLE_ACCOUNTS
+BEGIN
+    DELETE FROM $TABLE_ACCOUNT_DATA_VERSIONS WHERE $KEY_ACCOUNTID = old.$KEY_ROWID;
+END
+""",
+    accountDataVersionTrigger("account_data_version_exchange_rate_insert", "INSERT ON $TABLE_ACCOUNT_EXCHANGE_RATES", "new.$KEY_ACCOUNTID"),
+    accountDataVersionTrigger("account_data_version_exchange_rate_update", "UPDATE ON $TABLE_ACCOUNT_EXCHANGE_RATES", "new.$KEY_ACCOUNTID")
+)
+
+private val ACCOUNT_DATA_VERSION_TRIGGER_NAME = Regex("CREATE TRIGGER (\\w+)")
+
+/**
+ * @param accountId an account, or null for all accounts
+ * @return the data version of the account, or of all accounts, which changes whenever one of
+ * them changes, or an account is added or removed
+ */
+fun accountDataVersion(db: SupportSQLiteDatabase, accountId: Long?): String = db.query(
+    "SELECT count(*), total($KEY_DATA_VERSION) FROM $TABLE_ACCOUNT_DATA_VERSIONS" +
+            (accountId?.let { " WHERE $KEY_ACCOUNTID = $it" } ?: "")
+).use {
+    it.moveToFirst()
+    "${it.getLong(0)}:${it.getLong(1)}"
+}
+
 private const val RAISE_UPDATE_SEALED_ACCOUNT =
     "SELECT RAISE (FAIL, 'attempt to update sealed account');"
 
@@ -323,7 +877,7 @@ const val ACCOUNTS_SEALED_TRIGGER_CREATE =
 const val TRANSACTIONS_SEALED_INSERT_TRIGGER_CREATE =
     """CREATE TRIGGER sealed_account_transaction_insert
  BEFORE INSERT ON $TABLE_TRANSACTIONS
- WHEN (SELECT $KEY_SEALED FROM $TABLE_ACCOUNTS WHERE $KEY_ROWID = new.$KEY_ACCOUNTID) = 1
+ WHEN (SELECT $KEY_SEALED FROM $TABLE_ACCOUNTS WHERE $KEY_ROWID = new.$KEY_ACCOUNTID) = 1 AND $NOT_IN_BULK_WRITE
  BEGIN $RAISE_UPDATE_SEALED_ACCOUNT END"""
 
 //we allow update of status
@@ -331,7 +885,7 @@ const val TRANSACTIONS_SEALED_UPDATE_TRIGGER_CREATE =
     """CREATE TRIGGER sealed_account_transaction_update
  BEFORE UPDATE OF $KEY_COMMENT, $KEY_DATE, $KEY_VALUE_DATE, $KEY_AMOUNT, $KEY_CATID, $KEY_ACCOUNTID, $KEY_PAYEEID, $KEY_TRANSFER_PEER, $KEY_TRANSFER_ACCOUNT, $KEY_METHODID, $KEY_PARENTID, $KEY_REFERENCE_NUMBER, $KEY_UUID, $KEY_ORIGINAL_AMOUNT, $KEY_ORIGINAL_CURRENCY, $KEY_EQUIVALENT_AMOUNT, $KEY_DEBT_ID, $KEY_CR_STATUS
  ON $TABLE_TRANSACTIONS
- WHEN (SELECT max($KEY_SEALED) FROM $TABLE_ACCOUNTS WHERE $KEY_ROWID IN (new.$KEY_ACCOUNTID,old.$KEY_ACCOUNTID)) = 1
+ WHEN (SELECT max($KEY_SEALED) FROM $TABLE_ACCOUNTS WHERE $KEY_ROWID IN (new.$KEY_ACCOUNTID,old.$KEY_ACCOUNTID)) = 1 AND $NOT_IN_BULK_WRITE
  BEGIN $RAISE_UPDATE_SEALED_ACCOUNT END"""
 
 //we allow update of cr_status and status
@@ -339,38 +893,167 @@ const val TRANSFER_SEALED_UPDATE_TRIGGER_CREATE =
     """CREATE TRIGGER sealed_account_tranfer_update
  BEFORE UPDATE OF $KEY_COMMENT, $KEY_DATE, $KEY_VALUE_DATE, $KEY_AMOUNT, $KEY_CATID, $KEY_ACCOUNTID, $KEY_PAYEEID, $KEY_TRANSFER_PEER, $KEY_TRANSFER_ACCOUNT, $KEY_METHODID, $KEY_PARENTID, $KEY_REFERENCE_NUMBER, $KEY_UUID, $KEY_ORIGINAL_AMOUNT, $KEY_ORIGINAL_CURRENCY, $KEY_EQUIVALENT_AMOUNT, $KEY_DEBT_ID
  ON $TABLE_TRANSACTIONS
- WHEN (SELECT $KEY_SEALED FROM $TABLE_ACCOUNTS WHERE $KEY_ROWID = old.$KEY_TRANSFER_ACCOUNT) = 1
+ WHEN (SELECT $KEY_SEALED FROM $TABLE_ACCOUNTS WHERE $KEY_ROWID = old.$KEY_TRANSFER_ACCOUNT) = 1 AND $NOT_IN_BULK_WRITE
  BEGIN $RAISE_UPDATE_SEALED_ACCOUNT END"""
 
 
 const val TRANSACTIONS_SEALED_DELETE_TRIGGER_CREATE =
     """CREATE TRIGGER sealed_account_transaction_delete
  BEFORE DELETE ON $TABLE_TRANSACTIONS
- WHEN (SELECT $KEY_SEALED FROM $TABLE_ACCOUNTS WHERE $KEY_ROWID = old.$KEY_ACCOUNTID) = 1
+ WHEN (SELECT $KEY_SEALED FROM $TABLE_ACCOUNTS WHERE $KEY_ROWID = old.$KEY_ACCOUNTID) = 1 AND $NOT_IN_BULK_WRITE
  BEGIN $RAISE_UPDATE_SEALED_ACCOUNT END"""
 
 
 const val VIEW_WITH_ACCOUNT_DEFINITION =
-    """CREATE VIEW $VIEW_WITH_ACCOUNT AS SELECT $TABLE_TRANSACTIONS.*, $TABLE_CATEGORIES.$KEY_TYPE, $TABLE_ACCOUNTS.$KEY_COLOR, $KEY_CURRENCY, $KEY_EXCLUDE_FROM_TOTALS, $TABLE_ACCOUNTS.$KEY_TYPE AS $KEY_ACCOUNT_TYPE, $TABLE_ACCOUNTS.$KEY_LABEL AS $KEY_ACCOUNT_LABEL FROM $TABLE_TRANSACTIONS LEFT JOIN $TABLE_CATEGORIES on $KEY_CATID = $TABLE_CATEGORIES.$KEY_ROWID LEFT JOIN $TABLE_ACCOUNTS ON $KEY_ACCOUNTID = $TABLE_ACCOUNTS.$KEY_ROWID WHERE $KEY_STATUS != $STATUS_UNCOMMITTED"""
+    """CREATE VIEW $VIEW_WITH_ACCOUNT AS SELECT $TABLE_TRANSACTIONS.*, $TABLE_CATEGORIES.$KEY_TYPE, $TABLE_ACCOUNTS.$KEY_COLOR, $KEY_CURRENCY, $KEY_EXCLUDE_FROM_TOTALS, $TABLE_ACCOUNTS.$KEY_TYPE AS $KEY_ACCOUNT_TYPE, $TABLE_ACCOUNTS.$KEY_LABEL AS $KEY_ACCOUNT_LABEL FROM $TABLE_TRANSACTIONS LEFT JOIN $TABLE_CATEGORIES on $KEY_CATID = $TABLE_CATEGORIES.$KEY_ROWID LEFT JOIN $TABLE_ACCOUNTS ON $KEY_ACCOUNTID = $TABLE_ACCOUNTS.$KEY_ROWID WHERE $KEY_STATUS NOT IN ($STATUS_UNCOMMITTED, $STATUS_DELETING)"""
 
 const val SPLIT_PART_CR_STATUS_TRIGGER_CREATE =
     """CREATE TRIGGER split_part_cr_status_trigger
  AFTER UPDATE OF $KEY_CR_STATUS ON $TABLE_TRANSACTIONS
  BEGIN UPDATE $TABLE_TRANSACTIONS SET $KEY_CR_STATUS = new.$KEY_CR_STATUS WHERE $KEY_PARENTID = new.$KEY_ROWID; END"""
 
+//unicode61 folds case and removes diacritics, which matches what Utils.normalize does on the query side
+const val TRANSACTIONS_FTS_CREATE =
+    "CREATE VIRTUAL TABLE $TABLE_TRANSACTIONS_FTS USING fts4($KEY_COMMENT, $KEY_PAYEE_NAME, $KEY_TAGLIST, $KEY_REFERENCE_NUMBER, tokenize=unicode61)"
+
+private fun ftsPayeeSelect(reference: String) =
+    "(SELECT $KEY_PAYEE_NAME FROM $TABLE_PAYEES WHERE $KEY_ROWID = $reference.$KEY_PAYEEID)"
+
+private fun ftsTagListSelect(transactionId: String) =
+    "(SELECT group_concat($KEY_LABEL, ' ') FROM $TABLE_TRANSACTIONS_TAGS JOIN $TABLE_TAGS ON $KEY_TAGID = $TABLE_TAGS.$KEY_ROWID WHERE $KEY_TRANSACTIONID = $transactionId)"
+
+private val TRANSACTIONS_FTS_INSERT_TRIGGER = """
+CREATE TRIGGER transactions_fts_insert AFTER INSERT ON $TABLE_TRANSACTIONS
+BEGIN
+    INSERT INTO $TABLE_TRANSACTIONS_FTS (docid, $KEY_COMMENT, $KEY_PAYEE_NAME, $KEY_REFERENCE_NUMBER)
+    VALUES (new.$KEY_ROWID, new.$KEY_COMMENT, ${ftsPayeeSelect("new")}, new.$KEY_REFERENCE_NUMBER);
+END
+"""
+
+private val TRANSACTIONS_FTS_UPDATE_TRIGGER = """
+CREATE TRIGGER transactions_fts_update AFTER UPDATE OF $KEY_COMMENT, $KEY_PAYEEID, $KEY_REFERENCE_NUMBER ON $TABLE_TRANSACTIONS
+BEGIN
+    UPDATE $TABLE_TRANSACTIONS_FTS SET $KEY_COMMENT = new.$KEY_COMMENT, $KEY_PAYEE_NAME = ${ftsPayeeSelect("new")}, $KEY_REFERENCE_NUMBER = new.$KEY_REFERENCE_NUMBER
+    WHERE docid = new.$KEY_ROWID;
+END
+"""
+
+private const val TRANSACTIONS_FTS_DELETE_TRIGGER = """
+CREATE TRIGGER transactions_fts_delete AFTER DELETE ON $TABLE_TRANSACTIONS
+BEGIN
+    DELETE FROM $TABLE_TRANSACTIONS_FTS WHERE docid = old.$KEY_ROWID;
+END
+"""
+
+private const val PAYEE_FTS_UPDATE_TRIGGER = """
+CREATE TRIGGER payee_fts_update AFTER UPDATE OF $KEY_PAYEE_NAME ON $TABLE_PAYEES
+BEGIN
+    UPDATE $TABLE_TRANSACTIONS_FTS SET $KEY_PAYEE_NAME = new.$KEY_PAYEE_NAME
+    WHERE docid IN (SELECT $KEY_ROWID FROM $TABLE_TRANSACTIONS WHERE $KEY_PAYEEID = new.$KEY_ROWID);
+END
+"""
+
+private fun transactionTagsFtsTrigger(operation: String): String {
+    val reference = if (operation == "INSERT") "new" else "old"
+    return """
+CREATE TRIGGER transactions_tags_fts_${operation.lowercase()} AFTER $operation ON $TABLE_TRANSACTIONS_TAGS
+BEGIN
+    UPDATE $TABLE_TRANSACTIONS_FTS SET $KEY_TAGLIST = ${ftsTagListSelect("$reference.$KEY_TRANSACTIONID")}
+    WHERE docid = $reference.$KEY_TRANSACTIONID;
+END
+"""
+}
+
+private val TAGS_FTS_UPDATE_TRIGGER = """
+CREATE TRIGGER tags_fts_update AFTER UPDATE OF $KEY_LABEL ON $TABLE_TAGS
+BEGIN
+    UPDATE $TABLE_TRANSACTIONS_FTS SET $KEY_TAGLIST = ${ftsTagListSelect("$TABLE_TRANSACTIONS_FTS.docid")}
+    WHERE docid IN (SELECT $KEY_TRANSACTIONID FROM $TABLE_TRANSACTIONS_TAGS WHERE $KEY_TAGID = new.$KEY_ROWID);
+END
+"""
+
+//prefix indexes keep lookups of the first characters typed fast
+const val PAYEES_FTS_CREATE =
+    "CREATE VIRTUAL TABLE $TABLE_PAYEES_FTS USING fts4($KEY_PAYEE_NAME, $KEY_SHORT_NAME, tokenize=unicode61, prefix=\"1,2,3\")"
+
+private const val PAYEES_FTS_INSERT_TRIGGER = """
+CREATE TRIGGER payee_fts_insert AFTER INSERT ON $TABLE_PAYEES
+BEGIN
+    INSERT INTO $TABLE_PAYEES_FTS (docid, $KEY_PAYEE_NAME, $KEY_SHORT_NAME) VALUES (new.$KEY_ROWID, new.$KEY_PAYEE_NAME, new.$KEY_SHORT_NAME);
+END
+"""
+
+private const val PAYEES_FTS_UPDATE_TRIGGER = """
+CREATE TRIGGER payee_fts_name_update AFTER UPDATE OF $KEY_PAYEE_NAME, $KEY_SHORT_NAME ON $TABLE_PAYEES
+BEGIN
+    UPDATE $TABLE_PAYEES_FTS SET $KEY_PAYEE_NAME = new.$KEY_PAYEE_NAME, $KEY_SHORT_NAME = new.$KEY_SHORT_NAME WHERE docid = new.$KEY_ROWID;
+END
+"""
+
+private const val PAYEES_FTS_DELETE_TRIGGER = """
+CREATE TRIGGER payee_fts_delete AFTER DELETE ON $TABLE_PAYEES
+BEGIN
+    DELETE FROM $TABLE_PAYEES_FTS WHERE docid = old.$KEY_ROWID;
+END
+"""
+
+const val PAYEE_AUTOFILL_CREATE = """
+CREATE TABLE $TABLE_PAYEE_AUTOFILL (
+    $KEY_PAYEEID integer primary key references $TABLE_PAYEES($KEY_ROWID) ON DELETE CASCADE,
+    $KEY_TRANSACTIONID integer not null
+);
+"""
+
+private fun refreshPayeeAutofill(payeeId: String) = """
+    DELETE FROM $TABLE_PAYEE_AUTOFILL WHERE $KEY_PAYEEID = $payeeId;
+    INSERT INTO $TABLE_PAYEE_AUTOFILL ($KEY_PAYEEID, $KEY_TRANSACTIONID)
+    SELECT $KEY_PAYEEID, max($KEY_ROWID) FROM $TABLE_TRANSACTIONS WHERE $KEY_PAYEEID = $payeeId AND $KEY_CATID IS NOT $SPLIT_CATID GROUP BY $KEY_PAYEEID;
+"""
+
+private const val PAYEE_AUTOFILL_INSERT_TRIGGER = """
+CREATE TRIGGER payee_autofill_insert AFTER INSERT ON $TABLE_TRANSACTIONS
+WHEN new.$KEY_PAYEEID IS NOT NULL AND new.$KEY_CATID IS NOT $SPLIT_CATID
+BEGIN
+    INSERT OR REPLACE INTO $TABLE_PAYEE_AUTOFILL ($KEY_PAYEEID, $KEY_TRANSACTIONID)
+    SELECT new.$KEY_PAYEEID, new.$KEY_ROWID
+    WHERE NOT EXISTS (SELECT 1 FROM $TABLE_PAYEE_AUTOFILL WHERE $KEY_PAYEEID = new.$KEY_PAYEEID AND $KEY_TRANSACTIONID > new.$KEY_ROWID);
+END
+"""
+
+private val PAYEE_AUTOFILL_UPDATE_TRIGGER = """
+CREATE TRIGGER payee_autofill_update AFTER UPDATE OF $KEY_PAYEEID, $KEY_CATID ON $TABLE_TRANSACTIONS
+WHEN old.$KEY_PAYEEID IS NOT new.$KEY_PAYEEID OR (old.$KEY_CATID IS $SPLIT_CATID) IS NOT (new.$KEY_CATID IS $SPLIT_CATID)
+BEGIN
+    ${refreshPayeeAutofill("old.$KEY_PAYEEID")}
+    ${refreshPayeeAutofill("new.$KEY_PAYEEID")}
+END
+"""
+
+private val PAYEE_AUTOFILL_DELETE_TRIGGER = """
+CREATE TRIGGER payee_autofill_delete AFTER DELETE ON $TABLE_TRANSACTIONS
+WHEN old.$KEY_ROWID = (SELECT $KEY_TRANSACTIONID FROM $TABLE_PAYEE_AUTOFILL WHERE $KEY_PAYEEID = old.$KEY_PAYEEID)
+BEGIN
+    ${refreshPayeeAutofill("old.$KEY_PAYEEID")}
+END
+"""
+
 private const val DEFAULT_TRANSFER_CATEGORY_UUID = "9d84b522-4c8c-40bd-a8f8-18c8788ee59e"
 
-fun buildChangeTriggerDefinitionForColumnNotNull(column: String) =
-    "CASE WHEN old.$column = new.$column THEN NULL ELSE new.$column END"
+@JvmOverloads
+fun buildChangeTriggerDefinitionForColumnNotNull(column: String, old: String = "old", new: String = "new") =
+    "CASE WHEN $old.$column = $new.$column THEN NULL ELSE $new.$column END"
 
-fun buildChangeTriggerDefinitionForTextColumn(column: String) =
-    "CASE WHEN old.$column = new.$column THEN NULL WHEN old.$column IS NOT NULL AND new.$column IS NULL THEN '' ELSE new.$column END"
+@JvmOverloads
+fun buildChangeTriggerDefinitionForTextColumn(column: String, old: String = "old", new: String = "new") =
+    "CASE WHEN $old.$column = $new.$column THEN NULL WHEN $old.$column IS NOT NULL AND $new.$column IS NULL THEN '' ELSE $new.$column END"
 
-fun buildChangeTriggerDefinitionForIntegerColumn(column: String) =
-    "CASE WHEN old.$column = new.$column THEN NULL WHEN old.$column IS NOT NULL AND new.$column IS NULL THEN ${Long.MIN_VALUE} ELSE new.$column END"
+@JvmOverloads
+fun buildChangeTriggerDefinitionForIntegerColumn(column: String, old: String = "old", new: String = "new") =
+    "CASE WHEN $old.$column = $new.$column THEN NULL WHEN $old.$column IS NOT NULL AND $new.$column IS NULL THEN ${Long.MIN_VALUE} ELSE $new.$column END"
 
-fun buildChangeTriggerDefinitionForReferenceColumn(column: String) =
-    "CASE WHEN old.$column = new.$column THEN NULL WHEN old.$column IS NOT NULL AND new.$column IS NULL THEN $NULL_ROW_ID ELSE new.$column END"
+@JvmOverloads
+fun buildChangeTriggerDefinitionForReferenceColumn(column: String, old: String = "old", new: String = "new") =
+    "CASE WHEN $old.$column = $new.$column THEN NULL WHEN $old.$column IS NOT NULL AND $new.$column IS NULL THEN $NULL_ROW_ID ELSE $new.$column END"
 
 fun linkedTableTrigger(
     operation: String,
@@ -400,11 +1083,25 @@ fun linkedTableTrigger(
 fun triggerName(operation: String, table: String) =
     "${operation.lowercase()}_change_log_${table.substringAfter('_')}"
 
+/**
+ * @param deferredInBulk if false, the change is also logged while a [BulkWrite] is in progress,
+ * which only takes care of changes to transactions
+ */
 @JvmOverloads
-fun shouldWriteChangeTemplate(reference: String, table: String = TABLE_TRANSACTIONS) =
+fun shouldWriteChangeTemplate(
+    reference: String,
+    table: String = TABLE_TRANSACTIONS,
+    deferredInBulk: Boolean = true
+) =
     """EXISTS (SELECT 1 FROM $TABLE_ACCOUNTS WHERE $KEY_ROWID = ${
         referenceForTable(reference, table, KEY_ACCOUNTID)
-    } AND $KEY_SYNC_ACCOUNT_NAME IS NOT NULL AND $KEY_SYNC_SEQUENCE_LOCAL > 0) AND NOT EXISTS (SELECT 1 FROM $TABLE_SYNC_STATE)"""
+    } AND $KEY_SYNC_ACCOUNT_NAME IS NOT NULL AND $KEY_SYNC_SEQUENCE_LOCAL > 0) AND ${
+        changeLogNotPaused(deferredInBulk)
+    }"""
+
+fun changeLogNotPaused(deferredInBulk: Boolean = true) =
+    if (deferredInBulk) "NOT EXISTS (SELECT 1 FROM $TABLE_SYNC_STATE)"
+    else "NOT EXISTS (SELECT 1 FROM $TABLE_SYNC_STATE WHERE $KEY_STATUS != $SYNC_STATE_BULK)"
 
 private fun referenceForTable(reference: String, table: String, column: String) = when (table) {
     TABLE_TRANSACTIONS -> "$reference.$column"
@@ -442,8 +1139,6 @@ abstract class BaseTransactionDatabase(
     SupportSQLiteOpenHelper.Callback(DATABASE_VERSION) {
 
     fun createOrRefreshTransactionUsageTriggers(db: SupportSQLiteDatabase) {
-        db.execSQL(INCREASE_CATEGORY_USAGE_INSERT_TRIGGER)
-        db.execSQL(INCREASE_CATEGORY_USAGE_UPDATE_TRIGGER)
         db.execSQL(INCREASE_ACCOUNT_USAGE_INSERT_TRIGGER)
         db.execSQL(INCREASE_ACCOUNT_USAGE_UPDATE_TRIGGER)
     }
@@ -884,6 +1579,99 @@ abstract class BaseTransactionDatabase(
         execSQL(linkedTableTrigger("DELETE", TABLE_TRANSACTION_ATTACHMENTS))
     }
 
+    fun SupportSQLiteDatabase.upgradeTo162() {
+        execSQL(TRANSACTIONS_FTS_CREATE)
+        populateFullTextIndex(this)
+        createOrRefreshFullTextSearchTriggers(this)
+    }
+
+    fun SupportSQLiteDatabase.upgradeTo163() {
+        execSQL(PLAN_INSTANCE_STATUS_INSTANCE_ID_INDEX)
+    }
+
+    fun SupportSQLiteDatabase.upgradeTo164() {
+        execSQL(TRANSACTION_ATTRIBUTES_VALUE_INDEX)
+    }
+
+    fun SupportSQLiteDatabase.upgradeTo165() {
+        execSQL(OBJECT_USAGES_CREATE)
+        objectUsageTriggers().forEach { execSQL(it) }
+        populateObjectUsages(this)
+    }
+
+    fun SupportSQLiteDatabase.upgradeTo166() {
+        execSQL(PAYEES_FTS_CREATE)
+        execSQL(PAYEE_AUTOFILL_CREATE)
+        createOrRefreshPayeeLookupTriggers(this)
+        populatePayeeLookup(this)
+    }
+
+    fun SupportSQLiteDatabase.upgradeTo167() {
+        execSQL(TRANSACTIONS_DEBT_ID_INDEX)
+        execSQL(TRANSACTIONS_PARENT_ID_INDEX)
+        execSQL(DEBT_BALANCES_CREATE)
+        createOrRefreshDebtBalanceTriggers(this)
+        populateDebtBalances(this)
+    }
+
+    fun SupportSQLiteDatabase.upgradeTo169() {
+        execSQL(TRANSACTIONS_TRANSFER_PEER_INDEX)
+        execSQL(TRANSACTIONS_TAGS_TRANSACTION_ID_INDEX)
+    }
+
+    fun SupportSQLiteDatabase.upgradeTo170() {
+        execSQL(TRANSACTIONS_ARCHIVE_CREATE)
+        execSQL(TRANSACTIONS_ARCHIVE_ACCOUNT_ID_INDEX)
+        execSQL(TRANSACTIONS_ARCHIVE_TAGS_CREATE)
+    }
+
+    fun SupportSQLiteDatabase.upgradeTo171() {
+        execSQL(TRANSACTIONS_ACCOUNT_ID_DATE_INDEX)
+    }
+
+    fun SupportSQLiteDatabase.upgradeTo172() {
+        execSQL(DAILY_CATEGORY_SUMS_CREATE)
+        execSQL(DAILY_CATEGORY_SUMS_INDEX)
+        createOrRefreshDailyCategorySumTriggers(this)
+        populateDailyCategorySums(this)
+    }
+
+    fun SupportSQLiteDatabase.upgradeTo173() {
+        execSQL(PENDING_ACCOUNT_DELETIONS_CREATE)
+        createOrRefreshDebtBalanceTriggers(this)
+        createOrRefreshDailyCategorySumTriggers(this)
+    }
+
+    fun SupportSQLiteDatabase.upgradeTo174() {
+        execSQL("DROP INDEX IF EXISTS transactions_account_id_date_index")
+        execSQL(TRANSACTIONS_ACCOUNT_ID_DATE_INDEX)
+    }
+
+    fun SupportSQLiteDatabase.upgradeTo175() {
+        execSQL("DROP TABLE IF EXISTS $TABLE_TRANSACTIONS_FTS")
+        upgradeTo162()
+    }
+
+    fun SupportSQLiteDatabase.upgradeTo176() {
+        execSQL(ACCOUNT_DATA_VERSIONS_CREATE)
+        createOrRefreshAccountDataVersionTriggers(this)
+        populateAccountDataVersions(this)
+    }
+
+    fun SupportSQLiteDatabase.upgradeTo177() {
+        upgradeObjectUsagesLastUsed()
+    }
+
+    fun SupportSQLiteDatabase.upgradeTo178() {
+        createOrRefreshPendingDeletionTriggers(this)
+    }
+
+    fun createOrRefreshPendingDeletionTriggers(db: SupportSQLiteDatabase) {
+        db.execSQL("DROP TRIGGER IF EXISTS pending_deletion_transaction_insert")
+        db.execSQL("DROP TRIGGER IF EXISTS pending_deletion_transaction_update")
+        PENDING_DELETION_TRIGGERS.forEach { db.execSQL(it) }
+    }
+
     override fun onCreate(db: SupportSQLiteDatabase) {
         prefHandler.putInt(PrefKey.FIRST_INSTALL_DB_SCHEMA_VERSION, DATABASE_VERSION)
     }
@@ -944,6 +1732,129 @@ abstract class BaseTransactionDatabase(
         }
     }
 
+    fun createOrRefreshFullTextSearchTriggers(db: SupportSQLiteDatabase) {
+        with(db) {
+            execSQL("DROP TRIGGER IF EXISTS transactions_fts_insert")
+            execSQL("DROP TRIGGER IF EXISTS transactions_fts_update")
+            execSQL("DROP TRIGGER IF EXISTS transactions_fts_delete")
+            execSQL("DROP TRIGGER IF EXISTS payee_fts_update")
+            execSQL("DROP TRIGGER IF EXISTS transactions_tags_fts_insert")
+            execSQL("DROP TRIGGER IF EXISTS transactions_tags_fts_delete")
+            execSQL("DROP TRIGGER IF EXISTS tags_fts_update")
+            execSQL(TRANSACTIONS_FTS_INSERT_TRIGGER)
+            execSQL(TRANSACTIONS_FTS_UPDATE_TRIGGER)
+            execSQL(TRANSACTIONS_FTS_DELETE_TRIGGER)
+            execSQL(PAYEE_FTS_UPDATE_TRIGGER)
+            execSQL(transactionTagsFtsTrigger("INSERT"))
+            execSQL(transactionTagsFtsTrigger("DELETE"))
+            execSQL(TAGS_FTS_UPDATE_TRIGGER)
+        }
+    }
+
+    fun createOrRefreshPayeeLookupTriggers(db: SupportSQLiteDatabase) {
+        with(db) {
+            execSQL("DROP TRIGGER IF EXISTS payee_fts_insert")
+            execSQL("DROP TRIGGER IF EXISTS payee_fts_name_update")
+            execSQL("DROP TRIGGER IF EXISTS payee_fts_delete")
+            execSQL("DROP TRIGGER IF EXISTS payee_autofill_insert")
+            execSQL("DROP TRIGGER IF EXISTS payee_autofill_update")
+            execSQL("DROP TRIGGER IF EXISTS payee_autofill_delete")
+            execSQL(PAYEES_FTS_INSERT_TRIGGER)
+            execSQL(PAYEES_FTS_UPDATE_TRIGGER)
+            execSQL(PAYEES_FTS_DELETE_TRIGGER)
+            execSQL(PAYEE_AUTOFILL_INSERT_TRIGGER)
+            execSQL(PAYEE_AUTOFILL_UPDATE_TRIGGER)
+            execSQL(PAYEE_AUTOFILL_DELETE_TRIGGER)
+        }
+    }
+
+    fun createOrRefreshDebtBalanceTriggers(db: SupportSQLiteDatabase) {
+        with(db) {
+            execSQL("DROP TRIGGER IF EXISTS debt_balances_insert")
+            execSQL("DROP TRIGGER IF EXISTS debt_balances_update")
+            execSQL("DROP TRIGGER IF EXISTS debt_balances_delete")
+            execSQL("DROP TRIGGER IF EXISTS debt_balances_split_update")
+            execSQL("DROP TRIGGER IF EXISTS debt_balances_part_delete")
+            execSQL(DEBT_BALANCES_INSERT_TRIGGER)
+            execSQL(DEBT_BALANCES_UPDATE_TRIGGER)
+            execSQL(DEBT_BALANCES_SPLIT_UPDATE_TRIGGER)
+            execSQL(DEBT_BALANCES_DELETE_TRIGGER)
+            execSQL(DEBT_BALANCES_PART_DELETE_TRIGGER)
+        }
+    }
+
+    /**
+     * (re)builds the debt balances from scratch
+     */
+    fun populateDebtBalances(db: SupportSQLiteDatabase) {
+        with(db) {
+            execSQL("DELETE FROM $TABLE_DEBT_BALANCES")
+            execSQL("INSERT INTO $TABLE_DEBT_BALANCES ${debtBalancesSelect()}")
+        }
+    }
+
+    fun createOrRefreshAccountDataVersionTriggers(db: SupportSQLiteDatabase) {
+        with(db) {
+            ACCOUNT_DATA_VERSION_TRIGGERS.forEach {
+                execSQL("DROP TRIGGER IF EXISTS ${ACCOUNT_DATA_VERSION_TRIGGER_NAME.find(it)!!.groupValues[1]}")
+                execSQL(it)
+            }
+        }
+    }
+
+    /**
+     * (re)builds the data versions from scratch
+     */
+    fun populateAccountDataVersions(db: SupportSQLiteDatabase) {
+        with(db) {
+            execSQL("DELETE FROM $TABLE_ACCOUNT_DATA_VERSIONS")
+            execSQL("INSERT INTO $TABLE_ACCOUNT_DATA_VERSIONS ($KEY_ACCOUNTID, $KEY_DATA_VERSION) SELECT $KEY_ROWID, 0 FROM $TABLE_ACCOUNTS")
+        }
+    }
+
+    fun createOrRefreshDailyCategorySumTriggers(db: SupportSQLiteDatabase) {
+        with(db) {
+            execSQL("DROP TRIGGER IF EXISTS daily_category_sums_insert")
+            execSQL("DROP TRIGGER IF EXISTS daily_category_sums_update")
+            execSQL("DROP TRIGGER IF EXISTS daily_category_sums_delete")
+            execSQL(DAILY_CATEGORY_SUMS_INSERT_TRIGGER)
+            execSQL(DAILY_CATEGORY_SUMS_UPDATE_TRIGGER)
+            execSQL(DAILY_CATEGORY_SUMS_DELETE_TRIGGER)
+        }
+    }
+
+    /**
+     * (re)builds the payee index and the autofill records from scratch
+     */
+    fun populatePayeeLookup(db: SupportSQLiteDatabase) {
+        with(db) {
+            execSQL("DELETE FROM $TABLE_PAYEES_FTS")
+            execSQL(
+                "INSERT INTO $TABLE_PAYEES_FTS (docid, $KEY_PAYEE_NAME, $KEY_SHORT_NAME) " +
+                        "SELECT $KEY_ROWID, $KEY_PAYEE_NAME, $KEY_SHORT_NAME FROM $TABLE_PAYEES"
+            )
+            execSQL("DELETE FROM $TABLE_PAYEE_AUTOFILL")
+            execSQL(
+                "INSERT INTO $TABLE_PAYEE_AUTOFILL ($KEY_PAYEEID, $KEY_TRANSACTIONID) " +
+                        "SELECT $KEY_PAYEEID, max($KEY_ROWID) FROM $TABLE_TRANSACTIONS " +
+                        "WHERE $KEY_PAYEEID IS NOT NULL AND $KEY_CATID IS NOT $SPLIT_CATID GROUP BY $KEY_PAYEEID"
+            )
+        }
+    }
+
+    /**
+     * (re)builds the full text index from scratch, used on upgrade
+     */
+    fun populateFullTextIndex(db: SupportSQLiteDatabase) {
+        with(db) {
+            execSQL("DELETE FROM $TABLE_TRANSACTIONS_FTS")
+            execSQL(
+                "INSERT INTO $TABLE_TRANSACTIONS_FTS (docid, $KEY_COMMENT, $KEY_PAYEE_NAME, $KEY_TAGLIST, $KEY_REFERENCE_NUMBER) " +
+                        "SELECT $KEY_ROWID, $KEY_COMMENT, ${ftsPayeeSelect(TABLE_TRANSACTIONS)}, ${ftsTagListSelect("$TABLE_TRANSACTIONS.$KEY_ROWID")}, $KEY_REFERENCE_NUMBER FROM $TABLE_TRANSACTIONS"
+            )
+        }
+    }
+
     fun repairWithSealedAccounts(db: SupportSQLiteDatabase, run: Runnable) {
         db.execSQL("update accounts set sealed = -1 where sealed = 1")
         run.run()
@@ -7,9 +7,11 @@ import android.content.Intent
 import android.database.Cursor
 import android.database.CursorWrapper
 import android.database.sqlite.SQLiteConstraintException
+import android.database.sqlite.SQLiteException
 import android.net.Uri
 import android.os.Build
 import android.os.Bundle
+import androidx.annotation.VisibleForTesting
 import androidx.core.database.getIntOrNull
 import androidx.core.database.getLongOrNull
 import androidx.core.database.getStringOrNull
@@ -17,6 +19,7 @@ import androidx.core.os.BundleCompat
 import androidx.datastore.core.DataStore
 import androidx.datastore.preferences.core.Preferences
 import androidx.datastore.preferences.core.stringPreferencesKey
+import androidx.sqlite.db.SimpleSQLiteQuery
 import androidx.sqlite.db.SupportSQLiteDatabase
 import androidx.sqlite.db.SupportSQLiteOpenHelper
 import androidx.sqlite.db.SupportSQLiteQueryBuilder
@@ -67,8 +70,11 @@ import timber.log.Timber
 import java.io.File
 import java.io.IOException
 import java.time.Duration
-import java.time.Instant
 import java.util.UUID
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.Executor
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
 import javax.inject.Inject
 import javax.inject.Named
 import javax.inject.Provider
@@ -135,10 +141,43 @@ abstract class BaseTransactionProvider : ContentProvider() {
 
     private var shouldLog = false
 
+    /**
+     * latency of all operations, exported with [TransactionProvider.METHOD_QUERY_METRICS]
+     */
+    var queryMetrics = QueryMetrics()
+        @VisibleForTesting set
+
+    /**
+     * runs EXPLAIN QUERY PLAN for slow queries, so that the caller does not pay for it
+     */
+    var explainExecutor: Executor = EXPLAIN_EXECUTOR
+        @VisibleForTesting set
+
     var bulkInProgress = false
 
     private val bulkNotificationUris = mutableSetOf<Pair<Uri, Boolean>>()
 
+    private var bulkWrite: BulkWrite? = null
+
+    fun beginBulkWrite(
+        db: SupportSQLiteDatabase,
+        allowedOnSealed: List<String>,
+        selection: String?,
+        selectionArgs: List<String>
+    ) {
+        bulkWrite = BulkWrite(
+            requireNotNull(selection) { "Bulk write without selection" },
+            selectionArgs.toTypedArray(),
+            allowedOnSealed.toSet()
+        ).also { it.begin(db) }
+    }
+
+    fun endBulkWrite(db: SupportSQLiteDatabase) =
+        (bulkWrite ?: throw IllegalStateException("No bulk write in progress")).let {
+            bulkWrite = null
+            it.end(db)
+        }
+
     fun notifyAccountChange() {
         notifyChange(TransactionProvider.ACCOUNTS_BASE_URI, false)
         notifyChange(TransactionProvider.ACCOUNTS_MINIMAL_URI, false)
@@ -183,13 +222,23 @@ abstract class BaseTransactionProvider : ContentProvider() {
     }
 
     /**
+     * Sums are read from [TABLE_DEBT_BALANCES], amounts that do not store an equivalent are
+     * converted with the current exchange rate of their account.
      * @param transactionId When we edit a transaction, we want it to not be included into the debt sum, since it can be changed in the UI, and the variable amount will be calculated by the UI
      */
     fun debtProjection(transactionId: String?, withSum: Boolean): Array<String> {
-        val exclusionClause = transactionId?.let {
-            "AND $KEY_ROWID != $it"
+        fun sumFromBalances(expression: String) =
+            "coalesce((select sum($expression) from $TABLE_DEBT_BALANCES JOIN $TABLE_ACCOUNTS ON $TABLE_ACCOUNTS.$KEY_ROWID = $TABLE_DEBT_BALANCES.$KEY_ACCOUNTID where $KEY_DEBT_ID = $TABLE_DEBTS.$KEY_ROWID),0)"
+
+        fun exclusion(expression: String) = transactionId?.let {
+            " - coalesce((select sum($expression) from $VIEW_WITH_ACCOUNT where $KEY_ROWID = $it AND $KEY_DEBT_ID = $TABLE_DEBTS.$KEY_ROWID),0)"
         } ?: ""
 
+        val balanceEquivalent = "$TABLE_DEBT_BALANCES.$KEY_EQUIVALENT_AMOUNT + cast($KEY_AMOUNT_WITHOUT_EQUIVALENT * ${
+            getExchangeRate(TABLE_ACCOUNTS, KEY_ROWID, homeCurrency)
+        } as integer)"
+        val transactionEquivalent = getAmountHomeEquivalent(VIEW_WITH_ACCOUNT, homeCurrency)
+
         return listOfNotNull(
             "$TABLE_DEBTS.$KEY_ROWID",
             KEY_PAYEEID,
@@ -201,25 +250,79 @@ abstract class BaseTransactionProvider : ContentProvider() {
             KEY_PAYEE_NAME,
             KEY_SEALED,
             KEY_EQUIVALENT_AMOUNT,
-            if (withSum) "coalesce((select sum(${debtSumExpression}) from $VIEW_EXTENDED where $KEY_DEBT_ID = $TABLE_DEBTS.$KEY_ROWID $exclusionClause),0) AS $KEY_SUM" else null,
-            if (withSum) "coalesce((select sum(${
-                getAmountHomeEquivalent(
-                    VIEW_EXTENDED,
-                    homeCurrency
-                )
-            }) from $VIEW_EXTENDED where $KEY_DEBT_ID = $TABLE_DEBTS.$KEY_ROWID $exclusionClause),0) AS $KEY_EQUIVALENT_SUM" else null
+            if (withSum) sumFromBalances(
+                debtSumExpression(balanceEquivalent, "$TABLE_DEBT_BALANCES.$KEY_AMOUNT")
+            ) + exclusion(
+                debtSumExpression(transactionEquivalent, "$VIEW_WITH_ACCOUNT.$KEY_AMOUNT")
+            ) + " AS $KEY_SUM" else null,
+            if (withSum) sumFromBalances(balanceEquivalent) +
+                    exclusion(transactionEquivalent) + " AS $KEY_EQUIVALENT_SUM" else null
         ).toTypedArray()
     }
 
-    private val debtSumExpression
-        get() = "case when $TABLE_DEBTS.$KEY_CURRENCY == '$homeCurrency' THEN ${
-            getAmountHomeEquivalent(
-                VIEW_EXTENDED,
-                homeCurrency
-            )
-        } ELSE $KEY_AMOUNT END"
+    private fun debtSumExpression(equivalent: String, amount: String) =
+        "case when $TABLE_DEBTS.$KEY_CURRENCY == '$homeCurrency' THEN $equivalent ELSE $amount END"
+
+    /**
+     * Counts the parent transactions of [accountId] that come before [epochSeconds] in [sortDirection]
+     * on [TABLE_TRANSACTIONS], which SQLite answers from transactions_account_id_date_index alone.
+     * If no transaction comes after the date, the position of the last one is returned.
+     */
+    fun positionOfDate(accountId: Long, epochSeconds: Long, sortDirection: SortDirection): Int {
+        val visible = "$KEY_ACCOUNTID = ? AND $KEY_PARENTID IS NULL AND $KEY_STATUS NOT IN ($STATUS_UNCOMMITTED, $STATUS_DELETING)"
+        val (before, after) = when (sortDirection) {
+            SortDirection.ASC -> "<=" to ">"
+            SortDirection.DESC -> ">=" to "<"
+        }
+        return helper.readableDatabase.query(
+            """SELECT max(0, count(*) - NOT EXISTS (SELECT 1 FROM $TABLE_TRANSACTIONS WHERE $visible AND $KEY_DATE $after ?))
+                FROM $TABLE_TRANSACTIONS WHERE $visible AND $KEY_DATE $before ?""",
+            arrayOf(accountId, epochSeconds, accountId, epochSeconds)
+        ).use {
+            it.moveToFirst()
+            it.getInt(0)
+        }
+    }
+
+    fun accountDataVersion(extras: Bundle): String {
+        val db = helper.readableDatabase
+        val accountId = if (extras.containsKey(KEY_BUDGETID)) db.query(
+            "SELECT $KEY_ACCOUNTID FROM $TABLE_BUDGETS WHERE $KEY_ROWID = ?",
+            arrayOf(extras.getLong(KEY_BUDGETID))
+        ).use {
+            if (it.moveToFirst() && !it.isNull(0)) it.getLong(0) else null
+        } else extras.getLong(KEY_ACCOUNTID)
+        return accountDataVersion(db, accountId?.takeIf { it > 0 && it != Long.MAX_VALUE })
+    }
+
+    /**
+     * @return ids of debts whose balances stored in [TABLE_DEBT_BALANCES] differ from a full
+     * recomputation
+     */
+    fun checkDebtBalances() = Bundle(1).apply {
+        putLongArray(
+            KEY_RESULT, helper.readableDatabase.query(
+                """
+                WITH computed AS (${debtBalancesSelect()}),
+                stored AS (SELECT * FROM $TABLE_DEBT_BALANCES)
+                SELECT $KEY_DEBT_ID FROM (SELECT * FROM computed EXCEPT SELECT * FROM stored)
+                UNION SELECT $KEY_DEBT_ID FROM (SELECT * FROM stored EXCEPT SELECT * FROM computed)
+                """.trimIndent()
+            ).useAndMapToList { it.getLong(0) }.toLongArray()
+        )
+    }
 
     companion object {
+        /**
+         * a single daemon thread, slow queries that arrive while the queue is full are not journaled
+         */
+        private val EXPLAIN_EXECUTOR = ThreadPoolExecutor(
+            0, 1, 30, TimeUnit.SECONDS,
+            ArrayBlockingQueue(QueryMetrics.JOURNAL_CAPACITY),
+            { Thread(it, "QueryPlanExplainer").apply { isDaemon = true } },
+            ThreadPoolExecutor.DiscardPolicy()
+        )
+
         val CATEGORY_TREE_URI: Uri
             get() = TransactionProvider.CATEGORIES_URI.buildUpon()
                 .appendBooleanQueryParameter(TransactionProvider.QUERY_PARAMETER_HIERARCHICAL)
@@ -241,9 +344,9 @@ abstract class BaseTransactionProvider : ContentProvider() {
             "$tableName.$KEY_BIC",
             "$tableName.$KEY_IBAN",
             "$tableName.$KEY_PARENTID",
-            "exists (SELECT 1 FROM $TABLE_TRANSACTIONS WHERE $KEY_PAYEEID=$tableName.$KEY_ROWID) AS $KEY_MAPPED_TRANSACTIONS",
-            "exists (SELECT 1 FROM $TABLE_TEMPLATES WHERE $KEY_PAYEEID=$tableName.$KEY_ROWID) AS $KEY_MAPPED_TEMPLATES",
-            "exists (SELECT 1 FROM $TABLE_DEBTS WHERE $KEY_PAYEEID=$tableName.$KEY_ROWID) AS $KEY_MAPPED_DEBTS"
+            usageFlag(USAGE_TYPE_PAYEE, KEY_MAPPED_TRANSACTIONS, "$tableName.$KEY_ROWID"),
+            usageFlag(USAGE_TYPE_PAYEE, KEY_MAPPED_TEMPLATES, "$tableName.$KEY_ROWID"),
+            usageFlag(USAGE_TYPE_PAYEE, KEY_MAPPED_DEBTS, "$tableName.$KEY_ROWID")
         )
 
         val BANK_PROJECTION = arrayOf(
@@ -365,6 +468,7 @@ abstract class BaseTransactionProvider : ContentProvider() {
         protected const val TRANSACTION_ATTACHMENTS = 72
         protected const val ATTACHMENTS = 73
         protected const val TRANSACTION_ID_ATTACHMENT_ID = 74
+        protected const val TRANSACTIONS_ARCHIVE = 75
     }
 
     val homeCurrency: String
@@ -443,8 +547,15 @@ abstract class BaseTransactionProvider : ContentProvider() {
         val accountQueryBuilder =
             SupportSQLiteQueryBuilder.builder(if (minimal) TABLE_ACCOUNTS else joinWithAggregates)
 
+        val visibleSelection = listOfNotNull(
+            selection?.takeIf { it.isNotBlank() }?.let { "($it)" },
+            TransactionDeletion.ACCOUNT_NOT_PENDING_DELETION
+        ).joinToString(" AND ")
+        val aggregatedSelection =
+            "$KEY_EXCLUDE_FROM_TOTALS = 0 AND ${TransactionDeletion.ACCOUNT_NOT_PENDING_DELETION}"
+
         val query = if (mergeAggregate == null) {
-            accountQueryBuilder.columns(fullAccountProjection).selection(selection, emptyArray())
+            accountQueryBuilder.columns(fullAccountProjection).selection(visibleSelection, emptyArray())
                 .create().sql
         } else {
             val subQueries: MutableList<String> = ArrayList()
@@ -459,7 +570,7 @@ abstract class BaseTransactionProvider : ContentProvider() {
                             "0 AS $KEY_IS_AGGREGATE"
                         ) else fullAccountProjection
                     )
-                        .selection(selection, emptyArray()).create().sql
+                        .selection(visibleSelection, emptyArray()).create().sql
                 )
             }
             //Currency query
@@ -513,7 +624,7 @@ abstract class BaseTransactionProvider : ContentProvider() {
                 }
                 subQueries.add(
                     qb.columns(currencyProjection)
-                        .selection("$KEY_EXCLUDE_FROM_TOTALS = 0", emptyArray())
+                        .selection(aggregatedSelection, emptyArray())
                         .groupBy(KEY_CURRENCY)
                         .having(
                             if (mergeAggregate == "1") "count(*) > 1 OR (count(*) = 1 AND sum($KEY_HIDDEN) = 1)" else "$TABLE_CURRENCIES.$KEY_ROWID = " +
@@ -581,7 +692,7 @@ abstract class BaseTransactionProvider : ContentProvider() {
                 }
                 subQueries.add(
                     qb.columns(homeProjection)
-                        .selection("$KEY_EXCLUDE_FROM_TOTALS = 0", emptyArray())
+                        .selection(aggregatedSelection, emptyArray())
                         .groupBy("1")
                         .having("(select count(distinct $KEY_CURRENCY) from $TABLE_ACCOUNTS WHERE $KEY_EXCLUDE_FROM_TOTALS = 0 AND $KEY_CURRENCY != '$homeCurrency') > 0")
                         .create().sql
@@ -907,7 +1018,7 @@ abstract class BaseTransactionProvider : ContentProvider() {
                         limit(limit)
                     }
                 }.create()
-        return measure(block = {
+        return db.measure(uri, selection, query.sql, selectionArgs, block = {
             db.query(query)
         }) {
             "$uri - ${query.sql} - (${selectionArgs?.joinToString()})"
@@ -990,18 +1101,97 @@ abstract class BaseTransactionProvider : ContentProvider() {
         sql: String,
         selection: String?,
         selectionArgs: Array<String>?
-    ): Cursor = measure(block = { query(sql, selectionArgs ?: emptyArray()) }) {
+    ): Cursor = measure(uri, selection, sql, selectionArgs, block = {
+        query(sql, selectionArgs ?: emptyArray())
+    }) {
         "$uri - $selection - $sql - (${selectionArgs?.joinToString()})"
     }
 
-    private fun measure(block: () -> Cursor, lazyMessage: () -> String): Cursor = if (shouldLog) {
-        val startTime = Instant.now()
+    /**
+     * Records the time needed for running the query in [queryMetrics], and journals its query plan
+     * on [explainExecutor] if it was slow. Since cursors are filled lazily, we fill the first
+     * window, which is needed by the caller anyway, and rewind the cursor afterwards.
+     */
+    private fun SupportSQLiteDatabase.measure(
+        uri: Uri,
+        selection: String?,
+        sql: String,
+        selectionArgs: Array<String>?,
+        block: () -> Cursor,
+        lazyMessage: () -> String
+    ): Cursor {
+        val startTime = System.nanoTime()
         val result = block()
-        val endTime = Instant.now()
-        val duration = Duration.between(startTime, endTime)
-        log("${lazyMessage()}\n$duration - ${result.count}")
-        result
-    } else block()
+        result.moveToFirst()
+        val duration = System.nanoTime() - startTime
+        result.moveToPosition(-1)
+        val key = QueryMetrics.Key(
+            QueryMetrics.Operation.QUERY,
+            uri.shape,
+            QueryMetrics.selectionShape(selection)
+        )
+        if (queryMetrics.record(key, duration)) {
+            val metrics = queryMetrics
+            explainExecutor.execute {
+                metrics.addToJournal(key, duration, sql, explainQueryPlan(sql, selectionArgs))
+            }
+        }
+        if (shouldLog) {
+            log("${lazyMessage()}\n${Duration.ofNanos(duration)} - ${result.count}")
+        }
+        return result
+    }
+
+    private fun SupportSQLiteDatabase.explainQueryPlan(sql: String, selectionArgs: Array<String>?) =
+        try {
+            query(SimpleSQLiteQuery("EXPLAIN QUERY PLAN $sql", selectionArgs)).use { cursor ->
+                buildList {
+                    while (cursor.moveToNext()) {
+                        add(cursor.getString(cursor.getColumnIndexOrThrow("detail")))
+                    }
+                }
+            }
+        } catch (e: SQLiteException) {
+            listOf(e.toString())
+        } catch (e: IllegalStateException) {
+            //database has been closed in the meantime
+            listOf(e.toString())
+        }
+
+    /**
+     * Records the time elapsed since [startTime] in [queryMetrics]. Since a write can run several
+     * statements, and triggers, slow writes are journaled without SQL and query plan.
+     * @param target the uri the operation is run on, or the method for [QueryMetrics.Operation.CALL]
+     * @param startTime as returned by [System.nanoTime]
+     */
+    fun recordOperation(
+        operation: QueryMetrics.Operation,
+        target: Any?,
+        selection: String?,
+        startTime: Long
+    ) {
+        val duration = System.nanoTime() - startTime
+        val key = QueryMetrics.Key(
+            operation,
+            (target as? Uri)?.shape ?: target.toString(),
+            QueryMetrics.selectionShape(selection)
+        )
+        if (queryMetrics.record(key, duration)) {
+            queryMetrics.addToJournal(key, duration, null, emptyList())
+        }
+    }
+
+    /**
+     * path with ids replaced by #, followed by the names of query parameters, which often change
+     * the generated SQL
+     */
+    private val Uri.shape: String
+        get() = buildString {
+            pathSegments.joinTo(this, "/") { segment ->
+                if (segment.all { it.isDigit() }) "#" else segment
+            }
+            queryParameterNames.takeIf { it.isNotEmpty() }?.sorted()?.joinTo(this, ",", "?")
+        }
 
     fun report(e: String) {
         report(Exception(e), TAG)
@@ -1540,6 +1730,31 @@ abstract class BaseTransactionProvider : ContentProvider() {
         }
     }
 
+    /**
+     * Inserts a category from [values], which allows to insert it in a batch with a back reference
+     * to its parent. Unlike [saveCategory], a conflict with an existing category fails the batch.
+     */
+    fun insertCategory(db: SupportSQLiteDatabase, values: ContentValues): Long {
+        val label = values.getAsString(KEY_LABEL).trim()
+        values.put(KEY_LABEL, label)
+        values.put(KEY_LABEL_NORMALIZED, Utils.normalize(label))
+        if (values.getAsLong(KEY_PARENTID) == null) {
+            if (values.getAsInteger(KEY_COLOR).let { it == null || it == 0 }) {
+                values.put(KEY_COLOR, suggestNewCategoryColor(db))
+            }
+            if (!values.containsKey(KEY_TYPE)) {
+                values.put(KEY_TYPE, FLAG_NEUTRAL)
+            }
+        } else {
+            values.putNull(KEY_COLOR)
+            values.remove(KEY_TYPE)
+        }
+        if (!values.containsKey(KEY_UUID)) {
+            values.put(KEY_UUID, UUID.randomUUID().toString())
+        }
+        return db.insert(TABLE_CATEGORIES, values)
+    }
+
     fun saveTransactionTags(db: SupportSQLiteDatabase, extras: Bundle) {
         val transactionId = extras.getLong(KEY_TRANSACTIONID)
         val tagIds = extras.getLongArray(KEY_TAGLIST)!!.toSet()
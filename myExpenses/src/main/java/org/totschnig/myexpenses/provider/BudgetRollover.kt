@@ -0,0 +1,59 @@
+package org.totschnig.myexpenses.provider
+
+import androidx.sqlite.db.SupportSQLiteDatabase
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_BUDGET
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_BUDGETID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_BUDGET_ROLLOVER_NEXT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_BUDGET_ROLLOVER_PREVIOUS
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CATID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ONE_TIME
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SECOND_GROUP
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_YEAR
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_BUDGET_ALLOCATIONS
+
+/**
+ * Saves the rollover of a budget period for all categories in one statement: The amounts are
+ * stored as rollover to the next period in the allocations of the period, and as rollover from
+ * the previous period in the allocations of the next period. Allocations that do not exist yet are
+ * created, all other columns of existing allocations are kept.
+ */
+object BudgetRollover {
+
+    private const val ROLLOVER = "rollover"
+
+    /**
+     * @param year year of the period and of the next period
+     * @param second second group of the period and of the next period
+     * @param categoryIds the categories, 0 for the budget total
+     * @param amounts the rollover amounts, in the same order as [categoryIds]
+     * @return the number of written allocations, two per category
+     */
+    @JvmStatic
+    fun save(
+        db: SupportSQLiteDatabase,
+        budgetId: Long,
+        year: IntArray,
+        second: IntArray,
+        categoryIds: LongArray,
+        amounts: LongArray
+    ): Int {
+        require(year.size == 2 && second.size == 2)
+        require(categoryIds.size == amounts.size)
+        if (categoryIds.isEmpty()) return 0
+        val values = categoryIds.indices.joinToString { "(${categoryIds[it]}, ${amounts[it]})" }
+
+        fun period(index: Int, rollOverPrevious: String, rollOverNext: String) = """
+            SELECT $budgetId, r.$KEY_CATID, ${year[index]}, ${second[index]}, $rollOverPrevious, $rollOverNext, a.$KEY_BUDGET, a.$KEY_ONE_TIME
+            FROM $ROLLOVER r LEFT JOIN $TABLE_BUDGET_ALLOCATIONS a ON a.$KEY_BUDGETID = $budgetId AND a.$KEY_CATID = r.$KEY_CATID
+            AND a.$KEY_YEAR = ${year[index]} AND a.$KEY_SECOND_GROUP = ${second[index]}"""
+
+        return db.compileStatement(
+            """WITH $ROLLOVER($KEY_CATID, $KEY_AMOUNT) AS (VALUES $values)
+            INSERT OR REPLACE INTO $TABLE_BUDGET_ALLOCATIONS ($KEY_BUDGETID, $KEY_CATID, $KEY_YEAR, $KEY_SECOND_GROUP, $KEY_BUDGET_ROLLOVER_PREVIOUS, $KEY_BUDGET_ROLLOVER_NEXT, $KEY_BUDGET, $KEY_ONE_TIME)
+            ${period(0, "a.$KEY_BUDGET_ROLLOVER_PREVIOUS", "r.$KEY_AMOUNT")}
+            UNION ALL
+            ${period(1, "r.$KEY_AMOUNT", "a.$KEY_BUDGET_ROLLOVER_NEXT")}"""
+        ).use { it.executeUpdateDelete() }
+    }
+}
@@ -0,0 +1,70 @@
+package org.totschnig.myexpenses.provider
+
+import android.content.ContentProvider
+import android.content.ContentValues
+import android.content.pm.PackageManager
+import android.database.Cursor
+import android.net.Uri
+import android.os.Binder
+import android.os.Bundle
+import androidx.core.os.BundleCompat
+import org.totschnig.myexpenses.MyApplication
+import org.totschnig.myexpenses.contract.TransactionsContract.BulkInsert
+import org.totschnig.myexpenses.db2.bulkInsertTransactions
+
+/**
+ * Exported entry point for [BulkInsert]. It only supports [call], access to the data itself remains
+ * restricted to [TransactionProvider], which is not exported.
+ */
+class BulkInsertProvider : ContentProvider() {
+
+    override fun onCreate() = true
+
+    override fun call(method: String, arg: String?, extras: Bundle?): Bundle {
+        val context = requireContext()
+        //the framework does not enforce the provider's permission for call
+        val permission = context.packageName + ".permission.INSERT_TRANSACTIONS"
+        if (context.checkCallingOrSelfPermission(permission) != PackageManager.PERMISSION_GRANTED) {
+            throw SecurityException("$permission required")
+        }
+        require(method == BulkInsert.METHOD_BULK_INSERT) { "Unknown method $method" }
+        val transactions = extras?.let {
+            BundleCompat.getParcelableArrayList(it, BulkInsert.EXTRA_TRANSACTIONS, Bundle::class.java)
+        }
+        requireNotNull(transactions) { "${BulkInsert.EXTRA_TRANSACTIONS} missing" }
+        require(transactions.size <= BulkInsert.MAX_SIZE) {
+            "At most ${BulkInsert.MAX_SIZE} transactions can be inserted at once"
+        }
+        //TransactionProvider is not exported, so we access it with our own identity
+        val token = Binder.clearCallingIdentity()
+        try {
+            return MyApplication.instance.appComponent.repository()
+                .bulkInsertTransactions(transactions)
+        } finally {
+            Binder.restoreCallingIdentity(token)
+        }
+    }
+
+    override fun query(
+        uri: Uri,
+        projection: Array<out String>?,
+        selection: String?,
+        selectionArgs: Array<out String>?,
+        sortOrder: String?
+    ): Cursor = throw UnsupportedOperationException()
+
+    override fun getType(uri: Uri): String? = null
+
+    override fun insert(uri: Uri, values: ContentValues?): Uri =
+        throw UnsupportedOperationException()
+
+    override fun delete(uri: Uri, selection: String?, selectionArgs: Array<out String>?): Int =
+        throw UnsupportedOperationException()
+
+    override fun update(
+        uri: Uri,
+        values: ContentValues?,
+        selection: String?,
+        selectionArgs: Array<out String>?
+    ): Int = throw UnsupportedOperationException()
+}
@@ -0,0 +1,266 @@
+package org.totschnig.myexpenses.provider
+
+import android.content.ContentValues
+import android.database.sqlite.SQLiteConstraintException
+import androidx.sqlite.db.SupportSQLiteDatabase
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ATTACHMENT_ID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CATID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COMMENT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CR_STATUS
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DEBT_ID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_EQUIVALENT_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_METHODID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ORIGINAL_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ORIGINAL_CURRENCY
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PARENTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PARENT_UUID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PAYEEID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_REFERENCE_NUMBER
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SEALED
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_STATUS
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SYNC_ACCOUNT_NAME
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SYNC_SEQUENCE_LOCAL
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TAGID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSACTIONID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSFER_ACCOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSFER_PEER
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TYPE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_UUID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_VALUE_DATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_UNCOMMITTED
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_ACCOUNTS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_CHANGES
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_DEBTS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_SYNC_STATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS_TAGS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTION_ATTACHMENTS
+import org.totschnig.myexpenses.sync.json.TransactionChange
+
+/**
+ * Write path for operations that touch many transactions at once. While a bulk write is in
+ * progress (marked by a [SYNC_STATE_BULK] row in [TABLE_SYNC_STATE]), the change log triggers and
+ * the sealed account and debt guards on [TABLE_TRANSACTIONS] do not fire. [begin] takes a snapshot
+ * of the rows matched by [selection], and [end] checks the guards and writes the change log with a
+ * few set-based statements comparing the snapshot and the rows inserted in between with the final
+ * state.
+ *
+ * For each transaction the same changes are logged as by the triggers, with two differences: several
+ * writes to the same row are coalesced into one change, and updates that do not modify any column
+ * recorded in the change log are not logged.
+ *
+ * Must be run inside a database transaction, so that the snapshot is rolled back together with the
+ * writes if the guards fail.
+ *
+ * @param allowedOnSealed columns that may be modified in transactions that belong to sealed
+ * accounts or debts. Any other modification of these transactions fails like it does with the
+ * triggers.
+ * @param selection selection on [TABLE_TRANSACTIONS] that matches every existing row the bulk
+ * statements update or delete. Split parents and parts and transfer peers of these rows are
+ * included in the snapshot as well. Modifications of other existing rows are neither guarded nor
+ * logged.
+ */
+class BulkWrite(
+    private val selection: String,
+    private val selectionArgs: Array<String> = emptyArray(),
+    private val allowedOnSealed: Set<String> = emptySet()
+) {
+
+    private var maxTransactionId = 0L
+
+    fun begin(db: SupportSQLiteDatabase) {
+        dropSnapshots(db)
+        maxTransactionId = db.query("SELECT max($KEY_ROWID) FROM $TABLE_TRANSACTIONS").use {
+            if (it.moveToFirst()) it.getLong(0) else 0L
+        }
+        db.execSQL(
+            """CREATE TEMP TABLE $SNAPSHOT AS
+                WITH touched AS (SELECT $KEY_ROWID, $KEY_PARENTID FROM $TABLE_TRANSACTIONS WHERE $selection)
+                SELECT * FROM $TABLE_TRANSACTIONS WHERE $KEY_ROWID IN (SELECT $KEY_ROWID FROM touched)
+                OR $KEY_ROWID IN (SELECT $KEY_PARENTID FROM touched)
+                OR $KEY_PARENTID IN (SELECT $KEY_ROWID FROM touched)
+                OR $KEY_TRANSFER_PEER IN (SELECT $KEY_ROWID FROM touched)""",
+            selectionArgs
+        )
+        db.execSQL("CREATE UNIQUE INDEX temp.${SNAPSHOT}_$KEY_ROWID ON $SNAPSHOT($KEY_ROWID)")
+        LINKED_TABLES.forEach { (table, column) ->
+            db.execSQL(
+                "CREATE TEMP TABLE ${snapshot(table)} AS SELECT $KEY_TRANSACTIONID, $column FROM $table WHERE $KEY_TRANSACTIONID IN (SELECT $KEY_ROWID FROM $SNAPSHOT)"
+            )
+        }
+        db.insert(TABLE_SYNC_STATE, ContentValues(1).apply {
+            put(KEY_STATUS, SYNC_STATE_BULK)
+        })
+    }
+
+    /**
+     * @throws SQLiteConstraintException if a transaction of a sealed account or debt has been
+     * modified
+     */
+    fun end(db: SupportSQLiteDatabase): Int {
+        checkSealed(db)
+        writeChangeLog(db)
+        val count = db.delete(TABLE_SYNC_STATE, "$KEY_STATUS = ?", arrayOf(SYNC_STATE_BULK))
+        dropSnapshots(db)
+        return count
+    }
+
+    private fun changed(columns: List<String>) = (columns - allowedOnSealed)
+        .takeIf { it.isNotEmpty() }
+        ?.joinToString(" OR ", "(", ")") { "o.$it IS NOT n.$it" } ?: "0"
+
+    /**
+     * @param sealed select for the ids of sealed accounts or debts
+     * @param column the column in [TABLE_TRANSACTIONS] referencing them
+     */
+    private fun violatesGuard(
+        db: SupportSQLiteDatabase,
+        sealed: String,
+        column: String,
+        guarded: List<String>,
+        transferGuarded: List<String>?
+    ): Boolean {
+        val inserted = "SELECT 1 FROM $TABLE_TRANSACTIONS n WHERE n.$column IN ($sealed) AND n.$KEY_ROWID > $maxTransactionId"
+        val modified = "SELECT 1 FROM $SNAPSHOT o LEFT JOIN $TABLE_TRANSACTIONS n ON n.$KEY_ROWID = o.$KEY_ROWID WHERE (o.$column IN ($sealed) OR n.$column IN ($sealed)) AND (n.$KEY_ROWID IS NULL OR ${changed(guarded)})"
+        val transfer = transferGuarded?.let {
+            " OR EXISTS (SELECT 1 FROM $SNAPSHOT o JOIN $TABLE_TRANSACTIONS n ON n.$KEY_ROWID = o.$KEY_ROWID WHERE o.$KEY_TRANSFER_ACCOUNT IN ($sealed) AND ${changed(it)})"
+        } ?: ""
+        return db.query("SELECT EXISTS ($inserted) OR EXISTS ($modified)$transfer").use {
+            it.moveToFirst() && it.getInt(0) == 1
+        }
+    }
+
+    private fun checkSealed(db: SupportSQLiteDatabase) {
+        if (violatesGuard(db, SEALED_ACCOUNTS, KEY_ACCOUNTID, SEALED_ACCOUNT_COLUMNS, SEALED_TRANSFER_COLUMNS)) {
+            throw SQLiteConstraintException("attempt to update sealed account")
+        }
+        if (violatesGuard(db, SEALED_DEBTS, KEY_DEBT_ID, SEALED_DEBT_COLUMNS, null)) {
+            throw SQLiteConstraintException("attempt to update sealed debt")
+        }
+    }
+
+    private fun writeChangeLog(db: SupportSQLiteDatabase) {
+        //deleted, or moved to another account
+        db.execSQL(
+            """INSERT INTO $TABLE_CHANGES ($KEY_TYPE, $KEY_SYNC_SEQUENCE_LOCAL, $KEY_ACCOUNTID, $KEY_UUID, $KEY_PARENT_UUID)
+                SELECT '${TransactionChange.Type.deleted}', ${sequenceNumberSelect("o")}, o.$KEY_ACCOUNTID, coalesce(n.$KEY_UUID, o.$KEY_UUID),
+                CASE WHEN o.$KEY_PARENTID IS NULL THEN NULL ELSE (SELECT $KEY_UUID FROM $SNAPSHOT parent WHERE $KEY_ROWID = o.$KEY_PARENTID) END
+                FROM $SNAPSHOT o LEFT JOIN $TABLE_TRANSACTIONS n ON n.$KEY_ROWID = o.$KEY_ROWID
+                WHERE o.$KEY_ACCOUNTID IN ($SYNCED_ACCOUNTS) AND o.$KEY_STATUS != $STATUS_UNCOMMITTED
+                AND (n.$KEY_ROWID IS NULL OR (n.$KEY_ACCOUNTID != o.$KEY_ACCOUNTID AND n.$KEY_STATUS != $STATUS_UNCOMMITTED))"""
+        )
+        //inserted, committed, or moved from another account
+        db.execSQL(
+            """INSERT INTO $TABLE_CHANGES ($KEY_TYPE, $KEY_SYNC_SEQUENCE_LOCAL, $KEY_UUID, $KEY_PARENT_UUID, ${LOGGED_COLUMNS.joinToString()})
+                SELECT '${TransactionChange.Type.created}', ${sequenceNumberSelect("n")}, n.$KEY_UUID, ${parentUuidExpression("n")}, ${LOGGED_COLUMNS.joinToString { "n.$it" }}
+                FROM $TABLE_TRANSACTIONS n LEFT JOIN $SNAPSHOT o ON o.$KEY_ROWID = n.$KEY_ROWID
+                WHERE n.$KEY_ACCOUNTID IN ($SYNCED_ACCOUNTS) AND n.$KEY_STATUS != $STATUS_UNCOMMITTED
+                AND (n.$KEY_ROWID > $maxTransactionId OR n.$KEY_ROWID IN (SELECT $KEY_ROWID FROM $SNAPSHOT))
+                AND (o.$KEY_ROWID IS NULL OR o.$KEY_STATUS = $STATUS_UNCOMMITTED OR o.$KEY_ACCOUNTID != n.$KEY_ACCOUNTID)"""
+        )
+        //updated, status changes (e.g. setting of exported flag) and linking of transfer peers are ignored
+        db.execSQL(
+            """INSERT INTO $TABLE_CHANGES ($KEY_TYPE, $KEY_SYNC_SEQUENCE_LOCAL, $KEY_UUID, $KEY_PARENT_UUID, ${UPDATE_COLUMNS.joinToString { it.first }})
+                SELECT '${TransactionChange.Type.updated}', ${sequenceNumberSelect("o")}, n.$KEY_UUID, ${parentUuidExpression("n")}, ${UPDATE_COLUMNS.joinToString { it.second }}
+                FROM $SNAPSHOT o JOIN $TABLE_TRANSACTIONS n ON n.$KEY_ROWID = o.$KEY_ROWID
+                WHERE o.$KEY_ACCOUNTID IN ($SYNCED_ACCOUNTS) AND o.$KEY_STATUS != $STATUS_UNCOMMITTED AND n.$KEY_STATUS != $STATUS_UNCOMMITTED
+                AND n.$KEY_ACCOUNTID = o.$KEY_ACCOUNTID AND n.$KEY_TRANSFER_PEER IS o.$KEY_TRANSFER_PEER AND n.$KEY_UUID IS NOT NULL
+                AND (${(LOGGED_COLUMNS - KEY_ACCOUNTID + KEY_PARENTID).joinToString(" OR ") { "o.$it IS NOT n.$it" }})"""
+        )
+        //one change for each tag or attachment that is linked or unlinked
+        LINKED_TABLES.forEach { (table, column) ->
+            val type = when (table) {
+                TABLE_TRANSACTIONS_TAGS -> TransactionChange.Type.tags
+                else -> TransactionChange.Type.attachments
+            }
+            val current =
+                "SELECT $KEY_TRANSACTIONID, $column FROM $table WHERE $KEY_TRANSACTIONID IN (SELECT $KEY_ROWID FROM $SNAPSHOT) OR $KEY_TRANSACTIONID > $maxTransactionId"
+            val before = "SELECT $KEY_TRANSACTIONID, $column FROM ${snapshot(table)}"
+            db.execSQL(
+                """INSERT INTO $TABLE_CHANGES ($KEY_TYPE, $KEY_UUID, $KEY_PARENT_UUID, $KEY_ACCOUNTID, $KEY_SYNC_SEQUENCE_LOCAL)
+                    SELECT '${type.name}', n.$KEY_UUID, ${parentUuidExpression("n")}, n.$KEY_ACCOUNTID, ${sequenceNumberSelect("n")}
+                    FROM (SELECT * FROM ($current EXCEPT $before) UNION ALL SELECT * FROM ($before EXCEPT $current)) linked
+                    JOIN $TABLE_TRANSACTIONS n ON n.$KEY_ROWID = linked.$KEY_TRANSACTIONID
+                    WHERE n.$KEY_ACCOUNTID IN ($SYNCED_ACCOUNTS)"""
+            )
+        }
+    }
+
+    private fun dropSnapshots(db: SupportSQLiteDatabase) {
+        db.execSQL("DROP TABLE IF EXISTS temp.$SNAPSHOT")
+        LINKED_TABLES.forEach { (table, _) ->
+            db.execSQL("DROP TABLE IF EXISTS temp.${snapshot(table)}")
+        }
+    }
+
+    companion object {
+        private const val SNAPSHOT = "bulk_$TABLE_TRANSACTIONS"
+
+        private fun snapshot(table: String) = "bulk_$table"
+
+        private val LINKED_TABLES = listOf(
+            TABLE_TRANSACTIONS_TAGS to KEY_TAGID,
+            TABLE_TRANSACTION_ATTACHMENTS to KEY_ATTACHMENT_ID
+        )
+
+        private const val SYNCED_ACCOUNTS =
+            "SELECT $KEY_ROWID FROM $TABLE_ACCOUNTS WHERE $KEY_SYNC_ACCOUNT_NAME IS NOT NULL AND $KEY_SYNC_SEQUENCE_LOCAL > 0"
+
+        private const val SEALED_ACCOUNTS = "SELECT $KEY_ROWID FROM $TABLE_ACCOUNTS WHERE $KEY_SEALED = 1"
+
+        private const val SEALED_DEBTS = "SELECT $KEY_ROWID FROM $TABLE_DEBTS WHERE $KEY_SEALED = 1"
+
+        /**
+         * columns guarded by [TRANSACTIONS_SEALED_UPDATE_TRIGGER_CREATE]
+         */
+        private val SEALED_ACCOUNT_COLUMNS = listOf(
+            KEY_COMMENT, KEY_DATE, KEY_VALUE_DATE, KEY_AMOUNT, KEY_CATID, KEY_ACCOUNTID, KEY_PAYEEID,
+            KEY_TRANSFER_PEER, KEY_TRANSFER_ACCOUNT, KEY_METHODID, KEY_PARENTID,
+            KEY_REFERENCE_NUMBER, KEY_UUID, KEY_ORIGINAL_AMOUNT, KEY_ORIGINAL_CURRENCY,
+            KEY_EQUIVALENT_AMOUNT, KEY_DEBT_ID, KEY_CR_STATUS
+        )
+
+        /**
+         * columns guarded by [TRANSFER_SEALED_UPDATE_TRIGGER_CREATE]
+         */
+        private val SEALED_TRANSFER_COLUMNS = SEALED_ACCOUNT_COLUMNS - KEY_CR_STATUS
+
+        /**
+         * the sealed debt trigger guards the whole row
+         */
+        private val SEALED_DEBT_COLUMNS = SEALED_ACCOUNT_COLUMNS + KEY_STATUS
+
+        /**
+         * columns recorded in the change log, in the order of the insert trigger
+         */
+        private val LOGGED_COLUMNS = listOf(
+            KEY_COMMENT, KEY_DATE, KEY_VALUE_DATE, KEY_AMOUNT, KEY_ORIGINAL_AMOUNT,
+            KEY_ORIGINAL_CURRENCY, KEY_EQUIVALENT_AMOUNT, KEY_CATID, KEY_ACCOUNTID, KEY_PAYEEID,
+            KEY_TRANSFER_ACCOUNT, KEY_METHODID, KEY_CR_STATUS, KEY_REFERENCE_NUMBER
+        )
+
+        /**
+         * columns recorded for updates, with the same expressions as the update trigger
+         */
+        private val UPDATE_COLUMNS = listOf(
+            KEY_ACCOUNTID to "n.$KEY_ACCOUNTID",
+            KEY_COMMENT to buildChangeTriggerDefinitionForTextColumn(KEY_COMMENT, "o", "n"),
+            KEY_DATE to buildChangeTriggerDefinitionForColumnNotNull(KEY_DATE, "o", "n"),
+            KEY_VALUE_DATE to buildChangeTriggerDefinitionForColumnNotNull(KEY_VALUE_DATE, "o", "n"),
+            KEY_AMOUNT to buildChangeTriggerDefinitionForColumnNotNull(KEY_AMOUNT, "o", "n"),
+            KEY_ORIGINAL_AMOUNT to buildChangeTriggerDefinitionForIntegerColumn(KEY_ORIGINAL_AMOUNT, "o", "n"),
+            KEY_ORIGINAL_CURRENCY to buildChangeTriggerDefinitionForTextColumn(KEY_ORIGINAL_CURRENCY, "o", "n"),
+            KEY_EQUIVALENT_AMOUNT to buildChangeTriggerDefinitionForIntegerColumn(KEY_EQUIVALENT_AMOUNT, "o", "n"),
+            KEY_CATID to buildChangeTriggerDefinitionForReferenceColumn(KEY_CATID, "o", "n"),
+            KEY_PAYEEID to buildChangeTriggerDefinitionForReferenceColumn(KEY_PAYEEID, "o", "n"),
+            KEY_TRANSFER_ACCOUNT to buildChangeTriggerDefinitionForIntegerColumn(KEY_TRANSFER_ACCOUNT, "o", "n"),
+            KEY_METHODID to buildChangeTriggerDefinitionForReferenceColumn(KEY_METHODID, "o", "n"),
+            KEY_CR_STATUS to buildChangeTriggerDefinitionForColumnNotNull(KEY_CR_STATUS, "o", "n"),
+            KEY_REFERENCE_NUMBER to buildChangeTriggerDefinitionForTextColumn(KEY_REFERENCE_NUMBER, "o", "n")
+        )
+    }
+}
@@ -295,6 +295,10 @@ public class DatabaseConstants {
   public static final String KEY_TAGLIST = "tag_list";
   public static final String KEY_DEBT_ID = "debt_id";
   public static final String KEY_MAPPED_DEBTS = "mapped_debts";
+  public static final String KEY_OBJECT_ID = "object_id";
+  public static final String KEY_AMOUNT_WITHOUT_EQUIVALENT = "amount_without_equivalent";
+  public static final String KEY_NEGATIVE_AMOUNT = "negative_amount";
+  public static final String KEY_DATA_VERSION = "data_version";
   /**
    * If this field is part of a projection for a query to the Methods URI, only payment methods
    * mapped to account types will be returned
@@ -391,6 +395,17 @@ public class DatabaseConstants {
    */
   public static final int STATUS_HELPER = 3;
 
+  /**
+   * a transaction that sums up transactions that have been moved to
+   * TABLE_TRANSACTIONS_ARCHIVE
+   */
+  public static final int STATUS_ARCHIVE = 4;
+
+  /**
+   * transaction that has been hidden by {@link TransactionDeletion} and is removed in chunks
+   */
+  public static final int STATUS_DELETING = 5;
+
   public static final String TABLE_TRANSACTIONS = "transactions";
   public static final String TABLE_ACCOUNTS = "accounts";
   static final String TABLE_SYNC_STATE = "_sync_state";
@@ -416,6 +431,8 @@ public class DatabaseConstants {
   static final String TABLE_ACCOUNT_EXCHANGE_RATES = "account_exchangerates";
   public static final String TABLE_TAGS = "tags";
   public static final String TABLE_TRANSACTIONS_TAGS = "transactions_tags";
+  public static final String TABLE_TRANSACTIONS_ARCHIVE = "transactions_archive";
+  public static final String TABLE_TRANSACTIONS_ARCHIVE_TAGS = "transactions_archive_tags";
   public static final String TABLE_ACCOUNTS_TAGS = "accounts_tags";
   public static final String TABLE_TEMPLATES_TAGS = "templates_tags";
   /**
@@ -428,6 +445,32 @@ public class DatabaseConstants {
 
   public static final String TABLE_DEBTS = "debts";
 
+  /**
+   * running totals of the transactions linked to a debt, per account, maintained by triggers
+   */
+  public static final String TABLE_DEBT_BALANCES = "debt_balances";
+
+  /**
+   * sums of transactions per account, category and day, maintained by triggers
+   */
+  public static final String TABLE_DAILY_CATEGORY_SUMS = "daily_category_sums";
+
+  /**
+   * how often payees, categories, payment methods and tags are referenced, maintained by triggers
+   */
+  public static final String TABLE_OBJECT_USAGES = "object_usages";
+
+  /**
+   * per account a counter of changes to the account, its transactions and exchange rates,
+   * maintained by triggers
+   */
+  public static final String TABLE_ACCOUNT_DATA_VERSIONS = "account_data_versions";
+
+  /**
+   * accounts that are deleted once {@link TransactionDeletion} has removed their transactions
+   */
+  static final String TABLE_PENDING_ACCOUNT_DELETIONS = "pending_account_deletions";
+
   public static final String TABLE_BANKS = "banks";
 
   public static final String TABLE_ATTRIBUTES = "attributes";
@@ -438,6 +481,23 @@ public class DatabaseConstants {
 
   public static final String TABLE_TRANSACTION_ATTRIBUTES = "transaction_attributes";
 
+  /**
+   * full text index over comment, payee name, tag labels and reference number of transactions,
+   * docid is the transaction's rowid
+   */
+  public static final String TABLE_TRANSACTIONS_FTS = "transactions_fts";
+
+  /**
+   * full text index over name and short name of payees with prefix indexes, docid is the payee's rowid
+   */
+  public static final String TABLE_PAYEES_FTS = "payee_fts";
+
+  /**
+   * per payee, the most recent transaction (not a split) whose values are used for autofill,
+   * maintained by triggers
+   */
+  public static final String TABLE_PAYEE_AUTOFILL = "payee_autofill";
+
   public static final String TABLE_ACCOUNT_ATTRIBUTES = "account_attributes";
 
   public static final String CAT_AS_LABEL = DbConstantsKt.fullCatCase(null) + " AS " + KEY_LABEL;
@@ -13,6 +13,7 @@ import org.totschnig.myexpenses.model.CrStatus
 import org.totschnig.myexpenses.provider.DatabaseConstants.*
 import org.totschnig.myexpenses.provider.TransactionProvider.QUERY_PARAMETER_AGGREGATE_NEUTRAL
 import org.totschnig.myexpenses.provider.TransactionProvider.QUERY_PARAMETER_ALLOCATED_ONLY
+import org.totschnig.myexpenses.provider.TransactionProvider.QUERY_PARAMETER_DAILY_SUMS
 import org.totschnig.myexpenses.provider.TransactionProvider.QUERY_PARAMETER_TRANSACTION_ID_LIST
 import org.totschnig.myexpenses.provider.filter.WhereFilter
 
@@ -69,6 +70,15 @@ val Uri.accountSelector: String
                             )
                 )
 
+/**
+ * [TABLE_DAILY_CATEGORY_SUMS] does not store home currency equivalents, so it only serves
+ * sums for an account or a currency
+ */
+val Uri.useDailySums: Boolean
+    get() = getBooleanQueryParameter(QUERY_PARAMETER_DAILY_SUMS, false).also {
+        if (it) require(getQueryParameter(KEY_ACCOUNTID) != null || getQueryParameter(KEY_CURRENCY) != null)
+    }
+
 fun Uri.amountCalculation(tableName: String, homeCurrency: String, withAlias: Boolean = false): String =
     if (getQueryParameter(KEY_ACCOUNTID) != null || getQueryParameter(KEY_CURRENCY) != null)
         KEY_AMOUNT else getAmountHomeEquivalent(tableName, homeCurrency) +
@@ -172,13 +182,19 @@ fun categoryTreeWithSum(
     val incomeType = uri.getBooleanQueryParameter(KEY_TYPE, false)
     val type = incomeType.asCategoryType
     val aggregateNeutral = uri.getBooleanQueryParameter(QUERY_PARAMETER_AGGREGATE_NEUTRAL, false)
+    val dailySums = uri.useDailySums
     val map = projection.map {
         when (it) {
             KEY_SUM -> buildString {
+                val neutralAmount = when {
+                    !dailySums -> "${if (incomeType) "max" else "min"}($KEY_AMOUNT, 0)"
+                    incomeType -> "$KEY_AMOUNT - $KEY_NEGATIVE_AMOUNT"
+                    else -> KEY_NEGATIVE_AMOUNT
+                }
                 val amountStatement = if (aggregateNeutral) KEY_AMOUNT else
                     //the ELSE in the CASE statement is FLAG_NEUTRAL because the categoryTreeCTE
                     // returns categories which are either the requested type or neutral
-                    "CASE $KEY_TYPE WHEN $type THEN $KEY_AMOUNT ELSE ${if (incomeType) "max" else "min"}($KEY_AMOUNT, 0) END"
+                    "CASE $KEY_TYPE WHEN $type THEN $KEY_AMOUNT ELSE $neutralAmount END"
                 append("(SELECT $aggregateFunction($amountStatement) FROM amounts ")
                 append(") AS $KEY_SUM")
             }
@@ -197,10 +213,15 @@ fun categoryTreeWithSum(
                 type = type
             )
         )
-        val amountCalculation = uri.amountCalculation(VIEW_WITH_ACCOUNT, homeCurrency, true)
-        append(", amounts as (select $amountCalculation from $VIEW_WITH_ACCOUNT WHERE ")
-        append(WHERE_NOT_VOID)
-        append(" AND +$accountSelector")
+        if (dailySums) {
+            append(", amounts as (select $KEY_AMOUNT, $KEY_NEGATIVE_AMOUNT from $TABLE_DAILY_CATEGORY_SUMS WHERE ")
+            append("+$accountSelector")
+        } else {
+            val amountCalculation = uri.amountCalculation(VIEW_WITH_ACCOUNT, homeCurrency, true)
+            append(", amounts as (select $amountCalculation from $VIEW_WITH_ACCOUNT WHERE ")
+            append(WHERE_NOT_VOID)
+            append(" AND +$accountSelector")
+        }
         selection?.takeIf { it.isNotEmpty() }?.let {
             append(" AND $it")
         }
@@ -242,6 +263,41 @@ fun budgetAllocation(uri: Uri): String {
             subSelectFromAllocations(KEY_ONE_TIME, year, second)
 }
 
+const val USAGE_TYPE_PAYEE = "payee"
+const val USAGE_TYPE_CATEGORY = "category"
+const val USAGE_TYPE_METHOD = "method"
+const val USAGE_TYPE_TAG = "tag"
+
+/**
+ * @param counter one of [KEY_MAPPED_TRANSACTIONS], [KEY_MAPPED_TEMPLATES], [KEY_MAPPED_BUDGETS],
+ * [KEY_MAPPED_DEBTS]
+ * @return how often the object of [type] with id [idExpression] is referenced, read from
+ * [TABLE_OBJECT_USAGES]
+ */
+fun usageCount(type: String, counter: String, idExpression: String) =
+    "coalesce((SELECT $counter FROM $TABLE_OBJECT_USAGES WHERE $KEY_TYPE = '$type' AND $KEY_OBJECT_ID = $idExpression), 0)"
+
+/**
+ * @return [aggregate] applied to [column] of the entries in [TABLE_OBJECT_USAGES] for the category
+ * [table].[KEY_ROWID] and its direct children
+ */
+private fun categoryUsage(aggregate: String, column: String, table: String) =
+    "(SELECT $aggregate($column) FROM $TABLE_OBJECT_USAGES WHERE $KEY_TYPE = '$USAGE_TYPE_CATEGORY' AND ($KEY_OBJECT_ID = $table.$KEY_ROWID OR $KEY_OBJECT_ID IN (SELECT $KEY_ROWID FROM $TABLE_CATEGORIES WHERE $KEY_PARENTID = $table.$KEY_ROWID)))"
+
+/**
+ * [KEY_USAGES] and [KEY_LAST_USED] of the categories in the tree are read from
+ * [TABLE_OBJECT_USAGES] if [sortOrder] needs them, and are null otherwise
+ */
+private fun categoryUsageColumns(sortOrder: String?, table: String) =
+    if (sortOrder != null && (sortOrder.contains(KEY_USAGES) || sortOrder.contains(KEY_LAST_USED)))
+        "coalesce(${categoryUsage("sum", KEY_MAPPED_TRANSACTIONS, table)}, 0) AS $KEY_USAGES,\n    ${
+            categoryUsage("max", KEY_LAST_USED, table)
+        } AS $KEY_LAST_USED"
+    else "NULL AS $KEY_USAGES,\n    NULL AS $KEY_LAST_USED"
+
+fun usageFlag(type: String, counter: String, idExpression: String) =
+    "${usageCount(type, counter, idExpression)} > 0 AS $counter"
+
 fun categoryTreeWithMappedObjects(
     selection: String,
     projection: Array<String>,
@@ -251,17 +307,16 @@ fun categoryTreeWithMappedObjects(
         if (aggregate) "sum($it)" else it
     } + " AS $key"
 
-    fun subQuery(table: String, key: String, aggregate: Boolean) = wrapQuery(
-        "(select 1 FROM $table WHERE $KEY_CATID IN (SELECT $KEY_ROWID FROM $TREE_CATEGORIES))",
+    fun subQuery(key: String, aggregate: Boolean) = wrapQuery(
+        "(select 1 FROM $TABLE_OBJECT_USAGES WHERE $KEY_TYPE = '$USAGE_TYPE_CATEGORY' AND $key > 0 AND $KEY_OBJECT_ID IN (SELECT $KEY_ROWID FROM $TREE_CATEGORIES) LIMIT 1)",
         key,
         aggregate
     )
 
     val map = projection.map {
         when (it) {
-            KEY_MAPPED_TRANSACTIONS -> subQuery(TABLE_TRANSACTIONS, it, aggregate)
-            KEY_MAPPED_TEMPLATES -> subQuery(TABLE_TEMPLATES, it, aggregate)
-            KEY_MAPPED_BUDGETS -> subQuery(TABLE_BUDGET_ALLOCATIONS, it, aggregate)
+            KEY_MAPPED_TRANSACTIONS, KEY_MAPPED_TEMPLATES, KEY_MAPPED_BUDGETS ->
+                subQuery(it, aggregate)
             KEY_HAS_DESCENDANTS -> wrapQuery(
                 "(select count(*) FROM $TREE_CATEGORIES) > 1",
                 it,
@@ -358,8 +413,7 @@ SELECT
     $KEY_ICON,
     $KEY_ROWID,
     $KEY_PARENTID,
-    $KEY_USAGES,
-    $KEY_LAST_USED,
+    ${categoryUsageColumns(sortOrder, "main")},
     $KEY_TYPE,
     1 AS $KEY_LEVEL,
     ${matches?.replace("_Tree_", "main") ?: "1"} AS $KEY_MATCHES_FILTER
@@ -379,8 +433,7 @@ SELECT
     subtree.$KEY_ICON,
     subtree.$KEY_ROWID,
     subtree.$KEY_PARENTID,
-    subtree.$KEY_USAGES,
-    subtree.$KEY_LAST_USED,
+    ${categoryUsageColumns(sortOrder, "subtree")},
     subtree.$KEY_TYPE,
     level + 1,
     ${matches?.replace("_Tree_", "subtree") ?: "1"} AS $KEY_MATCHES_FILTER
@@ -525,7 +578,7 @@ fun transactionListAsCTE(catId: String) =
     getCategoryTreeForView("$KEY_ROWID = $catId", false) +
             ", $VIEW_COMMITTED AS (" +
             transactionsJoin() +
-            " WHERE $KEY_STATUS != $STATUS_UNCOMMITTED " +
+            " WHERE $KEY_STATUS NOT IN ($STATUS_UNCOMMITTED, $STATUS_DELETING) " +
             tagGroupBy(TABLE_TRANSACTIONS) +
             ")"
 
@@ -597,6 +650,10 @@ fun transactionSumQuery(
         if (TextUtils.isEmpty(selectionIn)) accountSelector else "$selectionIn AND $accountSelector"
     val aggregateNeutral = uri.getBooleanQueryParameter(QUERY_PARAMETER_AGGREGATE_NEUTRAL, false)
 
+    if (uri.useDailySums) return dailySumsQuery(
+        projection, selection, typeWithFallBack, aggregateFunction, aggregateNeutral
+    )
+
     return if (aggregateNeutral) {
         require(projection.size == 1)
         val column = projection.first()
@@ -627,6 +684,33 @@ AND ($KEY_CATID IS NOT $SPLIT_CATID AND $KEY_CR_STATUS != 'VOID' AND $selection)
     }
 }
 
+/**
+ * Like [transactionSumQuery], but reading from [TABLE_DAILY_CATEGORY_SUMS]: Neutral categories and
+ * transactions without category contribute their negative amounts to expenses and their positive
+ * amounts to income, unless [aggregateNeutral] is set.
+ */
+private fun dailySumsQuery(
+    projection: Array<String>,
+    selection: String,
+    typeWithFallBack: String,
+    aggregateFunction: String,
+    aggregateNeutral: Boolean
+): String {
+    val columns = projection.map {
+        val (type, neutralAmount) = when (it) {
+            KEY_SUM_EXPENSES -> FLAG_EXPENSE to KEY_NEGATIVE_AMOUNT
+            KEY_SUM_INCOME -> FLAG_INCOME to "$KEY_AMOUNT - $KEY_NEGATIVE_AMOUNT"
+            else -> throw IllegalArgumentException()
+        }
+        "$aggregateFunction(CASE $typeWithFallBack WHEN $type THEN $KEY_AMOUNT WHEN $FLAG_NEUTRAL THEN ${
+            if (aggregateNeutral) KEY_AMOUNT else neutralAmount
+        } ELSE 0 END) AS $it"
+    }
+    require(columns.isNotEmpty())
+    return """SELECT ${columns.joinToString()} FROM $TABLE_DAILY_CATEGORY_SUMS
+LEFT JOIN $TABLE_CATEGORIES ON $KEY_CATID = $TABLE_CATEGORIES.$KEY_ROWID WHERE $selection"""
+}
+
 //when either both sides are homeCurrency, or both sides are foreign currency, we select based on amount
 //otherwise we only select the part from the homeCurrency
 fun grandTotalAccountKeepTransferPartCriterion(homeCurrency: String) = """
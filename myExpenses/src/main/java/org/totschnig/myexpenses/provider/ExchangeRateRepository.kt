@@ -1,5 +1,6 @@
 package org.totschnig.myexpenses.provider
 
+import androidx.collection.LruCache
 import org.jetbrains.annotations.NotNull
 import org.totschnig.myexpenses.preference.PrefHandler
 import org.totschnig.myexpenses.retrofit.ExchangeRateService
@@ -8,26 +9,84 @@ import org.totschnig.myexpenses.room.ExchangeRate
 import org.totschnig.myexpenses.room.ExchangeRateDao
 import java.io.IOException
 import java.time.LocalDate
+import java.util.TreeSet
 
+/**
+ * Rates are looked up in a bounded in-memory cache first, then in Room, and only then loaded from
+ * the network. Rates for today (or later) are only kept in memory, since they are not final.
+ */
 class ExchangeRateRepository(
     private val dao: @NotNull ExchangeRateDao,
     val prefHandler: @NotNull PrefHandler,
     val service: @NotNull ExchangeRateService
 ) {
+    private data class CacheKey(
+        val other: String,
+        val base: String,
+        val date: LocalDate,
+        val source: String
+    )
+
+    private val cache = LruCache<CacheKey, Double>(CACHE_SIZE)
+
     @Throws(IOException::class)
     suspend fun loadExchangeRate(other: String, base: String, date: LocalDate): Double {
         val source = ExchangeRateSource.preferredSource(prefHandler)
-        /*        for (rate in dao.getAllRates()) {
-                    Timber.d(rate.toString())
-                }*/
+        val key = CacheKey(other, base, date, source.id)
+        cache[key]?.let { return it }
         val apiKey = (source as? ExchangeRateSource.SourceWithApiKey)?.requireApiKey(prefHandler)
-        return if (date == LocalDate.now()) {
+        return (if (date == LocalDate.now()) {
             loadFromNetwork(source, apiKey, date, other, base).second
         } else dao.getRate(base, other, date, source.id)
             ?: loadFromNetwork(source, apiKey, date, other, base).let {
                 dao.insert(ExchangeRate(base, other, it.first, it.second, source.id))
                 it.second
+            }).also {
+            cache.put(key, it)
+        }
+    }
+
+    /**
+     * Bulk variant of [loadExchangeRate]: resolves rates for [dates] with at most one Room query
+     * and, for sources that support time series, one remote call. Dates for which the source did
+     * not publish a rate get the last published rate.
+     */
+    @Throws(IOException::class)
+    suspend fun loadExchangeRates(
+        other: String,
+        base: String,
+        dates: Collection<LocalDate>
+    ): Map<LocalDate, Double> {
+        val source = ExchangeRateSource.preferredSource(prefHandler)
+        val today = LocalDate.now()
+        val result = HashMap<LocalDate, Double>()
+        val missing = dates.filterTo(TreeSet()) { date ->
+            cache[CacheKey(other, base, date, source.id)]?.also { result[date] = it } == null
+        }
+        if (missing.isEmpty()) return result
+
+        dao.getRates(base, other, missing.first(), missing.last(), source.id).forEach {
+            if (it.date < today && missing.remove(it.date)) {
+                result[it.date] = it.rate
+                cache.put(CacheKey(other, base, it.date, source.id), it.rate)
             }
+        }
+        if (missing.isEmpty()) return result
+
+        val apiKey = (source as? ExchangeRateSource.SourceWithApiKey)?.requireApiKey(prefHandler)
+        val series = service.getTimeSeries(source, apiKey, missing, other, base)
+        val toPersist = missing.map { date ->
+            val rate = series.headMap(date.plusDays(1)).let {
+                if (it.isEmpty()) null else it[it.lastKey()]
+            } ?: throw IOException("Unable to retrieve data")
+            result[date] = rate
+            cache.put(CacheKey(other, base, date, source.id), rate)
+            ExchangeRate(base, other, date, rate, source.id)
+        }.filter { it.date < today }
+        if (toPersist.isNotEmpty()) {
+            dao.insert(toPersist)
+        }
+        return result
     }
 
     private suspend fun loadFromNetwork(
@@ -38,5 +97,15 @@ class ExchangeRateRepository(
         base: String
     ) = service.getRate(source, apiKey, date, other, base)
 
-    suspend fun deleteAll() = dao.deleteALL()
-}
\ No newline at end of file
+    suspend fun deleteAll(): Int {
+        cache.evictAll()
+        return dao.deleteALL()
+    }
+
+    companion object {
+        /**
+         * about ten years of daily rates for one currency pair
+         */
+        const val CACHE_SIZE = 4000
+    }
+}
@@ -3,24 +3,58 @@ package org.totschnig.myexpenses.provider
 import android.os.Bundle
 import android.text.TextUtils
 import org.apache.commons.lang3.NotImplementedException
+import org.totschnig.myexpenses.contract.TransactionsContract.BulkInsert
 import org.totschnig.myexpenses.contract.TransactionsContract.Transactions
 import org.totschnig.myexpenses.db2.*
 import org.totschnig.myexpenses.model.Money.Companion.buildWithMicros
 import org.totschnig.myexpenses.model.Transaction
 import org.totschnig.myexpenses.model.Transfer
+import org.totschnig.myexpenses.model2.Account
+
+/**
+ * Caches the accounts looked up by label and by currency, so that they are resolved once for all
+ * transactions of a bulk insert.
+ */
+class AccountLookup(private val repository: Repository) {
+    private val byLabel = mutableMapOf<String, Long?>()
+    private val byCurrency = mutableMapOf<String, Long?>()
+    private val accounts = mutableMapOf<Long, Account?>()
+    private val anyOpen by lazy { repository.findAnyOpen() }
+
+    private fun <K, V> MutableMap<K, V?>.cached(key: K, lookup: () -> V?) =
+        if (containsKey(key)) get(key) else lookup().also { put(key, it) }
+
+    fun findAnyOpenByLabel(label: String) = byLabel.cached(label) { repository.findAnyOpenByLabel(label) }
+
+    fun findAnyOpenByCurrency(currency: String) = byCurrency.cached(currency) { repository.findAnyOpenByCurrency(currency) }
+
+    fun findAnyOpen() = anyOpen
+
+    fun loadAccount(accountId: Long) = accounts.cached(accountId) { repository.loadAccount(accountId) }
+}
 
 object ProviderUtils {
     //TODO add tags to contract
+    /**
+     * @param categoryToId cache for categories resolved from [Transactions.CATEGORY_LABEL], can be
+     * shared when building several transactions
+     * @param accounts cache for the accounts, can be shared when building several transactions
+     */
     @Throws(NotImplementedException::class)
-    fun buildFromExtras(repository: Repository, extras: Bundle) =
+    fun buildFromExtras(
+        repository: Repository,
+        extras: Bundle,
+        categoryToId: MutableMap<String, Long> = mutableMapOf(),
+        accounts: AccountLookup = AccountLookup(repository)
+    ) =
         (extras.getString(Transactions.ACCOUNT_LABEL)
             ?.takeIf { it.isNotEmpty() }
             ?.let {
-                repository.findAnyOpenByLabel(it)
+                accounts.findAnyOpenByLabel(it)
             } ?: extras.getString(Transactions.CURRENCY)?.let {
-            repository.findAnyOpenByCurrency(it)
-        } ?: repository.findAnyOpen())?.let {
-            repository.loadAccount(it)
+            accounts.findAnyOpenByCurrency(it)
+        } ?: accounts.findAnyOpen())?.let {
+            accounts.loadAccount(it)
         }?.let { account ->
             val currencyUnit = repository.currencyContext[account.currency]
             when (extras.getInt(Transactions.OPERATION_TYPE)) {
@@ -29,7 +63,7 @@ object ProviderUtils {
                         val transferAccountLabel =
                             extras.getString(Transactions.TRANSFER_ACCOUNT_LABEL)
                         transferAccountLabel?.takeIf { it.isNotEmpty() }?.let {
-                            repository.findAnyOpenByLabel(it)
+                            accounts.findAnyOpenByLabel(it)
                         }?.takeIf { it != -1L }?.let {
                             setTransferAccountId(it)
                         }
@@ -55,7 +89,6 @@ object ProviderUtils {
                 if (this !is Transfer) {
                     val categoryLabel = extras.getString(Transactions.CATEGORY_LABEL)
                     if (!TextUtils.isEmpty(categoryLabel)) {
-                        val categoryToId: MutableMap<String, Long> = mutableMapOf()
                         CategoryHelper.insert(repository, categoryLabel!!, categoryToId, false)
                         catId = categoryToId[categoryLabel]
                         if (catId != null) {
@@ -81,4 +114,37 @@ object ProviderUtils {
                 }
             }
         }
-}
\ No newline at end of file
+
+    /**
+     * Unlike the intent, which opens a form where the user completes the transaction, a bulk insert
+     * is saved as is, hence we do not fall back to any account if the requested one is not found,
+     * and require an amount and a valid transfer account.
+     * @return null if [extras] can be saved with [buildFromExtras], otherwise one of the error codes
+     * defined in [BulkInsert]
+     */
+    fun validateForBulkInsert(
+        repository: Repository,
+        extras: Bundle,
+        accounts: AccountLookup = AccountLookup(repository)
+    ): String? {
+        val accountId = (extras.getString(Transactions.ACCOUNT_LABEL)
+            ?.takeIf { it.isNotEmpty() }
+            ?.let { accounts.findAnyOpenByLabel(it) ?: return BulkInsert.ERROR_UNKNOWN_ACCOUNT }
+            ?: extras.getString(Transactions.CURRENCY)?.let {
+                accounts.findAnyOpenByCurrency(it) ?: return BulkInsert.ERROR_UNKNOWN_ACCOUNT
+            } ?: accounts.findAnyOpen()) ?: return BulkInsert.ERROR_UNKNOWN_ACCOUNT
+        if (!extras.containsKey(Transactions.AMOUNT_MICROS)) return BulkInsert.ERROR_MISSING_AMOUNT
+        return when (extras.getInt(Transactions.OPERATION_TYPE)) {
+            Transactions.TYPE_TRANSACTION -> null
+            Transactions.TYPE_TRANSFER -> {
+                val transferAccountId = extras.getString(Transactions.TRANSFER_ACCOUNT_LABEL)
+                    ?.takeIf { it.isNotEmpty() }
+                    ?.let { accounts.findAnyOpenByLabel(it) }
+                if (transferAccountId == null || transferAccountId == accountId ||
+                    accounts.loadAccount(transferAccountId)?.currency != accounts.loadAccount(accountId)?.currency
+                ) BulkInsert.ERROR_INVALID_TRANSFER_ACCOUNT else null
+            }
+            else -> BulkInsert.ERROR_UNSUPPORTED_TYPE
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package org.totschnig.myexpenses.provider
+
+import java.time.Instant
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * In-process latency metrics of [BaseTransactionProvider], kept for every operation, since
+ * recording is cheap: a histogram with logarithmic buckets per operation, uri and shape of the
+ * selection, and a bounded journal of slow statements together with their query plan. Once
+ * [maxKeys] histograms exist, further keys are collapsed into one overflow histogram per
+ * [Operation], so that the number of histograms stays bounded.
+ */
+class QueryMetrics(
+    private val slowThresholdNanos: Long = TimeUnit.MILLISECONDS.toNanos(SLOW_THRESHOLD_MILLIS),
+    private val journalCapacity: Int = JOURNAL_CAPACITY,
+    private val maxKeys: Int = MAX_KEYS
+) {
+    enum class Operation { QUERY, INSERT, UPDATE, DELETE, BULK, CALL }
+
+    /**
+     * @param target the shape of the uri, or the method for [Operation.CALL]
+     * @param selection the shape of the selection, see [selectionShape]
+     */
+    data class Key(val operation: Operation, val target: String, val selection: String?)
+
+    class Histogram {
+        private val buckets = AtomicLongArray(BUCKET_COUNT)
+        private val totalNanos = AtomicLong()
+        private val maxNanos = AtomicLong()
+
+        fun record(nanos: Long) {
+            buckets.incrementAndGet(bucket(nanos))
+            totalNanos.addAndGet(nanos)
+            var max = maxNanos.get()
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) max = maxNanos.get()
+        }
+
+        val count: Long
+            get() = (0 until BUCKET_COUNT).sumOf { buckets[it] }
+
+        val total: Long
+            get() = totalNanos.get()
+
+        val max: Long
+            get() = maxNanos.get()
+
+        /**
+         * @return upper bound in microseconds of the bucket that contains the [percentile]
+         */
+        fun percentile(percentile: Int): Long {
+            val counts = LongArray(BUCKET_COUNT) { buckets[it] }
+            val rank = (counts.sum() * percentile + 99) / 100
+            var cumulated = 0L
+            counts.forEachIndexed { index, count ->
+                cumulated += count
+                if (cumulated >= rank && count > 0) return upperBoundMicros(index)
+            }
+            return 0
+        }
+    }
+
+    /**
+     * @param sql only known for queries, writes and calls are journaled with their timing only
+     */
+    data class SlowStatement(
+        val timestamp: Instant,
+        val key: Key,
+        val durationNanos: Long,
+        val sql: String?,
+        val plan: List<String>
+    )
+
+    private val histograms = ConcurrentHashMap<Key, Histogram>()
+    private val journal = ArrayDeque<SlowStatement>(journalCapacity)
+    @Volatile
+    private var since = Instant.now()
+
+    /**
+     * @return true if the operation was slow, so that the caller should add it to the journal
+     * with [addToJournal]
+     */
+    fun record(key: Key, nanos: Long): Boolean {
+        val histogram = histograms[key]
+            ?: histograms.getOrPut(if (histograms.size < maxKeys) key else overflowKey(key.operation)) {
+                Histogram()
+            }
+        histogram.record(nanos)
+        return nanos >= slowThresholdNanos
+    }
+
+    fun addToJournal(key: Key, nanos: Long, sql: String?, plan: List<String>) {
+        synchronized(journal) {
+            if (journal.size == journalCapacity) journal.removeFirst()
+            journal.addLast(SlowStatement(Instant.now(), key, nanos, sql, plan))
+        }
+    }
+
+    val histogramSnapshot: Map<Key, Histogram>
+        get() = HashMap(histograms)
+
+    val journalSnapshot: List<SlowStatement>
+        get() = synchronized(journal) { journal.toList() }
+
+    fun reset() {
+        histograms.clear()
+        synchronized(journal) { journal.clear() }
+        since = Instant.now()
+    }
+
+    /**
+     * Tab separated histograms ordered by total time, followed by the journal
+     */
+    fun report() = buildString {
+        append("Query metrics since ").append(since).append('\n')
+        append("operation\ttarget\tselection\tcount\ttotal ms\tmean µs\tp50 ≤µs\tp90 ≤µs\tp99 ≤µs\tmax µs\n")
+        histogramSnapshot.entries.sortedByDescending { it.value.total }.forEach { (key, histogram) ->
+            val count = histogram.count
+            append(key.operation).append('\t').append(key.target).append('\t')
+            append(key.selection ?: "").append('\t').append(count).append('\t')
+            append(TimeUnit.NANOSECONDS.toMillis(histogram.total)).append('\t')
+            append(if (count == 0L) 0 else histogram.total / count / 1000).append('\t')
+            append(histogram.percentile(50)).append('\t')
+            append(histogram.percentile(90)).append('\t')
+            append(histogram.percentile(99)).append('\t')
+            append(histogram.max / 1000).append('\n')
+        }
+        append("\nSlow statements (≥ ")
+            .append(TimeUnit.NANOSECONDS.toMillis(slowThresholdNanos))
+            .append(" ms, last ").append(journalCapacity)
+            .append(", SQL and query plan for queries only, writes and calls carry timings only)\n")
+        journalSnapshot.forEach { statement ->
+            append(statement.timestamp).append('\t')
+            append(TimeUnit.NANOSECONDS.toMillis(statement.durationNanos)).append(" ms\t")
+            append(statement.key.operation).append('\t').append(statement.key.target).append('\t')
+            append(statement.key.selection ?: "").append('\n')
+            statement.sql?.let { append("  ").append(it.replace(WHITESPACE, " ")).append('\n') }
+            statement.plan.forEach { append("  | ").append(it).append('\n') }
+        }
+    }
+
+    companion object {
+        const val SLOW_THRESHOLD_MILLIS = 100L
+        const val JOURNAL_CAPACITY = 50
+        const val MAX_KEYS = 500
+        const val OVERFLOW = "…"
+        private const val MAX_SELECTION_SHAPE = 300
+
+        /**
+         * Bucket 0 holds durations below 1 µs, bucket i durations from 2^(i-1) to 2^i µs, the last
+         * one everything above
+         */
+        const val BUCKET_COUNT = 28
+
+        private val WHITESPACE = Regex("\\s+")
+
+        fun overflowKey(operation: Operation) = Key(operation, OVERFLOW, null)
+
+        fun bucket(nanos: Long) =
+            (64 - (nanos / 1000).countLeadingZeroBits()).coerceAtMost(BUCKET_COUNT - 1)
+
+        fun upperBoundMicros(bucket: Int) = 1L shl bucket
+
+        /**
+         * Replaces literals in [selection] with ?, and lists of them with ?+, so that selections
+         * that only differ in their arguments share their metrics.
+         */
+        fun selectionShape(selection: String?): String? {
+            if (selection.isNullOrBlank()) return null
+            val result = StringBuilder(selection.length)
+            var i = 0
+            val length = selection.length
+            while (i < length) {
+                val c = selection[i]
+                when {
+                    c == '\'' -> {
+                        i++
+                        while (i < length) {
+                            if (selection[i] == '\'') {
+                                if (i + 1 < length && selection[i + 1] == '\'') i++ else break
+                            }
+                            i++
+                        }
+                        result.appendPlaceholder()
+                    }
+
+                    c.isDigit() && (result.isEmpty() || !result.last().isIdentifierPart) -> {
+                        while (i + 1 < length && (selection[i + 1].isDigit() || selection[i + 1] == '.')) i++
+                        result.appendPlaceholder()
+                    }
+
+                    c == '?' -> result.appendPlaceholder()
+
+                    c.isWhitespace() -> {
+                        if (result.isNotEmpty() && result.last() != ' ') result.append(' ')
+                    }
+
+                    else -> result.append(c)
+                }
+                i++
+            }
+            return if (result.length > MAX_SELECTION_SHAPE)
+                result.substring(0, MAX_SELECTION_SHAPE) + OVERFLOW else result.trimEnd().toString()
+        }
+
+        private val Char.isIdentifierPart
+            get() = isLetterOrDigit() || this == '_' || this == '?' || this == '+'
+
+        private fun StringBuilder.appendPlaceholder() {
+            var end = length
+            if (end > 0 && this[end - 1] == ' ') end--
+            if (end > 0 && this[end - 1] == ',') {
+                end--
+                if (end > 0 && this[end - 1] == ' ') end--
+                if (end > 0 && this[end - 1] == '?') {
+                    setLength(end)
+                    append('+')
+                    return
+                }
+                if (end > 1 && this[end - 1] == '+' && this[end - 2] == '?') {
+                    setLength(end)
+                    return
+                }
+            }
+            append('?')
+        }
+    }
+}
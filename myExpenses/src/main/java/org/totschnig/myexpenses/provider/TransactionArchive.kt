@@ -0,0 +1,222 @@
+package org.totschnig.myexpenses.provider
+
+import androidx.sqlite.db.SupportSQLiteDatabase
+import org.totschnig.myexpenses.model.CrStatus
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CATID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COMMENT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CR_STATUS
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DEBT_ID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_EQUIVALENT_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_METHODID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PARENTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PAYEEID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SEALED
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_STATUS
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SYNC_ACCOUNT_NAME
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TAGID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSACTIONID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSFER_ACCOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSFER_PEER
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_UUID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_VALUE_DATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_ARCHIVE
+import org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_DELETING
+import org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_UNCOMMITTED
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_ACCOUNTS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_CATEGORIES
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_DEBTS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_METHODS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_PENDING_ACCOUNT_DELETIONS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_PAYEES
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_PLAN_INSTANCE_STATUS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS_ARCHIVE
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS_ARCHIVE_TAGS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS_TAGS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTION_ATTACHMENTS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTION_ATTRIBUTES
+
+/**
+ * Moves old transactions out of [TABLE_TRANSACTIONS] into [TABLE_TRANSACTIONS_ARCHIVE], so that
+ * the queries behind transaction lists, sums and balances run over a smaller table.
+ *
+ * The archived transactions are replaced with rollups, one per account, month, category, debt and
+ * cleared status, that carry [STATUS_ARCHIVE] and the sum of their amounts. Balances, sums by
+ * category, debt balances and monthly or yearly history therefore stay the same, while lists show
+ * the rollups instead of the individual transactions. Transfers are folded into the rollups without
+ * a transfer account, since a rollup has no peer. Transactions without an equivalent amount go into
+ * rollups of their own, which are converted at the exchange rate of their account like before.
+ * The provider does not allow to update or delete rollups, so that [restore] can replace them.
+ * Exports of archived months contain the rollups instead of the individual transactions, i.e. without
+ * payee, method, reference number and their original comment; they need to be restored first.
+ *
+ * Only transactions of accounts that are neither synced nor sealed are archived, since the archive
+ * is local to the device and a sealed account must not change. Transactions that are linked to a
+ * sealed debt, to attachments, to plan instances or to attributes are kept, and so are transfers
+ * whose peer is kept.
+ */
+object TransactionArchive {
+
+    private const val CANDIDATES = "archive_candidates"
+    private const val ROWS = "archive_rows"
+
+    /**
+     * a random version 4 uuid in the format of [java.util.UUID.toString]
+     */
+    private const val UUID_EXPRESSION = "lower(hex(randomblob(4)) || '-' || hex(randomblob(2)) || '-4' || " +
+            "substr(hex(randomblob(2)), 2) || '-' || substr('89ab', 1 + abs(random()) % 4, 1) || " +
+            "substr(hex(randomblob(2)), 2) || '-' || hex(randomblob(6)))"
+
+    private const val IN_CANDIDATES = "IN (SELECT $KEY_ROWID FROM $CANDIDATES)"
+
+    /**
+     * split parts derive their equivalent amount from their parent
+     */
+    private const val LEAF_EQUIVALENT_AMOUNT = "CASE WHEN r.$KEY_PARENTID IS NOT NULL THEN " +
+            "(SELECT 1.0 * p.$KEY_EQUIVALENT_AMOUNT / p.$KEY_AMOUNT FROM $ROWS p WHERE p.$KEY_ROWID = r.$KEY_PARENTID) * r.$KEY_AMOUNT " +
+            "ELSE r.$KEY_EQUIVALENT_AMOUNT END"
+
+    /**
+     * @param cutoff transactions dated before this timestamp (in seconds) are archived
+     * @param comment stored as comment of the rollups
+     * @return the number of archived transactions, including split parts
+     */
+    @JvmStatic
+    fun archive(db: SupportSQLiteDatabase, cutoff: Long, comment: String): Int {
+        db.beginTransaction()
+        try {
+            db.execSQL("DROP TABLE IF EXISTS temp.$CANDIDATES")
+            db.execSQL("CREATE TEMP TABLE $CANDIDATES ($KEY_ROWID integer primary key)")
+            db.execSQL(
+                """INSERT INTO $CANDIDATES SELECT $KEY_ROWID FROM $TABLE_TRANSACTIONS
+                    WHERE $KEY_PARENTID IS NULL AND $KEY_DATE < ? AND $KEY_STATUS NOT IN ($STATUS_UNCOMMITTED, $STATUS_ARCHIVE, $STATUS_DELETING)
+                    AND $KEY_ACCOUNTID IN (SELECT $KEY_ROWID FROM $TABLE_ACCOUNTS WHERE $KEY_SYNC_ACCOUNT_NAME IS NULL AND $KEY_SEALED = 0)""",
+                arrayOf(cutoff)
+            )
+            val candidateRows =
+                "FROM $TABLE_TRANSACTIONS t WHERE (t.$KEY_ROWID $IN_CANDIDATES OR t.$KEY_PARENTID $IN_CANDIDATES)"
+            db.delete(
+                CANDIDATES, """$KEY_ROWID IN (SELECT coalesce(t.$KEY_PARENTID, t.$KEY_ROWID) $candidateRows AND (
+                    t.$KEY_DEBT_ID IN (SELECT $KEY_ROWID FROM $TABLE_DEBTS WHERE $KEY_SEALED = 1)
+                    OR EXISTS (SELECT 1 FROM $TABLE_TRANSACTION_ATTACHMENTS WHERE $KEY_TRANSACTIONID = t.$KEY_ROWID)
+                    OR EXISTS (SELECT 1 FROM $TABLE_PLAN_INSTANCE_STATUS WHERE $KEY_TRANSACTIONID = t.$KEY_ROWID)
+                    OR EXISTS (SELECT 1 FROM $TABLE_TRANSACTION_ATTRIBUTES WHERE $KEY_TRANSACTIONID = t.$KEY_ROWID)))""",
+                null
+            )
+            //keeping a transfer means keeping its peer, which in turn can be part of a split with other transfers
+            do {
+                val kept = db.delete(
+                    CANDIDATES, """$KEY_ROWID IN (SELECT coalesce(t.$KEY_PARENTID, t.$KEY_ROWID) $candidateRows
+                        AND EXISTS (SELECT 1 FROM $TABLE_TRANSACTIONS peer WHERE peer.$KEY_ROWID = t.$KEY_TRANSFER_PEER
+                        AND coalesce(peer.$KEY_PARENTID, peer.$KEY_ROWID) NOT $IN_CANDIDATES))""",
+                    null
+                )
+            } while (kept > 0)
+
+            db.execSQL("DROP TABLE IF EXISTS temp.$ROWS")
+            db.execSQL(
+                """CREATE TEMP TABLE $ROWS AS
+                    SELECT $ARCHIVE_COLUMNS FROM $TABLE_TRANSACTIONS WHERE $KEY_ROWID $IN_CANDIDATES
+                    UNION ALL SELECT $ARCHIVE_COLUMNS FROM $TABLE_TRANSACTIONS WHERE $KEY_PARENTID $IN_CANDIDATES"""
+            )
+            val count = db.query("SELECT count(*) FROM $ROWS").use {
+                it.moveToFirst()
+                it.getInt(0)
+            }
+            if (count > 0) {
+                db.execSQL("INSERT INTO $TABLE_TRANSACTIONS_ARCHIVE ($ARCHIVE_COLUMNS) SELECT $ARCHIVE_COLUMNS FROM $ROWS")
+                db.execSQL(
+                    """INSERT INTO $TABLE_TRANSACTIONS_ARCHIVE_TAGS ($KEY_TRANSACTIONID, $KEY_TAGID)
+                        SELECT $KEY_TRANSACTIONID, $KEY_TAGID FROM $TABLE_TRANSACTIONS_TAGS WHERE $KEY_TRANSACTIONID IN (SELECT $KEY_ROWID FROM $ROWS)"""
+                )
+                //split parents are represented by their parts, void transactions do not count
+                db.execSQL(
+                    """INSERT INTO $TABLE_TRANSACTIONS ($KEY_ACCOUNTID, $KEY_DATE, $KEY_VALUE_DATE, $KEY_AMOUNT, $KEY_EQUIVALENT_AMOUNT, $KEY_CATID, $KEY_DEBT_ID, $KEY_CR_STATUS, $KEY_STATUS, $KEY_COMMENT, $KEY_UUID)
+                        SELECT $KEY_ACCOUNTID, max($KEY_DATE), max($KEY_VALUE_DATE), sum($KEY_AMOUNT),
+                        sum(cast(round(equivalent) AS integer)),
+                        $KEY_CATID, $KEY_DEBT_ID, $KEY_CR_STATUS, $STATUS_ARCHIVE, ?, $UUID_EXPRESSION
+                        FROM (SELECT r.*, $LEAF_EQUIVALENT_AMOUNT AS equivalent FROM $ROWS r
+                        WHERE r.$KEY_CR_STATUS != '${CrStatus.VOID.name}' AND NOT EXISTS (SELECT 1 FROM $ROWS c WHERE c.$KEY_PARENTID = r.$KEY_ROWID))
+                        GROUP BY $KEY_ACCOUNTID, strftime('%Y-%m', $KEY_DATE, 'unixepoch', 'localtime'), $KEY_CATID, $KEY_DEBT_ID, $KEY_CR_STATUS, equivalent IS NULL""",
+                    arrayOf(comment)
+                )
+                //peers and split parts are deleted in the same statement, so that their foreign keys hold
+                db.execSQL("DELETE FROM $TABLE_TRANSACTIONS WHERE $KEY_ROWID IN (SELECT $KEY_ROWID FROM $ROWS)")
+            }
+            db.execSQL("DROP TABLE temp.$ROWS")
+            db.execSQL("DROP TABLE temp.$CANDIDATES")
+            db.setTransactionSuccessful()
+            return count
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    /**
+     * Moves all archived transactions back into [TABLE_TRANSACTIONS] with their original ids, and
+     * removes the rollups. References to categories, parties, methods, debts or accounts that have
+     * been deleted in the meantime are cleared.
+     * @return the number of restored transactions, including split parts
+     * @throws android.database.sqlite.SQLiteConstraintException if an account or a debt the
+     * archive touches has been sealed in the meantime
+     * @throws IllegalStateException if the rollups of an account no longer add up to its archived
+     * transactions, e.g. because they have been deleted together with a range of transactions
+     */
+    @JvmStatic
+    fun restore(db: SupportSQLiteDatabase): Int {
+        db.beginTransaction()
+        try {
+            //the archive of an account that is being deleted goes with it
+            db.delete(TABLE_TRANSACTIONS_ARCHIVE, "$KEY_ACCOUNTID IN (SELECT $KEY_ACCOUNTID FROM $TABLE_PENDING_ACCOUNT_DELETIONS)", null)
+            db.query(
+                """SELECT $KEY_ACCOUNTID FROM (
+                    SELECT $KEY_ACCOUNTID, $KEY_AMOUNT FROM $TABLE_TRANSACTIONS WHERE $KEY_STATUS = $STATUS_ARCHIVE
+                    UNION ALL SELECT $KEY_ACCOUNTID, -$KEY_AMOUNT FROM $TABLE_TRANSACTIONS_ARCHIVE a
+                    WHERE $KEY_CR_STATUS != '${CrStatus.VOID.name}' AND NOT EXISTS (SELECT 1 FROM $TABLE_TRANSACTIONS_ARCHIVE c WHERE c.$KEY_PARENTID = a.$KEY_ROWID)
+                ) GROUP BY $KEY_ACCOUNTID HAVING sum($KEY_AMOUNT) != 0"""
+            ).use {
+                check(!it.moveToFirst()) { "Archived transactions of account ${it.getLong(0)} no longer match their rollups" }
+            }
+            val count = db.query("SELECT count(*) FROM $TABLE_TRANSACTIONS_ARCHIVE").use {
+                it.moveToFirst()
+                it.getInt(0)
+            }
+            db.delete(TABLE_TRANSACTIONS, "$KEY_STATUS = $STATUS_ARCHIVE", null)
+            if (count > 0) {
+                val existing = { column: String, table: String ->
+                    "CASE WHEN $column IN (SELECT $KEY_ROWID FROM $table) THEN $column END"
+                }
+                val columns = mapOf(
+                    KEY_CATID to existing(KEY_CATID, TABLE_CATEGORIES),
+                    KEY_PAYEEID to existing(KEY_PAYEEID, TABLE_PAYEES),
+                    KEY_TRANSFER_PEER to "NULL",
+                    KEY_TRANSFER_ACCOUNT to existing(KEY_TRANSFER_ACCOUNT, TABLE_ACCOUNTS),
+                    KEY_METHODID to existing(KEY_METHODID, TABLE_METHODS),
+                    KEY_DEBT_ID to existing(KEY_DEBT_ID, TABLE_DEBTS)
+                )
+                val select = ARCHIVE_COLUMNS.split(", ").joinToString { columns[it] ?: it }
+                db.execSQL(
+                    "INSERT INTO $TABLE_TRANSACTIONS ($ARCHIVE_COLUMNS) SELECT $select FROM $TABLE_TRANSACTIONS_ARCHIVE ORDER BY $KEY_PARENTID IS NOT NULL"
+                )
+                //tags are restored before transfers are linked, so that the transfer tags trigger does not copy them
+                db.execSQL(
+                    """INSERT OR IGNORE INTO $TABLE_TRANSACTIONS_TAGS ($KEY_TRANSACTIONID, $KEY_TAGID)
+                        SELECT $KEY_TRANSACTIONID, $KEY_TAGID FROM $TABLE_TRANSACTIONS_ARCHIVE_TAGS"""
+                )
+                db.execSQL(
+                    """UPDATE $TABLE_TRANSACTIONS SET $KEY_TRANSFER_PEER = (SELECT $KEY_TRANSFER_PEER FROM $TABLE_TRANSACTIONS_ARCHIVE a WHERE a.$KEY_ROWID = $TABLE_TRANSACTIONS.$KEY_ROWID)
+                        WHERE $KEY_ROWID IN (SELECT $KEY_ROWID FROM $TABLE_TRANSACTIONS_ARCHIVE WHERE $KEY_TRANSFER_PEER IN (SELECT $KEY_ROWID FROM $TABLE_TRANSACTIONS))"""
+                )
+                db.delete(TABLE_TRANSACTIONS_ARCHIVE, null, null)
+            }
+            db.setTransactionSuccessful()
+            return count
+        } finally {
+            db.endTransaction()
+        }
+    }
+}
@@ -27,25 +27,46 @@ import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.ATTACH
 import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.ATTRIBUTES_CREATE;
 import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.BANK_CREATE;
 import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.CATEGORY_TYPE_UPDATE_TRIGGER_MAIN;
+import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.ACCOUNT_DATA_VERSIONS_CREATE;
+import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.DAILY_CATEGORY_SUMS_CREATE;
+import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.DAILY_CATEGORY_SUMS_INDEX;
+import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.DEBT_BALANCES_CREATE;
+import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.PENDING_ACCOUNT_DELETIONS_CREATE;
+import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.OBJECT_USAGES_CREATE;
 import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.PARTY_HIERARCHY_TRIGGER;
+import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.PAYEES_FTS_CREATE;
+import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.PAYEE_AUTOFILL_CREATE;
 import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.PAYEE_CREATE;
 import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.PAYEE_UNIQUE_INDEX;
 import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.SPLIT_PART_CR_STATUS_TRIGGER_CREATE;
+import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.TRANSACTIONS_ACCOUNT_ID_DATE_INDEX;
 import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.TRANSACTIONS_ATTACHMENTS_CREATE;
 import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.TRANSACTIONS_CAT_ID_INDEX;
+import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.TRANSACTIONS_DEBT_ID_INDEX;
+import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.TRANSACTIONS_PARENT_ID_INDEX;
 import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.TRANSACTIONS_PAYEE_ID_INDEX;
 import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.TRANSACTIONS_SEALED_DELETE_TRIGGER_CREATE;
 import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.TRANSACTIONS_SEALED_INSERT_TRIGGER_CREATE;
 import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.TRANSACTIONS_SEALED_UPDATE_TRIGGER_CREATE;
+import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.TRANSACTIONS_ARCHIVE_ACCOUNT_ID_INDEX;
+import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.TRANSACTIONS_ARCHIVE_CREATE;
+import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.TRANSACTIONS_ARCHIVE_TAGS_CREATE;
+import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.TRANSACTIONS_TAGS_TRANSACTION_ID_INDEX;
+import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.TRANSACTIONS_TRANSFER_PEER_INDEX;
+import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.PLAN_INSTANCE_STATUS_INSTANCE_ID_INDEX;
 import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.TRANSACTIONS_UUID_INDEX_CREATE;
+import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.TRANSACTIONS_FTS_CREATE;
 import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.TRANSACTION_ATTRIBUTES_CREATE;
+import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.TRANSACTION_ATTRIBUTES_VALUE_INDEX;
 import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.TRANSFER_SEALED_UPDATE_TRIGGER_CREATE;
 import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.VIEW_WITH_ACCOUNT_DEFINITION;
 import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.buildChangeTriggerDefinitionForColumnNotNull;
 import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.buildChangeTriggerDefinitionForIntegerColumn;
 import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.buildChangeTriggerDefinitionForReferenceColumn;
 import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.buildChangeTriggerDefinitionForTextColumn;
+import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.changeLogNotPaused;
 import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.linkedTableTrigger;
+import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.objectUsageTriggers;
 import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.parentUuidExpression;
 import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.sequenceNumberSelect;
 import static org.totschnig.myexpenses.provider.BaseTransactionDatabaseKt.shouldWriteChangeTemplate;
@@ -491,10 +512,10 @@ public class TransactionDatabase extends BaseTransactionDatabase {
 
   private static final String UPDATE_ACCOUNT_METADATA_TRIGGER = String.format(
       "CREATE TRIGGER update_account_metadata AFTER UPDATE OF %1$s,%2$s,%3$s,%4$s,%5$s,%6$s,%7$s,%8$s ON %9$s "
-          + " WHEN new.%10$s IS NOT NULL AND new.%16$s > 0 AND NOT EXISTS (SELECT 1 FROM %11$s)"
+          + " WHEN new.%10$s IS NOT NULL AND new.%16$s > 0 AND %11$s"
           + " BEGIN INSERT INTO %12$s (%13$s, %14$s, %15$s, %16$s) VALUES ('metadata', '_ignored_', new.%17$s, new.%16$s); END;",
       KEY_LABEL, KEY_OPENING_BALANCE, KEY_DESCRIPTION, KEY_CURRENCY, KEY_TYPE, KEY_COLOR, KEY_EXCLUDE_FROM_TOTALS, KEY_CRITERION,
-      TABLE_ACCOUNTS, KEY_SYNC_ACCOUNT_NAME, TABLE_SYNC_STATE,
+      TABLE_ACCOUNTS, KEY_SYNC_ACCOUNT_NAME, changeLogNotPaused(false),
       TABLE_CHANGES, KEY_TYPE, KEY_UUID, KEY_ACCOUNTID, KEY_SYNC_SEQUENCE_LOCAL, KEY_ROWID);
 
   private static final String UPDATE_ACCOUNT_EXCHANGE_RATE_TRIGGER = String.format(
@@ -502,7 +523,7 @@ public class TransactionDatabase extends BaseTransactionDatabase {
           + " WHEN %2$s"
           + " BEGIN INSERT INTO %3$s (%4$s, %5$s, %6$s, %7$s) VALUES ('metadata', '_ignored_', new.%6$s, %8$s); END;",
       TABLE_ACCOUNT_EXCHANGE_RATES,
-      shouldWriteChangeTemplate("new"),
+      shouldWriteChangeTemplate("new", TABLE_TRANSACTIONS, false),
       TABLE_CHANGES, KEY_TYPE, KEY_UUID, KEY_ACCOUNTID, KEY_SYNC_SEQUENCE_LOCAL, sequenceNumberSelect("old"));
 
   private static final String SETTINGS_CREATE =
@@ -601,6 +622,7 @@ public class TransactionDatabase extends BaseTransactionDatabase {
     db.execSQL(PAYMENT_METHODS_CREATE);
     db.execSQL(TEMPLATE_CREATE);
     db.execSQL(PLAN_INSTANCE_STATUS_CREATE);
+    db.execSQL(PLAN_INSTANCE_STATUS_INSTANCE_ID_INDEX);
     db.execSQL(CATEGORIES_CREATE);
     db.execSQL(CATEGORY_UUID_INDEX_CREATE);
     createOrRefreshCategoryMainCategoryUniqueLabel(db);
@@ -626,6 +648,7 @@ public class TransactionDatabase extends BaseTransactionDatabase {
     db.execSQL(ATTRIBUTES_CREATE);
     insertFinTSAttributes(db);
     db.execSQL(TRANSACTION_ATTRIBUTES_CREATE);
+    db.execSQL(TRANSACTION_ATTRIBUTES_VALUE_INDEX);
     db.execSQL(ACCOUNT_ATTRIBUTES_CREATE);
 
     //Index
@@ -633,12 +656,25 @@ public class TransactionDatabase extends BaseTransactionDatabase {
     db.execSQL("CREATE INDEX templates_cat_id_index on " + TABLE_TEMPLATES + "(" + KEY_CATID + ")");
     db.execSQL(TRANSACTIONS_PAYEE_ID_INDEX);
     db.execSQL("CREATE INDEX templates_payee_id_index on " + TABLE_TEMPLATES + "(" + KEY_PAYEEID + ")");
+    db.execSQL(TRANSACTIONS_TRANSFER_PEER_INDEX);
+    db.execSQL(TRANSACTIONS_PARENT_ID_INDEX);
+    db.execSQL(TRANSACTIONS_ACCOUNT_ID_DATE_INDEX);
 
     db.execSQL(TAGS_CREATE);
     db.execSQL(TRANSACTIONS_TAGS_CREATE);
+    db.execSQL(TRANSACTIONS_TAGS_TRANSACTION_ID_INDEX);
     db.execSQL(ACCOUNT_TAGS_CREATE);
+    db.execSQL(TRANSACTIONS_ARCHIVE_CREATE);
+    db.execSQL(TRANSACTIONS_ARCHIVE_ACCOUNT_ID_INDEX);
+    db.execSQL(TRANSACTIONS_ARCHIVE_TAGS_CREATE);
+    db.execSQL(PENDING_ACCOUNT_DELETIONS_CREATE);
     createOrRefreshTransferTagsTriggers(db);
     db.execSQL(TEMPLATES_TAGS_CREATE);
+    db.execSQL(TRANSACTIONS_FTS_CREATE);
+    createOrRefreshFullTextSearchTriggers(db);
+    db.execSQL(PAYEES_FTS_CREATE);
+    db.execSQL(PAYEE_AUTOFILL_CREATE);
+    createOrRefreshPayeeLookupTriggers(db);
 
     // Triggers
     createOrRefreshTransactionTriggers(db);
@@ -663,6 +699,15 @@ public class TransactionDatabase extends BaseTransactionDatabase {
 
     db.execSQL(DEBT_CREATE);
     createOrRefreshTransactionDebtTriggers(db);
+    db.execSQL(TRANSACTIONS_DEBT_ID_INDEX);
+    db.execSQL(DEBT_BALANCES_CREATE);
+    createOrRefreshDebtBalanceTriggers(db);
+    db.execSQL(DAILY_CATEGORY_SUMS_CREATE);
+    db.execSQL(DAILY_CATEGORY_SUMS_INDEX);
+    createOrRefreshDailyCategorySumTriggers(db);
+    db.execSQL(ACCOUNT_DATA_VERSIONS_CREATE);
+    createOrRefreshAccountDataVersionTriggers(db);
+    createOrRefreshPendingDeletionTriggers(db);
 
     db.execSQL(ACCOUNT_REMAP_TRANSFER_TRIGGER_CREATE);
 
@@ -670,6 +715,11 @@ public class TransactionDatabase extends BaseTransactionDatabase {
 
     db.execSQL(PARTY_HIERARCHY_TRIGGER);
 
+    db.execSQL(OBJECT_USAGES_CREATE);
+    for (String trigger : objectUsageTriggers()) {
+      db.execSQL(trigger);
+    }
+
     createOrRefreshViews(db);
     //insertTestData(db, 50, 50);
 
@@ -2213,6 +2263,80 @@ public class TransactionDatabase extends BaseTransactionDatabase {
         upgradeTo161(db);
       }
 
+      if (oldVersion < 162) {
+        upgradeTo162(db);
+      }
+
+      if (oldVersion < 163) {
+        upgradeTo163(db);
+      }
+
+      if (oldVersion < 164) {
+        upgradeTo164(db);
+      }
+
+      if (oldVersion < 165) {
+        upgradeTo165(db);
+      }
+
+      if (oldVersion < 166) {
+        upgradeTo166(db);
+      }
+
+      if (oldVersion < 167) {
+        upgradeTo167(db);
+      }
+
+      if (oldVersion < 168) {
+        //sealed guards and change log are deferred during bulk writes, account metadata is not
+        createOrRefreshTransactionTriggers(db);
+        createOrRefreshTransactionDebtTriggers(db);
+        createOrRefreshAccountMetadataTrigger(db);
+      }
+
+      if (oldVersion < 169) {
+        upgradeTo169(db);
+      }
+
+      if (oldVersion < 170) {
+        upgradeTo170(db);
+      }
+
+      if (oldVersion < 171) {
+        upgradeTo171(db);
+      }
+
+      if (oldVersion < 172) {
+        upgradeTo172(db);
+      }
+
+      if (oldVersion < 173) {
+        upgradeTo173(db);
+        //transactions hidden for deletion are excluded like uncommitted ones
+        createOrRefreshViews(db);
+      }
+
+      if (oldVersion < 174) {
+        upgradeTo174(db);
+      }
+
+      if (oldVersion < 175) {
+        //payee names, tag labels and reference numbers are indexed again
+        upgradeTo175(db);
+      }
+
+      if (oldVersion < 176) {
+        upgradeTo176(db);
+      }
+
+      if (oldVersion < 177) {
+        upgradeTo177(db);
+      }
+
+      if (oldVersion < 178) {
+        upgradeTo178(db);
+      }
+
       TransactionProvider.resumeChangeTrigger(db);
     } catch (SQLException e) {
       throw new SQLiteUpgradeFailedException(oldVersion, newVersion, e);
@@ -2299,10 +2423,10 @@ public class TransactionDatabase extends BaseTransactionDatabase {
     String viewExtended = buildViewDefinitionExtended(TABLE_TRANSACTIONS);
     String tagGroupBy = DbConstantsKt.tagGroupBy(TABLE_TRANSACTIONS);
     String viewDefinition = buildViewDefinition(TABLE_TRANSACTIONS);
-    db.execSQL("CREATE VIEW " + VIEW_COMMITTED + viewDefinition + " WHERE " + KEY_STATUS + " != " + STATUS_UNCOMMITTED  + tagGroupBy + ";");
+    db.execSQL("CREATE VIEW " + VIEW_COMMITTED + viewDefinition + " WHERE " + KEY_STATUS + " NOT IN (" + STATUS_UNCOMMITTED + ", " + STATUS_DELETING + ")" + tagGroupBy + ";");
     db.execSQL("CREATE VIEW " + VIEW_UNCOMMITTED + viewDefinition + " WHERE " + KEY_STATUS + " = " + STATUS_UNCOMMITTED + tagGroupBy + ";");
     db.execSQL("CREATE VIEW " + VIEW_ALL + viewExtended);
-    db.execSQL("CREATE VIEW " + VIEW_EXTENDED + viewExtended + " WHERE " + KEY_STATUS + " != " + STATUS_UNCOMMITTED);
+    db.execSQL("CREATE VIEW " + VIEW_EXTENDED + viewExtended + " WHERE " + KEY_STATUS + " NOT IN (" + STATUS_UNCOMMITTED + ", " + STATUS_DELETING + ")");
 
     db.execSQL("CREATE VIEW " + VIEW_CHANGES_EXTENDED + buildViewDefinitionExtended(TABLE_CHANGES));
     db.execSQL(VIEW_WITH_ACCOUNT_DEFINITION);
@@ -0,0 +1,217 @@
+package org.totschnig.myexpenses.provider
+
+import android.content.ContentValues
+import android.database.sqlite.SQLiteConstraintException
+import androidx.sqlite.db.SupportSQLiteDatabase
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DEBT_ID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PARENTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PARENT_UUID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SEALED
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_STATUS
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SYNC_SEQUENCE_LOCAL
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSFER_ACCOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSFER_PEER
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TYPE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_UUID
+import org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_ARCHIVE
+import org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_DELETING
+import org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_UNCOMMITTED
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_ACCOUNTS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_CHANGES
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_DEBTS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_PENDING_ACCOUNT_DELETIONS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_SYNC_STATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS
+import org.totschnig.myexpenses.sync.json.TransactionChange
+
+/**
+ * Deletion of large numbers of transactions, i.e. of all transactions of an account before the
+ * account itself is deleted, or of the transactions matched by a filter after export. Deleting them
+ * with one statement holds the database for the whole operation, while the per row triggers fire
+ * for each transaction and each of its split parts. Instead, deletion happens in two steps:
+ *
+ * [hide] marks the transactions and their split parts with [STATUS_DELETING] in one database
+ * transaction, so that from then on, they are excluded from all lists and sums like uncommitted
+ * transactions. In the same database transaction, their transfer peers are unlinked, and for synced
+ * accounts, their deletion is written to the change log with one statement. If the account itself is
+ * deleted, it is recorded in [TABLE_PENDING_ACCOUNT_DELETIONS].
+ *
+ * [deleteChunk] then removes the hidden transactions in chunks of bounded size, each in its own
+ * database transaction. These deletes are neither recorded in the change log, nor visible to the UI.
+ * The database transaction deleting the last chunk also deletes the account, if it is pending
+ * deletion. If the process is killed in between, [pendingAccounts] lists the accounts for which
+ * the deletion needs to be resumed.
+ *
+ * While the rows are updated and deleted, the sealed guards and the change log triggers are paused
+ * like during a [BulkWrite]. The guards are checked once by [hide] instead.
+ *
+ * Accounts pending deletion are excluded from account queries through [ACCOUNT_NOT_PENDING_DELETION],
+ * and triggers reject transactions written into them, since these would be deleted with the account.
+ */
+object TransactionDeletion {
+
+    /**
+     * selection that excludes accounts pending deletion from queries on [TABLE_ACCOUNTS]
+     */
+    const val ACCOUNT_NOT_PENDING_DELETION =
+        "$TABLE_ACCOUNTS.$KEY_ROWID NOT IN (SELECT $KEY_ACCOUNTID FROM $TABLE_PENDING_ACCOUNT_DELETIONS)"
+
+    private const val PENDING = "pending_deletion"
+
+    private const val HIDDEN = "$KEY_ACCOUNTID = ? AND $KEY_STATUS = $STATUS_DELETING"
+
+    /**
+     * @param selection restricts the deletion to the transactions of [accountId] it matches. If
+     * null, all transactions of the account are hidden, and their deletion is not written to the
+     * change log, since the account is deleted together with the last chunk, which removes its
+     * change log as well. The rollups of [TransactionArchive] are only hidden when the whole
+     * account is deleted, since [TransactionArchive.restore] needs them to match the archive.
+     * @return the number of hidden transactions, including split parts
+     * @throws SQLiteConstraintException if one of the transactions is linked to a sealed debt, or if
+     * [selection] is not null and the account is sealed
+     */
+    @JvmStatic
+    fun hide(
+        db: SupportSQLiteDatabase,
+        accountId: Long,
+        selection: String?,
+        selectionArgs: Array<String>?
+    ): Int {
+        db.beginTransaction()
+        try {
+            db.execSQL("DROP TABLE IF EXISTS temp.$PENDING")
+            db.execSQL("CREATE TEMP TABLE $PENDING ($KEY_ROWID integer primary key)")
+            val excludedStatus = if (selection == null) "$STATUS_UNCOMMITTED, $STATUS_DELETING"
+            else "$STATUS_UNCOMMITTED, $STATUS_DELETING, $STATUS_ARCHIVE"
+            db.execSQL(
+                "INSERT INTO $PENDING SELECT $KEY_ROWID FROM $TABLE_TRANSACTIONS WHERE $KEY_ACCOUNTID = ? AND $KEY_STATUS NOT IN ($excludedStatus)" +
+                        (selection?.let { " AND ($it)" } ?: ""),
+                arrayOf<Any>(accountId) + (selectionArgs ?: emptyArray())
+            )
+            //split parts are deleted together with their parent
+            db.execSQL(
+                "INSERT OR IGNORE INTO $PENDING SELECT $KEY_ROWID FROM $TABLE_TRANSACTIONS WHERE $KEY_PARENTID IN (SELECT $KEY_ROWID FROM $PENDING)"
+            )
+            checkSealed(db, accountId, selection != null)
+            if (selection == null) {
+                db.execSQL(
+                    "INSERT OR IGNORE INTO $TABLE_PENDING_ACCOUNT_DELETIONS ($KEY_ACCOUNTID) VALUES (?)",
+                    arrayOf(accountId)
+                )
+            } else {
+                db.execSQL(
+                    """INSERT INTO $TABLE_CHANGES ($KEY_TYPE, $KEY_SYNC_SEQUENCE_LOCAL, $KEY_ACCOUNTID, $KEY_UUID, $KEY_PARENT_UUID)
+                        SELECT '${TransactionChange.Type.deleted}', ${sequenceNumberSelect("t")}, t.$KEY_ACCOUNTID, t.$KEY_UUID, ${parentUuidExpression("t")}
+                        FROM $TABLE_TRANSACTIONS t WHERE t.$KEY_ROWID IN (SELECT $KEY_ROWID FROM $PENDING) AND ${shouldWriteChangeTemplate("t")}"""
+                )
+            }
+            withTriggersPaused(db) {
+                db.execSQL(
+                    "UPDATE $TABLE_TRANSACTIONS SET $KEY_TRANSFER_PEER = NULL, $KEY_TRANSFER_ACCOUNT = NULL WHERE $KEY_TRANSFER_PEER IN (SELECT $KEY_ROWID FROM $PENDING) AND $KEY_ROWID NOT IN (SELECT $KEY_ROWID FROM $PENDING)"
+                )
+                //unlinking the hidden side as well keeps the tags of the peer, and spares the
+                //foreign key lookups when the chunks are deleted
+                db.update(
+                    TABLE_TRANSACTIONS,
+                    ContentValues(2).apply {
+                        put(KEY_STATUS, STATUS_DELETING)
+                        putNull(KEY_TRANSFER_PEER)
+                    },
+                    "$KEY_ROWID IN (SELECT $KEY_ROWID FROM $PENDING)",
+                    null
+                )
+            }
+            val count = db.query("SELECT count(*) FROM temp.$PENDING").use {
+                it.moveToFirst()
+                it.getInt(0)
+            }
+            db.execSQL("DROP TABLE temp.$PENDING")
+            db.setTransactionSuccessful()
+            return count
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    /**
+     * Deletes up to [limit] of the transactions hidden by [hide] for [accountId], together with
+     * their split parts. Once none remain, the account is deleted in the same database
+     * transaction, if it is pending deletion.
+     * @return the number of hidden transactions that remain
+     */
+    @JvmStatic
+    fun deleteChunk(db: SupportSQLiteDatabase, accountId: Long, limit: Int): Int {
+        require(limit > 0)
+        db.beginTransaction()
+        try {
+            withTriggersPaused(db) {
+                db.execSQL(
+                    "DELETE FROM $TABLE_TRANSACTIONS WHERE $KEY_ROWID IN (SELECT $KEY_ROWID FROM $TABLE_TRANSACTIONS WHERE $HIDDEN LIMIT $limit)",
+                    arrayOf(accountId)
+                )
+            }
+            val remaining = db.query(
+                "SELECT count(*) FROM $TABLE_TRANSACTIONS WHERE $HIDDEN",
+                arrayOf(accountId)
+            ).use {
+                it.moveToFirst()
+                it.getInt(0)
+            }
+            if (remaining == 0) {
+                db.delete(
+                    TABLE_ACCOUNTS,
+                    "$KEY_ROWID IN (SELECT $KEY_ACCOUNTID FROM $TABLE_PENDING_ACCOUNT_DELETIONS WHERE $KEY_ACCOUNTID = ?)",
+                    arrayOf(accountId)
+                )
+            }
+            db.setTransactionSuccessful()
+            return remaining
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    /**
+     * @return accounts with transactions hidden for deletion, or which are pending deletion
+     * themselves, i.e. for which [deleteChunk] needs to be called until no transactions remain
+     */
+    @JvmStatic
+    fun pendingAccounts(db: SupportSQLiteDatabase): LongArray = db.query(
+        "SELECT DISTINCT $KEY_ACCOUNTID FROM $TABLE_TRANSACTIONS WHERE $KEY_STATUS = $STATUS_DELETING UNION SELECT $KEY_ACCOUNTID FROM $TABLE_PENDING_ACCOUNT_DELETIONS"
+    ).use { cursor ->
+        LongArray(cursor.count) {
+            cursor.moveToPosition(it)
+            cursor.getLong(0)
+        }
+    }
+
+    private fun checkSealed(db: SupportSQLiteDatabase, accountId: Long, checkAccount: Boolean) {
+        if (checkAccount && db.query(
+                "SELECT $KEY_SEALED FROM $TABLE_ACCOUNTS WHERE $KEY_ROWID = ?",
+                arrayOf(accountId)
+            ).use { it.moveToFirst() && it.getInt(0) == 1 }
+        ) {
+            throw SQLiteConstraintException("attempt to update sealed account")
+        }
+        if (db.query(
+                "SELECT EXISTS (SELECT 1 FROM $TABLE_TRANSACTIONS t JOIN $TABLE_DEBTS d ON d.$KEY_ROWID = t.$KEY_DEBT_ID WHERE t.$KEY_ROWID IN (SELECT $KEY_ROWID FROM $PENDING) AND d.$KEY_SEALED = 1)"
+            ).use { it.moveToFirst() && it.getInt(0) == 1 }
+        ) {
+            throw SQLiteConstraintException("attempt to update sealed debt")
+        }
+    }
+
+    /**
+     * runs [block] with a [SYNC_STATE_BULK] marker, which pauses the sealed guards and the change
+     * log triggers
+     */
+    private fun withTriggersPaused(db: SupportSQLiteDatabase, block: () -> Unit) {
+        val marker = db.insert(TABLE_SYNC_STATE, ContentValues(1).apply {
+            put(KEY_STATUS, SYNC_STATE_BULK)
+        })
+        block()
+        db.delete(TABLE_SYNC_STATE, "rowid = ?", arrayOf(marker))
+    }
+}
@@ -32,6 +32,7 @@ import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CR_STATUS;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CURRENCY;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CURRENCY_OTHER;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CURRENCY_SELF;
+import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COMMENT;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DATE;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DEBT_ID;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_EQUIVALENT_AMOUNT;
@@ -41,6 +42,7 @@ import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_INSTANCEID
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_IS_NUMBERED;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_LABEL;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_LAST_USED;
+import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_MAPPED_TRANSACTIONS;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_METHODID;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PARENTID;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PAYEEID;
@@ -69,6 +71,7 @@ import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_UUID;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.KEY_YEAR;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.NULL_ROW_ID;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.SPLIT_CATID;
+import static org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_ARCHIVE;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_ACCOUNTS;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_ACCOUNTS_TAGS;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_ACCOUNTTYES_METHODS;
@@ -84,6 +87,7 @@ import static org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_DEBTS;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_EVENT_CACHE;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_METHODS;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_PAYEES;
+import static org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_PAYEE_AUTOFILL;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_PLAN_INSTANCE_STATUS;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_SETTINGS;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_SYNC_STATE;
@@ -91,6 +95,7 @@ import static org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TAGS;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TEMPLATES;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TEMPLATES_TAGS;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS;
+import static org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS_ARCHIVE;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS_TAGS;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTION_ATTACHMENTS;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.VIEW_ALL;
@@ -102,7 +107,6 @@ import static org.totschnig.myexpenses.provider.DatabaseConstants.VIEW_TEMPLATES
 import static org.totschnig.myexpenses.provider.DatabaseConstants.VIEW_TEMPLATES_UNCOMMITTED;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.VIEW_UNCOMMITTED;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.WHERE_DEPENDENT;
-import static org.totschnig.myexpenses.provider.DatabaseConstants.WHERE_NOT_SPLIT;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.WHERE_SELF_OR_PEER;
 import static org.totschnig.myexpenses.provider.DatabaseConstants.WHERE_SELF_OR_RELATED;
 import static org.totschnig.myexpenses.provider.DbConstantsKt.budgetAllocation;
@@ -118,6 +122,8 @@ import static org.totschnig.myexpenses.provider.DbConstantsKt.getTransactionQuer
 import static org.totschnig.myexpenses.provider.DbConstantsKt.grandTotalAccountKeepTransferPartCriterion;
 import static org.totschnig.myexpenses.provider.DbConstantsKt.transactionMappedObjectQuery;
 import static org.totschnig.myexpenses.provider.DbConstantsKt.transactionSumQuery;
+import static org.totschnig.myexpenses.provider.DbConstantsKt.USAGE_TYPE_TAG;
+import static org.totschnig.myexpenses.provider.DbConstantsKt.usageCount;
 import static org.totschnig.myexpenses.provider.MoreDbUtilsKt.computeWhere;
 import static org.totschnig.myexpenses.provider.MoreDbUtilsKt.dualQuery;
 import static org.totschnig.myexpenses.provider.MoreDbUtilsKt.groupByForPaymentMethodQuery;
@@ -152,6 +158,7 @@ import org.totschnig.myexpenses.BuildConfig;
 import org.totschnig.myexpenses.db2.RepositoryPaymentMethodKt;
 import org.totschnig.myexpenses.model.CrStatus;
 import org.totschnig.myexpenses.model.Sort;
+import org.totschnig.myexpenses.model.SortDirection;
 import org.totschnig.myexpenses.model.Template;
 import org.totschnig.myexpenses.preference.PrefKey;
 import org.totschnig.myexpenses.provider.filter.WhereFilter;
@@ -284,6 +291,12 @@ public class TransactionProvider extends BaseTransactionProvider {
 
   public static final Uri TRANSACTIONS_ATTACHMENTS_URI = Uri.parse("content://" + AUTHORITY + "/transactions/attachments");
 
+  /**
+   * read only access to {@link DatabaseConstants#TABLE_TRANSACTIONS_ARCHIVE}, with the name of the
+   * payee joined as {@link DatabaseConstants#KEY_PAYEE_NAME}
+   */
+  public static final Uri TRANSACTIONS_ARCHIVE_URI = Uri.parse("content://" + AUTHORITY + "/transactions/archive");
+
   public static final String URI_SEGMENT_MOVE = "move";
   public static final String URI_SEGMENT_TOGGLE_CRSTATUS = "toggleCrStatus";
   public static final String URI_SEGMENT_UNDELETE = "undelete";
@@ -318,6 +331,12 @@ public class TransactionProvider extends BaseTransactionProvider {
   public static final String QUERY_PARAMETER_MERGE_TRANSFERS = "mergeTransfers";
   private static final String QUERY_PARAMETER_SYNC_BEGIN = "syncBegin";
   private static final String QUERY_PARAMETER_SYNC_END = "syncEnd";
+  private static final String QUERY_PARAMETER_BULK_WRITE_BEGIN = "bulkWriteBegin";
+  private static final String QUERY_PARAMETER_BULK_WRITE_END = "bulkWriteEnd";
+  private static final String QUERY_PARAMETER_ALLOWED_ON_SEALED = "allowedOnSealed";
+  private static final String QUERY_PARAMETER_BULK_WRITE_SELECTION = "bulkWriteSelection";
+  private static final String QUERY_PARAMETER_BULK_WRITE_SELECTION_ARG = "bulkWriteSelectionArg";
+  private static final String QUERY_PARAMETER_HIDE_FOR_DELETION = "hideForDeletion";
   public static final String QUERY_PARAMETER_WITH_JULIAN_START = "withJulianStart";
   public static final String QUERY_PARAMETER_WITH_COUNT = "count";
   public static final String QUERY_PARAMETER_WITH_INSTANCE = "withInstance";
@@ -340,6 +359,13 @@ public class TransactionProvider extends BaseTransactionProvider {
 
   public static final String QUERY_PARAMETER_ALLOCATED_ONLY = "allocatedOnly";
 
+  /**
+   * Sums are read from {@link DatabaseConstants#TABLE_DAILY_CATEGORY_SUMS}. Only valid if the
+   * selection is restricted to filters on the date, and the sums are requested for an account
+   * or a currency.
+   */
+  public static final String QUERY_PARAMETER_DAILY_SUMS = "dailySums";
+
   /**
    * Colon separated list of account types
    */
@@ -358,6 +384,8 @@ public class TransactionProvider extends BaseTransactionProvider {
   public static final String METHOD_SETUP_CATEGORIES = "setup_categories";
   public static final String METHOD_RESET_EQUIVALENT_AMOUNTS = "reset_equivalent_amounts";
   public static final String METHOD_CHECK_CORRUPTED_DATA_987 = "checkCorruptedData";
+  public static final String METHOD_CHECK_DEBT_BALANCES = "checkDebtBalances";
+  public static final String METHOD_SAVE_BUDGET_ROLLOVER = "saveBudgetRollover";
 
   public static final String METHOD_DELETE_ATTACHMENTS = "deleteAttachments";
 
@@ -368,6 +396,38 @@ public class TransactionProvider extends BaseTransactionProvider {
   public static final String METHOD_ENSURE_CATEGORY_TREE = "ensureCategoryTree";
   public static final String KEY_CATEGORY_EXPORT = "categoryExport";
   public static final String METHOD_SAVE_TRANSACTION_TAGS = "saveTransactionTags";
+  public static final String METHOD_DELETE_HIDDEN_TRANSACTIONS = "deleteHiddenTransactions";
+  public static final String KEY_CHUNK_SIZE = "chunkSize";
+  /**
+   * returns the ids of accounts whose deletion through {@link TransactionDeletion} has not been completed
+   */
+  public static final String METHOD_PENDING_DELETIONS = "pendingDeletions";
+  /**
+   * returns the position of the first parent transaction of the account {@link DatabaseConstants#KEY_ACCOUNTID}
+   * that does not come before {@link DatabaseConstants#KEY_DATE} in {@link DatabaseConstants#KEY_SORT_DIRECTION},
+   * clamped to the last transaction
+   */
+  public static final String METHOD_POSITION_OF_DATE = "positionOfDate";
+  /**
+   * rebuilds {@link DatabaseConstants#TABLE_DAILY_CATEGORY_SUMS} if the time zone has changed since
+   * it was built, returns true in that case
+   */
+  public static final String METHOD_CHECK_DAILY_CATEGORY_SUMS = "checkDailyCategorySums";
+  /**
+   * returns the data version of the account {@link DatabaseConstants#KEY_ACCOUNTID}, or of the
+   * account of the budget {@link DatabaseConstants#KEY_BUDGETID}, see
+   * {@link DatabaseConstants#TABLE_ACCOUNT_DATA_VERSIONS}. Aggregate accounts and budgets without
+   * account depend on all accounts.
+   */
+  public static final String METHOD_ACCOUNT_DATA_VERSION = "accountDataVersion";
+  public static final String METHOD_ARCHIVE = "archive";
+  public static final String METHOD_RESTORE_ARCHIVE = "restoreArchive";
+  public static final String KEY_CUTOFF = "cutoff";
+  /**
+   * returns the report of {@link QueryMetrics}, resets the metrics if arg is {@link #KEY_RESET}
+   */
+  public static final String METHOD_QUERY_METRICS = "queryMetrics";
+  public static final String KEY_RESET = "reset";
   public static final String KEY_REPLACE = "replace";
 
   public static final String KEY_RESULT = "result";
@@ -544,6 +604,7 @@ public class TransactionProvider extends BaseTransactionProvider {
           qb = SupportSQLiteQueryBuilder.builder(getAccountsWithExchangeRate());
           if (projection == null)
             projection = org.totschnig.myexpenses.model2.Account.Companion.getPROJECTION();
+          additionalWhere.append(TransactionDeletion.ACCOUNT_NOT_PENDING_DELETION);
           break;
         }
 
@@ -560,7 +621,8 @@ public class TransactionProvider extends BaseTransactionProvider {
         break;
       case ACCOUNT_ID:
         qb = SupportSQLiteQueryBuilder.builder(getAccountsWithExchangeRate());
-        additionalWhere.append(KEY_ROWID + "=").append(uri.getPathSegments().get(1));
+        additionalWhere.append(KEY_ROWID + "=").append(uri.getPathSegments().get(1))
+            .append(" AND ").append(TransactionDeletion.ACCOUNT_NOT_PENDING_DELETION);
         break;
       case PAYEES:
         if (uri.getBooleanQueryParameter(QUERY_PARAMETER_HIERARCHICAL, false)) {
@@ -679,7 +741,9 @@ public class TransactionProvider extends BaseTransactionProvider {
         selectionArgs = new String[]{uri.getPathSegments().get(1)};
         break;
       case PLANINSTANCE_TRANSACTION_STATUS:
-        qb = SupportSQLiteQueryBuilder.builder(TABLE_PLAN_INSTANCE_STATUS);
+        //with the extended parameter, the amount of the linked transaction can be selected
+        qb = SupportSQLiteQueryBuilder.builder(uri.getQueryParameter(QUERY_PARAMETER_EXTENDED) == null ? TABLE_PLAN_INSTANCE_STATUS :
+            String.format(Locale.ROOT, "%1$s LEFT JOIN %2$s ON %3$s = %4$s", TABLE_PLAN_INSTANCE_STATUS, TABLE_TRANSACTIONS, KEY_ROWID, KEY_TRANSACTIONID));
         break;
       case PLANINSTANCE_STATUS_SINGLE:
         qb = SupportSQLiteQueryBuilder.builder(String.format(Locale.ROOT, "%1$s LEFT JOIN %2$s ON %3$s = %4$s", TABLE_PLAN_INSTANCE_STATUS, TABLE_TRANSACTIONS, KEY_ROWID, KEY_TRANSACTIONID));
@@ -751,8 +815,8 @@ public class TransactionProvider extends BaseTransactionProvider {
       }
       case AUTOFILL:
         qb = SupportSQLiteQueryBuilder.builder(VIEW_EXTENDED);
-        selection = KEY_ROWID + "= (SELECT max(" + KEY_ROWID + ") FROM " + TABLE_TRANSACTIONS
-            + " WHERE " + WHERE_NOT_SPLIT + " AND " + KEY_PAYEEID + " IN (?, (SELECT " + KEY_PARENTID  +" FROM " + TABLE_PAYEES +
+        selection = KEY_ROWID + "= (SELECT max(" + KEY_TRANSACTIONID + ") FROM " + TABLE_PAYEE_AUTOFILL
+            + " WHERE " + KEY_PAYEEID + " IN (?, (SELECT " + KEY_PARENTID  +" FROM " + TABLE_PAYEES +
                 " WHERE " + KEY_ROWID + " = ?)))";
         String id = uri.getPathSegments().get(1);
         selectionArgs = new String[]{id,id};
@@ -799,9 +863,9 @@ public class TransactionProvider extends BaseTransactionProvider {
         boolean withFilter = uri.getBooleanQueryParameter(QUERY_PARAMETER_WITH_FILTER, false);
         String tableName;
         if (withCount) {
-          tableName = TABLE_TAGS + " LEFT JOIN " + TABLE_TRANSACTIONS_TAGS + " ON (" + KEY_ROWID + " = " + KEY_TAGID + ")";
-          projection = new String[]{KEY_ROWID, KEY_LABEL, String.format("count(%s) AS %s", KEY_TAGID, KEY_COUNT)};
-          groupBy = KEY_ROWID;
+          tableName = TABLE_TAGS;
+          projection = new String[]{KEY_ROWID, KEY_LABEL,
+              usageCount(USAGE_TYPE_TAG, KEY_MAPPED_TRANSACTIONS, TABLE_TAGS + "." + KEY_ROWID) + " AS " + KEY_COUNT};
         }
         else if (withFilter) {
           tableName = TABLE_TAGS + " LEFT JOIN " + TABLE_TRANSACTIONS_TAGS + " ON (" + TABLE_TAGS + "." + KEY_ROWID + " = " + KEY_TAGID + ") LEFT JOIN " +
@@ -864,6 +928,11 @@ public class TransactionProvider extends BaseTransactionProvider {
         }
         break;
       }
+      case TRANSACTIONS_ARCHIVE: {
+        qb = SupportSQLiteQueryBuilder.builder("(SELECT a.*, p." + KEY_PAYEE_NAME + " FROM " + TABLE_TRANSACTIONS_ARCHIVE
+            + " a LEFT JOIN " + TABLE_PAYEES + " p ON a." + KEY_PAYEEID + " = p." + KEY_ROWID + ")");
+        break;
+      }
       case TRANSACTION_ATTACHMENTS: {
         if (projection == null) {
           projection = new String[] { KEY_URI };
@@ -898,6 +967,15 @@ public class TransactionProvider extends BaseTransactionProvider {
 
   @Override
   public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+    final long startTime = System.nanoTime();
+    try {
+      return doInsert(uri, values);
+    } finally {
+      recordOperation(QueryMetrics.Operation.INSERT, uri, null, startTime);
+    }
+  }
+
+  private Uri doInsert(@NonNull Uri uri, @Nullable ContentValues values) {
     log("INSERT Uri: %s, values: %s", uri, values);
     SupportSQLiteDatabase db = getHelper().getWritableDatabase();
     long id;
@@ -931,6 +1009,11 @@ public class TransactionProvider extends BaseTransactionProvider {
         id = MoreDbUtilsKt.insert(db, TABLE_PAYEES, values);
         newUri = PAYEES_URI + "/" + id;
       }
+      case CATEGORIES -> {
+        //called from RepositoryBulkInsert
+        id = insertCategory(db, values);
+        newUri = CATEGORIES_URI + "/" + id;
+      }
       case PLANINSTANCE_TRANSACTION_STATUS -> {
         long templateId = values.getAsLong(KEY_TEMPLATEID);
         long instancId = values.getAsLong(KEY_INSTANCEID);
@@ -954,6 +1037,11 @@ public class TransactionProvider extends BaseTransactionProvider {
         if ("1".equals(uri.getQueryParameter(QUERY_PARAMETER_SYNC_BEGIN))) {
           id = pauseChangeTrigger(db);
           newUri = TABLE_SYNC_STATE + "/" + id;
+        } else if ("1".equals(uri.getQueryParameter(QUERY_PARAMETER_BULK_WRITE_BEGIN))) {
+          beginBulkWrite(db, uri.getQueryParameters(QUERY_PARAMETER_ALLOWED_ON_SEALED),
+              uri.getQueryParameter(QUERY_PARAMETER_BULK_WRITE_SELECTION),
+              uri.getQueryParameters(QUERY_PARAMETER_BULK_WRITE_SELECTION_ARG));
+          return uri;
         } else {
           throw unknownUri(uri);
         }
@@ -986,7 +1074,8 @@ public class TransactionProvider extends BaseTransactionProvider {
         newUri = TAGS_URI + "/" + id;
       }
       case TRANSACTIONS_TAGS -> {
-        if (callerIsNotSyncAdapter(uri)) throw new IllegalArgumentException("Can only be called from sync adapter");
+        //links are recorded for sync by trigger, inserting here allows batches to link tags to
+        //transactions through back references, otherwise use METHOD_SAVE_TRANSACTION_TAGS
         db.insert(TABLE_TRANSACTIONS_TAGS, CONFLICT_IGNORE, values);
         //the table does not have primary ids, we return the base uri
         notifyChange(uri, callerIsNotSyncAdapter(uri));
@@ -1070,6 +1159,15 @@ public class TransactionProvider extends BaseTransactionProvider {
 
   @Override
   public int delete(@NonNull Uri uri, String where, String[] whereArgs) {
+    final long startTime = System.nanoTime();
+    try {
+      return doDelete(uri, where, whereArgs);
+    } finally {
+      recordOperation(QueryMetrics.Operation.DELETE, uri, where, startTime);
+    }
+  }
+
+  private int doDelete(@NonNull Uri uri, String where, String[] whereArgs) {
     log("Delete for URL: %s", uri);
     SupportSQLiteDatabase db = getHelper().getWritableDatabase();
     int count;
@@ -1077,10 +1175,14 @@ public class TransactionProvider extends BaseTransactionProvider {
     int uriMatch = URI_MATCHER.match(uri);
     maybeSetDirty(uriMatch);
     switch (uriMatch) {
-      case TRANSACTIONS, UNCOMMITTED -> count = db.delete(TABLE_TRANSACTIONS, where, whereArgs);
+      case TRANSACTIONS, UNCOMMITTED -> count = db.delete(TABLE_TRANSACTIONS, notArchived(where), whereArgs);
       case TRANSACTION_ID -> {
         //maybe TODO ?: where and whereArgs are ignored
         segment = uri.getPathSegments().get(1);
+        if (isArchived(db, segment)) {
+          count = 0;
+          break;
+        }
         //when we are deleting a transfer whose peer is part of a split, we cannot delete the peer,
         //because the split would be left in an invalid state, hence we transform the peer to a normal split part
         //first we find out the account label
@@ -1159,6 +1261,17 @@ public class TransactionProvider extends BaseTransactionProvider {
       case DUAL -> {
         if ("1".equals(uri.getQueryParameter(QUERY_PARAMETER_SYNC_END))) {
           count = resumeChangeTrigger(db);
+        } else if ("1".equals(uri.getQueryParameter(QUERY_PARAMETER_BULK_WRITE_END))) {
+          count = endBulkWrite(db);
+        } else if (uri.getQueryParameter(QUERY_PARAMETER_HIDE_FOR_DELETION) != null) {
+          count = TransactionDeletion.hide(db,
+              Long.parseLong(uri.getQueryParameter(QUERY_PARAMETER_HIDE_FOR_DELETION)), where, whereArgs);
+          //an account pending deletion is excluded from account queries from now on
+          notifyChange(ACCOUNTS_URI, false);
+          if (where != null) {
+            notifyChange(TRANSACTIONS_URI, false);
+            notifyChange(DEBTS_URI, false);
+          }
         } else {
           throw unknownUri(uri);
         }
@@ -1236,9 +1349,34 @@ public class TransactionProvider extends BaseTransactionProvider {
     }
   }
 
+  /**
+   * rollups created by {@link TransactionArchive} are read-only, so that restoring the archive
+   * can replace them without losing changes
+   */
+  private String notArchived(String where) {
+    return KEY_STATUS + " != " + STATUS_ARCHIVE + prefixAnd(where);
+  }
+
+  private boolean isArchived(SupportSQLiteDatabase db, String id) {
+    try (Cursor c = db.query("SELECT 1 FROM " + TABLE_TRANSACTIONS + " WHERE " + KEY_ROWID + " = ? AND " +
+        KEY_STATUS + " = " + STATUS_ARCHIVE, new Object[]{id})) {
+      return c.moveToFirst();
+    }
+  }
+
   @Override
   public int update(@NonNull Uri uri, ContentValues values, String where,
                     String[] whereArgs) {
+    final long startTime = System.nanoTime();
+    try {
+      return doUpdate(uri, values, where, whereArgs);
+    } finally {
+      recordOperation(QueryMetrics.Operation.UPDATE, uri, where, startTime);
+    }
+  }
+
+  private int doUpdate(@NonNull Uri uri, ContentValues values, String where,
+                       String[] whereArgs) {
     SupportSQLiteDatabase db = getHelper().getWritableDatabase();
     String segment; // contains rowId
     int count;
@@ -1248,10 +1386,10 @@ public class TransactionProvider extends BaseTransactionProvider {
     log("UPDATE Uri: %s, values: %s", uri, values);
     switch (uriMatch) {
       case TRANSACTIONS, UNCOMMITTED ->
-              count = MoreDbUtilsKt.update(db, TABLE_TRANSACTIONS, values, where, whereArgs);
+              count = MoreDbUtilsKt.update(db, TABLE_TRANSACTIONS, values, notArchived(where), whereArgs);
       case TRANSACTION_ID, UNCOMMITTED_ID ->
               count = MoreDbUtilsKt.update(db, TABLE_TRANSACTIONS, values,
-                      KEY_ROWID + " = " + uri.getLastPathSegment() + prefixAnd(where),
+                      KEY_ROWID + " = " + uri.getLastPathSegment() + " AND " + notArchived(where),
                       whereArgs);
       case TRANSACTION_UNDELETE -> {
         segment = uri.getPathSegments().get(1);
@@ -1482,6 +1620,7 @@ public class TransactionProvider extends BaseTransactionProvider {
   @Override
   public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
       throws OperationApplicationException {
+    final long startTime = System.nanoTime();
     final SupportSQLiteDatabase db = getHelper().getWritableDatabase();
     final boolean alreadyInBulk = getBulkInProgress();
     if (!alreadyInBulk) {
@@ -1511,12 +1650,24 @@ public class TransactionProvider extends BaseTransactionProvider {
         setBulkInProgress(false);
         notifyBulk();
       }
+      recordOperation(QueryMetrics.Operation.BULK,
+          operations.isEmpty() ? null : operations.get(0).getUri(), null, startTime);
     }
   }
 
   @Nullable
   @Override
   public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+    final long startTime = System.nanoTime();
+    try {
+      return doCall(method, arg, extras);
+    } finally {
+      recordOperation(QueryMetrics.Operation.CALL, method, null, startTime);
+    }
+  }
+
+  @Nullable
+  private Bundle doCall(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
     switch (method) {
       case METHOD_BULK_START -> {
         setBulkInProgress(true);
@@ -1558,6 +1709,18 @@ public class TransactionProvider extends BaseTransactionProvider {
       case METHOD_CHECK_CORRUPTED_DATA_987 -> {
         return checkCorruptedData987();
       }
+      case METHOD_CHECK_DEBT_BALANCES -> {
+        return checkDebtBalances();
+      }
+      case METHOD_SAVE_BUDGET_ROLLOVER -> {
+        Objects.requireNonNull(extras);
+        Bundle result = new Bundle(1);
+        result.putInt(KEY_RESULT, BudgetRollover.save(getHelper().getWritableDatabase(),
+            extras.getLong(KEY_BUDGETID), extras.getIntArray(KEY_YEAR), extras.getIntArray(KEY_SECOND_GROUP),
+            extras.getLongArray(KEY_CATID), extras.getLongArray(KEY_AMOUNT)));
+        notifyChange(BUDGETS_URI, false);
+        return result;
+      }
       case METHOD_DELETE_ATTACHMENTS ->  {
         Bundle result = new Bundle(1);
         result.putBoolean(KEY_RESULT, deleteAttachments(getHelper().getWritableDatabase(), extras.getLong(KEY_TRANSACTIONID), Arrays.asList(extras.getStringArray(KEY_URI_LIST))));
@@ -1581,6 +1744,63 @@ public class TransactionProvider extends BaseTransactionProvider {
       case METHOD_SAVE_TRANSACTION_TAGS ->  {
         saveTransactionTags(getHelper().getWritableDatabase(), Objects.requireNonNull(extras));
       }
+      case METHOD_DELETE_HIDDEN_TRANSACTIONS -> {
+        Objects.requireNonNull(extras);
+        Bundle result = new Bundle(1);
+        int remaining = TransactionDeletion.deleteChunk(getHelper().getWritableDatabase(),
+            extras.getLong(KEY_ACCOUNTID), extras.getInt(KEY_CHUNK_SIZE));
+        //the account is deleted together with the last chunk, if it is pending deletion
+        if (remaining == 0) {
+          notifyAccountChange();
+        }
+        result.putInt(KEY_RESULT, remaining);
+        return result;
+      }
+      case METHOD_PENDING_DELETIONS -> {
+        Bundle result = new Bundle(1);
+        result.putLongArray(KEY_RESULT, TransactionDeletion.pendingAccounts(getHelper().getReadableDatabase()));
+        return result;
+      }
+      case METHOD_POSITION_OF_DATE -> {
+        Objects.requireNonNull(extras);
+        Bundle result = new Bundle(1);
+        result.putInt(KEY_RESULT, positionOfDate(extras.getLong(KEY_ACCOUNTID), extras.getLong(KEY_DATE),
+            SortDirection.valueOf(extras.getString(KEY_SORT_DIRECTION))));
+        return result;
+      }
+      case METHOD_ACCOUNT_DATA_VERSION -> {
+        Bundle result = new Bundle(1);
+        result.putString(KEY_RESULT, accountDataVersion(Objects.requireNonNull(extras)));
+        return result;
+      }
+      case METHOD_CHECK_DAILY_CATEGORY_SUMS -> {
+        Bundle result = new Bundle(1);
+        boolean rebuilt = BaseTransactionDatabaseKt.checkDailyCategorySumsZone(getHelper().getWritableDatabase());
+        if (rebuilt) {
+          notifyChange(TRANSACTIONS_URI, false);
+        }
+        result.putBoolean(KEY_RESULT, rebuilt);
+        return result;
+      }
+      case METHOD_ARCHIVE, METHOD_RESTORE_ARCHIVE -> {
+        SupportSQLiteDatabase db = getHelper().getWritableDatabase();
+        Bundle result = new Bundle(1);
+        result.putInt(KEY_RESULT, method.equals(METHOD_ARCHIVE) ?
+            TransactionArchive.archive(db, Objects.requireNonNull(extras).getLong(KEY_CUTOFF), extras.getString(KEY_COMMENT)) :
+            TransactionArchive.restore(db));
+        notifyChange(TRANSACTIONS_URI, false);
+        notifyChange(ACCOUNTS_URI, false);
+        notifyChange(DEBTS_URI, false);
+        return result;
+      }
+      case METHOD_QUERY_METRICS -> {
+        Bundle result = new Bundle(1);
+        result.putString(KEY_RESULT, getQueryMetrics().report());
+        if (KEY_RESET.equals(arg)) {
+          getQueryMetrics().reset();
+        }
+        return result;
+      }
     }
     return null;
   }
@@ -1660,6 +1880,7 @@ public class TransactionProvider extends BaseTransactionProvider {
     URI_MATCHER.addURI(AUTHORITY, "transactions/attachments", TRANSACTION_ATTACHMENTS);
     URI_MATCHER.addURI(AUTHORITY, "attachments", ATTACHMENTS);
     URI_MATCHER.addURI(AUTHORITY, "transactions/attachments/#/#", TRANSACTION_ID_ATTACHMENT_ID);
+    URI_MATCHER.addURI(AUTHORITY, "transactions/archive", TRANSACTIONS_ARCHIVE);
   }
 
   /**
@@ -1699,6 +1920,49 @@ public class TransactionProvider extends BaseTransactionProvider {
     return MoreDbUtilsKt.insert(db, TABLE_SYNC_STATE, values);
   }
 
+  /**
+   * Starts a {@link BulkWrite}, which must be ended by {@link #endBulkWrite()} in the same batch.
+   * @param selection selection on {@link DatabaseConstants#TABLE_TRANSACTIONS} matching all existing
+   *                  transactions that the batch updates or deletes, only these are snapshotted
+   * @param allowedOnSealed columns that the batch may modify in transactions of sealed accounts and debts
+   */
+  public static ContentProviderOperation beginBulkWrite(@NonNull String selection, @Nullable String[] selectionArgs, String... allowedOnSealed) {
+    Uri.Builder builder = DUAL_URI.buildUpon()
+        .appendQueryParameter(QUERY_PARAMETER_BULK_WRITE_BEGIN, "1")
+        .appendQueryParameter(QUERY_PARAMETER_BULK_WRITE_SELECTION, selection);
+    if (selectionArgs != null) {
+      for (String arg : selectionArgs) {
+        builder.appendQueryParameter(QUERY_PARAMETER_BULK_WRITE_SELECTION_ARG, arg);
+      }
+    }
+    for (String column : allowedOnSealed) {
+      builder.appendQueryParameter(QUERY_PARAMETER_ALLOWED_ON_SEALED, column);
+    }
+    return ContentProviderOperation.newInsert(builder.build()).build();
+  }
+
+  public static ContentProviderOperation endBulkWrite() {
+    return ContentProviderOperation.newDelete(
+        DUAL_URI.buildUpon()
+            .appendQueryParameter(QUERY_PARAMETER_BULK_WRITE_END, "1").build())
+        .build();
+  }
+
+  /**
+   * Hides transactions of an account for deletion by {@link TransactionDeletion}, after which they are
+   * removed in chunks through {@link #METHOD_DELETE_HIDDEN_TRANSACTIONS}. The result count of the
+   * operation is the number of hidden transactions.
+   * @param selection restricts the transactions to be deleted, if null all transactions of the account
+   *                  are deleted, and the account is deleted together with the last chunk
+   */
+  public static ContentProviderOperation hideForDeletion(long accountId, @Nullable String selection, @Nullable String[] selectionArgs) {
+    return ContentProviderOperation.newDelete(
+        DUAL_URI.buildUpon()
+            .appendQueryParameter(QUERY_PARAMETER_HIDE_FOR_DELETION, String.valueOf(accountId)).build())
+        .withSelection(selection, selectionArgs)
+        .build();
+  }
+
   private String[] extendProjectionWithSealedCheck(String[] baseProjection, String baseTable) {
     int baseLength = baseProjection.length;
     String[] projection = new String[baseLength + 1];
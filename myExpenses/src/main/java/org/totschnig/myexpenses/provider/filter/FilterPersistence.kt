@@ -59,6 +59,9 @@ class FilterPersistence(
         .restoreColumn(KEY_COMMENT) {
             CommentCriterion.fromStringExtra(it)
         }
+        .restoreColumn(TABLE_TRANSACTIONS_FTS) {
+            FullTextCriterion.fromStringExtra(it)
+        }
         .restoreColumn(KEY_CR_STATUS) {
             CrStatusCriterion.fromStringExtra(it)
         }
@@ -103,7 +106,7 @@ class FilterPersistence(
 
     fun persistAll() {
         arrayOf(
-            KEY_CATID, KEY_AMOUNT, KEY_COMMENT, KEY_CR_STATUS, KEY_PAYEEID, KEY_METHODID, KEY_DATE,
+            KEY_CATID, KEY_AMOUNT, KEY_COMMENT, TABLE_TRANSACTIONS_FTS, KEY_CR_STATUS, KEY_PAYEEID, KEY_METHODID, KEY_DATE,
             KEY_TRANSFER_ACCOUNT, KEY_TAGID, ACCOUNT_COLUMN
         ).forEach { column ->
             whereFilter[column]?.let {
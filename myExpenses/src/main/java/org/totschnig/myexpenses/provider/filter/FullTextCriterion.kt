@@ -0,0 +1,32 @@
+package org.totschnig.myexpenses.provider.filter
+
+import kotlinx.parcelize.IgnoredOnParcel
+import kotlinx.parcelize.Parcelize
+import org.totschnig.myexpenses.R
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COMMENT
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS_FTS
+
+/**
+ * Searches all columns of [TABLE_TRANSACTIONS_FTS], i.e. comment, payee name, tag labels and
+ * reference number. Search strings without word characters can only be matched against the comment.
+ */
+@Parcelize
+class FullTextCriterion(override val searchString: String) : TextCriterion() {
+
+    @IgnoredOnParcel
+    override val id = R.id.FILTER_TEXT_COMMAND
+
+    @IgnoredOnParcel
+    override val column = TABLE_TRANSACTIONS_FTS
+
+    override val ftsColumn: String?
+        get() = null
+
+    override fun getSelection(forExport: Boolean) = if (operation == WhereFilter.Operation.MATCH)
+        super.getSelection(forExport) else "$KEY_COMMENT ${operation.getOp(1)}"
+
+    companion object {
+
+        fun fromStringExtra(extra: String) = FullTextCriterion(extra)
+    }
+}
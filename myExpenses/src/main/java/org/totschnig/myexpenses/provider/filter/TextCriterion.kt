@@ -18,16 +18,40 @@
 package org.totschnig.myexpenses.provider.filter
 
 import android.content.Context
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS_FTS
 import org.totschnig.myexpenses.util.Utils
 
+/**
+ * Text criteria are resolved through the full text index [TABLE_TRANSACTIONS_FTS]. Each word of the
+ * search string is matched as a prefix, case and diacritics are ignored. If the search string
+ * does not contain any word characters, we fall back to LIKE.
+ */
 abstract class TextCriterion : Criterion<String>() {
 
     abstract val searchString : String
 
+    /**
+     * column of [TABLE_TRANSACTIONS_FTS] the search is restricted to, null searches all indexed columns
+     */
+    open val ftsColumn: String?
+        get() = column
+
+    private val tokens: List<String>
+        get() = tokenize(searchString)
+
     override val values: Array<String>
-        get() = arrayOf("%${Utils.escapeSqlLikeExpression(searchString)}%")
+        get() = arrayOf(
+            if (tokens.isEmpty()) "%${Utils.escapeSqlLikeExpression(searchString)}%"
+            else matchExpression(tokens, ftsColumn)
+        )
 
-    override val operation = WhereFilter.Operation.LIKE
+    override val operation: WhereFilter.Operation
+        get() = if (tokens.isEmpty()) WhereFilter.Operation.LIKE else WhereFilter.Operation.MATCH
+
+    override fun getSelection(forExport: Boolean) = if (operation == WhereFilter.Operation.MATCH)
+        "$KEY_ROWID IN (SELECT docid FROM $TABLE_TRANSACTIONS_FTS WHERE $TABLE_TRANSACTIONS_FTS ${operation.getOp(1)})"
+    else super.getSelection(forExport)
 
     override fun prettyPrint(context: Context): String {
         return searchString
@@ -36,4 +60,16 @@ abstract class TextCriterion : Criterion<String>() {
     override fun toString(): String {
         return searchString
     }
+
+    companion object {
+        private val NON_WORD = Regex("[^\\p{L}\\p{N}]+")
+
+        fun tokenize(searchString: String) =
+            Utils.normalize(searchString).split(NON_WORD).filter { it.isNotEmpty() }
+
+        fun matchExpression(tokens: List<String>, column: String?) =
+            tokens.joinToString(" ") { token ->
+                (column?.let { "$it:" } ?: "") + "$token*"
+            }
+    }
 }
\ No newline at end of file
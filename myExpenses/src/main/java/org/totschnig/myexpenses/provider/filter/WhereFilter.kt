@@ -80,7 +80,7 @@ data class WhereFilter(val criteria: List<Criterion<*>>) {
         NOPE(""), EQ("=?"), NEQ("!=?"), GT(">?"), GTE(">=?"), LT("<?"), LTE("<=?"), BTW(
             "BETWEEN ? AND ?"
         ),
-        ISNULL("is NULL"), LIKE("LIKE ? ESCAPE '$LIKE_ESCAPE_CHAR'"), IN(null);
+        ISNULL("is NULL"), LIKE("LIKE ? ESCAPE '$LIKE_ESCAPE_CHAR'"), MATCH("MATCH ?"), IN(null);
 
         fun getOp(length: Int): String {
             if (this == IN) {
@@ -22,12 +22,22 @@ interface CoinApi {
         @Path("symbol") symbol: String,
         @Query("time_start") start: LocalDate,
         @Query("time_end") end: LocalDate,
-        @Header("X-CoinAPI-Key") apiKey: String
+        @Header("X-CoinAPI-Key") apiKey: String,
+        @Query("limit") limit: Int
     ): Call<List<HistoryResult>>
 
     @Keep
     data class ExchangeRateResult(val rate: Double)
 
     @Keep
-    data class HistoryResult(val rate_open: Double, val rate_high: Double, val rate_low: Double, val rate_close: Double)
+    data class HistoryResult(
+        val time_period_start: String?,
+        val rate_open: Double,
+        val rate_high: Double,
+        val rate_low: Double,
+        val rate_close: Double
+    ) {
+        val average: Double
+            get() = arrayOf(rate_close, rate_high, rate_low, rate_close).average()
+    }
 }
\ No newline at end of file
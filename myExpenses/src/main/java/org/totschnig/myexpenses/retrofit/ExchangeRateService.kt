@@ -13,6 +13,12 @@ import java.time.Instant
 import java.time.LocalDate
 import java.time.ZoneId
 import java.time.ZonedDateTime
+import java.time.temporal.ChronoUnit
+import java.util.SortedMap
+import java.util.SortedSet
+import java.util.TreeMap
+
+private const val LOOK_BACK_DAYS = 7L
 
 sealed class ExchangeRateSource(val id: String, val host: String) {
 
@@ -155,14 +161,8 @@ class ExchangeRateService(
                 requireNotNull(apiKey)
                 val today = LocalDate.now()
                 if (date < today) {
-                    val call = coinApi.getHistory(base, symbol, date, date.plusDays(1), apiKey)
-                    val result = call.await().first()
-                    date to arrayOf(
-                        result.rate_close,
-                        result.rate_high,
-                        result.rate_low,
-                        result.rate_close
-                    ).average()
+                    val call = coinApi.getHistory(base, symbol, date, date.plusDays(1), apiKey, 1)
+                    date to call.await().first().average
                 } else {
                     val call = coinApi.getExchangeRate(base, symbol, apiKey)
                     val result = call.await()
@@ -174,6 +174,66 @@ class ExchangeRateService(
         throw source.convertError(e)
     }
 
+    /**
+     * Loads rates for [dates]. Sources that offer a time series endpoint are asked once for the
+     * whole range between the first and the last date: Frankfurter's result only contains days
+     * for which rates were published, starting up to [LOOK_BACK_DAYS] before the first date, so
+     * that callers can carry forward the last published rate, CoinApi returns its daily history.
+     * OpenExchangeRates does not offer time series on its free plan, so rates are loaded for each
+     * of the dates.
+     */
+    suspend fun getTimeSeries(
+        source: ExchangeRateSource,
+        apiKey: String?,
+        dates: SortedSet<LocalDate>,
+        symbol: String,
+        base: String
+    ): SortedMap<LocalDate, Double> = try {
+        val today = LocalDate.now()
+        when (source) {
+            ExchangeRateSource.Frankfurter -> {
+                if (symbol in ExchangeRateSource.Frankfurter.SUPPORTED_CURRENCIES && base in ExchangeRateSource.Frankfurter.SUPPORTED_CURRENCIES) {
+                    frankfurter.getTimeSeries(
+                        minOf(dates.first(), today).minusDays(LOOK_BACK_DAYS),
+                        minOf(dates.last(), today),
+                        symbol,
+                        base
+                    ).await().rates.entries.mapNotNull { (date, rates) ->
+                        rates[symbol]?.let { LocalDate.parse(date) to it }
+                    }.toMap(TreeMap())
+                } else {
+                    throw UnsupportedOperationException()
+                }
+            }
+
+            ExchangeRateSource.CoinApi -> {
+                requireNotNull(apiKey)
+                val past = dates.headSet(today)
+                TreeMap<LocalDate, Double>().apply {
+                    if (past.isNotEmpty()) {
+                        val days = ChronoUnit.DAYS.between(past.first(), past.last()).toInt() + 1
+                        coinApi.getHistory(
+                            base, symbol, past.first(), past.last().plusDays(1), apiKey, days
+                        ).await().forEach { result ->
+                            result.time_period_start?.let {
+                                put(LocalDate.parse(it.substring(0, 10)), result.average)
+                            }
+                        }
+                    }
+                    if (dates.last() >= today) {
+                        put(today, coinApi.getExchangeRate(base, symbol, apiKey).await().rate)
+                    }
+                }
+            }
+
+            is ExchangeRateSource.OpenExchangeRates -> dates.associateWithTo(TreeMap()) {
+                getRate(source, apiKey, it, symbol, base).second
+            }
+        }
+    } catch (e: HttpException) {
+        throw source.convertError(e)
+    }
+
     private fun toLocalDate(timestamp: Long): LocalDate {
         return ZonedDateTime.ofInstant(
             Instant.ofEpochSecond(timestamp), ZoneId.systemDefault()
@@ -21,6 +21,20 @@ interface Frankfurter {
         @Query("from") base: String
     ): Call<Result>
 
+    @GET("{start}..{end}")
+    fun getTimeSeries(
+        @Path("start") start: LocalDate,
+        @Path("end") end: LocalDate,
+        @Query("to") symbol: String,
+        @Query("from") base: String
+    ): Call<TimeSeriesResult>
+
     @Keep
     data class Result(val rates: Map<String, Double>)
+
+    /**
+     * rates are keyed by date (ISO format), days without publication (weekends, holidays) are missing
+     */
+    @Keep
+    data class TimeSeriesResult(val rates: Map<String, Map<String, Double>>)
 }
\ No newline at end of file
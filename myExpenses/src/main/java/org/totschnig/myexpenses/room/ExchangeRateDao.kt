@@ -1,12 +1,20 @@
 package org.totschnig.myexpenses.room
 
 import androidx.room.*
+import java.time.LocalDate
 
 @Dao
 interface ExchangeRateDao {
     @Query("SELECT rate from exchange_rates WHERE from_currency = :from AND to_currency = :to AND date = :date AND source = :source" +
             " UNION select 1/rate from exchange_rates where from_currency = :to and to_currency = :from AND date = :date AND source = :source limit 1")
-    suspend fun getRate(from: String, to: String, date: java.time.LocalDate, source: String): Double?
+    suspend fun getRate(from: String, to: String, date: LocalDate, source: String): Double?
+
+    /**
+     * all stored rates for the currency pair between [start] and [end] (inclusive), in either direction
+     */
+    @Query("SELECT date, rate from exchange_rates WHERE from_currency = :from AND to_currency = :to AND date BETWEEN :start AND :end AND source = :source" +
+            " UNION select date, 1/rate from exchange_rates where from_currency = :to and to_currency = :from AND date BETWEEN :start AND :end AND source = :source")
+    suspend fun getRates(from: String, to: String, start: LocalDate, end: LocalDate, source: String): List<DatedRate>
 
     @Query("SELECT * from exchange_rates")
     suspend fun getAllRates(): List<ExchangeRate>
@@ -16,4 +24,9 @@ interface ExchangeRateDao {
 
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     suspend fun insert(exchangeRate: ExchangeRate)
-}
\ No newline at end of file
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun insert(exchangeRates: List<ExchangeRate>)
+}
+
+data class DatedRate(val date: LocalDate, val rate: Double)
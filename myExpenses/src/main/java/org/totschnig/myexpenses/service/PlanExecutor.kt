@@ -4,10 +4,8 @@ import android.annotation.SuppressLint
 import android.app.Notification
 import android.app.PendingIntent
 import android.content.ContentResolver
-import android.content.ContentUris
 import android.content.Context
 import android.content.Intent
-import android.provider.CalendarContract
 import androidx.work.ExistingWorkPolicy
 import androidx.work.OneTimeWorkRequest
 import androidx.work.OneTimeWorkRequestBuilder
@@ -20,8 +18,10 @@ import org.totschnig.myexpenses.activity.ExpenseEdit
 import org.totschnig.myexpenses.activity.MyExpenses
 import org.totschnig.myexpenses.db2.Repository
 import org.totschnig.myexpenses.db2.getLabelForAccount
+import org.totschnig.myexpenses.db2.loadPlanInstanceStatus
+import org.totschnig.myexpenses.db2.loadPlanInstances
+import org.totschnig.myexpenses.db2.loadTemplatesForPlans
 import org.totschnig.myexpenses.injector
-import org.totschnig.myexpenses.model.Template
 import org.totschnig.myexpenses.model.Transaction
 import org.totschnig.myexpenses.model.planCount
 import org.totschnig.myexpenses.preference.PrefHandler
@@ -174,41 +174,30 @@ class PlanExecutor(context: Context, workerParameters: WorkerParameters) :
         val instancesUntil = endOfDay + ADVANCE_DAYS * H24
         log("executing plans from %d to %d", instancesFrom, instancesUntil)
 
-        val eventsUriBuilder = CalendarProviderProxy.INSTANCES_URI.buildUpon()
-        ContentUris.appendId(eventsUriBuilder, instancesFrom)
-        ContentUris.appendId(eventsUriBuilder, instancesUntil)
-        val eventsUri = eventsUriBuilder.build()
         try {
-            contentResolver.query(
-                eventsUri, null,
-                CalendarContract.Events.CALENDAR_ID + " = " + plannerCalendarId,
-                null,
-                CalendarContract.Instances.BEGIN + " ASC"
-            )
+            repository.loadPlanInstances(plannerCalendarId, instancesFrom, instancesUntil)
         } catch (e: Exception) {
-            //} catch (SecurityException | IllegalArgumentException e) {
             report(e, TAG)
             notifyError(e.safeMessage)
             //android.permission.READ_CALENDAR or android.permission.WRITE_CALENDAR missing (SecurityException)
             //buggy calendar provider implementation on Sony (IllegalArgumentException)
             //sqlite database not yet available observed on samsung GT-N7100 (SQLiteException)
             return Result.failure()
-        }?.use { cursor ->
-            if (cursor.moveToFirst()) {
+        }.let { instances ->
+            if (instances.isNotEmpty()) {
                 val today = LocalDate.now()
-                while (!cursor.isAfterLast && !isStopped) {
-                    val planId =
-                        cursor.getLong(cursor.getColumnIndexOrThrow(CalendarContract.Instances.EVENT_ID))
-                    val date =
-                        cursor.getLong(cursor.getColumnIndexOrThrow(CalendarContract.Instances.BEGIN))
+                //templates and the status of their instances are loaded once for the whole window
+                val templates = repository.loadTemplatesForPlans()
+                val dealtWith = repository.loadPlanInstanceStatus(instancesFrom, instancesUntil).keys
+                for ((planId, date) in instances) {
+                    if (isStopped) break
                     val localDate = epochMillis2LocalDate(date)
                     val diff = ChronoUnit.DAYS.between(today, localDate)
                     val instanceId = CalendarProviderProxy.calculateId(date)
                     //2) check if they are part of a plan linked to a template
                     //3) execute the template
                     log("found instance %d of plan %d", instanceId, planId)
-                    //TODO if we have multiple Event instances for one plan, we should maybe cache the template objects
-                    val template = Template.getInstanceForPlanIfInstanceIsOpen(contentResolver, planId, instanceId)
+                    val template = templates[planId]?.takeIf { (it.id to instanceId) !in dealtWith }
                     if (!(template == null || template.isSealed)) {
                         val dateSeconds = date / 1000
                         if (template.planExecutionAdvance >= diff) {
@@ -364,9 +353,8 @@ class PlanExecutor(context: Context, workerParameters: WorkerParameters) :
                             )
                         }
                     } else {
-                        log(if (template == null) "Template.getInstanceForPlanIfInstanceIsOpen returned null, instance might already have been dealt with" else "Plan refers to a closed account or debt")
+                        log(if (template == null) "No open instance of a template, instance might already have been dealt with" else "Plan refers to a closed account or debt")
                     }
-                    cursor.moveToNext()
                 }
             }
         }
@@ -0,0 +1,26 @@
+package org.totschnig.myexpenses.service
+
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.content.Intent
+import org.totschnig.myexpenses.db2.checkDailyCategorySums
+import org.totschnig.myexpenses.injector
+import org.totschnig.myexpenses.util.crashreporting.CrashHandler
+import org.totschnig.myexpenses.util.doAsync
+
+/**
+ * The daily category sums are keyed by local days, they need to be rebuilt for the new time zone
+ */
+class TimeZoneChangedReceiver : BroadcastReceiver() {
+    override fun onReceive(context: Context, intent: Intent) {
+        if (intent.action == Intent.ACTION_TIMEZONE_CHANGED) {
+            doAsync {
+                try {
+                    context.injector.repository().checkDailyCategorySums()
+                } catch (e: Exception) {
+                    CrashHandler.report(e)
+                }
+            }
+        }
+    }
+}
@@ -159,7 +159,7 @@ abstract class AbstractSyncBackendProvider<Res>(protected val context: Context)
     @Throws(IOException::class)
     protected fun maybeEncrypt(outputStream: OutputStream): OutputStream {
         return try {
-            if (isEncrypted) EncryptionHelper.encrypt(
+            if (isEncrypted) EncryptionHelper.encryptWholePayload(
                 outputStream,
                 encryptionPassword
             ) else outputStream
@@ -174,7 +174,7 @@ abstract class AbstractSyncBackendProvider<Res>(protected val context: Context)
         maybeEncrypt: Boolean = true
     ): InputStream =
         if (maybeEncrypt && isEncrypted) try {
-            EncryptionHelper.encrypt(
+            EncryptionHelper.encryptWholePayload(
                 inputStream,
                 encryptionPassword
             )
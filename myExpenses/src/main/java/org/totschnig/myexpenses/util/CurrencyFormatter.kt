@@ -11,6 +11,7 @@ import java.math.BigDecimal
 import java.text.DecimalFormat
 import java.text.NumberFormat
 import java.util.Currency
+import java.util.Locale
 
 interface ICurrencyFormatter {
     fun formatCurrency(
@@ -19,6 +20,15 @@ interface ICurrencyFormatter {
         configure: ((DecimalFormat) -> Unit)? = null
     ): String
 
+    /**
+     * formats an amount given in minor units of [currency]
+     */
+    fun formatMinor(
+        amountMinor: Long,
+        currency: CurrencyUnit,
+        configure: ((DecimalFormat) -> Unit)? = null
+    ) = formatCurrency(Money(currency, amountMinor).amountMajor, currency, configure)
+
     fun invalidate(contentResolver: ContentResolver, currency: String? = null) {}
 }
 
@@ -40,8 +50,7 @@ fun ICurrencyFormatter.formatMoney(
     money: Money,
     configure: ((DecimalFormat) -> Unit)? = null
 ): String {
-    val amount = money.amountMajor
-    return formatCurrency(amount, money.currencyUnit, configure)
+    return formatMinor(money.amountMinor, money.currencyUnit, configure)
 }
 
 /**
@@ -51,20 +60,34 @@ fun ICurrencyFormatter.formatMoney(
  * @return formatted string
  */
 fun ICurrencyFormatter.convAmount(amount: Long, currency: CurrencyUnit): String {
-    return formatMoney(Money(currency, amount))
+    return formatMinor(amount, currency)
 }
 
+/**
+ * Can be called concurrently from any thread. Configured [NumberFormat]s are cached per locale and
+ * currency in an LRU cache of bounded size, and are used under their own lock, since they are not
+ * thread-safe themselves. Amounts in minor units are formatted without conversion to [BigDecimal],
+ * as long as they can be represented exactly as a double.
+ */
 open class CurrencyFormatter(
     private val prefHandler: PrefHandler,
-    private val application: MyApplication
+    private val application: MyApplication,
+    private val maxCacheSize: Int = MAX_CACHE_SIZE
 ) : ICurrencyFormatter {
-    private val numberFormats: MutableMap<String, NumberFormat> = HashMap()
+    private data class FormatKey(val locale: Locale, val currency: String)
+
+    private val numberFormats = object : LinkedHashMap<FormatKey, NumberFormat>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<FormatKey, NumberFormat>?) =
+            size > maxCacheSize
+    }
 
     override fun invalidate(contentResolver: ContentResolver, currency: String?) {
-        if (currency == null) {
-            numberFormats.clear()
-        } else {
-            numberFormats.remove(currency)
+        synchronized(numberFormats) {
+            if (currency == null) {
+                numberFormats.clear()
+            } else {
+                numberFormats.keys.removeAll { it.currency == currency }
+            }
         }
         notifyUris(contentResolver)
     }
@@ -76,7 +99,7 @@ open class CurrencyFormatter(
         contentResolver.notifyChange(TransactionProvider.UNCOMMITTED_URI, null, false)
     }
 
-    private fun initNumberFormat(): NumberFormat {
+    private fun initNumberFormat(locale: Locale): NumberFormat {
         val prefFormat = prefHandler.getString(PrefKey.CUSTOM_DECIMAL_FORMAT, "")
         if ("" != prefFormat) {
             val nf = DecimalFormat()
@@ -87,40 +110,74 @@ open class CurrencyFormatter(
                 //fallback to default currency instance
             }
         }
-        return NumberFormat.getCurrencyInstance(application.userPreferredLocale)
+        return NumberFormat.getCurrencyInstance(locale)
     }
 
     private fun getNumberFormat(currencyUnit: CurrencyUnit): NumberFormat {
-        var numberFormat = numberFormats[currencyUnit.code]
-        if (numberFormat == null) {
-            numberFormat = initNumberFormat()
-            val fractionDigits = currencyUnit.fractionDigits
-            try {
-                numberFormat.currency = Currency.getInstance(currencyUnit.code)
-            } catch (ignored: Exception) { /*Custom locale}*/
-            }
-            val currencySymbol = currencyUnit.symbol
-            val decimalFormatSymbols = (numberFormat as DecimalFormat).decimalFormatSymbols
-            decimalFormatSymbols.currencySymbol = currencySymbol
-            numberFormat.decimalFormatSymbols = decimalFormatSymbols
-            if (fractionDigits <= 3) {
-                numberFormat.minimumFractionDigits = fractionDigits
-            }
-            numberFormat.maximumFractionDigits = fractionDigits
-            numberFormats[currencyUnit.code] = numberFormat
+        val key = FormatKey(application.userPreferredLocale, currencyUnit.code)
+        synchronized(numberFormats) {
+            numberFormats[key]?.let { return it }
+        }
+        val numberFormat = initNumberFormat(key.locale)
+        val fractionDigits = currencyUnit.fractionDigits
+        try {
+            numberFormat.currency = Currency.getInstance(currencyUnit.code)
+        } catch (ignored: Exception) { /*Custom locale}*/
+        }
+        val currencySymbol = currencyUnit.symbol
+        val decimalFormatSymbols = (numberFormat as DecimalFormat).decimalFormatSymbols
+        decimalFormatSymbols.currencySymbol = currencySymbol
+        numberFormat.decimalFormatSymbols = decimalFormatSymbols
+        if (fractionDigits <= 3) {
+            numberFormat.minimumFractionDigits = fractionDigits
+        }
+        numberFormat.maximumFractionDigits = fractionDigits
+        return synchronized(numberFormats) {
+            numberFormats.getOrPut(key) { numberFormat }
         }
-        return numberFormat
+    }
+
+    private inline fun format(
+        currency: CurrencyUnit,
+        noinline configure: ((DecimalFormat) -> Unit)?,
+        block: (NumberFormat) -> String
+    ): String {
+        val nf = getNumberFormat(currency)
+        return if (configure != null && nf is DecimalFormat) {
+            block(synchronized(nf) { nf.clone() as DecimalFormat }.also { configure(it) })
+        } else synchronized(nf) { block(nf) }
     }
 
     override fun formatCurrency(
         amount: BigDecimal,
         currency: CurrencyUnit,
         configure: ((DecimalFormat) -> Unit)?
+    ) = format(currency, configure) { it.format(amount) }
+
+    override fun formatMinor(
+        amountMinor: Long,
+        currency: CurrencyUnit,
+        configure: ((DecimalFormat) -> Unit)?
     ): String {
-        return getNumberFormat(currency).let { nf ->
-            if (configure != null && nf is DecimalFormat) {
-                (nf.clone() as DecimalFormat).also { configure(it) }
-            } else nf
-        }.format(amount)
+        val fractionDigits = currency.fractionDigits
+        return when {
+            fractionDigits == 0 -> format(currency, configure) { it.format(amountMinor) }
+            fractionDigits in 1 until POWERS_OF_TEN.size && amountMinor in -MAX_EXACT_MINOR..MAX_EXACT_MINOR ->
+                (amountMinor / POWERS_OF_TEN[fractionDigits]).let { amount ->
+                    format(currency, configure) { it.format(amount) }
+                }
+            else -> formatCurrency(BigDecimal.valueOf(amountMinor, fractionDigits), currency, configure)
+        }
+    }
+
+    companion object {
+        const val MAX_CACHE_SIZE = 32
+
+        /**
+         * Up to 15 significant digits, a double's shortest decimal representation is the exact
+         * decimal, so formatting it gives the same result as formatting the [BigDecimal]
+         */
+        private const val MAX_EXACT_MINOR = 999_999_999_999_999L
+        private val POWERS_OF_TEN = DoubleArray(16) { Math.pow(10.0, it.toDouble()) }
     }
-}
\ No newline at end of file
+}
@@ -8,6 +8,7 @@ import android.net.Uri
 import java.io.IOException
 import java.io.InputStream
 import java.io.OutputStream
+import java.util.concurrent.Semaphore
 import kotlin.math.floor
 import kotlin.math.max
 
@@ -20,6 +21,25 @@ val Bitmap.CompressFormat.asExtension: String
 
 //based on https://github.com/rifqimfahmi/BetterImageUpload
 object ImageOptimizer {
+    /**
+     * Number of images that are decoded at the same time, independent of how many threads request
+     * a decode, so that the memory needed for full size bitmaps stays bounded
+     */
+    private const val MAX_PARALLEL_DECODES = 2
+    private val decodePermits = Semaphore(MAX_PARALLEL_DECODES)
+
+    /**
+     * Runs [block], which is expected to decode an image, once a decode permit is available
+     */
+    fun <T> withDecodePermit(block: () -> T): T {
+        decodePermits.acquire()
+        try {
+            return block()
+        } finally {
+            decodePermits.release()
+        }
+    }
+
     fun optimize(
         contentResolver: ContentResolver,
         inputUri: Uri,
@@ -30,7 +50,27 @@ object ImageOptimizer {
         quality: Int = 80
     ) {
 
-        val bmOptions: BitmapFactory.Options = decodeBitmapFromUri(contentResolver, inputUri)
+        val newBitmap: Bitmap = decodeScaled(contentResolver, inputUri, maxWidth, maxHeight)
+
+        if (!(contentResolver.openOutputStream(outputUri)?.let {
+                compressAndSaveImage(newBitmap, compressFormat, quality, it)
+            } ?: throw IOException("Opening output stream failed"))) {
+            throw IOException("Compressing bitmap failed")
+        }
+    }
+
+    /**
+     * Decodes the image at [imageUri] scaled down to fit into [maxWidth] x [maxHeight]. The image is
+     * already subsampled while decoding. Blocks while [MAX_PARALLEL_DECODES] other decodes are
+     * running.
+     */
+    fun decodeScaled(
+        contentResolver: ContentResolver,
+        imageUri: Uri,
+        maxWidth: Int,
+        maxHeight: Int
+    ): Bitmap = withDecodePermit {
+        val bmOptions: BitmapFactory.Options = decodeBitmapFromUri(contentResolver, imageUri)
 
         val scaleDownFactor: Float = calculateScaleDownFactor(bmOptions, maxWidth, maxHeight)
 
@@ -38,14 +78,8 @@ object ImageOptimizer {
 
         val matrix: Matrix? = calculateImageMatrix(scaleDownFactor, bmOptions)
 
-        val newBitmap: Bitmap = generateNewBitmap(contentResolver, inputUri, bmOptions, matrix)
-            ?: throw IOException("Decoding inputUri failed")
-
-        if (!(contentResolver.openOutputStream(outputUri)?.let {
-                compressAndSaveImage(newBitmap, compressFormat, quality, it)
-            } ?: throw IOException("Opening output stream failed"))) {
-            throw IOException("Compressing bitmap failed")
-        }
+        generateNewBitmap(contentResolver, imageUri, bmOptions, matrix)
+            ?: throw IOException("Decoding $imageUri failed")
     }
 
     private fun decodeBitmapFromUri(
@@ -0,0 +1,127 @@
+package org.totschnig.myexpenses.util
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.net.Uri
+import android.os.Build
+import android.os.CancellationSignal
+import android.provider.DocumentsContract
+import android.util.Size
+import androidx.annotation.VisibleForTesting
+import org.totschnig.myexpenses.provider.getLongOrNull
+import timber.log.Timber
+import java.io.File
+import java.io.IOException
+import java.security.MessageDigest
+
+/**
+ * Disk backed cache for attachment thumbnails. Entries are keyed by the attachment uri and its
+ * modification time, so that a replaced attachment does not hit a stale thumbnail. Once the cache
+ * exceeds [maxBytes], least recently used thumbnails are removed. Thumbnails that are missing are
+ * produced with a bounded number of parallel decodes (see [ImageOptimizer.withDecodePermit]).
+ */
+class ThumbnailCache(
+    private val context: Context,
+    @VisibleForTesting val directory: File = File(context.cacheDir, "thumbnails"),
+    private val maxBytes: Long = MAX_BYTES
+) {
+
+    /**
+     * @return a thumbnail of the image at [uri] fitting into [size] x [size], either from the
+     * cache or newly decoded, or null if the image cannot be decoded. Must not be called from the
+     * main thread.
+     */
+    fun load(uri: Uri, size: Int): Bitmap? {
+        val file = fileFor(uri, size)
+        if (file.exists()) {
+            BitmapFactory.decodeFile(file.path)?.let {
+                file.setLastModified(System.currentTimeMillis())
+                return it
+            }
+        }
+        val thumbnail = try {
+            decode(uri, size)
+        } catch (e: Exception) {
+            Timber.w(e, "Unable to create thumbnail for %s", uri)
+            return null
+        }
+        store(uri, file, thumbnail)
+        return thumbnail
+    }
+
+    /**
+     * Removes the thumbnails of [uri], to be called when the attachment is replaced or deleted
+     */
+    fun invalidate(uri: Uri) {
+        val prefix = prefix(uri)
+        directory.listFiles { _, name -> name.startsWith(prefix) }?.forEach { it.delete() }
+    }
+
+    private fun decode(uri: Uri, size: Int): Bitmap = ImageOptimizer.withDecodePermit {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && uri.scheme == "content") {
+            context.contentResolver.loadThumbnail(uri, Size(size, size), CancellationSignal())
+        } else null
+    } ?: ImageOptimizer.decodeScaled(context.contentResolver, uri, size, size)
+
+    private fun store(uri: Uri, file: File, thumbnail: Bitmap) {
+        if (!directory.exists() && !directory.mkdirs()) return
+        //older versions of the same attachment are no longer needed
+        invalidate(uri)
+        val tmp = File(directory, "${file.name}.tmp")
+        try {
+            tmp.outputStream().use {
+                thumbnail.compress(Bitmap.CompressFormat.PNG, 100, it)
+            }
+            if (!tmp.renameTo(file)) throw IOException("Unable to rename $tmp")
+        } catch (e: IOException) {
+            Timber.w(e)
+            tmp.delete()
+            return
+        }
+        trim()
+    }
+
+    @VisibleForTesting
+    fun trim() {
+        val files = directory.listFiles() ?: return
+        var total = files.sumOf { it.length() }
+        if (total <= maxBytes) return
+        for (file in files.sortedBy { it.lastModified() }) {
+            val length = file.length()
+            if (file.delete()) {
+                total -= length
+                if (total <= maxBytes) break
+            }
+        }
+    }
+
+    private fun fileFor(uri: Uri, size: Int) =
+        File(directory, "${prefix(uri)}${lastModified(uri)}_$size.png")
+
+    private fun prefix(uri: Uri) = MessageDigest.getInstance("SHA-1")
+        .digest(uri.toString().toByteArray())
+        .joinToString("") { "%02x".format(it) } + "_"
+
+    private fun lastModified(uri: Uri): Long = when (uri.scheme) {
+        "file" -> uri.path?.let { File(it).lastModified() } ?: 0L
+        "content" -> try {
+            PictureDirHelper.getFileForUri(context, uri).lastModified()
+        } catch (e: IllegalArgumentException) {
+            try {
+                context.contentResolver.query(
+                    uri, arrayOf(DocumentsContract.Document.COLUMN_LAST_MODIFIED), null, null, null
+                )?.use {
+                    if (it.moveToFirst()) it.getLongOrNull(DocumentsContract.Document.COLUMN_LAST_MODIFIED) else null
+                }
+            } catch (e: Exception) {
+                null
+            } ?: 0L
+        }
+        else -> 0L
+    }
+
+    companion object {
+        const val MAX_BYTES = 10L * 1024 * 1024
+    }
+}
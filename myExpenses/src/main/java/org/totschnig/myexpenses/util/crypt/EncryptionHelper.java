@@ -25,6 +25,7 @@ package org.totschnig.myexpenses.util.crypt;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
@@ -44,15 +45,21 @@ import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
 import javax.crypto.CipherOutputStream;
 import javax.crypto.SecretKey;
-import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
 //Credits: https://github.com/andOTP/andOTP
 public class EncryptionHelper {
   public final static int ENCRYPTION_IV_LENGTH = 12;
   public final static String ALGORITHM_SYMMETRIC = "AES/GCM/NoPadding";
+  /**
+   * Whole payload encrypted with AES-GCM, still used for short secrets and readable for streams
+   */
   public final static String MAGIC_NUMBER = "ME_ENC_01";
-
+  /**
+   * Segmented streaming format, see {@link SegmentedAead}
+   */
+  public final static String MAGIC_NUMBER_SEGMENTED = "ME_ENC_02";
 
   public static byte[] generateRandom(int length) {
     final byte[] raw = new byte[length];
@@ -61,6 +68,13 @@ public class EncryptionHelper {
     return raw;
   }
 
+  /**
+   * Android's providers also accept an IvParameterSpec for GCM, the JDK's only this
+   */
+  private static GCMParameterSpec gcmParameterSpec(byte[] iv) {
+    return new GCMParameterSpec(SegmentedAead.TAG_LENGTH * 8, iv);
+  }
+
   public static SecretKey generateSymmetricKeyFromPassword(String password)
       throws NoSuchAlgorithmException {
     MessageDigest sha = MessageDigest.getInstance("SHA-256");
@@ -71,7 +85,7 @@ public class EncryptionHelper {
   public static byte[] encrypt(byte[] plaintext, String password) throws GeneralSecurityException {
     final byte[] magicNumber = MAGIC_NUMBER.getBytes();
     final byte[] iv = generateRandom(ENCRYPTION_IV_LENGTH);
-    final byte[] cipherText = encrypt(generateSymmetricKeyFromPassword(password), new IvParameterSpec(iv), plaintext);
+    final byte[] cipherText = encrypt(generateSymmetricKeyFromPassword(password), gcmParameterSpec(iv), plaintext);
     final byte[] combined = new byte[magicNumber.length + iv.length + cipherText.length];
 
     System.arraycopy(magicNumber, 0, combined, 0, magicNumber.length);
@@ -81,7 +95,7 @@ public class EncryptionHelper {
     return combined;
   }
 
-  private static byte[] encrypt(SecretKey secretKey, IvParameterSpec iv, byte[] plainText)
+  private static byte[] encrypt(SecretKey secretKey, GCMParameterSpec iv, byte[] plainText)
       throws GeneralSecurityException {
     Cipher cipher = Cipher.getInstance(ALGORITHM_SYMMETRIC);
     cipher.init(Cipher.ENCRYPT_MODE, secretKey, iv);
@@ -89,7 +103,7 @@ public class EncryptionHelper {
     return cipher.doFinal(plainText);
   }
 
-  public static byte[] decrypt(SecretKey secretKey, IvParameterSpec iv, byte[] cipherText) throws GeneralSecurityException {
+  public static byte[] decrypt(SecretKey secretKey, GCMParameterSpec iv, byte[] cipherText) throws GeneralSecurityException {
     Cipher cipher = Cipher.getInstance(ALGORITHM_SYMMETRIC);
     cipher.init(Cipher.DECRYPT_MODE, secretKey, iv);
 
@@ -106,32 +120,48 @@ public class EncryptionHelper {
     byte[] iv = Arrays.copyOfRange(cipherText, magicLength, to);
     byte[] encrypted = Arrays.copyOfRange(cipherText, to, cipherText.length);
 
-    return decrypt(generateSymmetricKeyFromPassword(password), new IvParameterSpec(iv), encrypted);
+    return decrypt(generateSymmetricKeyFromPassword(password), gcmParameterSpec(iv), encrypted);
   }
 
   public static OutputStream encrypt(@NonNull OutputStream outputStream, String password)
       throws IOException, GeneralSecurityException {
-    outputStream.write(MAGIC_NUMBER.getBytes());
-    SecretKey key = generateSymmetricKeyFromPassword(password);
-    final Cipher cipher = Cipher.getInstance(ALGORITHM_SYMMETRIC);
-    final byte[] iv = generateRandom(ENCRYPTION_IV_LENGTH);
-    cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
-    outputStream.write(iv);
-    return new CipherOutputStream(outputStream, cipher);
+    return encrypt(outputStream, password, SegmentedAead.DEFAULT_ITERATIONS, SegmentedAead.DEFAULT_SEGMENT_SIZE);
+  }
+
+  /**
+   * The key derivation cost is not configurable, streams are always written with
+   * {@link SegmentedAead#DEFAULT_ITERATIONS}. The iteration count is stored in the header, so that
+   * raising the default later leaves existing backups readable. Tests use a low count here.
+   */
+  @VisibleForTesting
+  static OutputStream encrypt(@NonNull OutputStream outputStream, String password,
+                              int iterations, int segmentSize)
+      throws IOException, GeneralSecurityException {
+    return new SegmentedAead.EncryptingOutputStream(outputStream,
+        SegmentedAead.Header.create(password, iterations, segmentSize));
   }
 
+  /**
+   * @return a stream that emits data only after it has been authenticated, for the segmented format
+   * one segment at a time
+   */
   public static InputStream decrypt(InputStream inputStream, String password)
       throws IOException, GeneralSecurityException {
     byte[] magic = new byte[MAGIC_NUMBER.length()];
     read(inputStream, magic);
-    if (!MAGIC_NUMBER.equals(new String(magic))) {
+    final String magicNumber = new String(magic);
+    if (MAGIC_NUMBER_SEGMENTED.equals(magicNumber)) {
+      return new SegmentedAead.DecryptingInputStream(inputStream,
+          SegmentedAead.Header.read(inputStream, password));
+    }
+    if (!MAGIC_NUMBER.equals(magicNumber)) {
       throw new GeneralSecurityException("Invalid Magic Number");
     }
     byte[] iv = new byte[ENCRYPTION_IV_LENGTH];
     read(inputStream, iv);
     SecretKey key = generateSymmetricKeyFromPassword(password);
     final Cipher cipher = Cipher.getInstance(ALGORITHM_SYMMETRIC);
-    cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
+    cipher.init(Cipher.DECRYPT_MODE, key, gcmParameterSpec(iv));
     return new CipherInputStream(inputStream, cipher);
   }
 
@@ -159,16 +189,42 @@ public class EncryptionHelper {
     if (pb instanceof PushbackInputStream) {
       ((PushbackInputStream) pb).unread(magic);
     }
-    return MAGIC_NUMBER.equals(new String(magic));
+    final String magicNumber = new String(magic);
+    return MAGIC_NUMBER.equals(magicNumber) || MAGIC_NUMBER_SEGMENTED.equals(magicNumber);
   }
 
   public static InputStream encrypt(InputStream inputStream, String password)
       throws GeneralSecurityException {
+    return new SegmentedAead.EncryptingInputStream(inputStream,
+        SegmentedAead.Header.create(password, SegmentedAead.DEFAULT_ITERATIONS, SegmentedAead.DEFAULT_SEGMENT_SIZE));
+  }
+
+  /**
+   * Encrypts in the whole payload format {@link #MAGIC_NUMBER}. Sync backends are read by all
+   * devices of a user, which may run versions that do not know the segmented format, hence they
+   * keep writing this format.
+   */
+  public static OutputStream encryptWholePayload(@NonNull OutputStream outputStream, String password)
+      throws IOException, GeneralSecurityException {
+    outputStream.write(MAGIC_NUMBER.getBytes());
+    SecretKey key = generateSymmetricKeyFromPassword(password);
+    final Cipher cipher = Cipher.getInstance(ALGORITHM_SYMMETRIC);
+    final byte[] iv = generateRandom(ENCRYPTION_IV_LENGTH);
+    cipher.init(Cipher.ENCRYPT_MODE, key, gcmParameterSpec(iv));
+    outputStream.write(iv);
+    return new CipherOutputStream(outputStream, cipher);
+  }
+
+  /**
+   * @see #encryptWholePayload(OutputStream, String)
+   */
+  public static InputStream encryptWholePayload(InputStream inputStream, String password)
+      throws GeneralSecurityException {
     InputStream magicNumber = new ByteArrayInputStream(MAGIC_NUMBER.getBytes());
     SecretKey key = generateSymmetricKeyFromPassword(password);
     final Cipher cipher = Cipher.getInstance(ALGORITHM_SYMMETRIC);
     final byte[] iv = generateRandom(ENCRYPTION_IV_LENGTH);
-    cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
+    cipher.init(Cipher.ENCRYPT_MODE, key, gcmParameterSpec(iv));
     InputStream ivStream = new ByteArrayInputStream(iv);
     return new SequenceInputStream(Collections.enumeration(Arrays.asList(
         magicNumber, ivStream, new CipherInputStream(inputStream, cipher) {
@@ -0,0 +1,522 @@
+package org.totschnig.myexpenses.util.crypt;
+
+import static org.totschnig.myexpenses.util.crypt.EncryptionHelper.ALGORITHM_SYMMETRIC;
+import static org.totschnig.myexpenses.util.crypt.EncryptionHelper.ENCRYPTION_IV_LENGTH;
+import static org.totschnig.myexpenses.util.crypt.EncryptionHelper.MAGIC_NUMBER_SEGMENTED;
+import static org.totschnig.myexpenses.util.crypt.EncryptionHelper.generateRandom;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Segmented streaming AEAD, the container format identified by
+ * {@link EncryptionHelper#MAGIC_NUMBER_SEGMENTED}. The plaintext is split into segments of equal
+ * size, each of which is encrypted and authenticated with AES-GCM on its own. Decryption hence
+ * emits verified data segment by segment, with memory bounded by the segment size, instead of
+ * buffering the whole ciphertext until the tag can be checked. The nonce of each segment is built
+ * from a random prefix, the segment index and a flag marking the last segment, which detects
+ * reordered, dropped and truncated segments (following Tink's AesGcmHkdfStreaming).
+ * <pre>
+ * header:  magic (9) | iterations (4) | segment size (4) | key salt (16) | file salt (16) | nonce prefix (7)
+ * segment: AES-GCM(plaintext of segment size bytes, only the last one may be shorter) | tag (16)
+ * </pre>
+ * A master key is derived from the password with PBKDF2-HMAC-SHA256 over the key salt, and the key of
+ * each file from the master key with HKDF-SHA256 over the file salt. The header is authenticated as
+ * associated data of every segment. Up to {@link #PARALLELISM} segments are processed in parallel.
+ */
+final class SegmentedAead {
+  static final int SALT_LENGTH = 16;
+  static final int NONCE_PREFIX_LENGTH = ENCRYPTION_IV_LENGTH - 5;
+  static final int TAG_LENGTH = 16;
+  static final int KEY_LENGTH = 32;
+  static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+  static final int MIN_SEGMENT_SIZE = 1024;
+  static final int MAX_SEGMENT_SIZE = 4 * 1024 * 1024;
+  static final int DEFAULT_ITERATIONS = 100_000;
+  static final int MAX_ITERATIONS = 10_000_000;
+  static final int HEADER_LENGTH = MAGIC_NUMBER_SEGMENTED.length() + 4 + 4 + SALT_LENGTH * 2 + NONCE_PREFIX_LENGTH;
+  static final int PARALLELISM = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+  private static final String HMAC = "HmacSHA256";
+  private static final byte[] HKDF_INFO = MAGIC_NUMBER_SEGMENTED.getBytes(StandardCharsets.UTF_8);
+  private static final int MAX_CACHED_KEYS = 8;
+
+  private SegmentedAead() {
+  }
+
+  /**
+   * Key derivation is costly by design, hence master keys are cached. Entries are identified by their
+   * key salt and iteration count, and only handed out for a password that matches their verifier,
+   * a MAC of the password under the master key. For encryption the key salt of a matching entry is
+   * reused for the lifetime of the process, so that encrypting many files derives the master key
+   * only once. Most recently used entries are kept at the end.
+   */
+  private static final List<MasterKey> masterKeys = new ArrayList<>(MAX_CACHED_KEYS);
+
+  private static final class MasterKey {
+    final int iterations;
+    final byte[] salt;
+    final byte[] key;
+    final byte[] verifier;
+
+    MasterKey(String password, int iterations, byte[] salt) throws GeneralSecurityException {
+      this.iterations = iterations;
+      this.salt = salt;
+      this.key = pbkdf2(password, salt, iterations);
+      this.verifier = verifier(key, password);
+    }
+
+    boolean matches(String password, int iterations, @Nullable byte[] salt) throws GeneralSecurityException {
+      return this.iterations == iterations &&
+          (salt == null || Arrays.equals(this.salt, salt)) &&
+          MessageDigest.isEqual(verifier, verifier(key, password));
+    }
+
+    private static byte[] verifier(byte[] key, String password) throws GeneralSecurityException {
+      final Mac mac = Mac.getInstance(HMAC);
+      mac.init(new SecretKeySpec(key, HMAC));
+      return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  /**
+   * @param salt the key salt of the stream to decrypt, or null for encryption, which reuses the salt
+   *             of a cached key for the password or creates a new one
+   */
+  private static MasterKey masterKey(String password, int iterations, @Nullable byte[] salt)
+      throws GeneralSecurityException {
+    synchronized (masterKeys) {
+      for (int i = masterKeys.size() - 1; i >= 0; i--) {
+        final MasterKey candidate = masterKeys.get(i);
+        if (candidate.matches(password, iterations, salt)) {
+          masterKeys.remove(i);
+          masterKeys.add(candidate);
+          return candidate;
+        }
+      }
+    }
+    final MasterKey masterKey = new MasterKey(password, iterations,
+        salt == null ? generateRandom(SALT_LENGTH) : salt);
+    synchronized (masterKeys) {
+      if (masterKeys.size() == MAX_CACHED_KEYS) {
+        masterKeys.remove(0);
+      }
+      masterKeys.add(masterKey);
+    }
+    return masterKey;
+  }
+
+  private static ExecutorService executor;
+
+  private static synchronized ExecutorService executor() {
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(PARALLELISM, runnable -> {
+        Thread thread = new Thread(runnable, "SegmentedAead");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return executor;
+  }
+
+  static final class Header {
+    final int iterations;
+    final int segmentSize;
+    final byte[] noncePrefix;
+    final byte[] encoded;
+    final SecretKey key;
+
+    private Header(int iterations, int segmentSize, byte[] keySalt, byte[] fileSalt, byte[] noncePrefix, byte[] masterKey)
+        throws GeneralSecurityException {
+      this.iterations = iterations;
+      this.segmentSize = segmentSize;
+      this.noncePrefix = noncePrefix;
+      this.encoded = ByteBuffer.allocate(HEADER_LENGTH)
+          .put(MAGIC_NUMBER_SEGMENTED.getBytes(StandardCharsets.UTF_8))
+          .putInt(iterations)
+          .putInt(segmentSize)
+          .put(keySalt)
+          .put(fileSalt)
+          .put(noncePrefix)
+          .array();
+      this.key = new SecretKeySpec(hkdf(masterKey, fileSalt), "AES");
+    }
+
+    static Header create(String password, int iterations, int segmentSize) throws GeneralSecurityException {
+      checkParameters(iterations, segmentSize);
+      final MasterKey masterKey = masterKey(password, iterations, null);
+      return new Header(iterations, segmentSize, masterKey.salt, generateRandom(SALT_LENGTH),
+          generateRandom(NONCE_PREFIX_LENGTH), masterKey.key);
+    }
+
+    /**
+     * reads the header following the magic number, which has already been consumed
+     */
+    static Header read(InputStream inputStream, String password) throws IOException, GeneralSecurityException {
+      final byte[] encoded = new byte[HEADER_LENGTH - MAGIC_NUMBER_SEGMENTED.length()];
+      if (EncryptionHelper.read(inputStream, encoded) < encoded.length) {
+        throw new GeneralSecurityException("Truncated header");
+      }
+      final ByteBuffer buffer = ByteBuffer.wrap(encoded);
+      final int iterations = buffer.getInt();
+      final int segmentSize = buffer.getInt();
+      checkParameters(iterations, segmentSize);
+      final byte[] keySalt = new byte[SALT_LENGTH];
+      final byte[] fileSalt = new byte[SALT_LENGTH];
+      final byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+      buffer.get(keySalt).get(fileSalt).get(noncePrefix);
+      return new Header(iterations, segmentSize, keySalt, fileSalt, noncePrefix,
+          masterKey(password, iterations, keySalt).key);
+    }
+
+    private static void checkParameters(int iterations, int segmentSize) throws GeneralSecurityException {
+      if (iterations < 1 || iterations > MAX_ITERATIONS) {
+        throw new GeneralSecurityException("Invalid iteration count " + iterations);
+      }
+      if (segmentSize < MIN_SEGMENT_SIZE || segmentSize > MAX_SEGMENT_SIZE) {
+        throw new GeneralSecurityException("Invalid segment size " + segmentSize);
+      }
+    }
+
+    private Cipher cipher(int mode, int segment, boolean last) throws GeneralSecurityException {
+      if (segment < 0) {
+        throw new GeneralSecurityException("Too many segments");
+      }
+      final byte[] nonce = ByteBuffer.allocate(ENCRYPTION_IV_LENGTH)
+          .put(noncePrefix)
+          .putInt(segment)
+          .put((byte) (last ? 1 : 0))
+          .array();
+      final Cipher cipher = Cipher.getInstance(ALGORITHM_SYMMETRIC);
+      cipher.init(mode, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+      cipher.updateAAD(encoded);
+      return cipher;
+    }
+
+    byte[] seal(int segment, boolean last, byte[] plaintext, int length) throws GeneralSecurityException {
+      return cipher(Cipher.ENCRYPT_MODE, segment, last).doFinal(plaintext, 0, length);
+    }
+
+    byte[] open(int segment, boolean last, byte[] ciphertext, int length) throws GeneralSecurityException {
+      return cipher(Cipher.DECRYPT_MODE, segment, last).doFinal(ciphertext, 0, length);
+    }
+  }
+
+  static byte[] pbkdf2(String password, byte[] salt, int iterations) throws GeneralSecurityException {
+    //PBKDF2WithHmacSHA256 is only available from API 26, with a key length equal to the output
+    //length of HMAC-SHA256, PBKDF2 consists of a single block
+    final Mac mac = Mac.getInstance(HMAC);
+    mac.init(new SecretKeySpec(password.getBytes(StandardCharsets.UTF_8), HMAC));
+    mac.update(salt);
+    byte[] u = mac.doFinal(new byte[]{0, 0, 0, 1});
+    final byte[] result = u.clone();
+    for (int i = 1; i < iterations; i++) {
+      u = mac.doFinal(u);
+      for (int j = 0; j < KEY_LENGTH; j++) {
+        result[j] ^= u[j];
+      }
+    }
+    return result;
+  }
+
+  private static byte[] hkdf(byte[] inputKey, byte[] salt) throws GeneralSecurityException {
+    final Mac mac = Mac.getInstance(HMAC);
+    mac.init(new SecretKeySpec(salt, HMAC));
+    final byte[] pseudoRandomKey = mac.doFinal(inputKey);
+    mac.init(new SecretKeySpec(pseudoRandomKey, HMAC));
+    mac.update(HKDF_INFO);
+    return mac.doFinal(new byte[]{1});
+  }
+
+  /**
+   * Runs the tasks, in parallel if there is more than one, and returns their results in order
+   */
+  private static List<byte[]> process(List<Callable<byte[]>> tasks) throws IOException {
+    final List<byte[]> result = new ArrayList<>(tasks.size());
+    try {
+      if (tasks.size() == 1) {
+        result.add(tasks.get(0).call());
+      } else {
+        for (Future<byte[]> future : executor().invokeAll(tasks)) {
+          result.add(future.get());
+        }
+      }
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+    return result;
+  }
+
+  /**
+   * Splits a stream into chunks of fixed size, and tells which one is the last, by reading one byte
+   * ahead.
+   */
+  private static final class ChunkReader {
+    private final InputStream in;
+    private final int size;
+    private int lookahead = -1;
+    private boolean finished;
+
+    ChunkReader(InputStream in, int size) {
+      this.in = in;
+      this.size = size;
+    }
+
+    boolean isFinished() {
+      return finished;
+    }
+
+    /**
+     * @return the next chunk, with its length and whether it is the last one
+     */
+    Chunk next() throws IOException {
+      final byte[] buffer = new byte[size];
+      int length = 0;
+      if (lookahead != -1) {
+        buffer[0] = (byte) lookahead;
+        length = 1;
+        lookahead = -1;
+      }
+      while (length < size) {
+        final int read = in.read(buffer, length, size - length);
+        if (read == -1) break;
+        length += read;
+      }
+      if (length == size) {
+        lookahead = in.read();
+      }
+      finished = lookahead == -1;
+      return new Chunk(buffer, length, finished);
+    }
+  }
+
+  private static final class Chunk {
+    final byte[] data;
+    final int length;
+    final boolean last;
+
+    Chunk(byte[] data, int length, boolean last) {
+      this.data = data;
+      this.length = length;
+      this.last = last;
+    }
+  }
+
+  /**
+   * Hands out the results of one batch of segments after the other
+   */
+  private abstract static class BatchInputStream extends InputStream {
+    private List<byte[]> batch = new ArrayList<>();
+    private int index;
+    private int position;
+
+    /**
+     * @return the next batch of output, or null at the end of the stream
+     */
+    abstract List<byte[]> nextBatch() throws IOException;
+
+    @Override
+    public int read() throws IOException {
+      final byte[] single = new byte[1];
+      return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+      if (len == 0) return 0;
+      while (index == batch.size() || position == batch.get(index).length) {
+        if (index < batch.size()) {
+          index++;
+          position = 0;
+          continue;
+        }
+        final List<byte[]> next = nextBatch();
+        if (next == null) return -1;
+        batch = next;
+        index = 0;
+        position = 0;
+      }
+      final byte[] current = batch.get(index);
+      final int count = Math.min(len, current.length - position);
+      System.arraycopy(current, position, b, off, count);
+      position += count;
+      return count;
+    }
+  }
+
+  static final class DecryptingInputStream extends BatchInputStream {
+    private final InputStream in;
+    private final Header header;
+    private final ChunkReader reader;
+    private int segment;
+
+    DecryptingInputStream(InputStream in, Header header) {
+      this.in = in;
+      this.header = header;
+      this.reader = new ChunkReader(in, header.segmentSize + TAG_LENGTH);
+    }
+
+    @Override
+    List<byte[]> nextBatch() throws IOException {
+      if (reader.isFinished()) return null;
+      final List<Callable<byte[]>> tasks = new ArrayList<>(PARALLELISM);
+      while (tasks.size() < PARALLELISM && !reader.isFinished()) {
+        final Chunk chunk = reader.next();
+        final int index = segment++;
+        tasks.add(() -> header.open(index, chunk.last, chunk.data, chunk.length));
+      }
+      return process(tasks);
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  static final class EncryptingInputStream extends BatchInputStream {
+    private final InputStream in;
+    private final Header header;
+    private final ChunkReader reader;
+    private int segment;
+    private boolean headerWritten;
+
+    EncryptingInputStream(InputStream in, Header header) {
+      this.in = in;
+      this.header = header;
+      this.reader = new ChunkReader(in, header.segmentSize);
+    }
+
+    @Override
+    List<byte[]> nextBatch() throws IOException {
+      if (!headerWritten) {
+        headerWritten = true;
+        final List<byte[]> result = new ArrayList<>(1);
+        result.add(header.encoded);
+        return result;
+      }
+      if (reader.isFinished()) return null;
+      final List<Callable<byte[]>> tasks = new ArrayList<>(PARALLELISM);
+      while (tasks.size() < PARALLELISM && !reader.isFinished()) {
+        final Chunk chunk = reader.next();
+        final int index = segment++;
+        tasks.add(() -> header.seal(index, chunk.last, chunk.data, chunk.length));
+      }
+      return process(tasks);
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  static final class EncryptingOutputStream extends OutputStream {
+    private final OutputStream out;
+    private final Header header;
+    /**
+     * full segments that are known not to be the last one
+     */
+    private final List<byte[]> pending = new ArrayList<>(PARALLELISM);
+    private byte[] current;
+    private int length;
+    private int segment;
+    private boolean closed;
+
+    EncryptingOutputStream(OutputStream out, Header header) throws IOException {
+      this.out = out;
+      this.header = header;
+      this.current = new byte[header.segmentSize];
+      out.write(header.encoded);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+      if (closed) throw new IOException("Stream closed");
+      while (len > 0) {
+        if (length == current.length) {
+          //more data arrives, so the current segment is not the last one
+          pending.add(current);
+          if (pending.size() == PARALLELISM) {
+            writePending();
+          }
+          current = new byte[header.segmentSize];
+          length = 0;
+        }
+        final int count = Math.min(len, current.length - length);
+        System.arraycopy(b, off, current, length, count);
+        length += count;
+        off += count;
+        len -= count;
+      }
+    }
+
+    private void writePending() throws IOException {
+      final List<Callable<byte[]>> tasks = new ArrayList<>(pending.size());
+      for (byte[] plaintext : pending) {
+        final int index = segment++;
+        tasks.add(() -> header.seal(index, false, plaintext, plaintext.length));
+      }
+      for (byte[] ciphertext : process(tasks)) {
+        out.write(ciphertext);
+      }
+      pending.clear();
+    }
+
+    @Override
+    public void flush() throws IOException {
+      //segments can only be written once they are complete
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) return;
+      closed = true;
+      try {
+        writePending();
+        final byte[] plaintext = current;
+        final int plaintextLength = length;
+        final int index = segment++;
+        final List<Callable<byte[]>> tasks = new ArrayList<>(1);
+        tasks.add(() -> header.seal(index, true, plaintext, plaintextLength));
+        out.write(process(tasks).get(0));
+      } finally {
+        out.close();
+      }
+    }
+  }
+}
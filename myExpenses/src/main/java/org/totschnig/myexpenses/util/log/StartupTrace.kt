@@ -0,0 +1,75 @@
+package org.totschnig.myexpenses.util.log
+
+import android.content.Context
+import android.os.Looper
+import timber.log.Timber
+import java.io.File
+import java.io.IOException
+import java.time.LocalDateTime
+import java.time.format.DateTimeFormatter
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * Records the duration of the named phases of application startup. Phases run on the main thread
+ * delay the first frame of the app, and are reported separately from work that has been deferred
+ * to a background thread. The result of each process start is appended as one line to
+ * logs/startup.log, which can be shared together with the other log files.
+ */
+class StartupTrace {
+    data class Phase(val name: String, val durationNanos: Long, val mainThread: Boolean) {
+        val durationMillis: Long
+            get() = durationNanos / 1_000_000
+    }
+
+    private val _phases = CopyOnWriteArrayList<Phase>()
+
+    val phases: List<Phase>
+        get() = _phases
+
+    val mainThreadMillis: Long
+        get() = _phases.filter { it.mainThread }.sumOf { it.durationNanos } / 1_000_000
+
+    inline fun <T> phase(name: String, block: () -> T): T {
+        val start = System.nanoTime()
+        try {
+            return block()
+        } finally {
+            record(name, System.nanoTime() - start)
+        }
+    }
+
+    fun record(name: String, durationNanos: Long) {
+        _phases.add(Phase(name, durationNanos, Looper.myLooper() == Looper.getMainLooper()))
+    }
+
+    fun summary(path: String) = buildString {
+        append(LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME))
+        append(" path=").append(path)
+        append(" main=").append(mainThreadMillis).append("ms")
+        _phases.forEach {
+            append(' ').append(it.name).append('=').append(it.durationMillis).append("ms")
+            if (!it.mainThread) append("(async)")
+        }
+    }
+
+    /**
+     * appends [summary] to the trace file, keeping the last [maxEntries] process starts
+     */
+    fun write(context: Context, path: String, maxEntries: Int = MAX_ENTRIES) {
+        val file = traceFile(context) ?: return
+        try {
+            file.parentFile?.mkdirs()
+            val entries = (if (file.exists()) file.readLines() else emptyList()) + summary(path)
+            file.writeText(entries.takeLast(maxEntries).joinToString("\n", postfix = "\n"))
+        } catch (e: IOException) {
+            Timber.w(e)
+        }
+    }
+
+    companion object {
+        const val MAX_ENTRIES = 100
+
+        fun traceFile(context: Context): File? =
+            context.getExternalFilesDir(null)?.let { File(it, "logs/startup.log") }
+    }
+}
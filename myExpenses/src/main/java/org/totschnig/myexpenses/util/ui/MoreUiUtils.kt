@@ -8,10 +8,8 @@ import android.graphics.Color
 import android.graphics.drawable.ColorDrawable
 import android.net.Uri
 import android.os.Build
-import android.os.CancellationSignal
 import android.text.format.DateFormat
 import android.text.method.LinkMovementMethod
-import android.util.Size
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
@@ -210,22 +208,9 @@ fun attachmentInfoMap(context: Context, withFile: Boolean = false): Map<Uri, Att
                 } else null
                 contentResolver.getType(uri)?.let {
                     if (it.startsWith("image")) {
-                        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-                            val size = UiUtils.dp2Px(48f, context.resources)
-                            val cancellationSignal = CancellationSignal()
-                            try {
-                                AttachmentInfo.of(it,
-                                    contentResolver.loadThumbnail(
-                                        uri,
-                                        Size(size, size),
-                                        cancellationSignal
-                                    ), file
-                                )
-                            } catch (e: Exception) {
-                                null
-                            }
-                        } else {
-                            AttachmentInfo.of(it, R.drawable.ic_menu_camera, file)
+                        val size = UiUtils.dp2Px(48f, context.resources)
+                        context.injector.thumbnailCache().load(uri, size)?.let { thumbnail ->
+                            AttachmentInfo.of(it, thumbnail, file)
                         }
                     } else {
                         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
@@ -28,6 +28,7 @@ import kotlinx.coroutines.flow.update
 import kotlinx.coroutines.launch
 import org.totschnig.myexpenses.db2.budgetAllocationQueryUri
 import org.totschnig.myexpenses.db2.budgetAllocationUri
+import org.totschnig.myexpenses.db2.saveBudgetRollover
 import org.totschnig.myexpenses.model.Grouping
 import org.totschnig.myexpenses.model.Money
 import org.totschnig.myexpenses.provider.DatabaseConstants
@@ -228,25 +229,8 @@ class BudgetViewModel2(application: Application, savedStateHandle: SavedStateHan
     private suspend fun saveRollOverList(rollOverList: List<Pair<Long, Long>>) {
         val budget = accountInfo.value!!
         val nextGrouping = groupingInfo!!.next(dateInfoExtra.filterNotNull().first())
-        val ops = ArrayList<ContentProviderOperation>()
-        rollOverList.forEach {
-            val (categoryId, rollOver) = it
-            val budgetAllocationUri = budgetAllocationUri(budget.id, categoryId)
-            ops.add(
-                ContentProviderOperation.newUpdate(budgetAllocationUri)
-                    .withValues(groupingInfo!!.asContentValues.apply {
-                        put(DatabaseConstants.KEY_BUDGET_ROLLOVER_NEXT, rollOver)
-                    }).build()
-            )
-            ops.add(
-                ContentProviderOperation.newUpdate(budgetAllocationUri)
-                    .withValues(nextGrouping.asContentValues.apply {
-                        put(DatabaseConstants.KEY_BUDGET_ROLLOVER_PREVIOUS, rollOver)
-                    }).build()
-            )
-        }
         val updateCount =
-            contentResolver.applyBatch(TransactionProvider.AUTHORITY, ops).sumOf { it.count!! }
+            repository.saveBudgetRollover(budget.id, groupingInfo!!, nextGrouping, rollOverList)
         if (updateCount != rollOverList.size * 2) {
             CrashHandler.throwOrReport("Expected update count 2 times ${rollOverList.size}, but actual is $updateCount")
         }
@@ -25,6 +25,7 @@ import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.flow.combine
 import kotlinx.coroutines.flow.filterNotNull
 import kotlinx.coroutines.flow.flatMapLatest
+import kotlinx.coroutines.flow.flow
 import kotlinx.coroutines.flow.mapNotNull
 import kotlinx.coroutines.flow.stateIn
 import kotlinx.coroutines.flow.update
@@ -219,6 +220,15 @@ open class CategoryViewModel(
                 else LoadingState.Empty(cursor.extras.getBoolean(KEY_COUNT))
             }
         }
+    }.withStructuralSharing()
+
+    private fun Flow<LoadingState.Result>.withStructuralSharing() = flow {
+        var previous: Category? = null
+        collect { result ->
+            emit(if (result is LoadingState.Data)
+                LoadingState.Data(result.data.sharingWith(previous).also { previous = it })
+            else result)
+        }
     }
 
     fun saveCategory(label: String, icon: String?, typeFlags: Byte) {
@@ -210,7 +210,11 @@ abstract class ContentResolvingAndroidViewModel(application: Application) :
             val failures = mutableListOf<Exception>()
             for (accountId in accountIds) {
                 try {
-                    repository.deleteAccount(accountId)?.let {
+                    repository.deleteAccount(accountId) { deleted, total ->
+                        bulkDeleteStateInternal.update {
+                            DeleteState.DeleteProgress(deleted, total)
+                        }
+                    }?.let {
                         val accountManager = AccountManager.get(getApplication())
                         val syncAccount = GenericAccountService.getAccount(it)
                         accountManager.setUserData(
@@ -227,6 +231,8 @@ abstract class ContentResolvingAndroidViewModel(application: Application) :
                     failures.add(e)
                 }
             }
+            //the outcome is reported by the caller
+            bulkDeleteStateInternal.update { null }
             licenceHandler.updateNewAccountEnabled()
             updateTransferShortcut()
             if (failures.isEmpty())
@@ -282,7 +288,6 @@ abstract class ContentResolvingAndroidViewModel(application: Application) :
         handleDelete: Int,
         helperComment: String?
     ) {
-        val ops = ArrayList<ContentProviderOperation>()
         var handleDeleteOperation: ContentProviderOperation? = null
         val sum = repository.getTransactionSum(account.id, filter)
         if (handleDelete == EXPORT_HANDLE_DELETED_UPDATE_BALANCE) {
@@ -304,20 +309,13 @@ abstract class ContentResolvingAndroidViewModel(application: Application) :
         if (filter != null && !filter.isEmpty) {
             selectionArgs = joinArrays(selectionArgs, filter.getSelectionArgs(false))
         }
-        updateTransferPeersForTransactionDelete(ops, rowSelect, selectionArgs)
-        ops.add(
-            ContentProviderOperation.newDelete(
-                Transaction.CONTENT_URI
-            )
-                .withSelection(
-                    "$KEY_ROWID IN ($rowSelect)",
-                    selectionArgs
-                )
-                .build()
+        //the helper transaction is inserted after the hiding, otherwise it would be deleted
+        repository.deleteTransactions(
+            account.id,
+            "$KEY_ROWID IN ($rowSelect)",
+            selectionArgs,
+            listOfNotNull(handleDeleteOperation)
         )
-        //needs to be last, otherwise helper transaction would be deleted
-        if (handleDeleteOperation != null) ops.add(handleDeleteOperation)
-        contentResolver.applyBatch(AUTHORITY, ops)
     }
 
     fun joinQueryAndAccountFilter(
@@ -54,6 +54,7 @@ import org.totschnig.myexpenses.provider.DatabaseConstants.getYearOfMonthStart
 import org.totschnig.myexpenses.provider.DatabaseConstants.getYearOfWeekStart
 import org.totschnig.myexpenses.provider.DbUtils
 import org.totschnig.myexpenses.provider.TransactionProvider
+import org.totschnig.myexpenses.provider.appendBooleanQueryParameter
 import org.totschnig.myexpenses.provider.filter.WhereFilter
 import org.totschnig.myexpenses.provider.getLongIfExistsOr0
 import org.totschnig.myexpenses.viewmodel.data.Budget
@@ -262,6 +263,9 @@ abstract class DistributionViewModelBase<T : DistributionAccountInfo>(
                 }
                 if (accountInfo is Budget) {
                     put(DatabaseConstants.KEY_BUDGETID, accountInfo.id.toString())
+                    if (accountInfo.canUseDailySums(whereFilter)) {
+                        put(TransactionProvider.QUERY_PARAMETER_DAILY_SUMS, true.toString())
+                    }
                 }
                 if (groupingInfo.grouping != Grouping.NONE) {
                     put(DatabaseConstants.KEY_YEAR, groupingInfo.year.toString())
@@ -351,6 +355,9 @@ abstract class DistributionViewModelBase<T : DistributionAccountInfo>(
                     TransactionProvider.QUERY_PARAMETER_AGGREGATE_NEUTRAL,
                     aggregateNeutral.toString()
                 )
+                if (accountInfo is Budget && accountInfo.canUseDailySums(whereFilter)) {
+                    builder.appendBooleanQueryParameter(TransactionProvider.QUERY_PARAMETER_DAILY_SUMS)
+                }
 
                 //if we have no income or expense, there is no row in the cursor
                 contentResolver.observeQuery(
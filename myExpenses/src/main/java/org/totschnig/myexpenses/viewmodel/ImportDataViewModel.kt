@@ -1,7 +1,7 @@
 package org.totschnig.myexpenses.viewmodel
 
 import android.app.Application
-import android.content.ContentUris
+import android.content.ContentProviderOperation
 import android.net.Uri
 import android.text.TextUtils
 import kotlinx.coroutines.flow.MutableSharedFlow
@@ -16,7 +16,6 @@ import org.totschnig.myexpenses.db2.createParty
 import org.totschnig.myexpenses.db2.findAnyOpenByLabel
 import org.totschnig.myexpenses.db2.findParty
 import org.totschnig.myexpenses.db2.loadAccount
-import org.totschnig.myexpenses.db2.saveTagsForTransaction
 import org.totschnig.myexpenses.dialog.DialogUtils
 import org.totschnig.myexpenses.export.CategoryInfo
 import org.totschnig.myexpenses.export.qif.QifUtils.reduceTransfers
@@ -27,9 +26,10 @@ import org.totschnig.myexpenses.model.CurrencyUnit
 import org.totschnig.myexpenses.model.Money
 import org.totschnig.myexpenses.model.Transaction
 import org.totschnig.myexpenses.model2.Account
-import org.totschnig.myexpenses.provider.DatabaseConstants
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TAGID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSACTIONID
+import org.totschnig.myexpenses.provider.TransactionProvider
 import org.totschnig.myexpenses.util.io.FileUtils
-import org.totschnig.myexpenses.viewmodel.data.Tag
 
 data class ImportResult(val label: String, val successCount: Int)
 
@@ -108,20 +108,24 @@ abstract class ImportDataViewModel(application: Application) :
     ) = reduceTransfers(accounts).map { (_, memo, _, _, transactions) ->
         accountTitleToAccount[memo]?.let {
             insertTransactions(it, currencyUnit, transactions, autofill)
-            publishProgress(
-                if (transactions.isEmpty()) getString(
-                    R.string.import_transactions_none,
-                    it.label
-                ) else getString(
-                    R.string.import_transactions_success,
-                    transactions.size,
-                    it.label
-                )
-            )
-            ImportResult(it.label, transactions.size)
+            publishImportResult(it, transactions.size)
         }
     }
 
+    suspend fun publishImportResult(account: Account, count: Int): ImportResult {
+        publishProgress(
+            if (count == 0) getString(
+                R.string.import_transactions_none,
+                account.label
+            ) else getString(
+                R.string.import_transactions_success,
+                count,
+                account.label
+            )
+        )
+        return ImportResult(account.label, count)
+    }
+
     fun insertPayees(payees: Set<String>): Int {
         var count = 0
         for (payee in payees) {
@@ -142,33 +146,64 @@ abstract class ImportDataViewModel(application: Application) :
         transactions: List<ImportTransaction>,
         autofill: Boolean
     ) {
-        for (transaction in transactions) {
+        with(TransactionBatch(currencyUnit, autofill)) {
+            transactions.forEach { add(account, it) }
+            flush()
+        }
+    }
+
+    /**
+     * Collects the operations for saving imported transactions, and applies them in batches, each
+     * in one database transaction, once [batchSize] transactions have been added. Split parts are
+     * linked to their parent through back references, so that no transaction needs to be kept
+     * after its batch has been applied. Tags are linked through the sync adapter uri, since the
+     * id of the transaction is only known inside the batch. [flush] must be called after the last
+     * transaction.
+     */
+    inner class TransactionBatch(
+        private val currencyUnit: CurrencyUnit,
+        private val autofill: Boolean,
+        private val batchSize: Int = TRANSACTION_BATCH_SIZE
+    ) {
+        private val ops = ArrayList<ContentProviderOperation>()
+        private var pending = 0
+
+        fun add(account: Account, transaction: ImportTransaction) {
+            val offset = ops.size
             val t = transaction.toTransaction(account, currencyUnit)
             t.payeeId = payeeToId[transaction.payee]
             findToAccount(transaction, t)
-            if (transaction.splits != null) {
-                t.save(contentResolver)
-                for (split in transaction.splits) {
-                    val s = split.toTransaction(account, currencyUnit)
-                    s.parentId = t.id
-                    s.status = DatabaseConstants.STATUS_UNCOMMITTED
-                    findToAccount(split, s)
-                    findCategory(split, s, autofill)
-                    s.save(contentResolver)
-                }
-            } else {
+            if (transaction.splits == null) {
                 findCategory(transaction, t, autofill)
             }
-            t.save(contentResolver, true)?.let {
-                transaction.tags?.let { list ->
-                    repository.saveTagsForTransaction(
-                        list.mapNotNull { tag ->
-                            tagToId[tag]?.let { id -> Tag(id, tag) }
-                        },
-                        ContentUris.parseId(it)
+            ops.addAll(t.buildSaveOperations(contentResolver, offset, -1, false, false))
+            transaction.splits?.forEach { split ->
+                val s = split.toTransaction(account, currencyUnit)
+                findToAccount(split, s)
+                findCategory(split, s, autofill)
+                ops.addAll(s.buildSaveOperations(contentResolver, ops.size, offset, false, false))
+            }
+            transaction.tags?.forEach { tag ->
+                tagToId[tag]?.let {
+                    ops.add(
+                        ContentProviderOperation.newInsert(TransactionProvider.TRANSACTIONS_TAGS_URI)
+                            .withValue(KEY_TAGID, it)
+                            .withValueBackReference(KEY_TRANSACTIONID, offset)
+                            .build()
                     )
                 }
             }
+            if (++pending == batchSize) {
+                flush()
+            }
+        }
+
+        fun flush() {
+            if (ops.isNotEmpty()) {
+                contentResolver.applyBatch(TransactionProvider.AUTHORITY, ops)
+                ops.clear()
+            }
+            pending = 0
         }
     }
 
@@ -191,4 +226,6 @@ abstract class ImportDataViewModel(application: Application) :
             }
         } else null
     }
-}
\ No newline at end of file
+}
+
+private const val TRANSACTION_BATCH_SIZE = 100
@@ -248,7 +248,7 @@ open class MyExpensesViewModel(
             currencyContext,
             viewModelScope,
             prefHandler
-        )
+        ) { scrollToCurrentDate.getValue(account.id).value }
 
     val filterPersistence: Map<Long, FilterPersistence> = lazyMap {
         FilterPersistence(
@@ -243,14 +243,7 @@ class PartyListViewModel(
                         }
 
                         val where = "$KEY_PAYEEID $inOp"
-                        add(
-                            newUpdate(ACCOUNTS_URI).withValue(KEY_SEALED, -1)
-                                .withSelection("$KEY_SEALED = 1", null).build()
-                        )
-                        add(
-                            newUpdate(DEBTS_URI).withValue(KEY_SEALED, -1)
-                                .withSelection("$KEY_SEALED = 1", null).build()
-                        )
+                        add(beginBulkWrite(where, null, KEY_PAYEEID))
                         add(
                             newUpdate(DEBTS_URI).withValues(contentValues)
                                 .withSelection(where, null).build()
@@ -273,14 +266,7 @@ class PartyListViewModel(
                                 null
                             ).build()
                         )
-                        add(
-                            newUpdate(ACCOUNTS_URI).withValue(KEY_SEALED, 1)
-                                .withSelection("$KEY_SEALED = -1", null).build()
-                        )
-                        add(
-                            newUpdate(DEBTS_URI).withValue(KEY_SEALED, 1)
-                                .withSelection("$KEY_SEALED = -1", null).build()
-                        )
+                        add(endBulkWrite())
                     }
 
                     MergeStrategy.GROUP -> {
@@ -1,7 +1,6 @@
 package org.totschnig.myexpenses.viewmodel
 
 import android.app.Application
-import android.content.ContentUris
 import android.database.Cursor
 import android.net.Uri
 import android.provider.CalendarContract
@@ -13,16 +12,17 @@ import android.view.View
 import androidx.lifecycle.LiveData
 import androidx.lifecycle.MutableLiveData
 import androidx.lifecycle.viewModelScope
-import app.cash.copper.flow.mapToList
 import app.cash.copper.flow.mapToOne
 import app.cash.copper.flow.observeQuery
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import org.totschnig.myexpenses.MyApplication
+import org.totschnig.myexpenses.db2.loadPlannerInstances
 import org.totschnig.myexpenses.model.Transaction
-import org.totschnig.myexpenses.provider.CalendarProviderProxy
 import org.totschnig.myexpenses.provider.DatabaseConstants
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSACTIONID
@@ -119,15 +119,22 @@ class PlannerViewModel(application: Application) : ContentResolvingAndroidViewMo
                 endMonth = first
             }
         }
-        val builder = CalendarProviderProxy.INSTANCES_URI.buildUpon()
-        ContentUris.appendId(builder, startMonth.startMillis())
-        ContentUris.appendId(builder, endMonth.endMillis())
         viewModelScope.launch {
             val plannerCalendarId = withContext(Dispatchers.Default) { plannerUtils.checkPlanner() }
-            contentResolver.observeQuery( builder.build(), null,
-                CalendarContract.Events.CALENDAR_ID + " = " + plannerCalendarId,
-                null, CalendarContract.Instances.BEGIN + " ASC", false)
-                .mapToList { PlanInstance.fromEventCursor(it, contentResolver, currencyContext) }
+                ?: return@launch
+            //instances are expanded offline, the query on events only serves as trigger
+            contentResolver.observeQuery(CalendarContract.Events.CONTENT_URI,
+                arrayOf(CalendarContract.Events._ID),
+                CalendarContract.Events.CALENDAR_ID + " = ?",
+                arrayOf(plannerCalendarId), null, false)
+                .map {
+                    repository.loadPlannerInstances(
+                        plannerCalendarId,
+                        startMonth.startMillis(),
+                        endMonth.endMillis()
+                    )
+                }
+                .flowOn(Dispatchers.IO)
                 .collect {
                     val start = SpannableString(first.startDate().format(formatter))
                     val end = SpannableString(last.endDate().format(formatter))
@@ -144,7 +151,7 @@ class PlannerViewModel(application: Application) : ContentResolvingAndroidViewMo
                         Spannable.SPAN_EXCLUSIVE_EXCLUSIVE
                     )
                     title.postValue(TextUtils.concat(start, " - ", end))
-                    instances.postValue(Event(Pair(later ?: false, it.filterNotNull())))
+                    instances.postValue(Event(Pair(later ?: false, it)))
                 }
         }
     }
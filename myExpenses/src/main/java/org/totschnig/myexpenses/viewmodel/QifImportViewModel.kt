@@ -9,6 +9,7 @@ import org.totschnig.myexpenses.db2.loadAccount
 import org.totschnig.myexpenses.export.qif.QifBufferedReader
 import org.totschnig.myexpenses.export.qif.QifDateFormat
 import org.totschnig.myexpenses.export.qif.QifParser
+import org.totschnig.myexpenses.export.qif.QifTransferIndex
 import org.totschnig.myexpenses.model.CurrencyUnit
 import org.totschnig.myexpenses.provider.TransactionProvider
 import java.io.BufferedReader
@@ -31,43 +32,50 @@ class QifImportViewModel(application: Application) : ImportDataViewModel(applica
     ): LiveData<Result<Unit>> = liveData(context = coroutineContext()) {
 
         emit(runCatching {
-            QifBufferedReader(
-                BufferedReader(
-                    InputStreamReader(
-                        contentResolver.openInputStream(uri),
-                        encoding
-                    )
-                )
-            ).use {
-                val parser = QifParser(it, qifDateFormat, currencyUnit)
-                parser.parse()
-                publishProgress(getString(
-                            R.string.qif_parse_result,
-                            parser.accounts.size.toString(),
-                            parser.categories.size.toString(),
-                            parser.payees.size.toString()
-                        )
-                )
-                contentResolver.call(
-                    TransactionProvider.DUAL_URI,
-                    TransactionProvider.METHOD_BULK_START,
-                    null,
-                    null
-                )
-                doImport(parser, withParties, withCategories, withTransactions, accountId, currencyUnit, uri, autoFillCategories)
-                contentResolver.call(
-                    TransactionProvider.DUAL_URI,
-                    TransactionProvider.METHOD_BULK_END,
-                    null,
-                    null
-                )
-                Unit
+            //first pass collects accounts, categories, payees and transfers, second pass in
+            //doImport streams transactions to the database
+            val transferIndex = QifTransferIndex()
+            val parser = openReader(uri, encoding).use {
+                QifParser(it, qifDateFormat, currencyUnit, transferIndex::add).apply { parse() }
             }
+            publishProgress(getString(
+                        R.string.qif_parse_result,
+                        parser.accounts.size.toString(),
+                        parser.categories.size.toString(),
+                        parser.payees.size.toString()
+                    )
+            )
+            contentResolver.call(
+                TransactionProvider.DUAL_URI,
+                TransactionProvider.METHOD_BULK_START,
+                null,
+                null
+            )
+            doImport(parser, transferIndex, qifDateFormat, encoding, withParties, withCategories, withTransactions, accountId, currencyUnit, uri, autoFillCategories)
+            contentResolver.call(
+                TransactionProvider.DUAL_URI,
+                TransactionProvider.METHOD_BULK_END,
+                null,
+                null
+            )
+            Unit
         })
     }
 
+    private fun openReader(uri: Uri, encoding: String?) = QifBufferedReader(
+        BufferedReader(
+            InputStreamReader(
+                contentResolver.openInputStream(uri),
+                encoding
+            )
+        )
+    )
+
     private suspend fun doImport(
         parser: QifParser,
+        transferIndex: QifTransferIndex,
+        qifDateFormat: QifDateFormat,
+        encoding: String?,
         withParties: Boolean,
         withCategories: Boolean,
         withTransactions: Boolean,
@@ -118,7 +126,37 @@ class QifImportViewModel(application: Application) : ImportDataViewModel(applica
                 accountTitleToAccount[parser.accounts[0].memo] = repository.loadAccount(accountId)
                     ?: throw Exception("Exception during QIF import. Did not get instance from DB for id $accountId")
             }
-            insertTransactions(parser.accounts, currencyUnit, autoFillCategories)
+            insertTransactions(parser, transferIndex, qifDateFormat, encoding, currencyUnit, uri, autoFillCategories)
+        }
+    }
+
+    private suspend fun insertTransactions(
+        parser: QifParser,
+        transferIndex: QifTransferIndex,
+        qifDateFormat: QifDateFormat,
+        encoding: String?,
+        currencyUnit: CurrencyUnit,
+        uri: Uri,
+        autoFillCategories: Boolean
+    ) {
+        val accounts = parser.accounts
+        val counts = IntArray(accounts.size)
+        val batch = TransactionBatch(currencyUnit, autoFillCategories)
+        openReader(uri, encoding).use {
+            QifParser(it, qifDateFormat, currencyUnit) { accountIndex, transaction ->
+                accountTitleToAccount[accounts[accountIndex].memo]?.let { account ->
+                    transferIndex.resolve(accounts, accountIndex, transaction)?.let { resolved ->
+                        batch.add(account, resolved)
+                        counts[accountIndex]++
+                    }
+                }
+            }.parse()
+        }
+        batch.flush()
+        accounts.forEachIndexed { index, importAccount ->
+            accountTitleToAccount[importAccount.memo]?.let {
+                publishImportResult(it, counts[index])
+            }
         }
     }
 }
\ No newline at end of file
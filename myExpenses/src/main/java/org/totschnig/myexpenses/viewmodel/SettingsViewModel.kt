@@ -16,6 +16,11 @@ import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.launch
 import org.totschnig.myexpenses.MyApplication
+import org.totschnig.myexpenses.R
+import org.totschnig.myexpenses.db2.archiveTransactions
+import org.totschnig.myexpenses.db2.fillMissingEquivalentAmounts
+import org.totschnig.myexpenses.db2.queryMetricsReport
+import org.totschnig.myexpenses.db2.restoreArchive
 import org.totschnig.myexpenses.preference.PrefKey
 import org.totschnig.myexpenses.provider.DatabaseConstants
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNT_LABEL
@@ -37,6 +42,7 @@ import org.totschnig.myexpenses.util.Utils
 import org.totschnig.myexpenses.util.convAmount
 import org.totschnig.myexpenses.util.io.displayName
 import java.io.File
+import java.time.LocalDate
 import java.util.concurrent.TimeUnit
 import javax.inject.Inject
 
@@ -76,6 +82,17 @@ class SettingsViewModel(application: Application) : ContentResolvingAndroidViewM
         }
     }
 
+    /**
+     * writes the query metrics into a file that can be shared
+     */
+    fun exportQueryMetrics() = liveData(context = coroutineContext()) {
+        emit(runCatching {
+            val file = File(getApplication<MyApplication>().cacheDir, "query_metrics.txt")
+            file.writeText(repository.queryMetricsReport())
+            AppDirHelper.getContentUriForFile(getApplication(), file)
+        })
+    }
+
     fun loadAppData() {
         viewModelScope.launch(coroutineContext()) {
             AppDirHelper.getAppDir(getApplication()).onSuccess { dir ->
@@ -198,6 +215,26 @@ class SettingsViewModel(application: Application) : ContentResolvingAndroidViewM
         )
     }
 
+    fun fillMissingEquivalentAmounts() = liveData(context = coroutineContext()) {
+        emit(runCatching { repository.fillMissingEquivalentAmounts(exchangeRateRepository) })
+    }
+
+    /**
+     * archives transactions dated before the first day of the month [years] years ago
+     */
+    fun archiveTransactions(years: Int) = liveData(context = coroutineContext()) {
+        emit(runCatching {
+            repository.archiveTransactions(
+                LocalDate.now().minusYears(years.toLong()).withDayOfMonth(1),
+                getString(R.string.archived_transactions)
+            )
+        })
+    }
+
+    fun restoreArchive() = liveData(context = coroutineContext()) {
+        emit(runCatching { repository.restoreArchive() })
+    }
+
     fun clearExchangeRateCache() = liveData(context = coroutineContext()) {
         emit(exchangeRateRepository.deleteAll())
     }
@@ -8,6 +8,7 @@ import android.os.Environment
 import android.provider.MediaStore
 import androidx.lifecycle.viewModelScope
 import kotlinx.coroutines.launch
+import org.totschnig.myexpenses.injector
 import org.totschnig.myexpenses.provider.TransactionProvider
 import org.totschnig.myexpenses.util.crashreporting.CrashHandler
 import org.totschnig.myexpenses.util.io.FileCopyUtils
@@ -17,6 +18,9 @@ import java.io.IOException
 
 class StaleImagesViewModel(application: Application) : ContentResolvingAndroidViewModel(application) {
 
+    private val thumbnailCache
+        get() = getApplication<Application>().injector.thumbnailCache()
+
     private fun buildArchiveUri(fileName: String, mimeType: String): Uri? {
         return if (Build.VERSION.SDK_INT < 29) {
             Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOCUMENTS)
@@ -60,6 +64,7 @@ class StaleImagesViewModel(application: Application) : ContentResolvingAndroidVi
                             true //we do not move the file but remove its uri from the table
                         }
                         if (success) {
+                            thumbnailCache.invalidate(imageFileUri)
                             contentResolver.delete(staleImageUri, null, null)
                         } else {
                             CrashHandler.report(Exception("Unable to move file $imageFileUri"))
@@ -87,6 +92,7 @@ class StaleImagesViewModel(application: Application) : ContentResolvingAndroidVi
                         }
                         if (success) {
                             Timber.d("Successfully deleted file %s", imageFileUri.toString())
+                            thumbnailCache.invalidate(imageFileUri)
                         } else {
                             CrashHandler.report(Exception("Unable to delete file $imageFileUri"))
                         }
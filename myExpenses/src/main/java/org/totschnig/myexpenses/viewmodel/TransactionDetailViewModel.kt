@@ -1,64 +1,19 @@
 package org.totschnig.myexpenses.viewmodel
 
-import android.annotation.SuppressLint
 import android.app.Application
 import androidx.lifecycle.LiveData
 import androidx.lifecycle.liveData
-import org.totschnig.myexpenses.db2.loadAttachments
-import org.totschnig.myexpenses.db2.loadAttributes
-import org.totschnig.myexpenses.provider.DatabaseConstants.*
-import org.totschnig.myexpenses.provider.TransactionProvider
-import org.totschnig.myexpenses.provider.useAndMapToList
-import org.totschnig.myexpenses.viewmodel.data.Tag
-import org.totschnig.myexpenses.viewmodel.data.Transaction.Companion.readTransaction
-import org.totschnig.myexpenses.viewmodel.data.Transaction.Companion.projection
-import org.totschnig.myexpenses.viewmodel.data.Transaction as TData
+import org.totschnig.myexpenses.db2.TransactionDetail
+import org.totschnig.myexpenses.db2.loadTransactionDetails
 
 class TransactionDetailViewModel(application: Application) :
     ContentResolvingAndroidViewModel(application) {
 
-    @SuppressLint("Recycle")
-    fun transaction(transactionId: Long): LiveData<List<TData>> =
+    /**
+     * the transaction followed by its split parts, each with tags, attachments and attributes
+     */
+    fun transactionDetails(transactionId: Long): LiveData<List<TransactionDetail>> =
         liveData(context = coroutineContext()) {
-            contentResolver.query(
-                TransactionProvider.EXTENDED_URI.buildUpon().appendQueryParameter(KEY_TRANSACTIONID, transactionId.toString()).build(),
-                projection(localizedContext, homeCurrencyProvider.homeCurrencyString),
-                null,
-                null,
-                "$KEY_PARENTID IS NULL DESC"
-            )?.useAndMapToList {
-                it.readTransaction(
-                    getApplication(),
-                    currencyContext,
-                    homeCurrencyProvider.homeCurrencyUnit
-                )
-            }?.let { emit(it) }
+            emit(repository.loadTransactionDetails(transactionId, localizedContext) ?: emptyList())
         }
-
-    @SuppressLint("Recycle")
-    fun tags(id: Long): LiveData<List<Tag>> = liveData(context = coroutineContext()) {
-        contentResolver.query(
-            TransactionProvider.TRANSACTIONS_TAGS_URI,
-            null,
-            "$KEY_TRANSACTIONID = ?",
-            arrayOf(id.toString()),
-            null
-        )?.useAndMapToList {
-            Tag(
-                it.getLong(it.getColumnIndexOrThrow(KEY_ROWID)), it.getString(
-                    it.getColumnIndexOrThrow(
-                        KEY_LABEL
-                    )
-                )
-            )
-        }?.let { emit(it) }
-    }
-
-    fun attributes(id: Long) = liveData(context = coroutineContext()) {
-        emit(repository.loadAttributes(id).groupBy { it.first.context })
-    }
-
-    fun attachments(id: Long) = liveData(context = coroutineContext()) {
-        emit(repository.loadAttachments(id))
-    }
-}
\ No newline at end of file
+}
@@ -17,6 +17,7 @@ import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_GROUPING
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_IS_DEFAULT
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_START
 import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TITLE
+import org.totschnig.myexpenses.provider.filter.WhereFilter
 import org.totschnig.myexpenses.util.toEndOfDayEpoch
 import org.totschnig.myexpenses.util.toStartOfDayEpoch
 import java.time.LocalDate
@@ -82,6 +83,13 @@ data class Budget(
         return "%s - %s".format(start!!.format(dateFormat), end!!.format(dateFormat))
     }
 
+    /**
+     * Sums can be read from the daily sums maintained by the database, unless they need to be
+     * converted into the home currency for the grand total, or [whereFilter] filters on other
+     * columns than the date.
+     */
+    fun canUseDailySums(whereFilter: WhereFilter) = queryParameter != null && whereFilter.isEmpty
+
     fun titleComplete(context: Context) = "$title (${
         when (grouping) {
             Grouping.NONE -> durationPrettyPrint()
@@ -63,6 +63,30 @@ data class Category(
             it.sortChildrenByBudgetRecursive()
         })
 
+    /**
+     * @return this tree, where each subtree that is equal to the one with the same id in [previous]
+     * is replaced with the instance from [previous]. When a single category changes, all other
+     * nodes keep their identity, so that comparing them with the previous tree is cheap, and only
+     * the rows of the changed nodes are recomposed.
+     */
+    fun sharingWith(previous: Category?): Category {
+        if (previous == null) return this
+        val previousById = HashMap<Long, Category>()
+        fun index(category: Category) {
+            previousById[category.id] = category
+            category.children.forEach { index(it) }
+        }
+        index(previous)
+        fun share(category: Category): Category {
+            val children = category.children.map { share(it) }
+            val candidate = if (children.indices.all { children[it] === category.children[it] })
+                category else category.copy(children = children)
+            val old = previousById[category.id]
+            return if (old == candidate) old else candidate
+        }
+        return share(this)
+    }
+
     fun recursiveUnselectChildren(selectionState: SnapshotStateList<Category>) {
         children.forEach {
             selectionState.remove(it)
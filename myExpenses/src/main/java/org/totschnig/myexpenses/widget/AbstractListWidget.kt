@@ -28,14 +28,21 @@ fun onConfigurationChanged(context: Context) {
     updateWidgets(context, TemplateWidget::class.java, WIDGET_CONTEXT_CHANGED)
 }
 
+/**
+ * @param checkDataVersion see [EXTRA_CHECK_DATA_VERSION]
+ */
 fun updateWidgets(
     context: Context, provider: Class<out AppWidgetProvider?>, action: String,
     appWidgetIds: IntArray = AppWidgetManager.getInstance(context)
-        .getAppWidgetIds(ComponentName(context, provider))
+        .getAppWidgetIds(ComponentName(context, provider)),
+    checkDataVersion: Boolean = false
 ) =
     context.sendBroadcast(Intent(context, provider).apply {
         this.action = action
         putExtra(AppWidgetManager.EXTRA_APPWIDGET_IDS, appWidgetIds)
+        if (checkDataVersion) {
+            putExtra(EXTRA_CHECK_DATA_VERSION, true)
+        }
     })
 
 abstract class AbstractListWidget(
@@ -8,7 +8,9 @@ import org.totschnig.myexpenses.R
 import org.totschnig.myexpenses.activity.ExpenseEdit
 import org.totschnig.myexpenses.activity.MyExpenses
 import org.totschnig.myexpenses.contract.TransactionsContract
+import org.totschnig.myexpenses.db2.accountDataVersion
 import org.totschnig.myexpenses.fragment.AccountWidgetConfigurationFragment
+import org.totschnig.myexpenses.model2.Account
 import org.totschnig.myexpenses.preference.PrefKey
 import org.totschnig.myexpenses.provider.DatabaseConstants
 import org.totschnig.myexpenses.provider.TransactionProvider
@@ -24,19 +26,16 @@ class AccountWidget :
     override fun onReceive(context: Context, intent: Intent) {
         super.onReceive(context, intent)
         if (intent.action == WIDGET_LIST_DATA_CHANGED) {
-            val widgets = intent.extras?.getIntArray(AppWidgetManager.EXTRA_APPWIDGET_IDS)
-                ?.map { it to AccountRemoteViewsFactory.accountId(context, it) }
-                ?.filter { it.second != Long.MAX_VALUE.toString() }
-            if (widgets?.isNotEmpty() == true) {
+            val appWidgetIds = intent.extras?.getIntArray(AppWidgetManager.EXTRA_APPWIDGET_IDS)
+                ?.filter { AccountRemoteViewsFactory.accountId(context, it) != Long.MAX_VALUE.toString() }
+            if (!appWidgetIds.isNullOrEmpty()) {
                 doAsync {
-                    widgets.forEach {
-                        updateSingleAccountWidget(
-                            context,
-                            AppWidgetManager.getInstance(context),
-                            it.first,
-                            it.second
-                        )
-                    }
+                    onDataChanged(
+                        context,
+                        AppWidgetManager.getInstance(context),
+                        appWidgetIds,
+                        intent.getBooleanExtra(EXTRA_CHECK_DATA_VERSION, false)
+                    )
                 }
             }
         }
@@ -48,13 +47,23 @@ class AccountWidget :
         context: Context,
         appWidgetManager: AppWidgetManager,
         appWidgetId: Int,
-        accountId: String
+        accountId: String,
+        force: Boolean
     ) {
         val widget = kotlin.runCatching {
             AccountRemoteViewsFactory.buildCursor(context, accountId)
         }.mapCatching {
             it?.use { cursor ->
                 if (cursor.moveToFirst()) {
+                    val sumColumn = AccountRemoteViewsFactory.sumColumn(context, appWidgetId)
+                    val availableWidth =
+                        availableWidthForButtons(context, appWidgetManager, appWidgetId)
+                    val data = Triple(
+                        Account.fromCursor(cursor),
+                        cursor.getLong(cursor.getColumnIndexOrThrow(sumColumn)),
+                        availableWidth
+                    )
+                    if (!hasChanged(appWidgetId, data) && !force) return
                     RemoteViews(
                         context.packageName,
                         AbstractRemoteViewsFactory.rowLayout
@@ -65,15 +74,8 @@ class AccountWidget :
                             currencyFormatter = currencyFormatter,
                             remoteViews = widget,
                             cursor = cursor,
-                            sumColumn = AccountRemoteViewsFactory.sumColumn(
-                                context,
-                                appWidgetId
-                            ),
-                            availableWidth = availableWidthForButtons(
-                                context,
-                                appWidgetManager,
-                                appWidgetId
-                            ),
+                            sumColumn = sumColumn,
+                            availableWidth = availableWidth,
                             clickInfo = Pair(appWidgetId, clickBaseIntent(context))
                         )
                     }
@@ -81,10 +83,32 @@ class AccountWidget :
                     throw NoDataException(context.getString(R.string.account_deleted))
                 }
             } ?: throw Exception("Cursor returned null")
-        }.getOrElse { errorView(context, it) }
+        }.getOrElse {
+            forgetRendered(intArrayOf(appWidgetId))
+            errorView(context, it)
+        }
         appWidgetManager.updateAppWidget(appWidgetId, widget)
     }
 
+    override fun dataVersion(context: Context, appWidgetId: Int) =
+        AccountRemoteViewsFactory.accountId(context, appWidgetId)
+            .takeIf { it != Long.MAX_VALUE.toString() }
+            ?.let { context.contentResolver.accountDataVersion(it.toLong()) }
+
+    override suspend fun refresh(
+        context: Context,
+        appWidgetManager: AppWidgetManager,
+        appWidgetId: Int
+    ) {
+        updateSingleAccountWidget(
+            context,
+            appWidgetManager,
+            appWidgetId,
+            AccountRemoteViewsFactory.accountId(context, appWidgetId),
+            force = false
+        )
+    }
+
     override suspend fun updateWidgetDo(
         context: Context,
         appWidgetManager: AppWidgetManager,
@@ -92,7 +116,7 @@ class AccountWidget :
     ) {
         val accountId = AccountRemoteViewsFactory.accountId(context, appWidgetId)
         if (accountId != Long.MAX_VALUE.toString() && !isProtected(context)) {
-            updateSingleAccountWidget(context, appWidgetManager, appWidgetId, accountId)
+            updateSingleAccountWidget(context, appWidgetManager, appWidgetId, accountId, force = true)
         } else {
             super.updateWidgetDo(context, appWidgetManager, appWidgetId)
         }
@@ -131,6 +155,7 @@ class AccountWidget :
     }
 
     override fun onDeleted(context: Context, appWidgetIds: IntArray) {
+        forgetRendered(appWidgetIds)
         appWidgetIds.forEach { appWidgetId ->
             AccountWidgetConfigurationFragment.clearPreferences(context, appWidgetId)
         }
@@ -7,6 +7,7 @@ import android.content.Context
 import android.content.res.Configuration
 import android.os.Bundle
 import android.widget.RemoteViews
+import androidx.annotation.VisibleForTesting
 import androidx.appcompat.app.AppCompatDelegate
 import org.totschnig.myexpenses.R
 import org.totschnig.myexpenses.activity.PreferenceActivity
@@ -18,12 +19,19 @@ import org.totschnig.myexpenses.util.ICurrencyFormatter
 import org.totschnig.myexpenses.util.crashreporting.CrashHandler
 import org.totschnig.myexpenses.util.doAsync
 import org.totschnig.myexpenses.util.safeMessage
+import java.util.concurrent.ConcurrentHashMap
 import javax.inject.Inject
 
 class NoDataException(message: String) : Exception(message)
 
 const val WIDGET_LIST_DATA_CHANGED = "org.totschnig.myexpenses.LIST_DATA_CHANGED"
 
+/**
+ * if set on [WIDGET_LIST_DATA_CHANGED], widgets whose data version has not changed since they were
+ * rendered last are not recomputed
+ */
+const val EXTRA_CHECK_DATA_VERSION = "checkDataVersion"
+
 abstract class BaseWidget(private val protectionKey: PrefKey) : AppWidgetProvider() {
 
     @Inject
@@ -93,10 +101,55 @@ abstract class BaseWidget(private val protectionKey: PrefKey) : AppWidgetProvide
                     )
                 })
         } else {
+            recordDataVersion(context, appWidgetId)
             updateWidgetDo(context, appWidgetManager, appWidgetId)
         }
     }
 
+    /**
+     * @return the version of the data [appWidgetId] is computed from, or null if the widget
+     * does not track it
+     */
+    protected open fun dataVersion(context: Context, appWidgetId: Int): String? = null
+
+    /**
+     * Redraws [appWidgetId] after its data has changed, skipping [RemoteViews] that are equal to
+     * what has been rendered last
+     */
+    protected open suspend fun refresh(
+        context: Context,
+        appWidgetManager: AppWidgetManager,
+        appWidgetId: Int
+    ) {
+        updateWidgetDo(context, appWidgetManager, appWidgetId)
+    }
+
+    private fun recordDataVersion(context: Context, appWidgetId: Int) {
+        dataVersion(context, appWidgetId)?.let { dataVersions[appWidgetId] = it }
+            ?: dataVersions.remove(appWidgetId)
+    }
+
+    /**
+     * Handles [WIDGET_LIST_DATA_CHANGED]
+     * @param checkDataVersion if true, widgets whose data version has not changed since they were
+     * rendered last are skipped
+     */
+    @VisibleForTesting
+    suspend fun onDataChanged(
+        context: Context,
+        appWidgetManager: AppWidgetManager,
+        appWidgetIds: List<Int>,
+        checkDataVersion: Boolean
+    ) {
+        appWidgetIds.forEach { appWidgetId ->
+            val rendered = dataVersions[appWidgetId]
+            recordDataVersion(context, appWidgetId)
+            if (!checkDataVersion || rendered == null || rendered != dataVersions[appWidgetId]) {
+                refresh(context, appWidgetManager, appWidgetId)
+            }
+        }
+    }
+
     fun availableWidth(
         context: Context,
         appWidgetManager: AppWidgetManager,
@@ -126,6 +179,19 @@ abstract class BaseWidget(private val protectionKey: PrefKey) : AppWidgetProvide
             else -> R.layout.widget_list
         }
 
+    /**
+     * Records [data] as rendered for [appWidgetId]
+     * @return true if it differs from the data rendered last time
+     */
+    protected fun hasChanged(appWidgetId: Int, data: Any) = renderedData.put(appWidgetId, data) != data
+
+    protected fun forgetRendered(appWidgetIds: IntArray) {
+        appWidgetIds.forEach {
+            renderedData.remove(it)
+            dataVersions.remove(it)
+        }
+    }
+
     fun errorView(context: Context, throwable: Throwable): RemoteViews {
         if (throwable !is NoDataException) {
             CrashHandler.report(throwable)
@@ -134,4 +200,16 @@ abstract class BaseWidget(private val protectionKey: PrefKey) : AppWidgetProvide
             setTextViewText(R.id.emptyView, throwable.safeMessage)
         }
     }
-}
\ No newline at end of file
+
+    companion object {
+        /**
+         * widget instances are short-lived, hence the data rendered last is kept here
+         */
+        private val renderedData = ConcurrentHashMap<Int, Any>()
+
+        /**
+         * data versions the widgets have been computed from last
+         */
+        private val dataVersions = ConcurrentHashMap<Int, String>()
+    }
+}
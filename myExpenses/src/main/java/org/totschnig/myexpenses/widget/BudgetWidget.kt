@@ -18,6 +18,7 @@ import org.totschnig.myexpenses.R
 import org.totschnig.myexpenses.activity.BudgetActivity
 import org.totschnig.myexpenses.activity.BudgetWidgetConfigure
 import org.totschnig.myexpenses.db2.Repository
+import org.totschnig.myexpenses.db2.budgetDataVersion
 import org.totschnig.myexpenses.db2.loadBudgetProgress
 import org.totschnig.myexpenses.injector
 import org.totschnig.myexpenses.preference.PrefKey
@@ -44,19 +45,46 @@ class BudgetWidget : BaseWidget(PrefKey.PROTECTION_ENABLE_BUDGET_WIDGET) {
         context.injector.inject(this)
         super.onReceive(context, intent)
         if (intent.action == WIDGET_LIST_DATA_CHANGED) {
-            doAsync {
-                intent.extras?.getIntArray(AppWidgetManager.EXTRA_APPWIDGET_IDS)
-                    ?.forEach { appWidgetId ->
-                        updateWidgetDo(context, AppWidgetManager.getInstance(context), appWidgetId)
-                    }
+            intent.extras?.getIntArray(AppWidgetManager.EXTRA_APPWIDGET_IDS)?.let { appWidgetIds ->
+                doAsync {
+                    onDataChanged(
+                        context,
+                        AppWidgetManager.getInstance(context),
+                        appWidgetIds.toList(),
+                        intent.getBooleanExtra(EXTRA_CHECK_DATA_VERSION, false)
+                    )
+                }
             }
         }
     }
 
+    override fun dataVersion(context: Context, appWidgetId: Int) =
+        repository.budgetDataVersion(BudgetWidgetConfigure.loadSelectionPref(context, appWidgetId))
+
+    override suspend fun refresh(
+        context: Context,
+        appWidgetManager: AppWidgetManager,
+        appWidgetId: Int
+    ) {
+        update(context, appWidgetManager, appWidgetId, false)
+    }
+
     override suspend fun updateWidgetDo(
         context: Context,
         appWidgetManager: AppWidgetManager,
         appWidgetId: Int
+    ) {
+        update(context, appWidgetManager, appWidgetId, true)
+    }
+
+    /**
+     * @param force if false, the widget is only redrawn if the budget's progress has changed
+     */
+    private suspend fun update(
+        context: Context,
+        appWidgetManager: AppWidgetManager,
+        appWidgetId: Int,
+        force: Boolean
     ) {
         val widget = runCatching {
             val horizontalPadding = 32
@@ -67,6 +95,7 @@ class BudgetWidget : BaseWidget(PrefKey.PROTECTION_ENABLE_BUDGET_WIDGET) {
             val budgetId = BudgetWidgetConfigure.loadSelectionPref(context, appWidgetId)
             val budgetInfo = repository.loadBudgetProgress(budgetId)
                 ?: throw NoDataException(context.getString(R.string.budget_deleted))
+            if (!hasChanged(appWidgetId, budgetInfo) && !force) return
             val progress = budgetInfo.spent / budgetInfo.allocated.toFloat()
             val todayPosition = budgetInfo.currentDay / budgetInfo.totalDays.toFloat()
             val showCurrentPosition =
@@ -196,11 +225,15 @@ class BudgetWidget : BaseWidget(PrefKey.PROTECTION_ENABLE_BUDGET_WIDGET) {
                     )
                 )
             }
-        }.getOrElse { errorView(context, it) }
+        }.getOrElse {
+            forgetRendered(intArrayOf(appWidgetId))
+            errorView(context, it)
+        }
         appWidgetManager.updateAppWidget(appWidgetId, widget)
     }
 
     override fun onDeleted(context: Context, appWidgetIds: IntArray) {
+        forgetRendered(appWidgetIds)
         appWidgetIds.forEach { appWidgetId ->
             BudgetWidgetConfigure.clearPreferences(context, appWidgetId)
         }
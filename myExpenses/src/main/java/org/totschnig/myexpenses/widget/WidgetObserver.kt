@@ -3,23 +3,98 @@ package org.totschnig.myexpenses.widget
 import android.content.Context
 import android.database.ContentObserver
 import android.net.Uri
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import androidx.annotation.VisibleForTesting
+import org.totschnig.myexpenses.provider.TransactionProvider
 
-class WidgetObserver(private val context: Context, private val mProvider: Class<out BaseWidget>) : ContentObserver(null) {
-    override fun onChange(selfChange: Boolean) {
-        updateWidgets(context, mProvider, WIDGET_LIST_DATA_CHANGED)
+class WidgetObserver(
+    private val scheduler: WidgetUpdateScheduler,
+    private val mProvider: Class<out BaseWidget>
+) : ContentObserver(null) {
+    override fun onChange(selfChange: Boolean, uri: Uri?) {
+        scheduler.schedule(mProvider, uri != null && DATA_VERSIONED_URIS.any { uri.isBelow(it) })
     }
+
     companion object {
+        /**
+         * changes notified on these uris are reflected in the data versions of accounts, see
+         * [TransactionProvider.METHOD_ACCOUNT_DATA_VERSION]
+         */
+        private val DATA_VERSIONED_URIS = listOf(
+            TransactionProvider.TRANSACTIONS_URI,
+            TransactionProvider.ACCOUNTS_URI
+        )
+
+        private fun Uri.isBelow(base: Uri) = authority == base.authority &&
+                pathSegments.take(base.pathSegments.size) == base.pathSegments
+
         fun register(context: Context) {
-            register(context, TemplateWidget::class.java, TemplateWidget.OBSERVED_URIS)
-            register(context, AccountWidget::class.java, AccountWidget.OBSERVED_URIS)
-            register(context, BudgetWidget::class.java, BudgetWidget.OBSERVED_URIS)
+            val scheduler = WidgetUpdateScheduler(Handler(Looper.getMainLooper())) { provider, checkDataVersion ->
+                updateWidgets(
+                    context, provider, WIDGET_LIST_DATA_CHANGED, checkDataVersion = checkDataVersion
+                )
+            }
+            register(context, scheduler, TemplateWidget::class.java, TemplateWidget.OBSERVED_URIS)
+            register(context, scheduler, AccountWidget::class.java, AccountWidget.OBSERVED_URIS)
+            register(context, scheduler, BudgetWidget::class.java, BudgetWidget.OBSERVED_URIS)
         }
-        private fun register(context: Context, mProvider: Class<out BaseWidget>, observedUris: Array<Uri>) {
-            WidgetObserver(context, mProvider).apply {
+
+        private fun register(
+            context: Context,
+            scheduler: WidgetUpdateScheduler,
+            mProvider: Class<out BaseWidget>,
+            observedUris: Array<Uri>
+        ) {
+            WidgetObserver(scheduler, mProvider).apply {
                 for (uri in observedUris) {
                     context.contentResolver.registerContentObserver(uri, true, this)
                 }
             }
         }
     }
-}
\ No newline at end of file
+}
+
+/**
+ * Coalesces change notifications, so that a burst of changes (e.g. from sync or an import) leads
+ * to one update per widget provider. An update is run once no further change has been notified
+ * for [delayMillis], but at the latest [maxDelayMillis] after the first pending change. The update
+ * is told to check data versions if all coalesced changes are covered by them.
+ */
+class WidgetUpdateScheduler(
+    private val handler: Handler,
+    private val delayMillis: Long = DEBOUNCE_MILLIS,
+    private val maxDelayMillis: Long = MAX_DELAY_MILLIS,
+    private val update: (Class<out BaseWidget>, Boolean) -> Unit
+) {
+    private val pending = mutableMapOf<Class<out BaseWidget>, Boolean>()
+    private var firstPendingAt = 0L
+    private val flush = Runnable { flush() }
+
+    /**
+     * @param checkDataVersion true if the change is reflected in the data versions of accounts
+     */
+    @Synchronized
+    fun schedule(provider: Class<out BaseWidget>, checkDataVersion: Boolean = false) {
+        val now = SystemClock.uptimeMillis()
+        if (pending.isEmpty()) firstPendingAt = now
+        pending[provider] = pending[provider] ?: true && checkDataVersion
+        handler.removeCallbacks(flush)
+        handler.postAtTime(flush, minOf(now + delayMillis, firstPendingAt + maxDelayMillis))
+    }
+
+    private fun flush() {
+        val providers = synchronized(this) {
+            pending.toList().also { pending.clear() }
+        }
+        providers.forEach { (provider, checkDataVersion) -> update(provider, checkDataVersion) }
+    }
+
+    companion object {
+        @VisibleForTesting
+        const val DEBOUNCE_MILLIS = 500L
+        @VisibleForTesting
+        const val MAX_DELAY_MILLIS = 3000L
+    }
+}
@@ -0,0 +1,51 @@
+package org.totschnig.myexpenses
+
+import androidx.test.core.app.ApplicationProvider
+import com.google.common.truth.Truth.assertThat
+import kotlinx.coroutines.runBlocking
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.util.log.StartupTrace
+
+@RunWith(RobolectricTestRunner::class)
+class MyApplicationStartupTest {
+
+    private val application: MyApplication
+        get() = ApplicationProvider.getApplicationContext()
+
+    @Test
+    fun mainThreadPhasesStayWithinBudget() {
+        val trace = application.startupTrace
+        runBlocking { application.deferredInitialization.join() }
+        val mainThread = trace.phases.filter { it.mainThread }.map { it.name }
+        val deferred = trace.phases.filterNot { it.mainThread }.map { it.name }
+        assertThat(mainThread).containsExactly(
+            "appComponent", "features", "nightMode", "crashHandler", "listeners", "licence",
+            "notificationChannels"
+        ).inOrder()
+        assertThat(deferred).containsExactly("logging", "widgetObserver", "pendingDeletions", "dailySumsZone").inOrder()
+        //Robolectric is considerably slower than a device, in particular on a cold JVM, hence the
+        //budget is generous, but catches blocking work (I/O, database access) on the main thread
+        trace.phases.filter { it.mainThread }.forEach {
+            assertThat(it.durationMillis).isLessThan(PHASE_BUDGET_MILLIS)
+        }
+        assertThat(trace.mainThreadMillis).isLessThan(MAIN_THREAD_BUDGET_MILLIS)
+    }
+
+    @Test
+    fun traceIsWrittenToFile() {
+        runBlocking { application.deferredInitialization.join() }
+        val file = StartupTrace.traceFile(application)!!
+        assertThat(file.readLines().last()).contains("path=main")
+        repeat(StartupTrace.MAX_ENTRIES) {
+            application.startupTrace.write(application, "test")
+        }
+        assertThat(file.readLines()).hasSize(StartupTrace.MAX_ENTRIES)
+    }
+
+    companion object {
+        const val PHASE_BUDGET_MILLIS = 1000L
+        const val MAIN_THREAD_BUDGET_MILLIS = 2000L
+    }
+}
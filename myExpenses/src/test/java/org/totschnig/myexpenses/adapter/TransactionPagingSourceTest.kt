@@ -0,0 +1,115 @@
+package org.totschnig.myexpenses.adapter
+
+import androidx.test.core.app.ApplicationProvider
+import com.google.common.truth.Truth.assertThat
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.flow.MutableStateFlow
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mockito
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.BaseTestWithRepository
+import org.totschnig.myexpenses.MyApplication
+import org.totschnig.myexpenses.db2.createAccount
+import org.totschnig.myexpenses.model.CurrencyUnit
+import org.totschnig.myexpenses.model.Grouping
+import org.totschnig.myexpenses.model.Money
+import org.totschnig.myexpenses.model.SortDirection
+import org.totschnig.myexpenses.model.Transaction
+import org.totschnig.myexpenses.model2.Account
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_NONE
+import org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_UNCOMMITTED
+import org.totschnig.myexpenses.provider.filter.WhereFilter
+import org.totschnig.myexpenses.util.locale.HomeCurrencyProvider
+import org.totschnig.myexpenses.util.localDateTime2Epoch
+import org.totschnig.myexpenses.viewmodel.data.PageAccount
+import java.time.LocalDate
+
+@RunWith(RobolectricTestRunner::class)
+class TransactionPagingSourceTest : BaseTestWithRepository() {
+
+    private val currency = CurrencyUnit.DebugInstance
+    private var accountId = 0L
+    private val coroutineScope = CoroutineScope(Dispatchers.Unconfined)
+    private val homeCurrencyProvider = Mockito.mock(HomeCurrencyProvider::class.java).also {
+        Mockito.`when`(it.homeCurrencyString).thenReturn(currency.code)
+    }
+    private val startOfToday = localDateTime2Epoch(LocalDate.now().atStartOfDay())
+    private val endOfToday = localDateTime2Epoch(LocalDate.now().plusDays(1).atStartOfDay())
+
+    private fun insert(daysFromToday: Long, status: Int = STATUS_NONE) {
+        Transaction(accountId, Money(currency, -100L)).apply {
+            this.status = status
+            val epoch = localDateTime2Epoch(LocalDate.now().plusDays(daysFromToday).atTime(12, 0))
+            setDate(epoch)
+            setValueDate(epoch)
+            save(contentResolver)
+        }
+    }
+
+    private fun pagingSource(sortDirection: SortDirection, sortBy: String = KEY_DATE) =
+        TransactionPagingSource(
+            ApplicationProvider.getApplicationContext<MyApplication>(),
+            PageAccount(
+                id = accountId,
+                type = null,
+                sortBy = sortBy,
+                sortDirection = sortDirection,
+                grouping = Grouping.MONTH,
+                currencyUnit = currency,
+                sealed = false,
+                openingBalance = 0,
+                _color = 0
+            ),
+            MutableStateFlow(WhereFilter.empty()),
+            homeCurrencyProvider,
+            currencyContext,
+            coroutineScope,
+            repository.prefHandler
+        ) { true }
+
+    @Before
+    fun setup() {
+        accountId = repository.createAccount(Account(label = "Account", currency = currency.code)).id
+    }
+
+    @After
+    fun tearDown() {
+        coroutineScope.cancel()
+    }
+
+    @Test
+    fun positionOfCurrentDate() {
+        listOf(-30L, -2L, -1L, 0L, 1L, 5L).forEach { insert(it) }
+        //descending: the two future transactions come before today
+        assertThat(pagingSource(SortDirection.DESC).positionOfDate(endOfToday)).isEqualTo(2)
+        //ascending: the three past transactions come before today
+        assertThat(pagingSource(SortDirection.ASC).positionOfDate(startOfToday)).isEqualTo(3)
+    }
+
+    @Test
+    fun positionIsClampedToLastTransaction() {
+        listOf(-3L, -2L, -1L).forEach { insert(it) }
+        assertThat(pagingSource(SortDirection.ASC).positionOfDate(startOfToday)).isEqualTo(2)
+    }
+
+    @Test
+    fun uncommittedTransactionsAreNotCounted() {
+        listOf(-1L, 0L, 1L).forEach { insert(it) }
+        insert(2L, STATUS_UNCOMMITTED)
+        assertThat(pagingSource(SortDirection.DESC).positionOfDate(endOfToday)).isEqualTo(1)
+    }
+
+    @Test
+    fun positionIsZeroIfNotSortedByDate() {
+        listOf(1L, 2L).forEach { insert(it) }
+        assertThat(pagingSource(SortDirection.DESC, KEY_AMOUNT).positionOfDate(endOfToday))
+            .isEqualTo(0)
+    }
+}
@@ -0,0 +1,166 @@
+package org.totschnig.myexpenses.benchmark
+
+import android.database.Cursor
+import android.net.Uri
+import com.google.common.truth.Truth.assertThat
+import com.google.gson.GsonBuilder
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.BaseTestWithRepository
+import org.totschnig.myexpenses.db2.archiveTransactions
+import org.totschnig.myexpenses.db2.getTransactionSum
+import org.totschnig.myexpenses.model.Grouping
+import org.totschnig.myexpenses.model.SortDirection
+import org.totschnig.myexpenses.provider.BaseTransactionProvider
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_HIDDEN
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_LABEL
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PARENTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SUM
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TYPE
+import org.totschnig.myexpenses.provider.DatabaseConstants.TREE_CATEGORIES
+import org.totschnig.myexpenses.provider.TransactionProvider
+import org.totschnig.myexpenses.provider.appendBooleanQueryParameter
+import org.totschnig.myexpenses.provider.filter.WhereFilter
+import org.totschnig.myexpenses.provider.withLimit
+import org.totschnig.myexpenses.viewmodel.data.PageAccount
+import java.io.File
+
+/**
+ * Times the hot path queries of [ProviderBenchmark] on ten years of data, before and after all but
+ * the last year have been archived, see [org.totschnig.myexpenses.provider.TransactionArchive].
+ * Excluded from the regular unit test run like [ProviderBenchmark].
+ */
+@RunWith(RobolectricTestRunner::class)
+class ArchiveBenchmark : BaseTestWithRepository() {
+
+    data class Measurement(
+        val name: String,
+        val liveMillis: Double,
+        val archivedMillis: Double
+    )
+
+    private val scale = System.getProperty("benchmark.scale")?.toDoubleOrNull() ?: 1.0
+
+    private fun median(block: () -> Unit): Double {
+        repeat(WARMUP) { block() }
+        return List(ITERATIONS) {
+            val begin = System.nanoTime()
+            block()
+            (System.nanoTime() - begin) / 1_000_000.0
+        }.sorted()[ITERATIONS / 2]
+    }
+
+    private fun Cursor?.consume() = this!!.use { cursor ->
+        while (cursor.moveToNext()) {
+            for (column in 0 until cursor.columnCount) {
+                cursor.getString(column)
+            }
+        }
+    }
+
+    private fun query(
+        uri: Uri,
+        projection: Array<String>? = null,
+        selection: String? = null,
+        selectionArgs: Array<String>? = null,
+        sortOrder: String? = null
+    ) = contentResolver.query(uri, projection, selection, selectionArgs, sortOrder).consume()
+
+    private fun pageAccount(id: Long, currency: String) = PageAccount(
+        id = id,
+        type = null,
+        sortBy = KEY_DATE,
+        sortDirection = SortDirection.DESC,
+        grouping = Grouping.MONTH,
+        currencyUnit = currencyContext.get(currency),
+        sealed = false,
+        openingBalance = 0,
+        _color = 0
+    )
+
+    private fun hotPath(account: PageAccount): Map<String, () -> Unit> = mapOf(
+        "accountList" to {
+            query(
+                TransactionProvider.ACCOUNTS_URI.buildUpon()
+                    .appendBooleanQueryParameter(TransactionProvider.QUERY_PARAMETER_MERGE_CURRENCY_AGGREGATES)
+                    .build(),
+                selection = "$KEY_HIDDEN = 0"
+            )
+        },
+        "transactionPageFirst" to {
+            val (uri, projection) = account.loadingInfo(account.currency, repository.prefHandler)
+            query(
+                uri.withLimit(PAGE_SIZE, 0),
+                projection,
+                "$KEY_PARENTID is null",
+                sortOrder = "${account.sortBy} ${account.sortDirection}"
+            )
+        },
+        "groups" to {
+            val (uri, selection, args) = account.groupingQuery(WhereFilter.empty())
+            query(uri, selection = selection, selectionArgs = args)
+        },
+        "categoryTreeWithSums" to {
+            query(
+                BaseTransactionProvider.CATEGORY_TREE_URI.buildUpon().apply {
+                    appendQueryParameter(KEY_TYPE, "false")
+                    appendQueryParameter(TransactionProvider.QUERY_PARAMETER_AGGREGATE_NEUTRAL, "false")
+                    account.queryParameter?.let { appendQueryParameter(it.first, it.second) }
+                }.build(),
+                arrayOf("$TREE_CATEGORIES.*", KEY_SUM),
+                sortOrder = KEY_LABEL
+            )
+        }
+    )
+
+    @Test
+    fun run() {
+        val config = DataGenerator.Config(
+            transactionsPerAccount = 15_000,
+            days = 10 * 365,
+            attachmentRatio = 0.0
+        ).scaled(scale)
+        val data = DataGenerator(repository, config).generate()
+        val account = data.accounts.first()
+        val queries = hotPath(pageAccount(account.id, account.currency)) +
+                hotPath(pageAccount(-1, account.currency)).mapKeys { "${it.key}Aggregate" }
+
+        val live = queries.mapValues { median(it.value) }
+        val balances = data.accounts.associate { it.id to repository.getTransactionSum(it.id) }
+        val archiveBegin = System.nanoTime()
+        val archived = repository.archiveTransactions(config.lastDay.minusYears(1).withDayOfMonth(1), "Archive")
+        val archiveMillis = (System.nanoTime() - archiveBegin) / 1_000_000
+        assertThat(archived).isGreaterThan(0)
+        assertThat(data.accounts.associate { it.id to repository.getTransactionSum(it.id) })
+            .isEqualTo(balances)
+        val measurements = queries.map { (name, block) ->
+            Measurement(name, live.getValue(name), median(block))
+        }
+
+        val label = System.getProperty("benchmark.label")?.takeIf { it.isNotEmpty() } ?: "local"
+        val outputDir = File(System.getProperty("benchmark.output") ?: "build/benchmark").apply { mkdirs() }
+        File(outputDir, "archive-$label.json").writeText(
+            GsonBuilder().setPrettyPrinting().create().toJson(
+                mapOf(
+                    "label" to label,
+                    "transactions" to data.transactionCount,
+                    "archived" to archived,
+                    "archiveMillis" to archiveMillis,
+                    "measurements" to measurements
+                )
+            )
+        )
+        println("archived $archived of ${data.transactionCount} transactions in $archiveMillis ms")
+        measurements.forEach {
+            println("%-32s %10.2f ms live %10.2f ms archived".format(it.name, it.liveMillis, it.archivedMillis))
+        }
+    }
+
+    companion object {
+        const val WARMUP = 2
+        const val ITERATIONS = 10
+        const val PAGE_SIZE = 100
+    }
+}
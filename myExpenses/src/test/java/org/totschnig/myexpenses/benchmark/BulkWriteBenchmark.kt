@@ -0,0 +1,140 @@
+package org.totschnig.myexpenses.benchmark
+
+import android.content.ContentProviderOperation
+import androidx.sqlite.db.SupportSQLiteDatabase
+import com.google.common.truth.Truth.assertThat
+import com.google.gson.GsonBuilder
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.BaseTestWithRepository
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COMMENT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SEALED
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_STATUS
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SYNC_ACCOUNT_NAME
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SYNC_SEQUENCE_LOCAL
+import org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_EXPORTED
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_ACCOUNTS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_CHANGES
+import org.totschnig.myexpenses.provider.TransactionProvider
+import java.io.File
+
+/**
+ * Compares updates of [ROWS] transactions in a synced account through the per-row triggers and
+ * through a bulk write, see [org.totschnig.myexpenses.provider.BulkWrite]. Excluded from the
+ * regular unit test run like [ProviderBenchmark].
+ */
+@RunWith(RobolectricTestRunner::class)
+class BulkWriteBenchmark : BaseTestWithRepository() {
+
+    data class Measurement(
+        val name: String,
+        val rows: Int,
+        val perRowMillis: Double,
+        val bulkMillis: Double,
+        val changes: Int
+    )
+
+    private val scale = System.getProperty("benchmark.scale")?.toDoubleOrNull() ?: 1.0
+
+    private val db: SupportSQLiteDatabase
+        get() = (contentResolver.acquireContentProviderClient(TransactionProvider.AUTHORITY)!!
+            .localContentProvider as TransactionProvider).openHelperForTest.writableDatabase
+
+    private fun count(table: String) = db.query("SELECT count(*) FROM $table").use {
+        it.moveToFirst()
+        it.getInt(0)
+    }
+
+    /**
+     * runs [operations] [ITERATIONS] times, each time rolled back, and returns the median duration
+     * together with the number of changes logged
+     */
+    private fun measure(operations: List<ContentProviderOperation>): Pair<Double, Int> {
+        var changes = 0
+        val timings = List(ITERATIONS) {
+            db.beginTransaction()
+            try {
+                val begin = System.nanoTime()
+                contentResolver.applyBatch(TransactionProvider.AUTHORITY, ArrayList(operations))
+                (System.nanoTime() - begin) / 1_000_000.0
+            } finally {
+                changes = count(TABLE_CHANGES)
+                db.endTransaction()
+            }
+        }.sorted()
+        return timings[ITERATIONS / 2] to changes
+    }
+
+    private fun update(accountId: Long, column: String, value: Any) =
+        ContentProviderOperation.newUpdate(TransactionProvider.TRANSACTIONS_URI)
+            .withValue(column, value)
+            .withSelection("$KEY_ACCOUNTID = ?", arrayOf(accountId.toString()))
+            .build()
+
+    private fun beginBulkWrite(accountId: Long, vararg allowedOnSealed: String) =
+        TransactionProvider.beginBulkWrite(
+            "$KEY_ACCOUNTID = ?", arrayOf(accountId.toString()), *allowedOnSealed
+        )
+
+    @Test
+    fun run() {
+        val rows = (ROWS * scale).toInt()
+        val data = DataGenerator(
+            repository, DataGenerator.Config(
+                accounts = 1,
+                transactionsPerAccount = rows,
+                splitRatio = 0.0,
+                transferRatio = 0.0,
+                tagRatio = 0.0,
+                attachmentRatio = 0.0
+            )
+        ).generate()
+        val accountId = data.accounts.first().id
+        db.execSQL("UPDATE $TABLE_ACCOUNTS SET $KEY_SYNC_ACCOUNT_NAME = 'Benchmark', $KEY_SYNC_SEQUENCE_LOCAL = 1")
+        db.delete(TABLE_CHANGES, null, null)
+
+        val measurements = listOf(
+            "updateComment" to listOf(update(accountId, KEY_COMMENT, "Bulk")),
+            "markAsExported" to listOf(update(accountId, KEY_STATUS, STATUS_EXPORTED))
+        ).map { (name, operations) ->
+            val (perRow, perRowChanges) = measure(operations)
+            val (bulk, bulkChanges) = measure(
+                listOf(beginBulkWrite(accountId)) + operations + TransactionProvider.endBulkWrite()
+            )
+            assertThat(bulkChanges).isEqualTo(perRowChanges)
+            Measurement(name, data.transactionCount, perRow, bulk, bulkChanges)
+        }
+        //the sealed account guard only applies per row, unless the bulk write allows the column
+        db.execSQL("UPDATE $TABLE_ACCOUNTS SET $KEY_SEALED = 1")
+        val (sealed, _) = measure(
+            listOf(
+                beginBulkWrite(accountId, KEY_COMMENT),
+                update(accountId, KEY_COMMENT, "Bulk"),
+                TransactionProvider.endBulkWrite()
+            )
+        )
+
+        val label = System.getProperty("benchmark.label")?.takeIf { it.isNotEmpty() } ?: "local"
+        val outputDir = File(System.getProperty("benchmark.output") ?: "build/benchmark").apply { mkdirs() }
+        File(outputDir, "bulk-write-$label.json").writeText(
+            GsonBuilder().setPrettyPrinting().create().toJson(
+                mapOf("label" to label, "measurements" to measurements, "bulkSealedMillis" to sealed)
+            )
+        )
+        measurements.forEach {
+            println(
+                "%-16s %8d rows %10.2f ms per row triggers %10.2f ms bulk %8d changes".format(
+                    it.name, it.rows, it.perRowMillis, it.bulkMillis, it.changes
+                )
+            )
+        }
+        println("%-16s %8d rows %10.2f ms bulk".format("updateSealed", data.transactionCount, sealed))
+    }
+
+    companion object {
+        const val ROWS = 100_000
+        const val ITERATIONS = 5
+    }
+}
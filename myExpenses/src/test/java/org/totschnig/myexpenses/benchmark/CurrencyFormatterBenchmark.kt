@@ -0,0 +1,71 @@
+package org.totschnig.myexpenses.benchmark
+
+import com.google.common.truth.Truth.assertThat
+import com.google.gson.GsonBuilder
+import org.junit.Test
+import org.mockito.ArgumentMatchers.any
+import org.mockito.kotlin.eq
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.whenever
+import org.totschnig.myexpenses.MyApplication
+import org.totschnig.myexpenses.model.CurrencyUnit
+import org.totschnig.myexpenses.model.Money
+import org.totschnig.myexpenses.prefHandler
+import org.totschnig.myexpenses.preference.PrefKey
+import org.totschnig.myexpenses.util.CurrencyFormatter
+import java.io.File
+import java.util.Locale
+import kotlin.random.Random
+
+/**
+ * Compares the throughput of formatting minor units directly with the previous conversion to
+ * BigDecimal. Excluded from the regular unit test run like [ProviderBenchmark].
+ */
+class CurrencyFormatterBenchmark {
+
+    data class Measurement(val name: String, val callsPerMilli: Long)
+
+    private val scale = System.getProperty("benchmark.scale")?.toDoubleOrNull() ?: 1.0
+
+    @Test
+    fun run() {
+        whenever(prefHandler.getString(eq(PrefKey.CUSTOM_DECIMAL_FORMAT), any())).thenReturn("")
+        val application: MyApplication = mock()
+        whenever(application.userPreferredLocale).thenReturn(Locale.GERMANY)
+        val formatter = CurrencyFormatter(prefHandler, application)
+        val currency = CurrencyUnit("EUR", "€", 2)
+        val amounts = Random(1).let { random ->
+            LongArray((AMOUNTS * scale).toInt()) { random.nextLong(-100_000_000, 100_000_000) }
+        }
+        fun measure(name: String, block: (Long) -> String): Measurement {
+            repeat(WARMUP) { amounts.forEach { block(it) } }
+            val begin = System.nanoTime()
+            repeat(ROUNDS) { amounts.forEach { block(it) } }
+            val elapsed = System.nanoTime() - begin
+            return Measurement(name, ROUNDS * amounts.size * 1_000_000L / elapsed)
+        }
+        val legacy: (Long) -> String = {
+            formatter.formatCurrency(Money(currency, it).amountMajor, currency)
+        }
+        val minor: (Long) -> String = { formatter.formatMinor(it, currency) }
+        assertThat(amounts.map(minor)).isEqualTo(amounts.map(legacy))
+        val measurements = listOf(measure("BigDecimal", legacy), measure("minor units", minor))
+
+        val label = System.getProperty("benchmark.label")?.takeIf { it.isNotEmpty() } ?: "local"
+        val outputDir = File(System.getProperty("benchmark.output") ?: "build/benchmark").apply { mkdirs() }
+        File(outputDir, "currency-formatter-$label.json").writeText(
+            GsonBuilder().setPrettyPrinting().create().toJson(
+                mapOf("label" to label, "amounts" to amounts.size, "measurements" to measurements)
+            )
+        )
+        measurements.forEach {
+            println("%-16s %10d calls/ms".format(it.name, it.callsPerMilli))
+        }
+    }
+
+    companion object {
+        const val AMOUNTS = 10_000
+        const val WARMUP = 3
+        const val ROUNDS = 10
+    }
+}
@@ -0,0 +1,191 @@
+package org.totschnig.myexpenses.benchmark
+
+import android.content.ContentProviderOperation
+import org.totschnig.myexpenses.db2.Repository
+import org.totschnig.myexpenses.db2.createAccount
+import org.totschnig.myexpenses.db2.createParty
+import org.totschnig.myexpenses.db2.saveCategory
+import org.totschnig.myexpenses.db2.writeTag
+import org.totschnig.myexpenses.model.AccountType
+import org.totschnig.myexpenses.model.Money
+import org.totschnig.myexpenses.model.SplitTransaction
+import org.totschnig.myexpenses.model.Transaction
+import org.totschnig.myexpenses.model.Transfer
+import org.totschnig.myexpenses.model2.Account
+import org.totschnig.myexpenses.model2.Category
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TAGID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSACTIONID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_URI
+import org.totschnig.myexpenses.provider.TransactionProvider
+import org.totschnig.myexpenses.provider.appendBooleanQueryParameter
+import java.time.LocalDate
+import java.time.ZoneOffset
+import kotlin.random.Random
+
+/**
+ * Fills the database with synthetic data through the content provider. The data only depends on
+ * [Config], so that timings measured on different commits refer to the same data set.
+ */
+class DataGenerator(private val repository: Repository, private val config: Config) {
+
+    data class Config(
+        val seed: Long = 1,
+        val accounts: Int = 6,
+        val currencies: List<String> = listOf("EUR", "USD", "JPY"),
+        val transactionsPerAccount: Int = 5_000,
+        val categoryRoots: Int = 12,
+        val categoryChildren: Int = 4,
+        val categoryDepth: Int = 3,
+        val payees: Int = 300,
+        val tags: Int = 40,
+        val splitRatio: Double = 0.05,
+        val transferRatio: Double = 0.1,
+        val tagRatio: Double = 0.2,
+        val attachmentRatio: Double = 0.02,
+        /**
+         * transactions are spread over the [days] preceding [lastDay]
+         */
+        val lastDay: LocalDate = LocalDate.of(2024, 12, 31),
+        val days: Int = 3 * 365
+    ) {
+        fun scaled(scale: Double) = copy(
+            transactionsPerAccount = (transactionsPerAccount * scale).toInt().coerceAtLeast(1)
+        )
+    }
+
+    class Data(
+        val accounts: List<Account>,
+        val categories: List<Long>,
+        val transactionCount: Int
+    )
+
+    private val random = Random(config.seed)
+
+    fun generate(): Data {
+        val accounts = List(config.accounts) {
+            repository.createAccount(
+                Account(
+                    label = "Account $it",
+                    currency = config.currencies[it % config.currencies.size],
+                    openingBalance = random.nextLong(0, 1_000_000),
+                    type = AccountType.values()[it % AccountType.values().size]
+                )
+            )
+        }
+        val categories = mutableListOf<Long>()
+        val leaves = mutableListOf<Long>()
+        insertCategories(null, 1, "", categories, leaves)
+        val payees = List(config.payees) { repository.createParty("Payee $it").id }
+        val tags = List(config.tags) { repository.writeTag("Tag $it") }
+        var count = 0
+        accounts.forEach { account ->
+            val ops = ArrayList<ContentProviderOperation>()
+            repeat(config.transactionsPerAccount) { index ->
+                val offset = ops.size
+                val roll = random.nextDouble()
+                val transaction = when {
+                    roll < config.splitRatio -> SplitTransaction(account.id, money(account))
+                    roll < config.splitRatio + config.transferRatio && accounts.size > 1 -> {
+                        val peer = (accounts - account).random(random)
+                        val amount = money(account)
+                        Transfer(account.id, amount, peer.id).apply {
+                            if (peer.currency != account.currency) {
+                                setAmountAndTransferAmount(amount, money(peer, -amount.amountMinor))
+                            }
+                        }
+                    }
+
+                    else -> Transaction(account.id, money(account)).apply {
+                        catId = leaves.random(random)
+                        payeeId = payees.random(random)
+                    }
+                }
+                transaction.setDate(date())
+                transaction.comment = "Transaction $index"
+                ops.addAll(transaction.buildSaveOperations(repository.contentResolver, offset, -1, false, false))
+                count++
+                if (transaction is SplitTransaction) {
+                    val parts = random.nextInt(2, 5)
+                    var remaining = transaction.amount.amountMinor
+                    repeat(parts) { part ->
+                        val amount = if (part == parts - 1) remaining else remaining / (parts - part)
+                        remaining -= amount
+                        ops.addAll(
+                            Transaction(account.id, Money(transaction.amount.currencyUnit, amount)).apply {
+                                catId = leaves.random(random)
+                            }.buildSaveOperations(repository.contentResolver, ops.size, offset, false, false)
+                        )
+                    }
+                }
+                if (random.nextDouble() < config.tagRatio) {
+                    tags.shuffled(random).take(random.nextInt(1, 4)).forEach {
+                        ops.add(
+                            ContentProviderOperation.newInsert(TAGS_URI)
+                                .withValue(KEY_TAGID, it)
+                                .withValueBackReference(KEY_TRANSACTIONID, offset)
+                                .build()
+                        )
+                    }
+                }
+                if (random.nextDouble() < config.attachmentRatio) {
+                    ops.add(
+                        ContentProviderOperation.newInsert(TransactionProvider.TRANSACTIONS_ATTACHMENTS_URI)
+                            .withValue(KEY_URI, "file:///benchmark/${account.id}_$index.jpg")
+                            .withValueBackReference(KEY_TRANSACTIONID, offset)
+                            .build()
+                    )
+                }
+                if (ops.size >= BATCH_SIZE) {
+                    repository.contentResolver.applyBatch(TransactionProvider.AUTHORITY, ops)
+                    ops.clear()
+                }
+            }
+            if (ops.isNotEmpty()) {
+                repository.contentResolver.applyBatch(TransactionProvider.AUTHORITY, ops)
+            }
+        }
+        return Data(accounts, categories, count)
+    }
+
+    private fun insertCategories(
+        parentId: Long?,
+        level: Int,
+        prefix: String,
+        categories: MutableList<Long>,
+        leaves: MutableList<Long>
+    ) {
+        val count = if (parentId == null) config.categoryRoots else config.categoryChildren
+        repeat(count) {
+            val label = "${prefix}Category $it"
+            val id = repository.saveCategory(Category(label = label, parentId = parentId))!!
+            categories.add(id)
+            if (level < config.categoryDepth) {
+                insertCategories(id, level + 1, "$label.", categories, leaves)
+            } else {
+                leaves.add(id)
+            }
+        }
+    }
+
+    private fun money(account: Account, base: Long = random.nextLong(-100_000, 50_000)) = Money(
+        repository.currencyContext.get(account.currency),
+        when (account.currency) {
+            "JPY" -> base / 100
+            else -> base
+        }
+    )
+
+    private fun date() = config.lastDay.atStartOfDay().toEpochSecond(ZoneOffset.UTC) -
+            random.nextLong(config.days * 86_400L)
+
+    companion object {
+        const val BATCH_SIZE = 1000
+
+        /**
+         * the provider only accepts single tag links from the sync adapter
+         */
+        private val TAGS_URI = TransactionProvider.TRANSACTIONS_TAGS_URI.buildUpon()
+            .appendBooleanQueryParameter(TransactionProvider.QUERY_PARAMETER_CALLER_IS_SYNCADAPTER)
+            .build()
+    }
+}
@@ -0,0 +1,30 @@
+package org.totschnig.myexpenses.benchmark
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.totschnig.myexpenses.util.crypt.LargePayloadRestore
+
+/**
+ * Checks that decryption of the segmented format runs in bounded memory, on a payload too large for
+ * the regular unit test run, which excludes it like [ProviderBenchmark].
+ */
+class EncryptionBenchmark {
+
+    @get:Rule
+    val tempFolder = TemporaryFolder()
+
+    @Test
+    fun largePayloadIsRestoredWithSmallHeap() {
+        val (exitCode, output) = LargePayloadRestore.run(tempFolder.newFile(), SIZE_MB, HEAP_MB)
+        assertThat(exitCode).isEqualTo(0)
+        assertThat(output).contains("Restored")
+        println(output.trim())
+    }
+
+    companion object {
+        const val SIZE_MB = 256
+        const val HEAP_MB = 32
+    }
+}
@@ -0,0 +1,78 @@
+package org.totschnig.myexpenses.benchmark
+
+import androidx.documentfile.provider.DocumentFile
+import androidx.test.core.app.ApplicationProvider
+import com.google.common.truth.Truth.assertThat
+import com.google.gson.GsonBuilder
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.BaseTestWithRepository
+import org.totschnig.myexpenses.export.pdf.PdfPrinter
+import org.totschnig.myexpenses.provider.filter.WhereFilter
+import java.io.File
+import java.lang.management.ManagementFactory
+import java.lang.management.MemoryType
+
+/**
+ * Renders a large account with [PdfPrinter] and records elapsed time, output size and peak heap.
+ * Excluded from the regular unit test run like [ProviderBenchmark].
+ */
+@RunWith(RobolectricTestRunner::class)
+class PdfPrinterBenchmark : BaseTestWithRepository() {
+
+    @get:Rule
+    val tempFolder = TemporaryFolder()
+
+    private val scale = System.getProperty("benchmark.scale")?.toDoubleOrNull() ?: 1.0
+
+    private fun heapPools() = ManagementFactory.getMemoryPoolMXBeans().filter { it.type == MemoryType.HEAP }
+
+    @Test
+    fun run() {
+        val data = DataGenerator(
+            repository, DataGenerator.Config(
+                accounts = 1,
+                currencies = listOf("EUR"),
+                transactionsPerAccount = TRANSACTIONS,
+                attachmentRatio = 0.0
+            ).scaled(scale)
+        ).generate()
+        val destDir = tempFolder.newFolder()
+        System.gc()
+        heapPools().forEach { it.resetPeakUsage() }
+        val begin = System.nanoTime()
+        val result = PdfPrinter(data.accounts.first().id, DocumentFile.fromFile(destDir), WhereFilter.empty(), 0L)
+            .print(ApplicationProvider.getApplicationContext())
+        val elapsed = (System.nanoTime() - begin) / 1_000_000
+        val peakHeap = heapPools().sumOf { it.peakUsage.used } / (1024 * 1024)
+        assertThat(result.isSuccess).isTrue()
+        val output = destDir.listFiles()!!.single()
+        assertThat(output.length()).isGreaterThan(0L)
+
+        val label = System.getProperty("benchmark.label")?.takeIf { it.isNotEmpty() } ?: "local"
+        val outputDir = File(System.getProperty("benchmark.output") ?: "build/benchmark").apply { mkdirs() }
+        File(outputDir, "pdf-$label.json").writeText(
+            GsonBuilder().setPrettyPrinting().create().toJson(
+                mapOf(
+                    "label" to label,
+                    "transactions" to data.transactionCount,
+                    "millis" to elapsed,
+                    "outputKb" to output.length() / 1024,
+                    "peakHeapMb" to peakHeap
+                )
+            )
+        )
+        println(
+            "Rendered %d transactions into %d KB in %d ms, peak heap %d MB".format(
+                data.transactionCount, output.length() / 1024, elapsed, peakHeap
+            )
+        )
+    }
+
+    companion object {
+        const val TRANSACTIONS = 50_000
+    }
+}
@@ -0,0 +1,252 @@
+package org.totschnig.myexpenses.benchmark
+
+import android.content.ContentUris
+import android.content.ContentValues
+import android.database.Cursor
+import android.net.Uri
+import androidx.documentfile.provider.DocumentFile
+import androidx.test.core.app.ApplicationProvider
+import com.google.gson.GsonBuilder
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.BaseTestWithRepository
+import org.totschnig.myexpenses.db2.budgetAllocationUri
+import org.totschnig.myexpenses.export.CsvExporter
+import org.totschnig.myexpenses.model.Grouping
+import org.totschnig.myexpenses.model.SortDirection
+import org.totschnig.myexpenses.model2.Account
+import org.totschnig.myexpenses.provider.BaseTransactionProvider
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_BUDGET
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_BUDGETID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_HIDDEN
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_LABEL
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PARENTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SECOND_GROUP
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SUM
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TYPE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_YEAR
+import org.totschnig.myexpenses.provider.DatabaseConstants.TREE_CATEGORIES
+import org.totschnig.myexpenses.provider.TransactionProvider
+import org.totschnig.myexpenses.provider.appendBooleanQueryParameter
+import org.totschnig.myexpenses.provider.filter.WhereFilter
+import org.totschnig.myexpenses.provider.withLimit
+import org.totschnig.myexpenses.viewmodel.data.Budget
+import org.totschnig.myexpenses.viewmodel.data.PageAccount
+import java.io.File
+import java.time.LocalDate
+
+/**
+ * Times the queries behind the main screens on a generated data set and writes the results as
+ * JSON, so that they can be compared across commits. Excluded from the regular unit test run, see
+ * build.gradle for how to run it and which properties it accepts.
+ */
+@RunWith(RobolectricTestRunner::class)
+class ProviderBenchmark : BaseTestWithRepository() {
+
+    @get:Rule
+    val tempFolder = TemporaryFolder()
+
+    data class Measurement(
+        val name: String,
+        val rows: Int,
+        val iterations: Int,
+        val medianMillis: Double,
+        val minMillis: Double,
+        val maxMillis: Double
+    )
+
+    data class Report(
+        val label: String,
+        val scale: Double,
+        val transactions: Int,
+        val generateMillis: Long,
+        val measurements: List<Measurement>
+    )
+
+    private val measurements = mutableListOf<Measurement>()
+
+    private val scale = System.getProperty("benchmark.scale")?.toDoubleOrNull() ?: 1.0
+
+    /**
+     * runs [block] [WARMUP] times unmeasured, then [ITERATIONS] times measured
+     * @param block returns the number of rows it has read
+     */
+    private fun measure(name: String, block: () -> Int) {
+        repeat(WARMUP) { block() }
+        var rows = 0
+        val timings = List(ITERATIONS) {
+            val begin = System.nanoTime()
+            rows = block()
+            (System.nanoTime() - begin) / 1_000_000.0
+        }.sorted()
+        measurements.add(
+            Measurement(name, rows, ITERATIONS, timings[ITERATIONS / 2], timings.first(), timings.last())
+        )
+    }
+
+    /**
+     * reads every column of every row, like the code that maps cursors to view data
+     */
+    private fun Cursor?.consume(): Int = this!!.use { cursor ->
+        while (cursor.moveToNext()) {
+            for (column in 0 until cursor.columnCount) {
+                cursor.getString(column)
+            }
+        }
+        cursor.count
+    }
+
+    private fun query(
+        uri: Uri,
+        projection: Array<String>? = null,
+        selection: String? = null,
+        selectionArgs: Array<String>? = null,
+        sortOrder: String? = null
+    ) = contentResolver.query(uri, projection, selection, selectionArgs, sortOrder).consume()
+
+    private fun pageAccount(id: Long, currency: String) = PageAccount(
+        id = id,
+        type = null,
+        sortBy = KEY_DATE,
+        sortDirection = SortDirection.DESC,
+        grouping = Grouping.MONTH,
+        currencyUnit = currencyContext.get(currency),
+        sealed = false,
+        openingBalance = 0,
+        _color = 0
+    )
+
+    private fun transactionPage(account: PageAccount, offset: Int): Int {
+        val (uri, projection) = account.loadingInfo(account.currency, repository.prefHandler)
+        return query(
+            uri.withLimit(PAGE_SIZE, offset),
+            projection,
+            "$KEY_PARENTID is null",
+            sortOrder = "${account.sortBy} ${account.sortDirection}"
+        )
+    }
+
+    private fun categoryTreeWithSum(queryParameter: Map<String, String>, projection: List<String> = emptyList()) =
+        query(
+            BaseTransactionProvider.CATEGORY_TREE_URI.buildUpon().apply {
+                (mapOf(
+                    KEY_TYPE to "false",
+                    TransactionProvider.QUERY_PARAMETER_AGGREGATE_NEUTRAL to "false"
+                ) + queryParameter).forEach { appendQueryParameter(it.key, it.value) }
+            }.build(),
+            (listOf("$TREE_CATEGORIES.*", KEY_SUM) + projection).toTypedArray(),
+            sortOrder = KEY_LABEL
+        )
+
+    private fun createBudget(account: Account, categories: List<Long>, year: Int): Long {
+        val budget = Budget(
+            0, account.id, "Benchmark", null, currencyContext.get(account.currency),
+            Grouping.YEAR, 0, null as LocalDate?, null, account.label, true
+        )
+        val budgetId = ContentUris.parseId(
+            contentResolver.insert(TransactionProvider.BUDGETS_URI, budget.toContentValues(1_000_000))!!
+        )
+        categories.forEach {
+            contentResolver.update(budgetAllocationUri(budgetId, it), ContentValues().apply {
+                put(KEY_YEAR, year)
+                put(KEY_SECOND_GROUP, 0)
+                put(KEY_BUDGET, 10_000)
+            }, null, null)
+        }
+        return budgetId
+    }
+
+    @Test
+    fun run() {
+        val config = DataGenerator.Config().scaled(scale)
+        val begin = System.nanoTime()
+        val data = DataGenerator(repository, config).generate()
+        val generateMillis = (System.nanoTime() - begin) / 1_000_000
+        val account = data.accounts.first()
+        val pageAccount = pageAccount(account.id, account.currency)
+        val aggregate = pageAccount(-1, account.currency)
+        val year = config.lastDay.year
+
+        measure("accountList") {
+            query(
+                TransactionProvider.ACCOUNTS_URI.buildUpon()
+                    .appendBooleanQueryParameter(TransactionProvider.QUERY_PARAMETER_MERGE_CURRENCY_AGGREGATES)
+                    .appendBooleanQueryParameter(TransactionProvider.QUERY_PARAMETER_WITH_HIDDEN_ACCOUNT_COUNT)
+                    .build(),
+                selection = "$KEY_HIDDEN = 0"
+            )
+        }
+        measure("transactionPageFirst") { transactionPage(pageAccount, 0) }
+        measure("transactionPageMiddle") {
+            transactionPage(pageAccount, config.transactionsPerAccount / 2)
+        }
+        measure("transactionPageAggregate") { transactionPage(aggregate, 0) }
+        measure("groups") {
+            val (uri, selection, args) = pageAccount.groupingQuery(WhereFilter.empty())
+            query(uri, selection = selection, selectionArgs = args)
+        }
+        measure("groupsAggregate") {
+            val (uri, selection, args) = aggregate.groupingQuery(WhereFilter.empty())
+            query(uri, selection = selection, selectionArgs = args)
+        }
+        measure("sums") {
+            query(
+                pageAccount.uriBuilderForTransactionList(extended = false)
+                    .appendBooleanQueryParameter(TransactionProvider.QUERY_PARAMETER_MAPPED_OBJECTS)
+                    .build()
+            )
+        }
+        measure("categoryTreeWithSums") {
+            categoryTreeWithSum(mapOf(pageAccount.queryParameter!!))
+        }
+        measure("categoryTreeWithSumsAggregate") {
+            categoryTreeWithSum(mapOf(aggregate.queryParameter!!))
+        }
+        val budgetId = createBudget(account, data.categories, year)
+        measure("budgetCategoryTree") {
+            categoryTreeWithSum(
+                mapOf(
+                    pageAccount.queryParameter!!,
+                    KEY_BUDGETID to budgetId.toString(),
+                    KEY_YEAR to year.toString()
+                ),
+                listOf(KEY_BUDGET)
+            )
+        }
+        measure("budgetAllocations") {
+            query(BaseTransactionProvider.defaultBudgetAllocationUri(account.id, Grouping.MONTH))
+        }
+        val exportFile = tempFolder.newFile()
+        measure("exportCsv") {
+            CsvExporter(
+                account, currencyContext, null, false, "dd/MM/yyyy", '.', "UTF-8",
+                true, ';', false
+            ).export(
+                ApplicationProvider.getApplicationContext(),
+                lazy { Result.success(DocumentFile.fromFile(exportFile)) },
+                false
+            ).getOrThrow()
+            data.transactionCount
+        }
+
+        val label = System.getProperty("benchmark.label")?.takeIf { it.isNotEmpty() } ?: "local"
+        val report = Report(label, scale, data.transactionCount, generateMillis, measurements)
+        val outputDir = File(System.getProperty("benchmark.output") ?: "build/benchmark").apply { mkdirs() }
+        File(outputDir, "provider-$label.json").writeText(
+            GsonBuilder().setPrettyPrinting().create().toJson(report)
+        )
+        measurements.forEach {
+            println("%-32s %8d rows %10.2f ms".format(it.name, it.rows, it.medianMillis))
+        }
+    }
+
+    companion object {
+        const val WARMUP = 2
+        const val ITERATIONS = 10
+        const val PAGE_SIZE = 100
+    }
+}
@@ -0,0 +1,176 @@
+package org.totschnig.myexpenses.calendar
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import java.time.LocalDate
+import java.time.LocalDateTime
+import java.time.ZoneId
+import java.time.ZoneOffset
+
+class RecurrenceExpanderTest {
+    private val zone: ZoneId = ZoneOffset.UTC
+
+    private fun millis(date: LocalDate, hour: Int = 10) =
+        date.atTime(hour, 0).atZone(zone).toInstant().toEpochMilli()
+
+    private fun toDate(millis: Long) = LocalDateTime.ofEpochSecond(millis / 1000, 0, ZoneOffset.UTC)
+        .toLocalDate()
+
+    private fun expand(
+        rRule: String,
+        start: LocalDate,
+        from: LocalDate,
+        to: LocalDate,
+        exDate: String? = null,
+        excluded: Set<Long> = emptySet()
+    ) = RecurrenceExpander.expand(
+        RecurrenceExpander.Event(1, millis(start), rRule, exDate, zone, excluded),
+        millis(from, 0),
+        millis(to, 23)
+    ).map { toDate(it) }
+
+    private fun dates(vararg dates: String) = dates.map { LocalDate.parse(it) }
+
+    @Test
+    fun daily() {
+        assertThat(
+            expand("FREQ=DAILY;INTERVAL=2", LocalDate.parse("2024-01-01"),
+                LocalDate.parse("2024-01-04"), LocalDate.parse("2024-01-09"))
+        ).containsExactlyElementsIn(dates("2024-01-05", "2024-01-07", "2024-01-09")).inOrder()
+    }
+
+    @Test
+    fun weeklyWithByDay() {
+        assertThat(
+            expand("FREQ=WEEKLY;BYDAY=MO,TH;WKST=MO", LocalDate.parse("2024-01-01"),
+                LocalDate.parse("2024-01-01"), LocalDate.parse("2024-01-14"))
+        ).containsExactlyElementsIn(
+            dates("2024-01-01", "2024-01-04", "2024-01-08", "2024-01-11")
+        ).inOrder()
+    }
+
+    @Test
+    fun monthlySkipsMonthsWithoutStartDay() {
+        assertThat(
+            expand("FREQ=MONTHLY", LocalDate.parse("2024-01-31"),
+                LocalDate.parse("2024-01-01"), LocalDate.parse("2024-05-31"))
+        ).containsExactlyElementsIn(dates("2024-01-31", "2024-03-31", "2024-05-31")).inOrder()
+    }
+
+    @Test
+    fun lastDayOfMonth() {
+        val expected = dates("2024-01-31", "2024-02-29", "2024-03-31", "2024-04-30")
+        assertThat(
+            expand("FREQ=MONTHLY;BYMONTHDAY=-1", LocalDate.parse("2024-01-31"),
+                LocalDate.parse("2024-01-01"), LocalDate.parse("2024-04-30"))
+        ).containsExactlyElementsIn(expected).inOrder()
+        assertThat(
+            expand("FREQ=MONTHLY;BYDAY=MO,TU,WE,TH,FR;BYSETPOS=-1", LocalDate.parse("2024-01-31"),
+                LocalDate.parse("2024-01-01"), LocalDate.parse("2024-04-30"))
+        ).containsExactlyElementsIn(
+            dates("2024-01-31", "2024-02-29", "2024-03-29", "2024-04-30")
+        ).inOrder()
+    }
+
+    @Test
+    fun monthlyByOrdinalWeekday() {
+        assertThat(
+            expand("FREQ=MONTHLY;BYDAY=2FR", LocalDate.parse("2024-01-12"),
+                LocalDate.parse("2024-01-01"), LocalDate.parse("2024-03-31"))
+        ).containsExactlyElementsIn(dates("2024-01-12", "2024-02-09", "2024-03-08")).inOrder()
+    }
+
+    @Test
+    fun yearlyOnLeapDay() {
+        assertThat(
+            expand("FREQ=YEARLY", LocalDate.parse("2024-02-29"),
+                LocalDate.parse("2024-01-01"), LocalDate.parse("2032-12-31"))
+        ).containsExactlyElementsIn(dates("2024-02-29", "2028-02-29", "2032-02-29")).inOrder()
+    }
+
+    @Test
+    fun countIsAppliedFromStartNotFromWindow() {
+        assertThat(
+            expand("FREQ=WEEKLY;COUNT=3", LocalDate.parse("2024-01-01"),
+                LocalDate.parse("2024-01-10"), LocalDate.parse("2024-12-31"))
+        ).containsExactlyElementsIn(dates("2024-01-15")).inOrder()
+    }
+
+    @Test
+    fun until() {
+        assertThat(
+            expand("FREQ=DAILY;UNTIL=20240103T235959Z", LocalDate.parse("2024-01-01"),
+                LocalDate.parse("2024-01-01"), LocalDate.parse("2024-01-31"))
+        ).containsExactlyElementsIn(dates("2024-01-01", "2024-01-02", "2024-01-03")).inOrder()
+        assertThat(
+            expand("FREQ=DAILY;UNTIL=20240102", LocalDate.parse("2024-01-01"),
+                LocalDate.parse("2024-01-01"), LocalDate.parse("2024-01-31"))
+        ).containsExactlyElementsIn(dates("2024-01-01", "2024-01-02")).inOrder()
+    }
+
+    @Test
+    fun exDateAndExceptionsAreExcluded() {
+        assertThat(
+            expand("FREQ=DAILY", LocalDate.parse("2024-01-01"),
+                LocalDate.parse("2024-01-01"), LocalDate.parse("2024-01-04"),
+                exDate = "20240102T100000Z",
+                excluded = setOf(millis(LocalDate.parse("2024-01-03"))))
+        ).containsExactlyElementsIn(dates("2024-01-01", "2024-01-04")).inOrder()
+    }
+
+    @Test
+    fun oldEventsAreSkippedToWindow() {
+        assertThat(
+            expand("FREQ=WEEKLY;INTERVAL=2", LocalDate.parse("2000-01-03"),
+                LocalDate.parse("2024-01-01"), LocalDate.parse("2024-01-21"))
+        ).containsExactlyElementsIn(dates("2024-01-01", "2024-01-15")).inOrder()
+    }
+
+    @Test
+    fun unsupportedRulesAreDetected() {
+        assertThat(RecurrenceExpander.isSupported(
+            RecurrenceExpander.Event(1, 0, "FREQ=YEARLY;BYWEEKNO=20"))).isFalse()
+        assertThat(RecurrenceExpander.isSupported(
+            RecurrenceExpander.Event(1, 0, "FREQ=HOURLY"))).isFalse()
+        assertThat(RecurrenceExpander.isSupported(
+            RecurrenceExpander.Event(1, 0, "FREQ=MONTHLY;BYMONTHDAY=1"))).isTrue()
+        assertThat(RecurrenceExpander.isSupported(
+            RecurrenceExpander.Event(1, 0, null))).isTrue()
+    }
+
+    @Test
+    fun expandAllIsOrderedByBegin() {
+        val start = LocalDate.parse("2024-01-01")
+        val instances = RecurrenceExpander.expandAll(
+            listOf(
+                RecurrenceExpander.Event(2, millis(start, 8), "FREQ=DAILY", zoneId = zone),
+                RecurrenceExpander.Event(1, millis(start, 9), "FREQ=DAILY", zoneId = zone)
+            ),
+            millis(start, 0),
+            millis(start.plusDays(1), 23)
+        )
+        assertThat(instances.map { it.eventId }).containsExactly(2L, 1L, 2L, 1L).inOrder()
+    }
+
+    /**
+     * several hundred plans expanded over a ten year window
+     */
+    @Test
+    fun manyPlansOverTenYears() {
+        val start = LocalDate.parse("2015-01-01")
+        val rules = listOf(
+            "FREQ=DAILY", "FREQ=WEEKLY;BYDAY=MO,FR", "FREQ=MONTHLY", "FREQ=MONTHLY;BYMONTHDAY=-1",
+            "FREQ=MONTHLY;BYDAY=1MO", "FREQ=YEARLY", "FREQ=WEEKLY;INTERVAL=2"
+        )
+        val events = (1..700L).map {
+            RecurrenceExpander.Event(it, millis(start.plusDays(it)), rules[(it % rules.size).toInt()], zoneId = zone)
+        }
+        val from = millis(LocalDate.parse("2025-01-01"), 0)
+        val to = millis(LocalDate.parse("2034-12-31"), 23)
+        val instances = RecurrenceExpander.expandAll(events, from, to)
+        assertThat(instances.filter { it.eventId == 7L }).hasSize(3652)
+        assertThat(instances.map { it.begin }).isInOrder()
+        assertThat(instances.first().begin).isAtLeast(from)
+        assertThat(instances.last().begin).isAtMost(to)
+    }
+}
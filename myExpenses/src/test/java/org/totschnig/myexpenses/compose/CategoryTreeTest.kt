@@ -1,5 +1,6 @@
 package org.totschnig.myexpenses.compose
 
+import androidx.compose.runtime.mutableStateListOf
 import com.google.common.truth.Truth.assertThat
 import org.junit.Test
 import org.totschnig.myexpenses.viewmodel.data.Category
@@ -70,4 +71,82 @@ class CategoryTreeTest {
         )
         assertThat(category.pruneNonMatching()).isNull()
     }
-}
\ No newline at end of file
+
+    private val tree = Category(
+        label = "ROOT", children = listOf(
+            Category(
+                id = 1, level = 1, label = "1", children = listOf(
+                    Category(
+                        id = 2, parentId = 1, level = 2, label = "1.1", children = listOf(
+                            Category(id = 3, parentId = 2, level = 3, label = "1.1.1")
+                        )
+                    ),
+                    Category(id = 4, parentId = 1, level = 2, label = "1.2")
+                )
+            ),
+            Category(
+                id = 5, level = 1, label = "2", children = listOf(
+                    Category(id = 6, parentId = 5, level = 2, label = "2.1")
+                )
+            )
+        )
+    )
+
+    @Test
+    fun shouldFlattenOnlyExpandedNodes() {
+        val rows = flattenTree(
+            tree,
+            ExpansionMode.DefaultCollapsed(mutableStateListOf(1L)),
+            ChoiceMode.NoChoice
+        )
+        assertThat(rows.map { it.category.label }).containsExactly("1", "1.1", "1.2", "2").inOrder()
+        //divider only before the next top level category
+        assertThat(rows.map { it.showDivider }).containsExactly(false, false, true, false).inOrder()
+    }
+
+    @Test
+    fun shouldSkipExcludedSubTreeAndIncludeRoot() {
+        val rows = flattenTree(
+            tree,
+            ExpansionMode.DefaultExpanded(mutableStateListOf()),
+            ChoiceMode.NoChoice,
+            excludedSubTree = 2,
+            withRoot = true
+        )
+        assertThat(rows.map { it.category.label }).containsExactly("ROOT", "1", "1.2", "2", "2.1").inOrder()
+    }
+
+    @Test
+    fun shouldMarkSelectedTree() {
+        val selected = tree.children[0]
+        val rows = flattenTree(
+            tree,
+            ExpansionMode.DefaultExpanded(mutableStateListOf()),
+            ChoiceMode.MultiChoiceMode(mutableStateListOf(selected), true)
+        )
+        assertThat(rows.filter { it.isInSelectedTree }.map { it.category.label })
+            .containsExactly("1", "1.1", "1.1.1", "1.2")
+        //toggling a descendant toggles the selected ancestor instead
+        assertThat(rows.first { it.category.id == 3L }.selectedAncestor).isSameInstanceAs(selected)
+        assertThat(rows.first { it.category.id == 6L }.selectedAncestor).isNull()
+    }
+
+    @Test
+    fun shouldShareUnchangedSubtrees() {
+        val previous = tree.sharingWith(null)
+        val edited = tree.copy(children = listOf(
+            tree.children[0].copy(children = listOf(
+                tree.children[0].children[0].copy(),
+                tree.children[0].children[1].copy(label = "1.2 edited")
+            )),
+            tree.children[1].copy()
+        ))
+        val shared = edited.sharingWith(previous)
+        assertThat(shared).isEqualTo(edited)
+        assertThat(shared).isNotSameInstanceAs(previous)
+        assertThat(shared.children[0]).isNotSameInstanceAs(previous.children[0])
+        assertThat(shared.children[0].children[0]).isSameInstanceAs(previous.children[0].children[0])
+        assertThat(shared.children[1]).isSameInstanceAs(previous.children[1])
+        assertThat(tree.copy().sharingWith(previous)).isSameInstanceAs(previous)
+    }
+}
@@ -0,0 +1,93 @@
+package org.totschnig.myexpenses.db2
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.BaseTestWithRepository
+import org.totschnig.myexpenses.model.CurrencyUnit
+import org.totschnig.myexpenses.model.Money
+import org.totschnig.myexpenses.model.Transaction
+import org.totschnig.myexpenses.model2.Account
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
+import org.totschnig.myexpenses.provider.TransactionProvider
+import java.util.Currency
+
+@RunWith(RobolectricTestRunner::class)
+class RepositoryAttributesTest : BaseTestWithRepository() {
+
+    private var accountId: Long = 0
+    private val currency = CurrencyUnit(Currency.getInstance("EUR"))
+
+    @Before
+    fun setupAccount() {
+        accountId = repository.createAccount(Account(label = "Giro", currency = "EUR")).id
+    }
+
+    /**
+     * Emits synthetic bank statement lines as they are produced by the FinTS converter
+     */
+    private fun statement(days: IntRange) = days.map { day ->
+        Transaction(accountId, Money(currency, -100L * day)).apply {
+            date = 1_700_000_000L + day * 86_400L
+            comment = "Line $day"
+        } to mapOf(
+            FinTsAttribute.CHECKSUM to "checksum-$day",
+            FinTsAttribute.EREF to "ref-$day"
+        )
+    }
+
+    private fun count() = repository.count(
+        TransactionProvider.TRANSACTIONS_URI,
+        "$KEY_ACCOUNTID = ?",
+        arrayOf(accountId.toString())
+    )
+
+    @Test
+    fun bulkInsertStoresTransactionsWithAttributes() {
+        assertThat(repository.saveTransactionsWithAttributes(statement(1..50))).isEqualTo(50)
+        assertThat(count()).isEqualTo(50)
+        val found = repository.findTransactionsByAttribute(
+            FinTsAttribute.CHECKSUM,
+            listOf("checksum-7", "checksum-unknown")
+        )
+        assertThat(found).containsExactly(
+            "checksum-7", listOf(-700L to 1_700_000_000L + 7 * 86_400L)
+        )
+    }
+
+    @Test
+    fun overlappingStatementsAreImportedOnce() {
+        assertThat(
+            repository.saveNewTransactionsWithAttributes(statement(1..365), FinTsAttribute.CHECKSUM)
+        ).isEqualTo(365)
+        assertThat(
+            repository.saveNewTransactionsWithAttributes(statement(300..400), FinTsAttribute.CHECKSUM)
+        ).isEqualTo(35)
+        assertThat(count()).isEqualTo(400)
+    }
+
+    @Test
+    fun sameChecksumWithDifferentAmountIsNotDuplicate() {
+        repository.saveTransactionsWithAttributes(statement(1..1))
+        val (transaction, attributes) = statement(1..1).first()
+        transaction.amount = Money(currency, 5000L)
+        assertThat(
+            repository.saveNewTransactionsWithAttributes(
+                listOf(transaction to attributes),
+                FinTsAttribute.CHECKSUM
+            )
+        ).isEqualTo(1)
+    }
+
+    @Test
+    fun duplicatesWithinOneStatementAreSkipped() {
+        assertThat(
+            repository.saveNewTransactionsWithAttributes(
+                statement(1..10) + statement(5..5),
+                FinTsAttribute.CHECKSUM
+            )
+        ).isEqualTo(10)
+    }
+}
@@ -0,0 +1,178 @@
+package org.totschnig.myexpenses.db2
+
+import android.os.Bundle
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.BaseTestWithRepository
+import org.totschnig.myexpenses.contract.TransactionsContract.BulkInsert
+import org.totschnig.myexpenses.contract.TransactionsContract.Transactions
+import org.totschnig.myexpenses.model2.Account
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CATID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COMMENT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSFER_PEER
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS
+import org.totschnig.myexpenses.provider.QueryMetrics
+import org.totschnig.myexpenses.provider.TransactionProvider
+
+@RunWith(RobolectricTestRunner::class)
+class RepositoryBulkInsertTest : BaseTestWithRepository() {
+
+    private var cashId = 0L
+    private var savingsId = 0L
+
+    @Before
+    fun setup() {
+        cashId = repository.createAccount(Account(label = "Cash", currency = "EUR")).id
+        savingsId = repository.createAccount(Account(label = "Savings", currency = "EUR")).id
+        repository.createAccount(Account(label = "Dollars", currency = "USD"))
+    }
+
+    private fun transaction(
+        amountMicros: Long?,
+        accountLabel: String = "Cash",
+        block: Bundle.() -> Unit = {}
+    ) = Bundle().apply {
+        amountMicros?.let { putLong(Transactions.AMOUNT_MICROS, it) }
+        putString(Transactions.ACCOUNT_LABEL, accountLabel)
+        block()
+    }
+
+    private fun transfer(amountMicros: Long, accountLabel: String, transferAccountLabel: String) =
+        transaction(amountMicros, accountLabel) {
+            putInt(Transactions.OPERATION_TYPE, Transactions.TYPE_TRANSFER)
+            putString(Transactions.TRANSFER_ACCOUNT_LABEL, transferAccountLabel)
+        }
+
+    private fun countTransactions() = repository.count(TransactionProvider.TRANSACTIONS_URI)
+
+    private val provider: TransactionProvider
+        get() = contentResolver.acquireContentProviderClient(TransactionProvider.AUTHORITY)!!
+            .localContentProvider as TransactionProvider
+
+    @Test
+    fun insertsAllTransactions() {
+        val result = repository.bulkInsertTransactions(
+            listOf(
+                transaction(-12_340_000) {
+                    putString(Transactions.CATEGORY_LABEL, "Food:Groceries")
+                },
+                transaction(-5_000_000) {
+                    putString(Transactions.CATEGORY_LABEL, "Food:Groceries")
+                },
+                transfer(-100_000_000, "Cash", "Savings")
+            )
+        )
+        assertThat(result.getStringArray(BulkInsert.RESULT_ERRORS)).asList().containsExactly(null, null, null)
+        val ids = result.getLongArray(BulkInsert.RESULT_IDS)!!
+        assertThat(ids.toList()).doesNotContain(-1L)
+        //the transfer is stored with its peer
+        assertThat(countTransactions()).isEqualTo(4)
+        val groceries = repository.findCategory("Groceries", repository.findCategory("Food"))
+        assertThat(
+            repository.count(
+                TransactionProvider.TRANSACTIONS_URI,
+                "$KEY_ROWID IN (${ids[0]}, ${ids[1]}) AND $KEY_CATID = $groceries AND $KEY_ACCOUNTID = $cashId"
+            )
+        ).isEqualTo(2)
+        assertThat(
+            repository.count(
+                TransactionProvider.TRANSACTIONS_URI,
+                "$KEY_TRANSFER_PEER = ${ids[2]} AND $KEY_ACCOUNTID = $savingsId AND $KEY_AMOUNT = 10000"
+            )
+        ).isEqualTo(1)
+    }
+
+    @Test
+    fun categoriesAreNotCreatedIfBatchFails() {
+        provider.openHelperForTest.writableDatabase.execSQL(
+            "CREATE TEMP TRIGGER fail_insert BEFORE INSERT ON $TABLE_TRANSACTIONS WHEN new.$KEY_COMMENT = 'Fail' BEGIN SELECT RAISE(ABORT, 'Fail'); END"
+        )
+        val result = repository.bulkInsertTransactions(
+            listOf(
+                transaction(-1_000_000) {
+                    putString(Transactions.CATEGORY_LABEL, "Travel:Train")
+                },
+                transaction(-1_000_000) {
+                    putString(Transactions.COMMENT, "Fail")
+                }
+            )
+        )
+        assertThat(result.getStringArray(BulkInsert.RESULT_ERRORS)).asList()
+            .containsExactly(BulkInsert.ERROR_NOT_INSERTED, BulkInsert.ERROR_NOT_INSERTED)
+        assertThat(countTransactions()).isEqualTo(0)
+        assertThat(repository.findCategory("Travel")).isEqualTo(-1L)
+    }
+
+    @Test
+    fun newCategoriesAreCreatedBelowExistingOnes() {
+        val food = writeCategory("Food")
+        val result = repository.bulkInsertTransactions(
+            listOf(
+                transaction(-1_000_000) {
+                    putString(Transactions.CATEGORY_LABEL, "Food:Groceries")
+                },
+                transaction(-1_000_000) {
+                    putString(Transactions.CATEGORY_LABEL, "Food")
+                },
+                transaction(-1_000_000) {
+                    putString(Transactions.CATEGORY_LABEL, "Travel")
+                }
+            )
+        )
+        val ids = result.getLongArray(BulkInsert.RESULT_IDS)!!
+        val groceries = repository.findCategory("Groceries", food)
+        val travel = repository.findCategory("Travel")
+        assertThat(groceries).isNotEqualTo(-1L)
+        assertThat(travel).isNotEqualTo(-1L)
+        listOf(groceries, food, travel).forEachIndexed { index, catId ->
+            assertThat(
+                repository.count(TransactionProvider.TRANSACTIONS_URI, "$KEY_ROWID = ${ids[index]} AND $KEY_CATID = $catId")
+            ).isEqualTo(1)
+        }
+    }
+
+    @Test
+    fun accountsAreLookedUpOnce() {
+        provider.queryMetrics.reset()
+        repository.bulkInsertTransactions(List(5) { transaction(-1_000_000) })
+        assertThat(countTransactions()).isEqualTo(5)
+        //one lookup by label, and loading the account
+        assertThat(
+            provider.queryMetrics.histogramSnapshot
+                .filterKeys { it.operation == QueryMetrics.Operation.QUERY && it.target.startsWith("accounts") }
+                .values.sumOf { it.count }
+        ).isEqualTo(2)
+    }
+
+    @Test
+    fun insertsNothingIfOneTransactionIsInvalid() {
+        val result = repository.bulkInsertTransactions(
+            listOf(
+                transaction(-1_000_000),
+                transaction(-1_000_000, "Unknown"),
+                transaction(null),
+                transfer(-1_000_000, "Cash", "Cash"),
+                transfer(-1_000_000, "Cash", "Dollars"),
+                transaction(-1_000_000) {
+                    putInt(Transactions.OPERATION_TYPE, Transactions.TYPE_SPLIT)
+                }
+            )
+        )
+        assertThat(result.getStringArray(BulkInsert.RESULT_ERRORS)).asList().containsExactly(
+            BulkInsert.ERROR_NOT_INSERTED,
+            BulkInsert.ERROR_UNKNOWN_ACCOUNT,
+            BulkInsert.ERROR_MISSING_AMOUNT,
+            BulkInsert.ERROR_INVALID_TRANSFER_ACCOUNT,
+            BulkInsert.ERROR_INVALID_TRANSFER_ACCOUNT,
+            BulkInsert.ERROR_UNSUPPORTED_TYPE
+        ).inOrder()
+        assertThat(result.getLongArray(BulkInsert.RESULT_IDS)!!.toList()).containsExactly(-1L, -1L, -1L, -1L, -1L, -1L)
+        assertThat(countTransactions()).isEqualTo(0)
+    }
+}
@@ -7,8 +7,11 @@ import org.junit.Test
 import org.junit.runner.RunWith
 import org.totschnig.myexpenses.BaseTestWithRepository
 import org.totschnig.myexpenses.db2.Repository.Companion.UUID_SEPARATOR
+import org.totschnig.myexpenses.model2.Account
 import org.totschnig.myexpenses.model2.Category
 import org.totschnig.myexpenses.model2.CategoryInfo
+import org.totschnig.myexpenses.model2.Transaction
+import java.time.LocalDate
 
 @RunWith(AndroidJUnit4::class)
 class RepositoryTest : BaseTestWithRepository() {
@@ -203,4 +206,22 @@ class RepositoryTest : BaseTestWithRepository() {
             assertThat(uuid!!.split(UUID_SEPARATOR)).containsExactly("uuid1", "uuid2")
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    fun createAndUpdateTransactionsWithTags() {
+        val accountId = repository.createAccount(Account(label = "Test", currency = "EUR")).id
+        val tag1 = repository.writeTag("Tag1")
+        val tag2 = repository.writeTag("Tag2")
+        val transaction = Transaction(
+            id = null, account = accountId, amount = -10f, amountFormatted = "",
+            date = LocalDate.now(), time = null, dateFormatted = "", valueDate = LocalDate.now(),
+            party = 0, category = null, tags = listOf(tag1, tag2), comment = "", method = 0,
+            number = "", displayHtml = "", transferPeer = null
+        )
+        val id = repository.createTransactions(listOf(transaction)).single()
+        assertThat(repository.loadTagsForTransaction(id).map { it.id })
+            .containsExactly(tag1, tag2)
+        repository.updateTransaction(id.toString(), transaction.copy(tags = listOf(tag2)))
+        assertThat(repository.loadTagsForTransaction(id).map { it.id }).containsExactly(tag2)
+    }
+}
@@ -0,0 +1,100 @@
+package org.totschnig.myexpenses.db2
+
+import android.net.Uri
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mockito
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.BaseTestWithRepository
+import org.totschnig.myexpenses.model.CurrencyUnit
+import org.totschnig.myexpenses.model.Money
+import org.totschnig.myexpenses.model.SplitTransaction
+import org.totschnig.myexpenses.model.Transaction
+import org.totschnig.myexpenses.model2.Account
+import org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_NONE
+import org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_UNCOMMITTED
+import org.totschnig.myexpenses.provider.QueryMetrics
+import org.totschnig.myexpenses.provider.TransactionProvider
+
+@RunWith(RobolectricTestRunner::class)
+class RepositoryTransactionDetailTest : BaseTestWithRepository() {
+
+    private val currency = CurrencyUnit.DebugInstance
+    private var splitId = 0L
+    private lateinit var parts: List<Long>
+
+    private val provider: TransactionProvider
+        get() = contentResolver.acquireContentProviderClient(TransactionProvider.AUTHORITY)!!
+            .localContentProvider as TransactionProvider
+
+    @Before
+    fun setup() {
+        Mockito.`when`(repository.homeCurrencyProvider.homeCurrencyString).thenReturn(currency.code)
+        Mockito.`when`(repository.homeCurrencyProvider.homeCurrencyUnit).thenReturn(currency)
+        val accountId = repository.createAccount(Account(label = "Account", currency = currency.code)).id
+        val food = writeCategory("Food")
+        val tagIds = List(3) { repository.writeTag("Tag $it") }
+        val split = SplitTransaction.getNewInstance(contentResolver, accountId, currency)!!
+        split.amount = Money(currency, -100L * PARTS)
+        parts = List(PARTS) { index ->
+            Transaction.getNewInstance(accountId, currency, split.id)!!.apply {
+                amount = Money(currency, -100L)
+                catId = food
+                comment = "Part $index"
+                status = STATUS_UNCOMMITTED
+                saveAsNew(contentResolver)
+            }.id
+        }
+        split.status = STATUS_NONE
+        split.save(contentResolver, true)
+        splitId = split.id
+        contentResolver.saveTagsForTransaction(tagIds.toLongArray(), splitId)
+        parts.forEachIndexed { index, id ->
+            contentResolver.saveTagsForTransaction(longArrayOf(tagIds[index % tagIds.size]), id)
+        }
+        repository.addAttachments(splitId, listOf(Uri.parse("file:///receipt.jpg")))
+        repository.addAttachments(parts[1], listOf(Uri.parse("file:///part.jpg")))
+        repository.saveTransactionAttributes(splitId, mapOf(FinTsAttribute.EREF to "ref"))
+        repository.saveTransactionAttributes(parts[2], mapOf(FinTsAttribute.CHECKSUM to "checksum"))
+    }
+
+    @Test
+    fun loadsSplitWithPartsAndRelatedEntities() {
+        val details = repository.loadTransactionDetails(splitId)!!
+        assertThat(details.map { it.transaction.id }).containsExactlyElementsIn(listOf(splitId) + parts)
+        assertThat(details.first().transaction.id).isEqualTo(splitId)
+        val byId = details.associateBy { it.transaction.id }
+        assertThat(byId.getValue(splitId).tags.map { it.label })
+            .containsExactly("Tag 0", "Tag 1", "Tag 2")
+        assertThat(byId.getValue(splitId).attachments).containsExactly(Uri.parse("file:///receipt.jpg"))
+        assertThat(byId.getValue(splitId).attributes).containsExactly(FinTsAttribute.EREF to "ref")
+        assertThat(byId.getValue(parts[4]).tags.map { it.label }).containsExactly("Tag 1")
+        assertThat(byId.getValue(parts[1]).attachments).containsExactly(Uri.parse("file:///part.jpg"))
+        assertThat(byId.getValue(parts[2]).attributes)
+            .containsExactly(FinTsAttribute.CHECKSUM to "checksum")
+        assertThat(byId.getValue(parts[3]).attachments).isEmpty()
+        assertThat(byId.getValue(parts[3]).transaction.categoryPath).isEqualTo("Food")
+    }
+
+    @Test
+    fun numberOfQueriesDoesNotDependOnNumberOfParts() {
+        provider.queryMetrics.reset()
+        repository.loadTransactionDetails(splitId)
+        assertThat(
+            provider.queryMetrics.histogramSnapshot
+                .filterKeys { it.operation == QueryMetrics.Operation.QUERY }
+                .values.sumOf { it.count }
+        ).isEqualTo(4)
+    }
+
+    @Test
+    fun unknownTransactionYieldsNull() {
+        assertThat(repository.loadTransactionDetails(splitId + 1000)).isNull()
+    }
+
+    companion object {
+        const val PARTS = 50
+    }
+}
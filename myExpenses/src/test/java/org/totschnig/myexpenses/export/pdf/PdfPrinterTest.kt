@@ -0,0 +1,87 @@
+package org.totschnig.myexpenses.export.pdf
+
+import android.content.ContentProviderOperation
+import androidx.documentfile.provider.DocumentFile
+import androidx.test.core.app.ApplicationProvider
+import com.itextpdf.text.pdf.PdfReader
+import com.itextpdf.text.pdf.parser.PdfTextExtractor
+import com.google.common.truth.Truth.assertThat
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.BaseTestWithRepository
+import org.totschnig.myexpenses.db2.createAccount
+import org.totschnig.myexpenses.model.CurrencyUnit
+import org.totschnig.myexpenses.model.Money
+import org.totschnig.myexpenses.model.SplitTransaction
+import org.totschnig.myexpenses.model.Transaction
+import org.totschnig.myexpenses.model2.Account
+import org.totschnig.myexpenses.provider.TransactionProvider
+import org.totschnig.myexpenses.provider.filter.WhereFilter
+import java.util.Currency
+
+@RunWith(RobolectricTestRunner::class)
+class PdfPrinterTest : BaseTestWithRepository() {
+
+    @get:Rule
+    val tempFolder = TemporaryFolder()
+
+    private val currency = CurrencyUnit(Currency.getInstance("EUR"))
+
+    /**
+     * inserts [count] transactions, every 20th of them a split with two parts
+     */
+    private fun insertTransactions(accountId: Long, count: Int) {
+        val categoryId = writeCategory("Food")
+        val start = System.currentTimeMillis() / 1000 - count * 3600L
+        (0 until count).chunked(1000).forEach { chunk ->
+            val ops = ArrayList<ContentProviderOperation>()
+            chunk.forEach { index ->
+                val amount = Money(currency, -100L - index)
+                val offset = ops.size
+                if (index % 20 == 0) {
+                    val parent = SplitTransaction(accountId, amount)
+                    parent.setDate(start + index * 3600L)
+                    ops.addAll(parent.buildSaveOperations(contentResolver, offset, -1, false, false))
+                    listOf(-50L, amount.amountMinor + 50L).forEach {
+                        val part = Transaction(accountId, Money(currency, it))
+                        part.catId = categoryId
+                        part.comment = "Part of split $index"
+                        ops.addAll(part.buildSaveOperations(contentResolver, ops.size, offset, false, false))
+                    }
+                } else {
+                    val transaction = Transaction(accountId, amount)
+                    transaction.setDate(start + index * 3600L)
+                    transaction.catId = categoryId
+                    transaction.comment = "Transaction $index"
+                    ops.addAll(transaction.buildSaveOperations(contentResolver, offset, -1, false, false))
+                }
+            }
+            contentResolver.applyBatch(TransactionProvider.AUTHORITY, ops)
+        }
+    }
+
+    @Test
+    fun printsPartsOfAllSplitTransactions() {
+        val accountId = repository.createAccount(Account(label = "Large", currency = "EUR")).id
+        //spans several windows of the split parts prefetcher and chunks of table rows
+        insertTransactions(accountId, 1200)
+        val destDir = tempFolder.newFolder()
+        val result = PdfPrinter(accountId, DocumentFile.fromFile(destDir), WhereFilter.empty(), 0L)
+            .print(ApplicationProvider.getApplicationContext())
+        assertThat(result.isSuccess).isTrue()
+        val reader = PdfReader(destDir.listFiles()!!.single().path)
+        val pages = reader.numberOfPages
+        val text = try {
+            (1..pages).joinToString(" ") { PdfTextExtractor.getTextFromPage(reader, it) }
+        } finally {
+            reader.close()
+        }.replace(Regex("\\s+"), " ")
+        assertThat(pages).isGreaterThan(1)
+        (0 until 1200 step 20).forEach {
+            assertThat(text).contains("(Part of split $it)")
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package org.totschnig.myexpenses.export.qif
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.totschnig.myexpenses.io.ImportTransaction
+import org.totschnig.myexpenses.model.CurrencyUnit.Companion.DebugInstance
+import java.io.BufferedReader
+import java.io.ByteArrayInputStream
+import java.io.InputStreamReader
+import java.nio.charset.StandardCharsets
+
+class QifTransferIndexTest {
+
+    private fun reader(fileContent: String) = QifBufferedReader(
+        BufferedReader(
+            InputStreamReader(
+                ByteArrayInputStream(fileContent.toByteArray()),
+                StandardCharsets.UTF_8
+            )
+        )
+    )
+
+    /**
+     * parses [fileContent] once into memory, and once in two streaming passes, and verifies that
+     * both result in the same transactions per account
+     */
+    private fun assertStreamingEqualsInMemory(fileContent: String) {
+        val inMemory = QifParser(reader(fileContent), QifDateFormat.EU, DebugInstance).apply { parse() }
+        val expected = QifUtils.reduceTransfers(inMemory.accounts).map { it.transactions }
+
+        val transferIndex = QifTransferIndex()
+        val firstPass = QifParser(reader(fileContent), QifDateFormat.EU, DebugInstance, transferIndex::add)
+            .apply { parse() }
+        assertThat(firstPass.accounts.map { it.copy(transactions = emptyList()) })
+            .isEqualTo(inMemory.accounts.map { it.copy(transactions = emptyList()) })
+        assertThat(firstPass.categories).isEqualTo(inMemory.categories)
+        assertThat(firstPass.payees).isEqualTo(inMemory.payees)
+        val streamed = List(firstPass.accounts.size) { mutableListOf<ImportTransaction>() }
+        QifParser(reader(fileContent), QifDateFormat.EU, DebugInstance) { accountIndex, transaction ->
+            transferIndex.resolve(firstPass.accounts, accountIndex, transaction)?.let {
+                streamed[accountIndex].add(it)
+            }
+        }.parse()
+        assertThat(streamed).isEqualTo(expected)
+    }
+
+    @Test
+    fun multipleAccounts() {
+        assertStreamingEqualsInMemory(
+            """
+                !Account
+                NMy Cash Account
+                TCash
+                ^
+                !Type:Cash
+                D08/02/2011
+                T10.00
+                PShop
+                LFood
+                ^
+                D07/02/2011
+                T-23.45
+                ^
+                !Account
+                NMy Bank Account
+                TBank
+                ^
+                !Type:Bank
+                D08/02/2011
+                T-20.00
+                ^
+
+                """.trimIndent()
+        )
+    }
+
+    @Test
+    fun transfers() {
+        assertStreamingEqualsInMemory(
+            """
+                !Account
+                NMy Cash Account
+                TCash
+                ^
+                !Type:Cash
+                D08/02/2011
+                T20.00
+                L[My Bank Account]
+                ^
+                D09/02/2011
+                T-5.00
+                L[Unknown Account]
+                ^
+                D10/02/2011
+                T-7.00
+                L[My Bank Account]
+                ^
+                !Account
+                NMy Bank Account
+                TBank
+                ^
+                !Type:Bank
+                D08/02/2011
+                T-20.00
+                L[My Cash Account]/Vacation
+                ^
+
+                """.trimIndent()
+        )
+    }
+
+    @Test
+    fun transferSplits() {
+        assertStreamingEqualsInMemory(
+            """
+                !Account
+                NMy Cash Account
+                TCash
+                ^
+                !Type:Cash
+                D12/07/2011
+                T-2,100.00
+                SA:A1
+                $-1,100.00
+                ENote on first split
+                S[My Bank Account]
+                $-1,000.00
+                ^
+                !Account
+                NMy Bank Account
+                TBank
+                ^
+                !Type:Bank
+                D12/07/2011
+                T1000.00
+                L[My Cash Account]
+                ^
+                D13/07/2011
+                T-50.00
+                S[My Cash Account]
+                $-50.00
+                ^
+
+                """.trimIndent()
+        )
+    }
+
+    @Test
+    fun accountWithOpeningBalance() {
+        assertStreamingEqualsInMemory(
+            """
+                !Type:Bank
+                D12/03/95
+                T4,706.57
+                CX
+                POpening Balance
+                L[Checking]
+                ^
+                D13/03/95
+                T-50.00
+                L[Savings]
+                ^
+                !Account
+                NSavings
+                TBank
+                ^
+                !Type:Bank
+                D13/03/95
+                T50.00
+                L[Checking]
+                ^
+
+                """.trimIndent()
+        )
+    }
+}
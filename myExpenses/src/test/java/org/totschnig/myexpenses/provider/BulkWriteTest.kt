@@ -0,0 +1,218 @@
+package org.totschnig.myexpenses.provider
+
+import android.content.ContentProviderOperation
+import android.content.ContentValues
+import android.database.sqlite.SQLiteConstraintException
+import androidx.sqlite.db.SupportSQLiteDatabase
+import com.google.common.truth.Truth.assertThat
+import org.junit.Assert.assertThrows
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.BaseTestWithRepository
+import org.totschnig.myexpenses.db2.createAccount
+import org.totschnig.myexpenses.db2.createParty
+import org.totschnig.myexpenses.db2.markAsExported
+import org.totschnig.myexpenses.db2.writeTag
+import org.totschnig.myexpenses.model.CurrencyUnit
+import org.totschnig.myexpenses.model.Money
+import org.totschnig.myexpenses.model.Transaction
+import org.totschnig.myexpenses.model2.Account
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CATID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COMMENT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CR_STATUS
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DEBT_ID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_EQUIVALENT_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_METHODID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ORIGINAL_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ORIGINAL_CURRENCY
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PARENT_UUID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PAYEEID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_REFERENCE_NUMBER
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SEALED
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_STATUS
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SYNC_ACCOUNT_NAME
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SYNC_SEQUENCE_LOCAL
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TAGID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSACTIONID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSFER_ACCOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TYPE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_UUID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_VALUE_DATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_EXPORTED
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_ACCOUNTS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_CHANGES
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_DEBTS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS
+import org.totschnig.myexpenses.viewmodel.data.Debt
+import java.time.LocalDate
+import java.util.Currency
+
+@RunWith(RobolectricTestRunner::class)
+class BulkWriteTest : BaseTestWithRepository() {
+
+    private val currency = CurrencyUnit(Currency.getInstance("EUR"))
+    private var accountId = 0L
+    private var otherAccountId = 0L
+    private lateinit var transactions: List<Long>
+
+    private val db: SupportSQLiteDatabase
+        get() = (contentResolver.acquireContentProviderClient(TransactionProvider.AUTHORITY)!!
+            .localContentProvider as TransactionProvider).openHelperForTest.writableDatabase
+
+    @Before
+    fun setup() {
+        accountId = repository.createAccount(Account(label = "Synced", currency = "EUR")).id
+        otherAccountId = repository.createAccount(Account(label = "Other", currency = "EUR")).id
+        db.execSQL("UPDATE $TABLE_ACCOUNTS SET $KEY_SYNC_ACCOUNT_NAME = 'Sync', $KEY_SYNC_SEQUENCE_LOCAL = 1")
+        val catId = writeCategory("Food")
+        transactions = List(10) {
+            Transaction(accountId, Money(currency, -100L * (it + 1))).apply {
+                comment = "Transaction $it"
+                this.catId = catId
+                save(contentResolver)
+            }.id
+        }
+        db.delete(TABLE_CHANGES, null, null)
+    }
+
+    private fun update(id: Long, column: String, value: Any?) =
+        ContentProviderOperation.newUpdate(TransactionProvider.TRANSACTIONS_URI)
+            .withValues(ContentValues(1).apply {
+                when (value) {
+                    null -> putNull(column)
+                    is Long -> put(column, value)
+                    else -> put(column, value.toString())
+                }
+            })
+            .withSelection("$KEY_ROWID = ?", arrayOf(id.toString()))
+            .build()
+
+    private fun scenario(tagId: Long) = listOf(
+        update(transactions[0], KEY_COMMENT, "Edited"),
+        update(transactions[1], KEY_AMOUNT, -999L),
+        update(transactions[2], KEY_CATID, null),
+        update(transactions[3], KEY_ACCOUNTID, otherAccountId),
+        update(transactions[4], KEY_STATUS, STATUS_EXPORTED.toLong()),
+        ContentProviderOperation.newDelete(TransactionProvider.TRANSACTIONS_URI)
+            .withSelection("$KEY_ROWID = ?", arrayOf(transactions[5].toString()))
+            .build(),
+        ContentProviderOperation.newInsert(TransactionProvider.TRANSACTIONS_URI)
+            .withValues(ContentValues().apply {
+                put(KEY_ACCOUNTID, accountId)
+                put(KEY_AMOUNT, 500L)
+                put(KEY_DATE, 1_700_000_000L)
+                put(KEY_VALUE_DATE, 1_700_000_000L)
+                put(KEY_UUID, "bulk-write-test")
+            })
+            .build(),
+        ContentProviderOperation.newInsert(
+            TransactionProvider.TRANSACTIONS_TAGS_URI.buildUpon()
+                .appendBooleanQueryParameter(TransactionProvider.QUERY_PARAMETER_CALLER_IS_SYNCADAPTER)
+                .build()
+        )
+            .withValue(KEY_TRANSACTIONID, transactions[6])
+            .withValue(KEY_TAGID, tagId)
+            .build()
+    )
+
+    private fun beginBulkWrite(ids: List<Long>, vararg allowedOnSealed: String) =
+        TransactionProvider.beginBulkWrite("$KEY_ROWID IN (${ids.joinToString()})", null, *allowedOnSealed)
+
+    private fun readChanges() = db.query(
+        "SELECT ${CHANGE_COLUMNS.joinToString()} FROM $TABLE_CHANGES"
+    ).use { cursor ->
+        buildList {
+            while (cursor.moveToNext()) {
+                add(CHANGE_COLUMNS.indices.joinToString("|") { cursor.getString(it) ?: "NULL" })
+            }
+        }
+    }
+
+    /**
+     * applies [operations] and returns the changes they have logged, then rolls everything back
+     */
+    private fun changesFor(operations: List<ContentProviderOperation>): List<String> {
+        db.beginTransaction()
+        try {
+            contentResolver.applyBatch(TransactionProvider.AUTHORITY, ArrayList(operations))
+            return readChanges()
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    @Test
+    fun bulkWriteLogsSameChangesAsTriggers() {
+        val operations = scenario(repository.writeTag("Tag"))
+        val perRow = changesFor(operations)
+        val bulk = changesFor(
+            listOf(beginBulkWrite(transactions.take(7))) + operations + TransactionProvider.endBulkWrite()
+        )
+        assertThat(perRow.map { it.substringBefore('|') }).containsExactly(
+            "updated", "updated", "updated", "deleted", "created", "deleted", "created", "tags"
+        )
+        assertThat(bulk).containsExactlyElementsIn(perRow)
+        //the marker is removed, so that triggers fire again
+        assertThat(changesFor(listOf(update(transactions[7], KEY_COMMENT, "After")))).hasSize(1)
+    }
+
+    @Test
+    fun sealedAccountAllowsDeclaredColumnsOnly() {
+        db.execSQL("UPDATE $TABLE_ACCOUNTS SET $KEY_SEALED = 1 WHERE $KEY_ROWID = $accountId")
+        assertThrows(SQLiteConstraintException::class.java) {
+            changesFor(listOf(update(transactions[0], KEY_COMMENT, "Edited")))
+        }
+        assertThrows(SQLiteConstraintException::class.java) {
+            changesFor(
+                listOf(
+                    beginBulkWrite(listOf(transactions[0]), KEY_STATUS),
+                    update(transactions[0], KEY_COMMENT, "Edited"),
+                    TransactionProvider.endBulkWrite()
+                )
+            )
+        }
+        changesFor(
+            listOf(
+                beginBulkWrite(listOf(transactions[0]), KEY_COMMENT),
+                update(transactions[0], KEY_COMMENT, "Edited"),
+                TransactionProvider.endBulkWrite()
+            )
+        )
+    }
+
+    @Test
+    fun markAsExportedInSealedDebt() {
+        val payeeId = repository.createParty("Friend").id
+        repository.saveDebt(Debt(0, "Loan", "", payeeId, 10000L, currency, LocalDate.now(), null))
+        val debtId = db.query("SELECT max($KEY_ROWID) FROM $TABLE_DEBTS").use {
+            it.moveToFirst()
+            it.getLong(0)
+        }
+        db.execSQL("UPDATE $TABLE_TRANSACTIONS SET $KEY_DEBT_ID = $debtId")
+        db.execSQL("UPDATE $TABLE_DEBTS SET $KEY_SEALED = 1")
+        repository.markAsExported(accountId, null)
+        db.query("SELECT count(*) FROM $TABLE_TRANSACTIONS WHERE $KEY_STATUS != $STATUS_EXPORTED").use {
+            it.moveToFirst()
+            assertThat(it.getInt(0)).isEqualTo(0)
+        }
+        db.query("SELECT count(*) FROM $TABLE_DEBTS WHERE $KEY_SEALED = 1").use {
+            it.moveToFirst()
+            assertThat(it.getInt(0)).isEqualTo(1)
+        }
+    }
+
+    companion object {
+        val CHANGE_COLUMNS = listOf(
+            KEY_TYPE, KEY_ACCOUNTID, KEY_SYNC_SEQUENCE_LOCAL, KEY_UUID, KEY_PARENT_UUID, KEY_COMMENT,
+            KEY_DATE, KEY_VALUE_DATE, KEY_AMOUNT, KEY_ORIGINAL_AMOUNT, KEY_ORIGINAL_CURRENCY,
+            KEY_EQUIVALENT_AMOUNT, KEY_CATID, KEY_PAYEEID, KEY_TRANSFER_ACCOUNT, KEY_METHODID,
+            KEY_CR_STATUS, KEY_REFERENCE_NUMBER
+        )
+    }
+}
@@ -0,0 +1,257 @@
+package org.totschnig.myexpenses.provider
+
+import android.content.ContentUris
+import android.content.ContentValues
+import androidx.sqlite.db.SupportSQLiteDatabase
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.BaseTestWithRepository
+import org.totschnig.myexpenses.db2.FLAG_NEUTRAL
+import org.totschnig.myexpenses.db2.checkDailyCategorySums
+import org.totschnig.myexpenses.db2.createAccount
+import org.totschnig.myexpenses.db2.saveBudgetRollover
+import org.totschnig.myexpenses.model.CrStatus
+import org.totschnig.myexpenses.model.CurrencyUnit
+import org.totschnig.myexpenses.model.Grouping
+import org.totschnig.myexpenses.model.Money
+import org.totschnig.myexpenses.model.SplitTransaction
+import org.totschnig.myexpenses.model.Transaction
+import org.totschnig.myexpenses.model.Transfer
+import org.totschnig.myexpenses.model2.Account
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_BUDGET
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_BUDGETID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_BUDGET_ROLLOVER_NEXT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_BUDGET_ROLLOVER_PREVIOUS
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CATID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CR_STATUS
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DATE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_NEGATIVE_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SECOND_GROUP
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SUM
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SUM_EXPENSES
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SUM_INCOME
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TYPE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_YEAR
+import org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_NONE
+import org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_UNCOMMITTED
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_BUDGET_ALLOCATIONS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_DAILY_CATEGORY_SUMS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TREE_CATEGORIES
+import org.totschnig.myexpenses.provider.DatabaseConstants.YEAR
+import org.totschnig.myexpenses.viewmodel.DistributionViewModelBase.GroupingInfo
+import org.totschnig.myexpenses.viewmodel.data.Budget
+import org.totschnig.myexpenses.viewmodel.data.Category
+import java.time.LocalDate
+import java.time.ZoneId
+import java.util.TimeZone
+
+@RunWith(RobolectricTestRunner::class)
+class DailyCategorySumsTest : BaseTestWithRepository() {
+
+    private val currency = CurrencyUnit.DebugInstance
+    private var accountId = 0L
+    private var otherAccountId = 0L
+    private var food = 0L
+    private var neutral = 0L
+    private val day: LocalDate = LocalDate.of(2024, 3, 10)
+
+    private val db: SupportSQLiteDatabase
+        get() = (contentResolver.acquireContentProviderClient(TransactionProvider.AUTHORITY)!!
+            .localContentProvider as TransactionProvider).openHelperForTest.writableDatabase
+
+    private fun rows(sql: String) = db.query(sql).use { cursor ->
+        buildList {
+            while (cursor.moveToNext()) {
+                add((0 until cursor.columnCount).joinToString("|") { cursor.getString(it) ?: "NULL" })
+            }
+        }
+    }
+
+    private fun stored() =
+        rows("SELECT $KEY_ACCOUNTID, $KEY_CATID, $KEY_DATE, $KEY_AMOUNT, $KEY_NEGATIVE_AMOUNT FROM $TABLE_DAILY_CATEGORY_SUMS ORDER BY 1, 2, 3")
+
+    private fun recomputed() =
+        rows("SELECT * FROM (${dailyCategorySumsSelect()}) ORDER BY 1, 2, 3")
+
+    private fun Transaction.dated(date: LocalDate, hour: Int = 12) = apply {
+        val epoch = date.atStartOfDay(ZoneId.systemDefault()).toEpochSecond() + hour * 3600
+        setDate(epoch)
+        setValueDate(epoch)
+    }
+
+    private fun insert(amount: Long, catId: Long?, date: LocalDate = day, hour: Int = 12) =
+        Transaction(accountId, Money(currency, amount)).apply {
+            this.catId = catId
+            dated(date, hour)
+            save(contentResolver)
+        }.id
+
+    private fun update(transactionId: Long, values: ContentValues) {
+        contentResolver.update(
+            ContentUris.withAppendedId(TransactionProvider.TRANSACTIONS_URI, transactionId),
+            values, null, null
+        )
+    }
+
+    @Before
+    fun setup() {
+        accountId = repository.createAccount(Account(label = "Account", currency = currency.code)).id
+        otherAccountId = repository.createAccount(Account(label = "Other", currency = currency.code)).id
+        food = writeCategory("Food")
+        neutral = repository.saveCategory(Category(label = "Neutral", typeFlags = FLAG_NEUTRAL))!!
+        insert(-100L, food)
+        insert(30L, food)
+        insert(-50L, food, day.plusDays(1), 23)
+        insert(-70L, neutral)
+        insert(20L, neutral, day.plusDays(2))
+        insert(-40L, null)
+        Transfer(accountId, Money(currency, -500L), otherAccountId).apply {
+            dated(day)
+            save(contentResolver)
+        }
+        val split = SplitTransaction.getNewInstance(contentResolver, accountId, currency)!!
+        split.amount = Money(currency, -100L)
+        split.dated(day)
+        listOf(food to -60L, neutral to -40L).forEach { (catId, amount) ->
+            Transaction.getNewInstance(accountId, currency, split.id)!!.apply {
+                this.amount = Money(currency, amount)
+                this.catId = catId
+                status = STATUS_UNCOMMITTED
+                dated(day)
+                saveAsNew(contentResolver)
+            }
+        }
+        split.status = STATUS_NONE
+        split.save(contentResolver, true)
+        Transaction(accountId, Money(currency, -1000L)).apply {
+            catId = food
+            crStatus = CrStatus.VOID
+            dated(day)
+            save(contentResolver)
+        }
+    }
+
+    @Test
+    fun sumsFollowTransactions() {
+        assertThat(stored()).isEqualTo(recomputed())
+        val id = insert(-10L, food)
+        assertThat(stored()).isEqualTo(recomputed())
+        update(id, ContentValues().apply { put(KEY_AMOUNT, 15L) })
+        assertThat(stored()).isEqualTo(recomputed())
+        update(id, ContentValues().apply { put(KEY_CATID, neutral) })
+        assertThat(stored()).isEqualTo(recomputed())
+        update(id, ContentValues().apply { put(KEY_DATE, day.plusDays(5).atStartOfDay(ZoneId.systemDefault()).toEpochSecond()) })
+        assertThat(stored()).isEqualTo(recomputed())
+        update(id, ContentValues().apply { put(KEY_CR_STATUS, CrStatus.VOID.name) })
+        assertThat(stored()).isEqualTo(recomputed())
+        repository.deleteTransaction(id)
+        assertThat(stored()).isEqualTo(recomputed())
+    }
+
+    @Test
+    fun sumsAreRebuiltAfterZoneChange() {
+        repository.checkDailyCategorySums()
+        assertThat(repository.checkDailyCategorySums()).isFalse()
+        val zone = TimeZone.getDefault()
+        try {
+            TimeZone.setDefault(TimeZone.getTimeZone(if (zone.id == "Pacific/Kiritimati") "Pacific/Pago_Pago" else "Pacific/Kiritimati"))
+            db.execSQL("DELETE FROM $TABLE_DAILY_CATEGORY_SUMS WHERE $KEY_CATID = $food")
+            assertThat(repository.checkDailyCategorySums()).isTrue()
+            assertThat(stored()).isEqualTo(recomputed())
+            assertThat(repository.checkDailyCategorySums()).isFalse()
+        } finally {
+            TimeZone.setDefault(zone)
+        }
+    }
+
+    private fun sumsUri(dailySums: Boolean, aggregateNeutral: Boolean) =
+        TransactionProvider.TRANSACTIONS_SUM_URI.buildUpon()
+            .appendQueryParameter(KEY_ACCOUNTID, accountId.toString())
+            .appendQueryParameter(TransactionProvider.QUERY_PARAMETER_AGGREGATE_NEUTRAL, aggregateNeutral.toString())
+            .apply { if (dailySums) appendBooleanQueryParameter(TransactionProvider.QUERY_PARAMETER_DAILY_SUMS) }
+            .build()
+
+    private fun sums(dailySums: Boolean, aggregateNeutral: Boolean, projection: Array<String>) =
+        contentResolver.query(sumsUri(dailySums, aggregateNeutral), projection, "$YEAR = 2024", null, null)!!
+            .use { cursor ->
+                cursor.moveToFirst()
+                projection.map { cursor.getLong(cursor.getColumnIndexOrThrow(it)) }
+            }
+
+    private fun categorySums(dailySums: Boolean, aggregateNeutral: Boolean) = contentResolver.query(
+        BaseTransactionProvider.CATEGORY_TREE_URI.buildUpon().apply {
+            appendQueryParameter(KEY_TYPE, "false")
+            appendQueryParameter(TransactionProvider.QUERY_PARAMETER_AGGREGATE_NEUTRAL, aggregateNeutral.toString())
+            appendQueryParameter(KEY_ACCOUNTID, accountId.toString())
+            if (dailySums) appendBooleanQueryParameter(TransactionProvider.QUERY_PARAMETER_DAILY_SUMS)
+        }.build(),
+        arrayOf("$TREE_CATEGORIES.*", KEY_SUM),
+        "$YEAR = 2024",
+        null,
+        null
+    )!!.use { cursor ->
+        buildMap {
+            while (cursor.moveToNext()) {
+                put(cursor.getLong(cursor.getColumnIndexOrThrow(KEY_ROWID)), cursor.getLong(cursor.getColumnIndexOrThrow(KEY_SUM)))
+            }
+        }
+    }
+
+    @Test
+    fun dailySumsMatchSumsComputedFromTransactions() {
+        val both = arrayOf(KEY_SUM_EXPENSES, KEY_SUM_INCOME)
+        assertThat(sums(true, false, both)).isEqualTo(sums(false, false, both))
+        assertThat(sums(true, true, arrayOf(KEY_SUM_EXPENSES)))
+            .isEqualTo(sums(false, true, arrayOf(KEY_SUM_EXPENSES)))
+        listOf(false, true).forEach { aggregateNeutral ->
+            val categorySums = categorySums(false, aggregateNeutral)
+            assertThat(categorySums[food]).isEqualTo(-180L)
+            assertThat(categorySums(true, aggregateNeutral)).isEqualTo(categorySums)
+        }
+    }
+
+    @Test
+    fun rollOverIsSavedForAllCategories() {
+        val budgetId = ContentUris.parseId(
+            contentResolver.insert(
+                TransactionProvider.BUDGETS_URI,
+                Budget(
+                    id = 0, accountId = accountId, title = "Budget", description = null,
+                    currencyUnit = currency, grouping = Grouping.MONTH, color = 0, start = null,
+                    end = null, accountName = null, default = false
+                ).toContentValues(1000L)
+            )!!
+        )
+        contentResolver.update(
+            ContentUris.withAppendedId(ContentUris.withAppendedId(TransactionProvider.BUDGETS_URI, budgetId), food),
+            ContentValues().apply {
+                put(KEY_YEAR, 2024)
+                put(KEY_SECOND_GROUP, 2)
+                put(KEY_BUDGET, 500L)
+            },
+            null, null
+        )
+        assertThat(
+            repository.saveBudgetRollover(
+                budgetId,
+                GroupingInfo(Grouping.MONTH, 2024, 2),
+                GroupingInfo(Grouping.MONTH, 2024, 3),
+                listOf(0L to 300L, food to 120L)
+            )
+        ).isEqualTo(4)
+        assertThat(
+            rows("SELECT $KEY_CATID, $KEY_SECOND_GROUP, $KEY_BUDGET, $KEY_BUDGET_ROLLOVER_PREVIOUS, $KEY_BUDGET_ROLLOVER_NEXT FROM $TABLE_BUDGET_ALLOCATIONS WHERE $KEY_BUDGETID = $budgetId AND $KEY_YEAR = 2024 ORDER BY 1, 2")
+        ).containsExactly(
+            "0|2|NULL|NULL|300",
+            "0|3|NULL|300|NULL",
+            "$food|2|500|NULL|120",
+            "$food|3|NULL|120|NULL"
+        ).inOrder()
+    }
+}
@@ -0,0 +1,114 @@
+package org.totschnig.myexpenses.provider
+
+import android.content.ContentUris
+import android.content.ContentValues
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.BaseTestWithRepository
+import org.totschnig.myexpenses.db2.createAccount
+import org.totschnig.myexpenses.db2.createParty
+import org.totschnig.myexpenses.model.CurrencyUnit
+import org.totschnig.myexpenses.model.Money
+import org.totschnig.myexpenses.model.Transaction
+import org.totschnig.myexpenses.model2.Account
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DEBT_ID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_LABEL
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SUM
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSACTIONID
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_DEBTS
+import org.totschnig.myexpenses.viewmodel.data.Debt
+import java.time.LocalDate
+import java.util.Currency
+
+@RunWith(RobolectricTestRunner::class)
+class DebtBalancesTest : BaseTestWithRepository() {
+
+    private var accountId: Long = 0
+    private var payeeId: Long = 0
+    private val currency = CurrencyUnit(Currency.getInstance("EUR"))
+
+    @Before
+    fun setup() {
+        accountId = repository.createAccount(Account(label = "Test", currency = "EUR")).id
+        payeeId = repository.createParty("Friend").id
+    }
+
+    private fun createDebt(label: String): Long {
+        repository.saveDebt(
+            Debt(0, label, "", payeeId, 10000L, currency, LocalDate.now(), null)
+        )
+        return contentResolver.query(
+            TransactionProvider.DEBTS_URI, arrayOf("$TABLE_DEBTS.$KEY_ROWID"), "$KEY_LABEL = ?", arrayOf(label), null
+        )!!.use {
+            it.moveToFirst()
+            it.getLong(0)
+        }
+    }
+
+    private fun sum(debtId: Long) = contentResolver.query(
+        TransactionProvider.DEBTS_URI, null, "$TABLE_DEBTS.$KEY_ROWID = ?",
+        arrayOf(debtId.toString()), null
+    )!!.use {
+        it.moveToFirst()
+        it.getLong(it.getColumnIndexOrThrow(KEY_SUM))
+    }
+
+    private fun insertTransaction(debtId: Long, amount: Long) =
+        Transaction(accountId, Money(currency, amount)).apply {
+            this.payeeId = this@DebtBalancesTest.payeeId
+            this.debtId = debtId
+            save(contentResolver)
+        }.id
+
+    private fun update(transactionId: Long, values: ContentValues) {
+        contentResolver.update(
+            ContentUris.withAppendedId(TransactionProvider.TRANSACTIONS_URI, transactionId),
+            values, null, null
+        )
+    }
+
+    @Test
+    fun balancesFollowLinkedTransactions() {
+        val debt = createDebt("Loan")
+        val other = createDebt("Other loan")
+        val first = insertTransaction(debt, -3000L)
+        val second = insertTransaction(debt, -2000L)
+        assertThat(sum(debt)).isEqualTo(-5000L)
+
+        update(first, ContentValues().apply { put(KEY_AMOUNT, -4000L) })
+        assertThat(sum(debt)).isEqualTo(-6000L)
+
+        update(second, ContentValues().apply { put(KEY_DEBT_ID, other) })
+        assertThat(sum(debt)).isEqualTo(-4000L)
+        assertThat(sum(other)).isEqualTo(-2000L)
+        assertThat(repository.checkDebtBalances()).isEmpty()
+
+        contentResolver.delete(
+            ContentUris.withAppendedId(TransactionProvider.TRANSACTIONS_URI, first), null, null
+        )
+        assertThat(sum(debt)).isEqualTo(0L)
+        assertThat(repository.checkDebtBalances()).isEmpty()
+    }
+
+    @Test
+    fun editedTransactionIsExcluded() {
+        val debt = createDebt("Loan")
+        insertTransaction(debt, -3000L)
+        val edited = insertTransaction(debt, -2000L)
+        val sum = contentResolver.query(
+            TransactionProvider.DEBTS_URI.buildUpon()
+                .appendQueryParameter(KEY_TRANSACTIONID, edited.toString())
+                .build(),
+            null, "$TABLE_DEBTS.$KEY_ROWID = ?", arrayOf(debt.toString()), null
+        )!!.use {
+            it.moveToFirst()
+            it.getLong(it.getColumnIndexOrThrow(KEY_SUM))
+        }
+        assertThat(sum).isEqualTo(-3000L)
+    }
+}
@@ -0,0 +1,140 @@
+package org.totschnig.myexpenses.provider
+
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import com.google.common.truth.Truth.assertThat
+import kotlinx.coroutines.runBlocking
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.mock
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.MyAbstractClass
+import org.totschnig.myexpenses.prefHandler
+import org.totschnig.myexpenses.preference.PrefKey
+import org.totschnig.myexpenses.retrofit.ExchangeRateService
+import org.totschnig.myexpenses.retrofit.ExchangeRateSource
+import org.totschnig.myexpenses.room.ExchangeRateDatabase
+import retrofit2.Retrofit
+import retrofit2.converter.gson.GsonConverterFactory
+import java.time.LocalDate
+
+@RunWith(RobolectricTestRunner::class)
+class ExchangeRateRepositoryTest {
+    private lateinit var server: MockWebServer
+    private lateinit var database: ExchangeRateDatabase
+    private lateinit var repository: ExchangeRateRepository
+
+    private val friday = LocalDate.of(2024, 1, 5)
+    private val monday = LocalDate.of(2024, 1, 8)
+    private val days = listOf(friday, friday.plusDays(1), friday.plusDays(2), monday)
+
+    @Before
+    fun setup() {
+        server = MockWebServer()
+        server.start()
+        database = Room.inMemoryDatabaseBuilder(
+            ApplicationProvider.getApplicationContext(),
+            ExchangeRateDatabase::class.java
+        ).allowMainThreadQueries().build()
+        repository = ExchangeRateRepository(
+            database.exchangeRateDao(),
+            prefHandler,
+            ExchangeRateService(create(), mock(), create())
+        )
+    }
+
+    private inline fun <reified T> create(): T = Retrofit.Builder()
+        .baseUrl(server.url("/"))
+        .addConverterFactory(GsonConverterFactory.create())
+        .build()
+        .create(T::class.java)
+
+    @After
+    fun tearDown() {
+        database.close()
+        server.shutdown()
+    }
+
+    private fun enqueueTimeSeries() {
+        server.enqueue(
+            MockResponse().setBody(
+                """{"rates":{"2024-01-05":{"USD":1.09},"2024-01-08":{"USD":1.1}}}"""
+            )
+        )
+    }
+
+    @Test
+    fun loadsRangeWithOneRequestAndCarriesForwardLastRate() {
+        enqueueTimeSeries()
+        val rates = runBlocking {
+            repository.loadExchangeRates("USD", "EUR", days)
+        }
+        assertThat(server.requestCount).isEqualTo(1)
+        assertThat(server.takeRequest().path).startsWith("/2023-12-29..2024-01-08")
+        assertThat(rates).containsExactly(
+            friday, 1.09,
+            friday.plusDays(1), 1.09,
+            friday.plusDays(2), 1.09,
+            monday, 1.1
+        )
+    }
+
+    @Test
+    fun secondLookupIsServedWithoutNetwork() {
+        enqueueTimeSeries()
+        runBlocking {
+            repository.loadExchangeRates("USD", "EUR", days)
+            assertThat(repository.loadExchangeRates("USD", "EUR", days)).hasSize(4)
+            assertThat(repository.loadExchangeRate("USD", "EUR", friday.plusDays(1)))
+                .isEqualTo(1.09)
+        }
+        assertThat(server.requestCount).isEqualTo(1)
+    }
+
+    @Test
+    fun persistedRatesSurviveCacheEviction() {
+        enqueueTimeSeries()
+        runBlocking {
+            repository.loadExchangeRates("USD", "EUR", days)
+            val fresh = ExchangeRateRepository(
+                database.exchangeRateDao(),
+                prefHandler,
+                repository.service
+            )
+            assertThat(fresh.loadExchangeRates("USD", "EUR", days)[monday])
+                .isEqualTo(1.1)
+        }
+        assertThat(server.requestCount).isEqualTo(1)
+    }
+
+    @Test
+    fun coinApiLoadsOnlyRequestedDatesWithOneHistoryRequest() {
+        val coinApiPrefHandler = mock<MyAbstractClass> {
+            on { getString(PrefKey.EXCHANGE_RATE_PROVIDER, null) } doReturn ExchangeRateSource.CoinApi.id
+            on { getString(PrefKey.COIN_API_API_KEY, null) } doReturn "key"
+        }
+        val coinApiRepository = ExchangeRateRepository(
+            database.exchangeRateDao(),
+            coinApiPrefHandler,
+            repository.service
+        )
+        val lastYear = friday.minusYears(1)
+        server.enqueue(
+            MockResponse().setBody(
+                """[{"time_period_start":"2023-01-05T00:00:00.0000000Z","rate_open":1,"rate_high":2,"rate_low":1,"rate_close":1},
+                   {"time_period_start":"2024-01-05T00:00:00.0000000Z","rate_open":1,"rate_high":3,"rate_low":3,"rate_close":3}]"""
+            )
+        )
+        val rates = runBlocking {
+            coinApiRepository.loadExchangeRates("BTC", "EUR", listOf(lastYear, friday))
+        }
+        assertThat(server.requestCount).isEqualTo(1)
+        assertThat(server.takeRequest().path).contains("limit=366")
+        assertThat(rates).containsExactly(lastYear, 1.25, friday, 3.0)
+    }
+}
@@ -0,0 +1,153 @@
+package org.totschnig.myexpenses.provider
+
+import android.content.ContentUris
+import android.content.ContentValues
+import androidx.sqlite.db.SupportSQLiteDatabase
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.BaseTestWithRepository
+import org.totschnig.myexpenses.db2.createAccount
+import org.totschnig.myexpenses.db2.createParty
+import org.totschnig.myexpenses.db2.saveTagsForTransaction
+import org.totschnig.myexpenses.db2.writeTag
+import org.totschnig.myexpenses.model.CurrencyUnit
+import org.totschnig.myexpenses.model.Money
+import org.totschnig.myexpenses.model.Transaction
+import org.totschnig.myexpenses.model2.Account
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_LAST_USED
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_MAPPED_TRANSACTIONS
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PAYEEID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_OBJECT_ID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TYPE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_USAGES
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_OBJECT_USAGES
+import org.totschnig.myexpenses.viewmodel.data.Tag
+import java.util.Currency
+
+@RunWith(RobolectricTestRunner::class)
+class ObjectUsagesTest : BaseTestWithRepository() {
+
+    private var accountId: Long = 0
+    private val currency = CurrencyUnit(Currency.getInstance("EUR"))
+
+    @Before
+    fun setupAccount() {
+        accountId = repository.createAccount(Account(label = "Test", currency = "EUR")).id
+    }
+
+    private val db: SupportSQLiteDatabase
+        get() = (contentResolver.acquireContentProviderClient(TransactionProvider.AUTHORITY)!!
+            .localContentProvider as TransactionProvider).openHelperForTest.writableDatabase
+
+    private fun insertTransaction(payeeId: Long?, catId: Long? = null, date: Long? = null) =
+        Transaction(accountId, Money(currency, -100L)).apply {
+            this.payeeId = payeeId
+            this.catId = catId
+            date?.let { setDate(it) }
+            save(contentResolver)
+        }.id
+
+    private fun lastUsed() = db.query(
+        "SELECT $KEY_TYPE, $KEY_OBJECT_ID, $KEY_LAST_USED FROM $TABLE_OBJECT_USAGES ORDER BY 1, 2"
+    ).use { cursor ->
+        buildList {
+            while (cursor.moveToNext()) {
+                add(Triple(cursor.getString(0), cursor.getLong(1), cursor.getLong(2)))
+            }
+        }
+    }
+
+    private fun categoriesSortedBy(sortOrder: String) = contentResolver.query(
+        TransactionProvider.CATEGORIES_URI.buildUpon()
+            .appendQueryParameter(TransactionProvider.QUERY_PARAMETER_HIERARCHICAL, "1").build(),
+        arrayOf(KEY_ROWID), null, null, sortOrder
+    )!!.use { cursor ->
+        buildList {
+            while (cursor.moveToNext()) {
+                add(cursor.getLong(0))
+            }
+        }
+    }
+
+    private fun isPayeeMapped(payeeId: Long) = contentResolver.query(
+        TransactionProvider.PAYEES_URI,
+        null, "$KEY_ROWID = ?", arrayOf(payeeId.toString()), null
+    )!!.use {
+        it.moveToFirst()
+        it.getInt(it.getColumnIndexOrThrow(KEY_MAPPED_TRANSACTIONS)) == 1
+    }
+
+    private fun tagCount(tagId: Long) = contentResolver.query(
+        TransactionProvider.TAGS_URI.buildUpon()
+            .appendQueryParameter(TransactionProvider.QUERY_PARAMETER_WITH_COUNT, "1").build(),
+        null, "$KEY_ROWID = ?", arrayOf(tagId.toString()), null
+    )!!.use {
+        it.moveToFirst()
+        it.getInt(it.getColumnIndexOrThrow(KEY_COUNT))
+    }
+
+    @Test
+    fun payeeUsageFollowsTransactions() {
+        val payee = repository.createParty("Shop").id
+        val other = repository.createParty("Other shop").id
+        assertThat(isPayeeMapped(payee)).isFalse()
+        val first = insertTransaction(payee)
+        val second = insertTransaction(payee)
+        assertThat(isPayeeMapped(payee)).isTrue()
+        contentResolver.delete(
+            ContentUris.withAppendedId(TransactionProvider.TRANSACTIONS_URI, first), null, null
+        )
+        assertThat(isPayeeMapped(payee)).isTrue()
+        contentResolver.update(
+            ContentUris.withAppendedId(TransactionProvider.TRANSACTIONS_URI, second),
+            ContentValues().apply { put(KEY_PAYEEID, other) }, null, null
+        )
+        assertThat(isPayeeMapped(payee)).isFalse()
+        assertThat(isPayeeMapped(other)).isTrue()
+    }
+
+    @Test
+    fun lastUsedIsTransactionDateInTriggersAndPopulation() {
+        val payee = repository.createParty("Shop").id
+        val tag = Tag(repository.writeTag("Holiday"), "Holiday")
+        insertTransaction(payee, date = 2_000_000L)
+        val older = insertTransaction(payee, date = 1_000_000L)
+        repository.saveTagsForTransaction(listOf(tag), older)
+        val maintained = lastUsed()
+        assertThat(maintained).containsExactly(
+            Triple(USAGE_TYPE_PAYEE, payee, 2_000_000L),
+            Triple(USAGE_TYPE_TAG, tag.id, 1_000_000L)
+        )
+        populateObjectUsages(db)
+        assertThat(lastUsed()).isEqualTo(maintained)
+    }
+
+    @Test
+    fun categoriesAreSortedByUsagesAndLastUsedFromObjectUsages() {
+        val frequent = writeCategory("Frequent")
+        val recent = writeCategory("Recent")
+        val recentChild = writeCategory("Child", recent)
+        repeat(2) { insertTransaction(null, frequent, 1_000_000L) }
+        insertTransaction(null, recentChild, 2_000_000L)
+        val mainCategories = setOf(frequent, recent)
+        assertThat(categoriesSortedBy("$KEY_USAGES DESC").filter { it in mainCategories })
+            .containsExactly(frequent, recent).inOrder()
+        assertThat(categoriesSortedBy("$KEY_LAST_USED DESC").filter { it in mainCategories })
+            .containsExactly(recent, frequent).inOrder()
+    }
+
+    @Test
+    fun tagCountFollowsLinks() {
+        val tag = Tag(repository.writeTag("Holiday"), "Holiday")
+        val transactions = (1..3).map { insertTransaction(null) }
+        transactions.forEach { repository.saveTagsForTransaction(listOf(tag), it) }
+        assertThat(tagCount(tag.id)).isEqualTo(3)
+        repository.saveTagsForTransaction(emptyList(), transactions.first())
+        assertThat(tagCount(tag.id)).isEqualTo(2)
+    }
+}
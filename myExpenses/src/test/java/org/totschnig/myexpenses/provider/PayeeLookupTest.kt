@@ -0,0 +1,95 @@
+package org.totschnig.myexpenses.provider
+
+import android.content.ContentUris
+import android.content.ContentValues
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.BaseTestWithRepository
+import org.totschnig.myexpenses.db2.createAccount
+import org.totschnig.myexpenses.db2.createParty
+import org.totschnig.myexpenses.db2.saveCategory
+import org.totschnig.myexpenses.model.CurrencyUnit
+import org.totschnig.myexpenses.model.Money
+import org.totschnig.myexpenses.model.Transaction
+import org.totschnig.myexpenses.model2.Account
+import org.totschnig.myexpenses.model2.Category
+import org.totschnig.myexpenses.model2.Party
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PAYEEID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PAYEE_NAME
+import java.util.Currency
+
+@RunWith(RobolectricTestRunner::class)
+class PayeeLookupTest : BaseTestWithRepository() {
+
+    private var accountId: Long = 0
+    private val currency = CurrencyUnit(Currency.getInstance("EUR"))
+
+    @Before
+    fun setupAccount() {
+        accountId = repository.createAccount(Account(label = "Test", currency = "EUR")).id
+    }
+
+    private fun suggest(search: String): List<String> {
+        val (selection, selectionArgs) = Party.suggestionSelection(search)
+        return contentResolver.query(
+            TransactionProvider.PAYEES_URI,
+            arrayOf(KEY_PAYEE_NAME),
+            selection,
+            selectionArgs,
+            null
+        )!!.useAndMapToList { it.getString(0) }
+    }
+
+    private fun insertTransaction(payeeId: Long, categoryId: Long) =
+        Transaction(accountId, Money(currency, -100L)).apply {
+            this.payeeId = payeeId
+            catId = categoryId
+            save(contentResolver)
+        }.id
+
+    @Test
+    fun suggestionsMatchWordPrefixesOfNameAndShortName() {
+        contentResolver.bulkInsert(
+            TransactionProvider.PAYEES_URI,
+            Array(5000) { Party.create(name = "Payee ${it + 1}").asContentValues }
+        )
+        repository.createParty(Party.create(name = "Café Central", shortName = "Vienna"))
+        assertThat(suggest("payee 12")).hasSize(111)
+        assertThat(suggest("cafe")).containsExactly("Café Central")
+        assertThat(suggest("cent")).containsExactly("Café Central")
+        assertThat(suggest("vie")).containsExactly("Café Central")
+        assertThat(suggest("unknown")).isEmpty()
+    }
+
+    @Test
+    fun autofillUsesLatestTransactionOfPayee() {
+        val payee = repository.createParty("Shop").id
+        val food = repository.saveCategory(Category(label = "Food"))!!
+        val drinks = repository.saveCategory(Category(label = "Drinks"))!!
+        assertThat(repository.autoFill(payee)).isNull()
+        insertTransaction(payee, food)
+        val latest = insertTransaction(payee, drinks)
+        assertThat(repository.autoFill(payee)?.categoryId).isEqualTo(drinks)
+        contentResolver.delete(
+            ContentUris.withAppendedId(TransactionProvider.TRANSACTIONS_URI, latest), null, null
+        )
+        assertThat(repository.autoFill(payee)?.categoryId).isEqualTo(food)
+    }
+
+    @Test
+    fun autofillFollowsPayeeChange() {
+        val payee = repository.createParty("Shop").id
+        val other = repository.createParty("Other shop").id
+        val food = repository.saveCategory(Category(label = "Food"))!!
+        val transaction = insertTransaction(payee, food)
+        contentResolver.update(
+            ContentUris.withAppendedId(TransactionProvider.TRANSACTIONS_URI, transaction),
+            ContentValues().apply { put(KEY_PAYEEID, other) }, null, null
+        )
+        assertThat(repository.autoFill(payee)).isNull()
+        assertThat(repository.autoFill(other)?.categoryId).isEqualTo(food)
+    }
+}
@@ -0,0 +1,55 @@
+package org.totschnig.myexpenses.provider
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.BaseTestWithRepository
+import org.totschnig.myexpenses.db2.createAccount
+import org.totschnig.myexpenses.db2.queryMetricsReport
+import org.totschnig.myexpenses.model2.Account
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
+import org.totschnig.myexpenses.provider.QueryMetrics.Key
+import org.totschnig.myexpenses.provider.QueryMetrics.Operation
+import java.util.concurrent.Executor
+
+@RunWith(RobolectricTestRunner::class)
+class ProviderQueryMetricsTest : BaseTestWithRepository() {
+
+    private val provider: TransactionProvider
+        get() = contentResolver.acquireContentProviderClient(TransactionProvider.AUTHORITY)!!
+            .localContentProvider as TransactionProvider
+
+    @Before
+    fun setup() {
+        //every statement counts as slow
+        provider.queryMetrics = QueryMetrics(slowThresholdNanos = 0)
+        provider.explainExecutor = Executor { it.run() }
+    }
+
+    @Test
+    fun operationsAreRecordedAndSlowQueriesJournaledWithPlan() {
+        val accountId = repository.createAccount(Account(label = "Account", currency = "EUR")).id
+        repository.count(TransactionProvider.TRANSACTIONS_URI, "$KEY_ACCOUNTID = $accountId")
+        val metrics = provider.queryMetrics
+        val keys = metrics.histogramSnapshot.keys
+        assertThat(keys.map { it.operation }).contains(Operation.INSERT)
+        val queryKey = keys.single {
+            it.operation == Operation.QUERY && it.target == "transactions"
+        }
+        assertThat(queryKey.selection).startsWith("$KEY_ACCOUNTID = ?")
+        val slow = metrics.journalSnapshot.single { it.key == queryKey }
+        assertThat(slow.sql).isNotNull()
+        assertThat(slow.plan).isNotEmpty()
+    }
+
+    @Test
+    fun reportIsExportedAndReset() {
+        repository.count(TransactionProvider.ACCOUNTS_URI)
+        assertThat(repository.queryMetricsReport(reset = true)).contains("QUERY\taccounts")
+        //the call itself is recorded after the reset
+        assertThat(provider.queryMetrics.histogramSnapshot.keys)
+            .containsExactly(Key(Operation.CALL, TransactionProvider.METHOD_QUERY_METRICS, null))
+    }
+}
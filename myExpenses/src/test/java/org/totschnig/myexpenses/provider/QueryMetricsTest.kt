@@ -0,0 +1,109 @@
+package org.totschnig.myexpenses.provider
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.totschnig.myexpenses.provider.QueryMetrics.Companion.selectionShape
+import org.totschnig.myexpenses.provider.QueryMetrics.Key
+import org.totschnig.myexpenses.provider.QueryMetrics.Operation
+import java.util.concurrent.TimeUnit
+
+class QueryMetricsTest {
+
+    private fun key(target: String = "transactions", selection: String? = null) =
+        Key(Operation.QUERY, target, selection)
+
+    @Test
+    fun literalsAreReplaced() {
+        assertThat(selectionShape("account_id = 5 AND  date > 1700000000")).isEqualTo("account_id = ? AND date > ?")
+        assertThat(selectionShape("comment LIKE '%it''s%' AND amount < -1.5")).isEqualTo("comment LIKE ? AND amount < -?")
+        assertThat(selectionShape("cat_id2 IN (1, 2,3) OR _id IN (?,?)")).isEqualTo("cat_id2 IN (?+) OR _id IN (?+)")
+        assertThat(selectionShape("_id = ?")).isEqualTo("_id = ?")
+        assertThat(selectionShape(" ")).isNull()
+        assertThat(selectionShape(null)).isNull()
+    }
+
+    @Test
+    fun selectionsThatOnlyDifferInArgumentsShareKey() {
+        val metrics = QueryMetrics()
+        listOf("account_id = 1", "account_id = 2", "account_id IN (1,2,3)", "account_id IN (4,5)").forEach {
+            metrics.record(key(selection = selectionShape(it)), 1000)
+        }
+        assertThat(metrics.histogramSnapshot.mapValues { it.value.count }).containsExactly(
+            key(selection = "account_id = ?"), 2L,
+            key(selection = "account_id IN (?+)"), 2L
+        )
+    }
+
+    @Test
+    fun histogramReportsBucketBounds() {
+        val histogram = QueryMetrics.Histogram()
+        repeat(90) { histogram.record(TimeUnit.MICROSECONDS.toNanos(3)) }
+        repeat(9) { histogram.record(TimeUnit.MICROSECONDS.toNanos(100)) }
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(50))
+        assertThat(histogram.count).isEqualTo(100)
+        assertThat(histogram.percentile(50)).isEqualTo(4)
+        assertThat(histogram.percentile(90)).isEqualTo(4)
+        assertThat(histogram.percentile(99)).isEqualTo(128)
+        assertThat(histogram.percentile(100)).isEqualTo(65536)
+        assertThat(histogram.max).isEqualTo(TimeUnit.MILLISECONDS.toNanos(50))
+        assertThat(QueryMetrics.bucket(Long.MAX_VALUE)).isEqualTo(QueryMetrics.BUCKET_COUNT - 1)
+    }
+
+    @Test
+    fun journalAndKeysAreBounded() {
+        val metrics = QueryMetrics(
+            slowThresholdNanos = 1000,
+            journalCapacity = 3,
+            maxKeys = 2
+        )
+        assertThat(metrics.record(key(), 999)).isFalse()
+        assertThat(metrics.record(key(), 1000)).isTrue()
+        repeat(5) {
+            metrics.addToJournal(key("target$it"), 1000, "SELECT $it", listOf("SCAN transactions"))
+        }
+        assertThat(metrics.journalSnapshot.map { it.key.target })
+            .containsExactly("target2", "target3", "target4").inOrder()
+        repeat(5) { metrics.record(key("target$it"), 1) }
+        assertThat(metrics.histogramSnapshot.keys).containsExactly(
+            key(),
+            key("target0"),
+            QueryMetrics.overflowKey(Operation.QUERY)
+        )
+        assertThat(metrics.histogramSnapshot[QueryMetrics.overflowKey(Operation.QUERY)]!!.count)
+            .isEqualTo(4)
+        assertThat(metrics.report()).contains("  | SCAN transactions")
+        metrics.reset()
+        assertThat(metrics.histogramSnapshot).isEmpty()
+        assertThat(metrics.journalSnapshot).isEmpty()
+    }
+
+    /**
+     * Recording, including the computation of the selection shape, must stay cheap compared to
+     * running a query, since it is done for every operation
+     */
+    @Test
+    fun overheadStaysWithinBudget() {
+        val metrics = QueryMetrics()
+        val selections = List(100) {
+            "account_id = $it AND cr_status != 'VOID' AND (cat_id IN (${it}, ${it + 1}, ${it + 2}) OR comment LIKE '%$it%')"
+        }
+        fun run(iterations: Int) {
+            for (i in 0 until iterations) {
+                metrics.record(
+                    key("transactions/#?accountId", selectionShape(selections[i % selections.size])),
+                    i.toLong()
+                )
+            }
+        }
+        run(ITERATIONS) //warm up
+        val start = System.nanoTime()
+        run(ITERATIONS)
+        val perOperation = (System.nanoTime() - start) / ITERATIONS
+        assertThat(perOperation).isLessThan(BUDGET_NANOS)
+    }
+
+    companion object {
+        const val ITERATIONS = 100_000
+        val BUDGET_NANOS = TimeUnit.MICROSECONDS.toNanos(20)
+    }
+}
@@ -0,0 +1,219 @@
+package org.totschnig.myexpenses.provider
+
+import android.content.ContentUris
+import android.content.ContentValues
+import androidx.sqlite.db.SupportSQLiteDatabase
+import com.google.common.truth.Truth.assertThat
+import org.junit.Assert.assertThrows
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.BaseTestWithRepository
+import org.totschnig.myexpenses.db2.archiveTransactions
+import org.totschnig.myexpenses.db2.createAccount
+import org.totschnig.myexpenses.db2.deleteTransactions
+import org.totschnig.myexpenses.db2.restoreArchive
+import org.totschnig.myexpenses.db2.saveTagsForTransaction
+import org.totschnig.myexpenses.db2.searchArchive
+import org.totschnig.myexpenses.db2.writeTag
+import org.totschnig.myexpenses.model.CurrencyUnit
+import org.totschnig.myexpenses.model.Money
+import org.totschnig.myexpenses.model.SplitTransaction
+import org.totschnig.myexpenses.model.Transaction
+import org.totschnig.myexpenses.model.Transfer
+import org.totschnig.myexpenses.model2.Account
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_CATID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COMMENT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_EQUIVALENT_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PARENTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_STATUS
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SYNC_ACCOUNT_NAME
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TAGID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSACTIONID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSFER_ACCOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_ARCHIVE
+import org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_NONE
+import org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_UNCOMMITTED
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_ACCOUNTS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS_ARCHIVE
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS_TAGS
+import java.time.LocalDate
+import java.time.ZoneId
+
+@RunWith(RobolectricTestRunner::class)
+class TransactionArchiveTest : BaseTestWithRepository() {
+
+    private val currency = CurrencyUnit.DebugInstance
+    private var accountId = 0L
+    private var otherAccountId = 0L
+    private var recentId = 0L
+    private val cutoff: LocalDate = LocalDate.now().minusYears(1).withDayOfMonth(1)
+
+    private val db: SupportSQLiteDatabase
+        get() = (contentResolver.acquireContentProviderClient(TransactionProvider.AUTHORITY)!!
+            .localContentProvider as TransactionProvider).openHelperForTest.writableDatabase
+
+    private fun longs(sql: String) = db.query(sql).use { cursor ->
+        buildList {
+            while (cursor.moveToNext()) add(cursor.getLong(0))
+        }
+    }
+
+    private fun rows(sql: String) = db.query(sql).use { cursor ->
+        buildList {
+            while (cursor.moveToNext()) {
+                add((0 until cursor.columnCount).joinToString("|") { cursor.getString(it) ?: "NULL" })
+            }
+        }
+    }
+
+    private fun Transaction.dated(date: LocalDate) = apply {
+        val epoch = date.atStartOfDay(ZoneId.systemDefault()).toEpochSecond() + 3600
+        setDate(epoch)
+        setValueDate(epoch)
+    }
+
+    private fun balances() =
+        rows("SELECT $KEY_ACCOUNTID, sum($KEY_AMOUNT) FROM $TABLE_TRANSACTIONS WHERE $KEY_PARENTID IS NULL AND $KEY_STATUS != $STATUS_UNCOMMITTED GROUP BY 1 ORDER BY 1")
+
+    private fun categorySums() =
+        rows("SELECT $KEY_CATID, sum($KEY_AMOUNT) FROM $TABLE_TRANSACTIONS t WHERE NOT EXISTS (SELECT 1 FROM $TABLE_TRANSACTIONS c WHERE c.$KEY_PARENTID = t.$KEY_ROWID) AND $KEY_STATUS != $STATUS_UNCOMMITTED GROUP BY 1 ORDER BY 1")
+
+    @Before
+    fun setup() {
+        accountId = repository.createAccount(Account(label = "Account", currency = currency.code)).id
+        otherAccountId = repository.createAccount(Account(label = "Other", currency = currency.code)).id
+        val food = writeCategory("Food")
+        val old = cutoff.minusMonths(6)
+        repeat(4) {
+            Transaction(accountId, Money(currency, -100L * (it + 1))).apply {
+                comment = "Groceries $it"
+                catId = food
+                dated(old.plusDays(it.toLong()))
+                save(contentResolver)
+            }
+        }
+        val tagged = Transaction(accountId, Money(currency, -50L)).apply {
+            comment = "Tagged"
+            dated(old.minusMonths(1))
+            save(contentResolver)
+        }
+        contentResolver.saveTagsForTransaction(longArrayOf(repository.writeTag("Tag")), tagged.id)
+        Transfer(accountId, Money(currency, -500L), otherAccountId).apply {
+            comment = "Transfer"
+            dated(old)
+            save(contentResolver)
+        }
+        val split = SplitTransaction.getNewInstance(contentResolver, accountId, currency)!!
+        split.amount = Money(currency, -300L)
+        split.dated(old)
+        repeat(3) {
+            Transaction.getNewInstance(accountId, currency, split.id)!!.apply {
+                amount = Money(currency, -100L)
+                catId = food
+                status = STATUS_UNCOMMITTED
+                dated(old)
+                saveAsNew(contentResolver)
+            }
+        }
+        split.status = STATUS_NONE
+        split.save(contentResolver, true)
+        recentId = Transaction(accountId, Money(currency, -70L)).apply {
+            comment = "Recent"
+            catId = food
+            save(contentResolver)
+        }.id
+    }
+
+    @Test
+    fun archivePreservesBalancesAndCategorySums() {
+        val balances = balances()
+        val categorySums = categorySums()
+        //4 transactions, the tagged one, both sides of the transfer, the split and its 3 parts
+        assertThat(repository.archiveTransactions(cutoff, "Archived")).isEqualTo(11)
+        assertThat(balances()).isEqualTo(balances)
+        assertThat(categorySums()).isEqualTo(categorySums)
+        assertThat(longs("SELECT $KEY_ROWID FROM $TABLE_TRANSACTIONS WHERE $KEY_STATUS != $STATUS_ARCHIVE"))
+            .containsExactly(recentId)
+        assertThat(longs("SELECT count(*) FROM $TABLE_TRANSACTIONS_ARCHIVE").first()).isEqualTo(11)
+        //rollups have no peer, hence no transfer account either
+        assertThat(longs("SELECT count(*) FROM $TABLE_TRANSACTIONS WHERE $KEY_STATUS = $STATUS_ARCHIVE AND $KEY_TRANSFER_ACCOUNT IS NOT NULL").first())
+            .isEqualTo(0)
+        assertThat(repository.searchArchive("Groceries").map { it.comment })
+            .containsExactly("Groceries 0", "Groceries 1", "Groceries 2", "Groceries 3")
+        //archiving again does not touch the rollups
+        assertThat(repository.archiveTransactions(cutoff, "Archived")).isEqualTo(0)
+    }
+
+    @Test
+    fun restoreRoundTrips() {
+        val before = rows("SELECT $ARCHIVE_COLUMNS FROM $TABLE_TRANSACTIONS ORDER BY $KEY_ROWID")
+        val tags = rows("SELECT $KEY_TRANSACTIONID, $KEY_TAGID FROM $TABLE_TRANSACTIONS_TAGS ORDER BY 1, 2")
+        assertThat(repository.archiveTransactions(cutoff, "Archived")).isEqualTo(11)
+        assertThat(repository.restoreArchive()).isEqualTo(11)
+        assertThat(rows("SELECT $ARCHIVE_COLUMNS FROM $TABLE_TRANSACTIONS ORDER BY $KEY_ROWID"))
+            .isEqualTo(before)
+        assertThat(rows("SELECT $KEY_TRANSACTIONID, $KEY_TAGID FROM $TABLE_TRANSACTIONS_TAGS ORDER BY 1, 2"))
+            .isEqualTo(tags)
+        assertThat(longs("SELECT count(*) FROM $TABLE_TRANSACTIONS_ARCHIVE").first()).isEqualTo(0)
+    }
+
+    @Test
+    fun transactionsWithoutEquivalentAmountAreRolledUpSeparately() {
+        db.execSQL("UPDATE $TABLE_TRANSACTIONS SET $KEY_EQUIVALENT_AMOUNT = 2 * $KEY_AMOUNT WHERE $KEY_COMMENT IN ('Groceries 0', 'Groceries 1')")
+        repository.archiveTransactions(cutoff, "Archived")
+        assertThat(rows("SELECT $KEY_AMOUNT, $KEY_EQUIVALENT_AMOUNT FROM $TABLE_TRANSACTIONS WHERE $KEY_STATUS = $STATUS_ARCHIVE AND $KEY_CATID IS NOT NULL ORDER BY 1"))
+            .containsExactly("-1000|NULL", "-300|-600")
+    }
+
+    @Test
+    fun rollupsAreReadOnly() {
+        repository.archiveTransactions(cutoff, "Archived")
+        val rollup = longs("SELECT $KEY_ROWID FROM $TABLE_TRANSACTIONS WHERE $KEY_STATUS = $STATUS_ARCHIVE").first()
+        val uri = ContentUris.withAppendedId(TransactionProvider.TRANSACTIONS_URI, rollup)
+        assertThat(contentResolver.update(uri, ContentValues(1).apply { put(KEY_COMMENT, "Changed") }, null, null))
+            .isEqualTo(0)
+        assertThat(contentResolver.delete(uri, null, null)).isEqualTo(0)
+        assertThat(contentResolver.delete(TransactionProvider.TRANSACTIONS_URI, "$KEY_ACCOUNTID = ?", arrayOf(accountId.toString())))
+            .isEqualTo(1)
+        assertThat(repository.restoreArchive()).isEqualTo(11)
+    }
+
+    @Test
+    fun restoreIsRefusedIfRollupsHaveBeenDeleted() {
+        repository.archiveTransactions(cutoff, "Archived")
+        db.execSQL("DELETE FROM $TABLE_TRANSACTIONS WHERE $KEY_ROWID = (SELECT min($KEY_ROWID) FROM $TABLE_TRANSACTIONS WHERE $KEY_STATUS = $STATUS_ARCHIVE)")
+        assertThrows(IllegalStateException::class.java) {
+            repository.restoreArchive()
+        }
+        assertThat(longs("SELECT count(*) FROM $TABLE_TRANSACTIONS_ARCHIVE").first()).isEqualTo(11)
+    }
+
+    @Test
+    fun rangeDeletionKeepsRollups() {
+        repository.archiveTransactions(cutoff, "Archived")
+        //the selection matches the rollups as well
+        val rollups = longs("SELECT count(*) FROM $TABLE_TRANSACTIONS WHERE $KEY_STATUS = $STATUS_ARCHIVE").first()
+        assertThat(repository.deleteTransactions(accountId, "$KEY_ACCOUNTID = ?", arrayOf(accountId.toString())))
+            .isEqualTo(1)
+        assertThat(longs("SELECT count(*) FROM $TABLE_TRANSACTIONS WHERE $KEY_STATUS = $STATUS_ARCHIVE").first())
+            .isEqualTo(rollups)
+        assertThat(longs("SELECT count(*) FROM $TABLE_TRANSACTIONS WHERE $KEY_ROWID = $recentId").first())
+            .isEqualTo(0)
+        assertThat(repository.restoreArchive()).isEqualTo(11)
+    }
+
+    @Test
+    fun syncedAccountsAndTheirTransferPeersAreKept() {
+        db.execSQL("UPDATE $TABLE_ACCOUNTS SET $KEY_SYNC_ACCOUNT_NAME = 'Sync' WHERE $KEY_ROWID = $otherAccountId")
+        //the transfer is kept, since its peer belongs to a synced account
+        assertThat(repository.archiveTransactions(cutoff, "Archived")).isEqualTo(9)
+        assertThat(longs("SELECT count(*) FROM $TABLE_TRANSACTIONS WHERE $KEY_ACCOUNTID = $otherAccountId AND $KEY_STATUS != $STATUS_ARCHIVE").first())
+            .isEqualTo(1)
+    }
+}
@@ -0,0 +1,264 @@
+package org.totschnig.myexpenses.provider
+
+import android.content.ContentUris
+import android.content.ContentValues
+import android.database.sqlite.SQLiteConstraintException
+import android.os.Bundle
+import androidx.sqlite.db.SupportSQLiteDatabase
+import com.google.common.truth.Truth.assertThat
+import org.junit.Assert.assertThrows
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.BaseTestWithRepository
+import org.totschnig.myexpenses.db2.createAccount
+import org.totschnig.myexpenses.db2.createParty
+import org.totschnig.myexpenses.db2.deleteAccount
+import org.totschnig.myexpenses.db2.deleteTransactions
+import org.totschnig.myexpenses.db2.resumePendingDeletions
+import org.totschnig.myexpenses.db2.saveTagsForTransaction
+import org.totschnig.myexpenses.db2.writeTag
+import org.totschnig.myexpenses.model.CurrencyUnit
+import org.totschnig.myexpenses.model.Money
+import org.totschnig.myexpenses.model.SplitTransaction
+import org.totschnig.myexpenses.model.Transaction
+import org.totschnig.myexpenses.model.Transfer
+import org.totschnig.myexpenses.model2.Account
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_DEBT_ID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_PARENT_UUID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SEALED
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_STATUS
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SYNC_ACCOUNT_NAME
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_SYNC_SEQUENCE_LOCAL
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSACTIONID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSFER_ACCOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TRANSFER_PEER
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_TYPE
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_UUID
+import org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_DELETING
+import org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_NONE
+import org.totschnig.myexpenses.provider.DatabaseConstants.STATUS_UNCOMMITTED
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_ACCOUNTS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_CHANGES
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_DEBTS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS
+import org.totschnig.myexpenses.provider.DatabaseConstants.TABLE_TRANSACTIONS_TAGS
+import org.totschnig.myexpenses.provider.DatabaseConstants.VIEW_EXTENDED
+import org.totschnig.myexpenses.viewmodel.data.Debt
+import java.time.LocalDate
+
+@RunWith(RobolectricTestRunner::class)
+class TransactionDeletionTest : BaseTestWithRepository() {
+
+    private val currency = CurrencyUnit.DebugInstance
+    private var accountId = 0L
+    private var otherAccountId = 0L
+    private var transferPeerId = 0L
+    private var splitId = 0L
+    private lateinit var transactions: List<Long>
+
+    private val db: SupportSQLiteDatabase
+        get() = (contentResolver.acquireContentProviderClient(TransactionProvider.AUTHORITY)!!
+            .localContentProvider as TransactionProvider).openHelperForTest.writableDatabase
+
+    private fun count(table: String, selection: String) =
+        db.query("SELECT count(*) FROM $table WHERE $selection").use {
+            it.moveToFirst()
+            it.getInt(0)
+        }
+
+    @Before
+    fun setup() {
+        accountId = repository.createAccount(Account(label = "Account", currency = currency.code)).id
+        otherAccountId = repository.createAccount(Account(label = "Other", currency = currency.code)).id
+        transactions = List(5) {
+            Transaction(accountId, Money(currency, -100L * (it + 1))).apply {
+                comment = "Transaction $it"
+                save(contentResolver)
+            }.id
+        }
+        val transfer = Transfer(accountId, Money(currency, -500L), otherAccountId).apply {
+            comment = "Transfer"
+            save(contentResolver)
+        }
+        transferPeerId = transfer.transferPeer!!
+        contentResolver.saveTagsForTransaction(longArrayOf(repository.writeTag("Tag")), transfer.id)
+        val split = SplitTransaction.getNewInstance(contentResolver, accountId, currency)!!
+        split.amount = Money(currency, -300L)
+        repeat(3) {
+            Transaction.getNewInstance(accountId, currency, split.id)!!.apply {
+                amount = Money(currency, -100L)
+                status = STATUS_UNCOMMITTED
+                saveAsNew(contentResolver)
+            }
+        }
+        split.status = STATUS_NONE
+        split.save(contentResolver, true)
+        splitId = split.id
+    }
+
+    @Test
+    fun deleteAccountInChunks() {
+        val progress = mutableListOf<Pair<Int, Int>>()
+        repository.deleteAccount(accountId) { deleted, total -> progress.add(deleted to total) }
+        assertThat(count(TABLE_TRANSACTIONS, "$KEY_ACCOUNTID = $accountId")).isEqualTo(0)
+        assertThat(count(TABLE_ACCOUNTS, "$KEY_ROWID = $accountId")).isEqualTo(0)
+        //5 transactions, the transfer, the split and its 3 parts
+        assertThat(progress.map { it.second }.distinct()).containsExactly(10)
+        assertThat(progress.last().first).isEqualTo(10)
+        //the peer is kept as a normal transaction, together with its tags
+        assertThat(
+            count(TABLE_TRANSACTIONS, "$KEY_ROWID = $transferPeerId AND $KEY_TRANSFER_PEER IS NULL AND $KEY_TRANSFER_ACCOUNT IS NULL")
+        ).isEqualTo(1)
+        assertThat(count(TABLE_TRANSACTIONS_TAGS, "$KEY_TRANSACTIONID = $transferPeerId")).isEqualTo(1)
+    }
+
+    private fun hide(selection: String?) = contentResolver.applyBatch(
+        TransactionProvider.AUTHORITY,
+        arrayListOf(TransactionProvider.hideForDeletion(accountId, selection, null))
+    )
+
+    @Test
+    fun hiddenTransactionsAreExcludedBeforeChunksAreDeleted() {
+        hide(null)
+        assertThat(count(TABLE_TRANSACTIONS, "$KEY_ACCOUNTID = $accountId AND $KEY_STATUS != $STATUS_DELETING"))
+            .isEqualTo(0)
+        assertThat(count(TABLE_TRANSACTIONS, "$KEY_ACCOUNTID = $accountId")).isEqualTo(10)
+        assertThat(count(VIEW_EXTENDED, "$KEY_ACCOUNTID = $accountId")).isEqualTo(0)
+        assertThat(count(TABLE_TRANSACTIONS, "$KEY_ROWID = $transferPeerId AND $KEY_TRANSFER_PEER IS NULL"))
+            .isEqualTo(1)
+    }
+
+    @Test
+    fun splitBeingEditedIsKeptByRangeDeletion() {
+        val edited = Transaction.getNewInstance(accountId, currency, splitId)!!.apply {
+            amount = Money(currency, -50L)
+            status = STATUS_UNCOMMITTED
+            saveAsNew(contentResolver)
+        }.id
+        val deleted = repository.deleteTransactions(accountId, "$KEY_ROWID = ${transactions[0]}", null)
+        assertThat(deleted).isEqualTo(1)
+        assertThat(count(TABLE_TRANSACTIONS, "$KEY_ROWID = $edited AND $KEY_STATUS = $STATUS_UNCOMMITTED"))
+            .isEqualTo(1)
+    }
+
+    @Test
+    fun accountPendingDeletionIsHiddenAndRejectsTransactions() {
+        hide(null)
+        assertThat(repository.count(TransactionProvider.ACCOUNTS_URI, "$KEY_ROWID = $accountId"))
+            .isEqualTo(0)
+        assertThat(repository.count(TransactionProvider.ACCOUNTS_FULL_URI, "$KEY_ROWID = $accountId"))
+            .isEqualTo(0)
+        assertThat(
+            repository.count(ContentUris.withAppendedId(TransactionProvider.ACCOUNTS_URI, accountId))
+        ).isEqualTo(0)
+        assertThat(repository.count(TransactionProvider.ACCOUNTS_URI, "$KEY_ROWID = $otherAccountId"))
+            .isEqualTo(1)
+        assertThrows(SQLiteConstraintException::class.java) {
+            Transaction(accountId, Money(currency, -100L)).save(contentResolver)
+        }
+        assertThrows(SQLiteConstraintException::class.java) {
+            contentResolver.update(
+                ContentUris.withAppendedId(TransactionProvider.TRANSACTIONS_URI, transferPeerId),
+                ContentValues(1).apply { put(KEY_ACCOUNTID, accountId) }, null, null
+            )
+        }
+        //other accounts can still be written to
+        Transaction(otherAccountId, Money(currency, -100L)).save(contentResolver)
+        repository.resumePendingDeletions()
+        assertThat(count(TABLE_ACCOUNTS, "$KEY_ROWID = $accountId")).isEqualTo(0)
+    }
+
+    @Test
+    fun interruptedAccountDeletionIsResumed() {
+        hide(null)
+        //the process is killed after the first chunk
+        contentResolver.call(
+            TransactionProvider.DUAL_URI,
+            TransactionProvider.METHOD_DELETE_HIDDEN_TRANSACTIONS,
+            null,
+            Bundle(2).apply {
+                putLong(KEY_ACCOUNTID, accountId)
+                putInt(TransactionProvider.KEY_CHUNK_SIZE, 2)
+            }
+        )
+        assertThat(count(TABLE_ACCOUNTS, "$KEY_ROWID = $accountId")).isEqualTo(1)
+        repository.resumePendingDeletions()
+        assertThat(count(TABLE_TRANSACTIONS, "$KEY_ACCOUNTID = $accountId")).isEqualTo(0)
+        assertThat(count(TABLE_ACCOUNTS, "$KEY_ROWID = $accountId")).isEqualTo(0)
+    }
+
+    @Test
+    fun emptyAccountIsDeleted() {
+        val emptyAccountId = repository.createAccount(Account(label = "Empty", currency = currency.code)).id
+        repository.deleteAccount(emptyAccountId)
+        assertThat(count(TABLE_ACCOUNTS, "$KEY_ROWID = $emptyAccountId")).isEqualTo(0)
+    }
+
+    /**
+     * applies [block] and returns the changes it has logged, then rolls everything back
+     */
+    private fun changesFor(block: () -> Unit): List<String> {
+        db.beginTransaction()
+        try {
+            block()
+            return db.query("SELECT $KEY_TYPE, $KEY_ACCOUNTID, $KEY_UUID, $KEY_PARENT_UUID, $KEY_SYNC_SEQUENCE_LOCAL FROM $TABLE_CHANGES")
+                .use { cursor ->
+                    buildList {
+                        while (cursor.moveToNext()) {
+                            add((0..4).joinToString("|") { cursor.getString(it) ?: "NULL" })
+                        }
+                    }
+                }
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    @Test
+    fun rangeDeletionLogsSameChangesAsTriggers() {
+        db.execSQL("UPDATE $TABLE_ACCOUNTS SET $KEY_SYNC_ACCOUNT_NAME = 'Sync', $KEY_SYNC_SEQUENCE_LOCAL = 1")
+        db.delete(TABLE_CHANGES, null, null)
+        //the provider deletes split parts before their parent, so that the parent uuid is logged
+        val perRow = changesFor {
+            repository.deleteTransaction(splitId)
+            repository.deleteTransaction(transactions[1])
+        }
+        val chunked = changesFor {
+            val deleted = repository.deleteTransactions(
+                accountId, "$KEY_ROWID IN ($splitId, ${transactions[1]})", null, chunkSize = 2
+            )
+            assertThat(deleted).isEqualTo(5)
+        }
+        assertThat(perRow).hasSize(5)
+        assertThat(chunked).containsExactlyElementsIn(perRow)
+    }
+
+    @Test
+    fun rangeDeletionInSealedAccountFails() {
+        db.execSQL("UPDATE $TABLE_ACCOUNTS SET $KEY_SEALED = 1 WHERE $KEY_ROWID = $accountId")
+        assertThrows(SQLiteConstraintException::class.java) {
+            repository.deleteTransactions(accountId, "$KEY_ROWID = $splitId", null)
+        }
+        assertThat(count(TABLE_TRANSACTIONS, "$KEY_STATUS = $STATUS_DELETING")).isEqualTo(0)
+        //deleting the account is allowed
+        repository.deleteAccount(accountId)
+        assertThat(count(TABLE_TRANSACTIONS, "$KEY_ACCOUNTID = $accountId")).isEqualTo(0)
+    }
+
+    @Test
+    fun deletionOfSealedDebtFails() {
+        val payeeId = repository.createParty("Friend").id
+        repository.saveDebt(Debt(0, "Loan", "", payeeId, 10000L, currency, LocalDate.now(), null))
+        db.execSQL("UPDATE $TABLE_TRANSACTIONS SET $KEY_DEBT_ID = (SELECT max($KEY_ROWID) FROM $TABLE_DEBTS) WHERE $KEY_ROWID = $splitId")
+        db.execSQL("UPDATE $TABLE_DEBTS SET $KEY_SEALED = 1")
+        assertThrows(SQLiteConstraintException::class.java) {
+            repository.deleteAccount(accountId)
+        }
+        assertThat(count(TABLE_ACCOUNTS, "$KEY_ROWID = $accountId")).isEqualTo(1)
+        assertThat(count(TABLE_TRANSACTIONS, "$KEY_STATUS = $STATUS_DELETING")).isEqualTo(0)
+    }
+}
@@ -46,6 +46,34 @@ class CriteriaTest {
         Truth.assertThat(roundTrip.values).asList().containsExactly(CrStatus.VOID)
     }
 
+    @Test
+    fun testCommentCriterionUsesFullTextIndex() {
+        val criterion = CommentCriterion("Café  au-Lait")
+        Truth.assertThat(criterion.getSelection(false)).isEqualTo(
+            "_id IN (SELECT docid FROM transactions_fts WHERE transactions_fts MATCH ?)"
+        )
+        Truth.assertThat(criterion.selectionArgs).asList()
+            .containsExactly("comment:cafe* comment:au* comment:lait*")
+    }
+
+    @Test
+    fun testFullTextCriterionSearchesAllIndexedColumns() {
+        val criterion = FullTextCriterion("Café 4711")
+        Truth.assertThat(criterion.getSelection(false)).isEqualTo(
+            "_id IN (SELECT docid FROM transactions_fts WHERE transactions_fts MATCH ?)"
+        )
+        Truth.assertThat(criterion.selectionArgs).asList().containsExactly("cafe* 4711*")
+        Truth.assertThat(FullTextCriterion("%!").getSelection(false))
+            .isEqualTo("comment LIKE ? ESCAPE '\\'")
+    }
+
+    @Test
+    fun testCommentCriterionFallsBackToLikeWithoutWords() {
+        val criterion = CommentCriterion("%!")
+        Truth.assertThat(criterion.getSelection(false)).isEqualTo("comment LIKE ? ESCAPE '\\'")
+        Truth.assertThat(criterion.selectionArgs).asList().containsExactly("%\\%!%")
+    }
+
     @Test
     fun parseToNullOnInvalidInput() {
         Truth.assertThat(IdCriterion.parseStringExtra("Bank;;")).isNull()
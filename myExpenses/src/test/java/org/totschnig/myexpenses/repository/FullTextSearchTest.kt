@@ -0,0 +1,106 @@
+package org.totschnig.myexpenses.repository
+
+import android.content.ContentUris
+import android.content.ContentValues
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.BaseTestWithRepository
+import org.totschnig.myexpenses.db2.createParty
+import org.totschnig.myexpenses.db2.getTransactionSum
+import org.totschnig.myexpenses.db2.saveParty
+import org.totschnig.myexpenses.db2.saveTagsForTransaction
+import org.totschnig.myexpenses.db2.writeTag
+import org.totschnig.myexpenses.model.CurrencyUnit
+import org.totschnig.myexpenses.model.Money
+import org.totschnig.myexpenses.model.Transaction
+import org.totschnig.myexpenses.model2.Account
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_COMMENT
+import org.totschnig.myexpenses.provider.TransactionProvider
+import org.totschnig.myexpenses.provider.filter.CommentCriterion
+import org.totschnig.myexpenses.provider.filter.FullTextCriterion
+import org.totschnig.myexpenses.provider.filter.WhereFilter
+
+@RunWith(RobolectricTestRunner::class)
+class FullTextSearchTest : BaseTestWithRepository() {
+
+    private val currency = CurrencyUnit.DebugInstance
+    private var accountId: Long = 0
+
+    @Before
+    fun setup() {
+        accountId = Account(label = "Test account", currency = currency.code).createIn(repository).id
+    }
+
+    private fun insert(
+        amount: Long,
+        comment: String?,
+        payeeId: Long? = null,
+        referenceNumber: String? = null
+    ): Long {
+        val transaction = Transaction.getNewInstance(accountId, currency)
+        transaction.amount = Money(currency, amount)
+        transaction.comment = comment
+        transaction.payeeId = payeeId
+        transaction.referenceNumber = referenceNumber
+        transaction.save(contentResolver)
+        return transaction.id
+    }
+
+    private fun sumForSearch(search: String) =
+        repository.getTransactionSum(accountId, WhereFilter(listOf(CommentCriterion(search))))
+
+    private fun sumForFullTextSearch(search: String) =
+        repository.getTransactionSum(accountId, WhereFilter(listOf(FullTextCriterion(search))))
+
+    @Test
+    fun matchesPrefixIgnoringCaseAndDiacritics() {
+        insert(100, "Crème brûlée at the café")
+        insert(200, "Groceries")
+        insert(400, null)
+        assertThat(sumForSearch("CAFE")).isEqualTo(100)
+        assertThat(sumForSearch("bru")).isEqualTo(100)
+        assertThat(sumForSearch("groc")).isEqualTo(200)
+        assertThat(sumForSearch("grocery store")).isEqualTo(0)
+    }
+
+    @Test
+    fun indexFollowsUpdateAndDelete() {
+        val id = insert(100, "Old comment")
+        assertThat(sumForSearch("old")).isEqualTo(100)
+        contentResolver.update(
+            ContentUris.withAppendedId(TransactionProvider.TRANSACTIONS_URI, id),
+            ContentValues(1).apply { put(KEY_COMMENT, "New comment") },
+            null, null
+        )
+        assertThat(sumForSearch("old")).isEqualTo(0)
+        assertThat(sumForSearch("new")).isEqualTo(100)
+        contentResolver.delete(
+            ContentUris.withAppendedId(TransactionProvider.TRANSACTIONS_URI, id),
+            null, null
+        )
+        assertThat(sumForSearch("new")).isEqualTo(0)
+    }
+
+    @Test
+    fun fullTextSearchMatchesPayeeTagsAndReferenceNumber() {
+        val party = repository.createParty("Bäckerei Müller")
+        val id = insert(100, "Bread", payeeId = party.id, referenceNumber = "INV-4711")
+        contentResolver.saveTagsForTransaction(longArrayOf(repository.writeTag("Holiday")), id)
+        insert(200, "Groceries")
+        assertThat(sumForFullTextSearch("backerei")).isEqualTo(100)
+        assertThat(sumForFullTextSearch("4711")).isEqualTo(100)
+        assertThat(sumForFullTextSearch("holi")).isEqualTo(100)
+        assertThat(sumForFullTextSearch("groceries")).isEqualTo(200)
+        //the comment filter is restricted to the comment column
+        assertThat(sumForSearch("holiday")).isEqualTo(0)
+
+        repository.saveParty(party.copy(name = "Baker"))
+        assertThat(sumForFullTextSearch("backerei")).isEqualTo(0)
+        assertThat(sumForFullTextSearch("baker")).isEqualTo(100)
+        contentResolver.saveTagsForTransaction(longArrayOf(), id)
+        assertThat(sumForFullTextSearch("holiday")).isEqualTo(0)
+    }
+}
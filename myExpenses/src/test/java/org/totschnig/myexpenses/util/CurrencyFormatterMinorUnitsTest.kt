@@ -0,0 +1,90 @@
+package org.totschnig.myexpenses.util
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Before
+import org.junit.Test
+import org.mockito.ArgumentMatchers.any
+import org.mockito.kotlin.eq
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.whenever
+import org.totschnig.myexpenses.MyApplication
+import org.totschnig.myexpenses.model.CurrencyUnit
+import org.totschnig.myexpenses.model.Money
+import org.totschnig.myexpenses.prefHandler
+import org.totschnig.myexpenses.preference.PrefKey
+import java.util.Locale
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import kotlin.random.Random
+
+/**
+ * Compares formatting of minor units with the previous conversion to BigDecimal, throughput is
+ * compared in [org.totschnig.myexpenses.benchmark.CurrencyFormatterBenchmark]
+ */
+class CurrencyFormatterMinorUnitsTest {
+    private lateinit var application: MyApplication
+
+    private val currencies = listOf(
+        CurrencyUnit("JPY", "¥", 0),
+        CurrencyUnit("EUR", "€", 2),
+        CurrencyUnit("BHD", "BD", 3),
+        CurrencyUnit("BTC", "₿", 8)
+    )
+
+    private val amounts = Random(1).let { random ->
+        LongArray(10_000) {
+            when (it % 3) {
+                0 -> random.nextLong()
+                1 -> random.nextInt().toLong()
+                else -> random.nextLong(-100_000, 100_000)
+            }
+        }
+    }
+
+    @Before
+    fun setUp() {
+        whenever(prefHandler.getString(eq(PrefKey.CUSTOM_DECIMAL_FORMAT), any())).thenReturn("")
+        application = mock()
+    }
+
+    private fun legacyFormat(formatter: ICurrencyFormatter, amount: Long, currency: CurrencyUnit) =
+        formatter.formatCurrency(Money(currency, amount).amountMajor, currency)
+
+    @Test
+    fun minorUnitsAreFormattedIdentically() {
+        listOf(Locale.GERMANY, Locale.US, Locale("hi", "IN"), Locale.JAPAN).forEach { locale ->
+            whenever(application.userPreferredLocale).thenReturn(locale)
+            val formatter = CurrencyFormatter(prefHandler, application)
+            currencies.forEach { currency ->
+                amounts.forEach { amount ->
+                    assertThat(formatter.formatMinor(amount, currency))
+                        .isEqualTo(legacyFormat(formatter, amount, currency))
+                }
+            }
+        }
+    }
+
+    @Test
+    fun concurrentFormattingIsConsistent() {
+        whenever(application.userPreferredLocale).thenReturn(Locale.GERMANY)
+        val formatter = CurrencyFormatter(prefHandler, application, maxCacheSize = 2)
+        val expected = currencies.associateWith { currency ->
+            amounts.map { legacyFormat(formatter, it, currency) }
+        }
+        val executor = Executors.newFixedThreadPool(8)
+        try {
+            val results = executor.invokeAll(List(8) { thread ->
+                Callable {
+                    currencies.shuffled(Random(thread)).all { currency ->
+                        amounts.withIndex().all { (index, amount) ->
+                            formatter.formatMinor(amount, currency) == expected.getValue(currency)[index]
+                        }
+                    }
+                }
+            })
+            assertThat(results.map { it.get() }).containsOnly(true)
+        } finally {
+            executor.shutdown()
+        }
+    }
+}
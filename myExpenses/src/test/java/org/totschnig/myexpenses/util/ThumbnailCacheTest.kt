@@ -0,0 +1,56 @@
+package org.totschnig.myexpenses.util
+
+import android.graphics.Bitmap
+import android.net.Uri
+import androidx.test.core.app.ApplicationProvider
+import com.google.common.truth.Truth.assertThat
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.File
+
+@RunWith(RobolectricTestRunner::class)
+class ThumbnailCacheTest {
+
+    @get:Rule
+    val tempFolder = TemporaryFolder()
+
+    private fun cache(maxBytes: Long = ThumbnailCache.MAX_BYTES) =
+        ThumbnailCache(ApplicationProvider.getApplicationContext(), tempFolder.newFolder(), maxBytes)
+
+    private fun image(): Uri {
+        val file = tempFolder.newFile("receipt.png")
+        file.outputStream().use {
+            Bitmap.createBitmap(200, 200, Bitmap.Config.ARGB_8888)
+                .compress(Bitmap.CompressFormat.PNG, 100, it)
+        }
+        return Uri.fromFile(file)
+    }
+
+    @Test
+    fun thumbnailIsCachedUntilInvalidated() {
+        val cache = cache()
+        val uri = image()
+        assertThat(cache.load(uri, 48)).isNotNull()
+        assertThat(cache.directory.list()).hasLength(1)
+        assertThat(cache.load(uri, 48)).isNotNull()
+        assertThat(cache.directory.list()).hasLength(1)
+        cache.invalidate(uri)
+        assertThat(cache.directory.list()).isEmpty()
+    }
+
+    @Test
+    fun trimRemovesLeastRecentlyUsed() {
+        val cache = cache(maxBytes = 100)
+        val files = (1..3).map { index ->
+            File(cache.directory, "thumbnail$index.png").apply {
+                writeBytes(ByteArray(60))
+                setLastModified(index * 1000L)
+            }
+        }
+        cache.trim()
+        assertThat(files.map { it.exists() }).containsExactly(false, false, true).inOrder()
+    }
+}
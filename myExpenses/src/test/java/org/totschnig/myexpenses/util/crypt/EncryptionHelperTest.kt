@@ -0,0 +1,135 @@
+package org.totschnig.myexpenses.util.crypt
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Assert.assertThrows
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import kotlin.random.Random
+
+class EncryptionHelperTest {
+
+    @get:Rule
+    val tempFolder = TemporaryFolder()
+
+    private val sizes = listOf(0, 1, 1023, 1024, 1025, 4 * 1024, 100_000)
+
+    private fun payload(size: Int) = Random(size).nextBytes(size)
+
+    private fun encrypt(plaintext: ByteArray): ByteArray {
+        val out = ByteArrayOutputStream()
+        EncryptionHelper.encrypt(out, PASSWORD, 10, SegmentedAead.MIN_SEGMENT_SIZE).use {
+            it.write(plaintext)
+        }
+        return out.toByteArray()
+    }
+
+    private fun decrypt(ciphertext: ByteArray, password: String = PASSWORD) =
+        EncryptionHelper.decrypt(ByteArrayInputStream(ciphertext), password).use { it.readBytes() }
+
+    @Test
+    fun outputStreamRoundTrip() {
+        sizes.forEach {
+            val plaintext = payload(it)
+            assertThat(decrypt(encrypt(plaintext))).isEqualTo(plaintext)
+        }
+    }
+
+    @Test
+    fun inputStreamRoundTrip() {
+        sizes.forEach {
+            val plaintext = payload(it)
+            val ciphertext = EncryptionHelper.encrypt(ByteArrayInputStream(plaintext), PASSWORD)
+                .use { stream -> stream.readBytes() }
+            assertThat(decrypt(ciphertext)).isEqualTo(plaintext)
+        }
+    }
+
+    @Test
+    fun legacyFormatRemainsReadable() {
+        val plaintext = payload(10_000)
+        val legacy = EncryptionHelper.encrypt(plaintext, PASSWORD)
+        assertThat(String(legacy, 0, EncryptionHelper.MAGIC_NUMBER.length))
+            .isEqualTo(EncryptionHelper.MAGIC_NUMBER)
+        assertThat(decrypt(legacy)).isEqualTo(plaintext)
+    }
+
+    @Test
+    fun bothFormatsAreRecognizedAsEncrypted() {
+        listOf(EncryptionHelper.encrypt(payload(10), PASSWORD), encrypt(payload(10))).forEach {
+            assertThat(EncryptionHelper.isEncrypted(EncryptionHelper.wrap(ByteArrayInputStream(it))!!))
+                .isTrue()
+        }
+    }
+
+    @Test
+    fun modifiedSegmentIsRejected() {
+        val ciphertext = encrypt(payload(10_000))
+        ciphertext[SegmentedAead.HEADER_LENGTH + 2 * 1024] = ciphertext[SegmentedAead.HEADER_LENGTH + 2 * 1024].inc()
+        assertThrows(IOException::class.java) { decrypt(ciphertext) }
+    }
+
+    @Test
+    fun truncationIsDetected() {
+        val ciphertext = encrypt(payload(10_000))
+        val segment = SegmentedAead.MIN_SEGMENT_SIZE + SegmentedAead.TAG_LENGTH
+        //drop the last segment, so that the stream ends on a complete segment
+        val truncated = ciphertext.copyOf(ciphertext.size - (ciphertext.size - SegmentedAead.HEADER_LENGTH) % segment)
+        assertThat(truncated.size).isLessThan(ciphertext.size)
+        assertThrows(IOException::class.java) { decrypt(truncated) }
+    }
+
+    @Test
+    fun wrongPasswordIsRejected() {
+        assertThrows(IOException::class.java) { decrypt(encrypt(payload(100)), "wrong") }
+    }
+
+    @Test
+    fun wholePayloadStreamsAreReadable() {
+        val plaintext = payload(100_000)
+        val fromOutputStream = ByteArrayOutputStream().also { out ->
+            EncryptionHelper.encryptWholePayload(out, PASSWORD).use { it.write(plaintext) }
+        }.toByteArray()
+        val fromInputStream = EncryptionHelper.encryptWholePayload(ByteArrayInputStream(plaintext), PASSWORD)
+            .use { it.readBytes() }
+        listOf(fromOutputStream, fromInputStream).forEach {
+            assertThat(String(it, 0, EncryptionHelper.MAGIC_NUMBER.length))
+                .isEqualTo(EncryptionHelper.MAGIC_NUMBER)
+            assertThat(decrypt(it)).isEqualTo(plaintext)
+        }
+    }
+
+    private fun keySalt(ciphertext: ByteArray) = ciphertext.copyOfRange(
+        EncryptionHelper.MAGIC_NUMBER_SEGMENTED.length + 8,
+        EncryptionHelper.MAGIC_NUMBER_SEGMENTED.length + 8 + SegmentedAead.SALT_LENGTH
+    )
+
+    @Test
+    fun masterKeyIsOnlyReusedForSamePassword() {
+        val first = encrypt(payload(100))
+        assertThat(keySalt(encrypt(payload(100)))).isEqualTo(keySalt(first))
+        val other = ByteArrayOutputStream().also { out ->
+            EncryptionHelper.encrypt(out, "other", 10, SegmentedAead.MIN_SEGMENT_SIZE).use { it.write(payload(100)) }
+        }.toByteArray()
+        assertThat(keySalt(other)).isNotEqualTo(keySalt(first))
+        assertThrows(IOException::class.java) { decrypt(other) }
+        assertThat(decrypt(other, "other")).isEqualTo(payload(100))
+    }
+
+    /**
+     * Scaled down version of [org.totschnig.myexpenses.benchmark.EncryptionBenchmark]
+     */
+    @Test
+    fun payloadLargerThanHeapIsRestored() {
+        val (exitCode, output) = LargePayloadRestore.run(tempFolder.newFile(), 64, 16)
+        assertThat(output).contains("Restored")
+        assertThat(exitCode).isEqualTo(0)
+    }
+
+    companion object {
+        const val PASSWORD = "password"
+    }
+}
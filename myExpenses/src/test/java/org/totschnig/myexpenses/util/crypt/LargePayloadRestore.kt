@@ -0,0 +1,76 @@
+package org.totschnig.myexpenses.util.crypt
+
+import java.io.File
+import java.nio.ByteBuffer
+import java.security.MessageDigest
+
+/**
+ * Encrypts a generated payload of the size in MB passed as second argument into the file passed as
+ * first argument, restores it, and compares digests. Run in its own JVM through [run].
+ */
+object LargePayloadRestore {
+
+    /**
+     * Restores a payload of [sizeMb] MB in a separate JVM with a heap of [heapMb] MB, which fails if
+     * decryption buffers the ciphertext
+     * @return the exit code and the output of the child JVM
+     */
+    fun run(file: File, sizeMb: Int, heapMb: Int): Pair<Int, String> {
+        val classPath = listOf(
+            EncryptionHelper::class.java,
+            LargePayloadRestore::class.java,
+            Unit::class.java
+        ).joinToString(File.pathSeparator) {
+            File(it.protectionDomain.codeSource.location.toURI()).path
+        }
+        val process = ProcessBuilder(
+            File(System.getProperty("java.home"), "bin/java").path,
+            "-Xmx${heapMb}m",
+            "-cp", classPath,
+            LargePayloadRestore::class.java.name,
+            file.path,
+            sizeMb.toString()
+        ).redirectErrorStream(true).start()
+        val output = process.inputStream.bufferedReader().readText()
+        return process.waitFor() to output
+    }
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        val file = File(args[0])
+        val sizeMb = args[1].toInt()
+        val buffer = ByteBuffer.allocate(64 * 1024)
+        val written = MessageDigest.getInstance("SHA-256")
+        var counter = 0L
+        val begin = System.nanoTime()
+        EncryptionHelper.encrypt(file.outputStream().buffered(), "password").use { out ->
+            repeat(sizeMb * 16) {
+                buffer.clear()
+                while (buffer.hasRemaining()) buffer.putLong(counter++ * -7046029254386353131L)
+                written.update(buffer.array())
+                out.write(buffer.array())
+            }
+        }
+        val encrypted = System.nanoTime()
+        val read = MessageDigest.getInstance("SHA-256")
+        EncryptionHelper.decrypt(file.inputStream().buffered(), "password").use { input ->
+            val chunk = ByteArray(8192)
+            while (true) {
+                val count = input.read(chunk)
+                if (count == -1) break
+                read.update(chunk, 0, count)
+            }
+        }
+        val restored = System.nanoTime()
+        if (!MessageDigest.isEqual(written.digest(), read.digest())) {
+            println("Digest mismatch")
+            System.exit(1)
+        }
+        println(
+            "Restored %d MB (%d MB encrypted) with %d MB heap, encryption %d ms, restore %d ms".format(
+                sizeMb, file.length() shr 20, Runtime.getRuntime().maxMemory() shr 20,
+                (encrypted - begin) / 1_000_000, (restored - encrypted) / 1_000_000
+            )
+        )
+    }
+}
@@ -0,0 +1,71 @@
+package org.totschnig.myexpenses.viewmodel
+
+import android.net.Uri
+import androidx.lifecycle.SavedStateHandle
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.google.common.truth.Truth.assertThat
+import org.apache.commons.csv.CSVFormat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.totschnig.myexpenses.MyApplication
+import org.totschnig.myexpenses.R
+import org.totschnig.myexpenses.db2.createAccount
+import org.totschnig.myexpenses.db2.loadTagsForTransaction
+import org.totschnig.myexpenses.export.qif.QifDateFormat
+import org.totschnig.myexpenses.model.AccountType
+import org.totschnig.myexpenses.model2.Account
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ACCOUNTID
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_AMOUNT
+import org.totschnig.myexpenses.provider.DatabaseConstants.KEY_ROWID
+import org.totschnig.myexpenses.provider.TransactionProvider
+import java.io.StringReader
+import java.util.concurrent.TimeUnit
+
+@RunWith(AndroidJUnit4::class)
+class CsvImportViewModelTest : BaseViewModelTest() {
+
+    private val application: MyApplication
+        get() = ApplicationProvider.getApplicationContext()
+
+    @Test
+    fun importsTransactionsWithTags() {
+        val viewModel = CsvImportViewModel(application, SavedStateHandle())
+        application.appComponent.inject(viewModel)
+        val accountId = repository.createAccount(Account(label = "Test", currency = "EUR")).id
+        val data = CSVFormat.DEFAULT.parse(
+            StringReader("2024-01-15,-10.00,\"Food,Travel\"\n2024-01-16,5.00,Travel\n2024-01-17,7.00,\n")
+        ).records
+
+        val result = viewModel.importData(
+            data,
+            intArrayOf(R.string.date, R.string.amount, R.string.tags),
+            QifDateFormat.YMD,
+            false,
+            AccountConfiguration(accountId, "EUR", AccountType.CASH),
+            Uri.EMPTY
+        ).getOrAwaitValue(10, TimeUnit.SECONDS)
+
+        assertThat(result.getOrThrow().single().successCount).isEqualTo(3)
+        val tagsByAmount = contentResolver.query(
+            TransactionProvider.TRANSACTIONS_URI,
+            arrayOf(KEY_ROWID, KEY_AMOUNT),
+            "$KEY_ACCOUNTID = ?",
+            arrayOf(accountId.toString()),
+            null
+        )!!.use { cursor ->
+            buildMap {
+                while (cursor.moveToNext()) {
+                    put(
+                        cursor.getLong(1),
+                        repository.loadTagsForTransaction(cursor.getLong(0)).map { it.label }
+                    )
+                }
+            }
+        }
+        assertThat(tagsByAmount.keys).containsExactly(-1000L, 500L, 700L)
+        assertThat(tagsByAmount[-1000L]).containsExactly("Food", "Travel")
+        assertThat(tagsByAmount[500L]).containsExactly("Travel")
+        assertThat(tagsByAmount[700L]).isEmpty()
+    }
+}
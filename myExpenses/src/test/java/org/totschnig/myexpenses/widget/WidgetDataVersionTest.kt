@@ -0,0 +1,132 @@
+package org.totschnig.myexpenses.widget
+
+import android.appwidget.AppWidgetManager
+import android.content.ContentUris
+import android.content.Context
+import android.os.Bundle
+import androidx.core.content.edit
+import androidx.test.core.app.ApplicationProvider
+import com.google.common.truth.Truth.assertThat
+import kotlinx.coroutines.runBlocking
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.kotlin.any
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.mock
+import org.robolectric.RobolectricTestRunner
+import org.totschnig.myexpenses.BaseTestWithRepository
+import org.totschnig.myexpenses.MyApplication
+import org.totschnig.myexpenses.activity.BudgetWidgetConfigure
+import org.totschnig.myexpenses.db2.createAccount
+import org.totschnig.myexpenses.fragment.AccountWidgetConfigurationFragment
+import org.totschnig.myexpenses.model.CurrencyUnit
+import org.totschnig.myexpenses.model.Grouping
+import org.totschnig.myexpenses.model.Money
+import org.totschnig.myexpenses.model.Transaction
+import org.totschnig.myexpenses.model2.Account
+import org.totschnig.myexpenses.provider.QueryMetrics
+import org.totschnig.myexpenses.provider.QueryMetrics.Operation
+import org.totschnig.myexpenses.provider.TransactionProvider
+import org.totschnig.myexpenses.viewmodel.data.Budget
+import java.util.Currency
+
+@RunWith(RobolectricTestRunner::class)
+class WidgetDataVersionTest : BaseTestWithRepository() {
+
+    private val application = ApplicationProvider.getApplicationContext<MyApplication>()
+    private val appWidgetManager = mock<AppWidgetManager> {
+        on { getAppWidgetOptions(any()) } doReturn Bundle()
+    }
+    private val accountWidget = AccountWidget()
+    private val budgetWidget = BudgetWidget()
+    private val currency = CurrencyUnit(Currency.getInstance("EUR"))
+    private var account1 = 0L
+    private var account2 = 0L
+
+    private val provider: TransactionProvider
+        get() = contentResolver.acquireContentProviderClient(TransactionProvider.AUTHORITY)!!
+            .localContentProvider as TransactionProvider
+
+    /**
+     * number of times [AccountRemoteViewsFactory.buildCursor] has queried a single account
+     */
+    private val accountQueries
+        get() = queries("accounts?" + TransactionProvider.QUERY_PARAMETER_FULL_PROJECTION_WITH_SUMS)
+
+    /**
+     * number of times [org.totschnig.myexpenses.db2.loadBudgetProgress] has queried a budget
+     */
+    private val budgetQueries
+        get() = queries("budgets")
+
+    private fun queries(target: String) = provider.queryMetrics.histogramSnapshot
+        .filterKeys { it.operation == Operation.QUERY && it.target == target }
+        .values.sumOf { it.count }
+
+    @Before
+    fun setup() {
+        application.appComponent.inject(accountWidget)
+        application.appComponent.inject(budgetWidget)
+        //rendered state is kept per widget id across instances
+        accountWidget.onDeleted(application, intArrayOf(1, 2))
+        budgetWidget.onDeleted(application, intArrayOf(3))
+        account1 = repository.createAccount(Account(label = "Account 1", currency = "EUR")).id
+        account2 = repository.createAccount(Account(label = "Account 2", currency = "EUR")).id
+        application.getSharedPreferences(
+            AccountWidgetConfigurationFragment.PREFS_NAME, Context.MODE_PRIVATE
+        ).edit {
+            putString(AccountWidgetConfigurationFragment.selectionKey(1), account1.toString())
+            putString(AccountWidgetConfigurationFragment.selectionKey(2), account2.toString())
+        }
+        val budgetId = ContentUris.parseId(
+            contentResolver.insert(
+                TransactionProvider.BUDGETS_URI,
+                Budget(
+                    id = 0, accountId = account1, title = "Budget", description = null,
+                    currencyUnit = currency, grouping = Grouping.MONTH, color = 0, start = null,
+                    end = null, accountName = null, default = false
+                ).toContentValues(1000L)
+            )!!
+        )
+        BudgetWidgetConfigure.saveSelectionPref(application, 3, budgetId)
+        provider.queryMetrics = QueryMetrics()
+    }
+
+    private fun dataChanged(checkDataVersion: Boolean) {
+        provider.queryMetrics.reset()
+        runBlocking {
+            accountWidget.onDataChanged(application, appWidgetManager, listOf(1, 2), checkDataVersion)
+            budgetWidget.onDataChanged(application, appWidgetManager, listOf(3), checkDataVersion)
+        }
+    }
+
+    @Test
+    fun onlyWidgetsOfTouchedAccountsAreRecomputed() {
+        dataChanged(checkDataVersion = true)
+        assertThat(accountQueries).isEqualTo(2)
+        assertThat(budgetQueries).isEqualTo(1)
+
+        Transaction(account2, Money(currency, -100L)).save(contentResolver)
+        dataChanged(checkDataVersion = true)
+        assertThat(accountQueries).isEqualTo(1)
+        assertThat(budgetQueries).isEqualTo(0)
+
+        Transaction(account1, Money(currency, -100L)).save(contentResolver)
+        dataChanged(checkDataVersion = true)
+        assertThat(accountQueries).isEqualTo(1)
+        assertThat(budgetQueries).isEqualTo(1)
+
+        dataChanged(checkDataVersion = true)
+        assertThat(accountQueries).isEqualTo(0)
+        assertThat(budgetQueries).isEqualTo(0)
+    }
+
+    @Test
+    fun changesNotCoveredByDataVersionsRecomputeAllWidgets() {
+        dataChanged(checkDataVersion = true)
+        dataChanged(checkDataVersion = false)
+        assertThat(accountQueries).isEqualTo(2)
+        assertThat(budgetQueries).isEqualTo(1)
+    }
+}
@@ -0,0 +1,87 @@
+package org.totschnig.myexpenses.widget
+
+import android.os.Handler
+import android.os.Looper
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import org.totschnig.myexpenses.BaseTestWithRepository
+import org.totschnig.myexpenses.db2.createAccount
+import org.totschnig.myexpenses.model.CurrencyUnit
+import org.totschnig.myexpenses.model.Money
+import org.totschnig.myexpenses.model.Transaction
+import org.totschnig.myexpenses.model2.Account
+import java.time.Duration
+import java.util.Currency
+
+@RunWith(RobolectricTestRunner::class)
+class WidgetObserverTest : BaseTestWithRepository() {
+
+    private val recomputations = mutableListOf<Class<out BaseWidget>>()
+    private val checkedDataVersions = mutableMapOf<Class<out BaseWidget>, Boolean>()
+    private val scheduler = WidgetUpdateScheduler(Handler(Looper.getMainLooper())) { provider, checkDataVersion ->
+        recomputations.add(provider)
+        checkedDataVersions[provider] = checkDataVersion
+    }
+
+    @Before
+    fun registerObservers() {
+        mapOf(
+            TemplateWidget::class.java to TemplateWidget.OBSERVED_URIS,
+            AccountWidget::class.java to AccountWidget.OBSERVED_URIS,
+            BudgetWidget::class.java to BudgetWidget.OBSERVED_URIS
+        ).forEach { (provider, uris) ->
+            val observer = WidgetObserver(scheduler, provider)
+            uris.forEach { contentResolver.registerContentObserver(it, true, observer) }
+        }
+    }
+
+    private fun idle(millis: Long) {
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(millis))
+    }
+
+    @Test
+    fun bulkImportIsCoalescedIntoOneUpdatePerWidget() {
+        val accountId = repository.createAccount(Account(label = "Test", currency = "EUR")).id
+        val currency = CurrencyUnit(Currency.getInstance("EUR"))
+        repeat(200) {
+            Transaction(accountId, Money(currency, -100L * it)).save(contentResolver)
+            idle(5)
+        }
+        assertThat(recomputations).isEmpty()
+        idle(WidgetUpdateScheduler.DEBOUNCE_MILLIS)
+        val counts = recomputations.groupingBy { it }.eachCount()
+        assertThat(counts).containsEntry(AccountWidget::class.java, 1)
+        assertThat(counts).containsEntry(BudgetWidget::class.java, 1)
+        assertThat(counts.values.toSet()).containsExactly(1)
+        //transactions are covered by the accounts' data versions
+        assertThat(checkedDataVersions).containsEntry(AccountWidget::class.java, true)
+        assertThat(checkedDataVersions).containsEntry(BudgetWidget::class.java, true)
+    }
+
+    @Test
+    fun changeNotCoveredByDataVersionsForcesUpdate() {
+        scheduler.schedule(BudgetWidget::class.java, checkDataVersion = true)
+        scheduler.schedule(BudgetWidget::class.java, checkDataVersion = false)
+        scheduler.schedule(BudgetWidget::class.java, checkDataVersion = true)
+        idle(WidgetUpdateScheduler.DEBOUNCE_MILLIS)
+        assertThat(recomputations).containsExactly(BudgetWidget::class.java)
+        assertThat(checkedDataVersions).containsExactly(BudgetWidget::class.java, false)
+    }
+
+    @Test
+    fun continuousChangesAreFlushedAfterMaxDelay() {
+        val total = 10_000L
+        val interval = 10L
+        repeat((total / interval).toInt()) {
+            scheduler.schedule(AccountWidget::class.java)
+            idle(interval)
+        }
+        idle(WidgetUpdateScheduler.DEBOUNCE_MILLIS)
+        assertThat(recomputations.size.toLong())
+            .isIn((total / WidgetUpdateScheduler.MAX_DELAY_MILLIS)..(total / WidgetUpdateScheduler.MAX_DELAY_MILLIS + 1))
+    }
+}
@@ -0,0 +1,192 @@
+package org.totschnig.myexpenses.contract;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.totschnig.myexpenses.contract.TransactionsContract.BulkInsert;
+import org.totschnig.myexpenses.contract.TransactionsContract.Transactions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reference client for {@link BulkInsert}. Transactions are split into batches of at most
+ * {@link BulkInsert#MAX_SIZE}, each of which is inserted atomically. Submission stops at the first
+ * batch that could not be inserted, all following transactions are reported with
+ * {@link BulkInsert#ERROR_NOT_INSERTED}.
+ * <p>
+ * Example code:
+ * <pre>{@code
+ * BulkInsertClient client = new BulkInsertClient(new ContentResolverTransport(getContentResolver()));
+ * BulkInsertClient.Result result = client.insert(Arrays.asList(
+ *     new BulkInsertClient.TransactionBuilder(-10500000L).account("Cash").payee("Aldi").build(),
+ *     new BulkInsertClient.TransactionBuilder(-50000000L).account("Cash").transferTo("Savings").build()
+ * ));
+ * }</pre>
+ */
+public final class BulkInsertClient {
+
+  /**
+   * Submits one batch of transactions, as built by {@link TransactionBuilder}
+   */
+  public interface Transport {
+    @NonNull
+    Result submit(@NonNull List<Map<String, Object>> batch);
+  }
+
+  public static final class Result {
+    private final long[] ids;
+    private final String[] errors;
+
+    public Result(@NonNull long[] ids, @NonNull String[] errors) {
+      if (ids.length != errors.length) {
+        throw new IllegalArgumentException("Expected one error entry for each id");
+      }
+      this.ids = ids;
+      this.errors = errors;
+    }
+
+    public int size() {
+      return ids.length;
+    }
+
+    /**
+     * @return the id of the inserted transaction, or -1
+     */
+    public long getId(int index) {
+      return ids[index];
+    }
+
+    /**
+     * @return null if the transaction has been inserted, otherwise one of the error codes defined
+     * in {@link BulkInsert}
+     */
+    @Nullable
+    public String getError(int index) {
+      return errors[index];
+    }
+
+    public boolean isSuccess() {
+      for (String error : errors) {
+        if (error != null) return false;
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Builds the description of one transaction, with the keys defined in {@link Transactions}
+   */
+  public static final class TransactionBuilder {
+    private final Map<String, Object> values = new LinkedHashMap<>();
+
+    /**
+     * @param amountMicros see {@link Transactions#AMOUNT_MICROS}
+     */
+    public TransactionBuilder(long amountMicros) {
+      values.put(Transactions.AMOUNT_MICROS, amountMicros);
+    }
+
+    public TransactionBuilder account(@NonNull String label) {
+      return put(Transactions.ACCOUNT_LABEL, label);
+    }
+
+    public TransactionBuilder currency(@NonNull String currency) {
+      return put(Transactions.CURRENCY, currency);
+    }
+
+    /**
+     * Turns the transaction into a transfer to the account with the given label
+     */
+    public TransactionBuilder transferTo(@NonNull String accountLabel) {
+      values.put(Transactions.OPERATION_TYPE, Transactions.TYPE_TRANSFER);
+      return put(Transactions.TRANSFER_ACCOUNT_LABEL, accountLabel);
+    }
+
+    /**
+     * @param date seconds since the epoch
+     */
+    public TransactionBuilder date(long date) {
+      return put(Transactions.DATE, date);
+    }
+
+    public TransactionBuilder payee(@NonNull String name) {
+      return put(Transactions.PAYEE_NAME, name);
+    }
+
+    public TransactionBuilder category(@NonNull String label) {
+      return put(Transactions.CATEGORY_LABEL, label);
+    }
+
+    public TransactionBuilder comment(@NonNull String comment) {
+      return put(Transactions.COMMENT, comment);
+    }
+
+    public TransactionBuilder method(@NonNull String label) {
+      return put(Transactions.METHOD_LABEL, label);
+    }
+
+    public TransactionBuilder referenceNumber(@NonNull String number) {
+      return put(Transactions.REFERENCE_NUMBER, number);
+    }
+
+    private TransactionBuilder put(String key, Object value) {
+      values.put(key, value);
+      return this;
+    }
+
+    @NonNull
+    public Map<String, Object> build() {
+      if (values.containsKey(Transactions.TRANSFER_ACCOUNT_LABEL) &&
+          values.containsKey(Transactions.CATEGORY_LABEL)) {
+        throw new IllegalStateException("Transfers do not have a category");
+      }
+      return Collections.unmodifiableMap(new LinkedHashMap<>(values));
+    }
+  }
+
+  private final Transport transport;
+  private final int batchSize;
+
+  public BulkInsertClient(@NonNull Transport transport) {
+    this(transport, BulkInsert.MAX_SIZE);
+  }
+
+  public BulkInsertClient(@NonNull Transport transport, int batchSize) {
+    if (batchSize < 1 || batchSize > BulkInsert.MAX_SIZE) {
+      throw new IllegalArgumentException("batchSize must be between 1 and " + BulkInsert.MAX_SIZE);
+    }
+    this.transport = transport;
+    this.batchSize = batchSize;
+  }
+
+  @NonNull
+  public Result insert(@NonNull List<Map<String, Object>> transactions) {
+    final int size = transactions.size();
+    final long[] ids = new long[size];
+    final String[] errors = new String[size];
+    Arrays.fill(ids, -1L);
+    boolean failed = false;
+    for (int start = 0; start < size; start += batchSize) {
+      final int end = Math.min(start + batchSize, size);
+      if (failed) {
+        Arrays.fill(errors, start, end, BulkInsert.ERROR_NOT_INSERTED);
+        continue;
+      }
+      final Result result = transport.submit(new ArrayList<>(transactions.subList(start, end)));
+      if (result.size() != end - start) {
+        throw new IllegalStateException("Expected " + (end - start) + " results, got " + result.size());
+      }
+      for (int i = start; i < end; i++) {
+        ids[i] = result.getId(i - start);
+        errors[i] = result.getError(i - start);
+      }
+      failed = !result.isSuccess();
+    }
+    return new Result(ids, errors);
+  }
+}
@@ -0,0 +1,65 @@
+package org.totschnig.myexpenses.contract;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+
+import org.totschnig.myexpenses.contract.TransactionsContract.BulkInsert;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Submits batches of {@link BulkInsertClient} to My Expenses
+ */
+public final class ContentResolverTransport implements BulkInsertClient.Transport {
+  private final ContentResolver contentResolver;
+  private final Uri uri;
+
+  public ContentResolverTransport(@NonNull ContentResolver contentResolver) {
+    this(contentResolver, BulkInsert.AUTHORITY);
+  }
+
+  /**
+   * @param authority use "org.totschnig.myexpenses.debug.bulk" for talking to the debug build
+   */
+  public ContentResolverTransport(@NonNull ContentResolver contentResolver, @NonNull String authority) {
+    this.contentResolver = contentResolver;
+    this.uri = Uri.parse("content://" + authority);
+  }
+
+  @NonNull
+  @Override
+  public BulkInsertClient.Result submit(@NonNull List<Map<String, Object>> batch) {
+    final ArrayList<Bundle> transactions = new ArrayList<>(batch.size());
+    for (Map<String, Object> values : batch) {
+      final Bundle bundle = new Bundle(values.size());
+      for (Map.Entry<String, Object> entry : values.entrySet()) {
+        final Object value = entry.getValue();
+        if (value instanceof Long) {
+          bundle.putLong(entry.getKey(), (Long) value);
+        } else if (value instanceof Integer) {
+          bundle.putInt(entry.getKey(), (Integer) value);
+        } else {
+          bundle.putString(entry.getKey(), String.valueOf(value));
+        }
+      }
+      transactions.add(bundle);
+    }
+    final Bundle extras = new Bundle(1);
+    extras.putParcelableArrayList(BulkInsert.EXTRA_TRANSACTIONS, transactions);
+    final Bundle result = contentResolver.call(uri, BulkInsert.METHOD_BULK_INSERT, null, extras);
+    if (result == null) {
+      throw new IllegalStateException("No result from " + uri);
+    }
+    final long[] ids = result.getLongArray(BulkInsert.RESULT_IDS);
+    final String[] errors = result.getStringArray(BulkInsert.RESULT_ERRORS);
+    if (ids == null || errors == null) {
+      throw new IllegalStateException("Incomplete result from " + uri);
+    }
+    return new BulkInsertClient.Result(ids, errors);
+  }
+}
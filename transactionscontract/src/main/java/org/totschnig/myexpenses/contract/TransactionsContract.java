@@ -11,6 +11,7 @@ import java.lang.annotation.RetentionPolicy;
 /**
  * This contract defines the data needed for communicating with My Expenses via Intents. Currently
  * only adding new transactions via {@link android.content.Intent#ACTION_INSERT} is supported.
+ * Many transactions can be added at once with {@link BulkInsert}.
  */
 public class TransactionsContract {
 
@@ -124,4 +125,79 @@ public class TransactionsContract {
      */
     public static final String REFERENCE_NUMBER = "referenceNumber";
   }
+
+  /**
+   * Adds many transactions at once, without user interaction, via
+   * {@link android.content.ContentResolver#call(Uri, String, String, android.os.Bundle)}. Each
+   * transaction is described by a {@link android.os.Bundle} with the same extras as the intent
+   * described in {@link Transactions}. Either all transactions of one call are inserted, or none.
+   * {@link BulkInsertClient} is a reference client that takes care of batching.
+   */
+  public static final class BulkInsert {
+
+    /**
+     * Debug build listens for "org.totschnig.myexpenses.debug.bulk"
+     */
+    public static final String AUTHORITY = "org.totschnig.myexpenses.bulk";
+
+    /**
+     * Callers must hold this permission, which has to be granted by the user.
+     * Debug build uses "org.totschnig.myexpenses.debug.permission.INSERT_TRANSACTIONS"
+     */
+    public static final String PERMISSION = "org.totschnig.myexpenses.permission.INSERT_TRANSACTIONS";
+
+    public static final String METHOD_BULK_INSERT = "bulkInsert";
+
+    /**
+     * The transactions to insert.
+     * Type: ArrayList of {@link android.os.Bundle}
+     */
+    public static final String EXTRA_TRANSACTIONS = "transactions";
+
+    /**
+     * Maximum number of transactions accepted in one call
+     */
+    public static final int MAX_SIZE = 500;
+
+    /**
+     * Result: the ids of the inserted transactions, -1 for transactions that have not been inserted
+     * Type: long[]
+     */
+    public static final String RESULT_IDS = "ids";
+
+    /**
+     * Result: for each transaction, null if it has been inserted, otherwise one of the error codes
+     * below
+     * Type: String[]
+     */
+    public static final String RESULT_ERRORS = "errors";
+
+    /**
+     * No open account was found for {@link Transactions#ACCOUNT_LABEL} or {@link Transactions#CURRENCY}
+     */
+    public static final String ERROR_UNKNOWN_ACCOUNT = "unknownAccount";
+
+    /**
+     * {@link Transactions#TRANSFER_ACCOUNT_LABEL} is missing, or does not designate another open
+     * account with the same currency
+     */
+    public static final String ERROR_INVALID_TRANSFER_ACCOUNT = "invalidTransferAccount";
+
+    /**
+     * {@link Transactions#AMOUNT_MICROS} is missing
+     */
+    public static final String ERROR_MISSING_AMOUNT = "missingAmount";
+
+    /**
+     * {@link Transactions#OPERATION_TYPE} is not supported, currently only
+     * {@link Transactions#TYPE_TRANSACTION} and {@link Transactions#TYPE_TRANSFER} are
+     */
+    public static final String ERROR_UNSUPPORTED_TYPE = "unsupportedType";
+
+    /**
+     * The transaction is valid, but has not been inserted, because another transaction submitted
+     * together with it could not be inserted
+     */
+    public static final String ERROR_NOT_INSERTED = "notInserted";
+  }
 }
@@ -0,0 +1,115 @@
+package org.totschnig.myexpenses.contract;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.totschnig.myexpenses.contract.TransactionsContract.BulkInsert;
+import org.totschnig.myexpenses.contract.TransactionsContract.Transactions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class BulkInsertClientTest {
+
+  /**
+   * Assigns consecutive ids, and rejects batches that contain a transaction without account
+   */
+  private static class FakeTransport implements BulkInsertClient.Transport {
+    final List<Integer> batchSizes = new ArrayList<>();
+    long nextId = 1;
+
+    @Override
+    public BulkInsertClient.Result submit(List<Map<String, Object>> batch) {
+      batchSizes.add(batch.size());
+      final long[] ids = new long[batch.size()];
+      final String[] errors = new String[batch.size()];
+      boolean valid = true;
+      for (int i = 0; i < batch.size(); i++) {
+        if (!batch.get(i).containsKey(Transactions.ACCOUNT_LABEL)) {
+          errors[i] = BulkInsert.ERROR_UNKNOWN_ACCOUNT;
+          valid = false;
+        }
+      }
+      for (int i = 0; i < batch.size(); i++) {
+        if (valid) {
+          ids[i] = nextId++;
+        } else {
+          ids[i] = -1;
+          if (errors[i] == null) errors[i] = BulkInsert.ERROR_NOT_INSERTED;
+        }
+      }
+      return new BulkInsertClient.Result(ids, errors);
+    }
+  }
+
+  private static List<Map<String, Object>> transactions(int count) {
+    final List<Map<String, Object>> result = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      result.add(new BulkInsertClient.TransactionBuilder(-1000000L * (i + 1)).account("Cash").build());
+    }
+    return result;
+  }
+
+  @Test
+  public void builderUsesContractKeys() {
+    final Map<String, Object> transaction = new BulkInsertClient.TransactionBuilder(-10500000L)
+        .account("Cash").transferTo("Savings").date(1700000000L).comment("Rent").build();
+    assertEquals(-10500000L, transaction.get(Transactions.AMOUNT_MICROS));
+    assertEquals("Cash", transaction.get(Transactions.ACCOUNT_LABEL));
+    assertEquals(Transactions.TYPE_TRANSFER, transaction.get(Transactions.OPERATION_TYPE));
+    assertEquals("Savings", transaction.get(Transactions.TRANSFER_ACCOUNT_LABEL));
+    assertEquals(1700000000L, transaction.get(Transactions.DATE));
+    assertEquals("Rent", transaction.get(Transactions.COMMENT));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void transferWithCategoryIsRejected() {
+    new BulkInsertClient.TransactionBuilder(1L).transferTo("Savings").category("Food").build();
+  }
+
+  @Test
+  public void splitsIntoBatches() {
+    final FakeTransport transport = new FakeTransport();
+    final BulkInsertClient.Result result = new BulkInsertClient(transport, 4).insert(transactions(10));
+    assertEquals(Arrays.asList(4, 4, 2), transport.batchSizes);
+    assertTrue(result.isSuccess());
+    assertEquals(10, result.size());
+    for (int i = 0; i < 10; i++) {
+      assertEquals(i + 1, result.getId(i));
+      assertNull(result.getError(i));
+    }
+  }
+
+  @Test
+  public void stopsAtFirstFailingBatch() {
+    final FakeTransport transport = new FakeTransport();
+    final List<Map<String, Object>> transactions = transactions(9);
+    transactions.set(4, new BulkInsertClient.TransactionBuilder(-1000000L).build());
+    final BulkInsertClient.Result result = new BulkInsertClient(transport, 3).insert(transactions);
+    assertEquals(Arrays.asList(3, 3), transport.batchSizes);
+    assertFalse(result.isSuccess());
+    final long[] ids = new long[result.size()];
+    final String[] errors = new String[result.size()];
+    for (int i = 0; i < result.size(); i++) {
+      ids[i] = result.getId(i);
+      errors[i] = result.getError(i);
+    }
+    assertArrayEquals(new long[]{1, 2, 3, -1, -1, -1, -1, -1, -1}, ids);
+    assertArrayEquals(new String[]{
+        null, null, null,
+        BulkInsert.ERROR_NOT_INSERTED, BulkInsert.ERROR_UNKNOWN_ACCOUNT, BulkInsert.ERROR_NOT_INSERTED,
+        BulkInsert.ERROR_NOT_INSERTED, BulkInsert.ERROR_NOT_INSERTED, BulkInsert.ERROR_NOT_INSERTED
+    }, errors);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void batchSizeIsLimited() {
+    new BulkInsertClient(new FakeTransport(), BulkInsert.MAX_SIZE + 1);
+  }
+}
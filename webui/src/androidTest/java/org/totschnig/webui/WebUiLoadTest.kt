@@ -0,0 +1,145 @@
+package org.totschnig.webui
+
+import android.content.Intent
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import androidx.test.platform.app.InstrumentationRegistry
+import androidx.test.rule.ServiceTestRule
+import io.ktor.client.HttpClient
+import io.ktor.client.engine.cio.CIO
+import io.ktor.client.request.get
+import io.ktor.client.request.header
+import io.ktor.client.statement.bodyAsText
+import io.ktor.http.HttpHeaders
+import io.ktor.http.HttpStatusCode
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.totschnig.myexpenses.feature.START_ACTION
+import org.totschnig.myexpenses.feature.ServerStateObserver
+import org.totschnig.myexpenses.feature.WebUiBinder
+import java.io.IOException
+import java.net.InetSocketAddress
+import java.net.Socket
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Load-test harness for the web UI: starts the server on the device, fires requests from a number
+ * of concurrent clients and logs the throughput for each endpoint. Run it against a database with
+ * realistic content, e.g. one populated from a backup.
+ */
+@RunWith(AndroidJUnit4::class)
+@LargeTest
+class WebUiLoadTest {
+    @get:Rule
+    val serviceRule = ServiceTestRule()
+
+    private val concurrency = 8
+    private val requestsPerClient = 50
+
+    private fun startServer(): String {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        val intent = Intent(context, WebInputService::class.java)
+        val service = (serviceRule.bindService(intent) as WebUiBinder).getService()!!
+        val latch = CountDownLatch(1)
+        var postedPort: String? = null
+        service.registerObserver(object : ServerStateObserver {
+            override fun postAddress(address: String) {
+                postedPort = address.substringAfterLast(':')
+                latch.countDown()
+            }
+
+            override fun postException(throwable: Throwable) {
+                throw throwable
+            }
+
+            override fun onStopped() {}
+        })
+        serviceRule.startService(intent.setAction(START_ACTION))
+        assertTrue("Server did not post its address", latch.await(10, TimeUnit.SECONDS))
+        val port = checkNotNull(postedPort).toInt()
+        awaitPort(port)
+        return "http://127.0.0.1:$port"
+    }
+
+    /**
+     * the address is posted before the engine has bound its port, so we poll until it accepts
+     * connections
+     */
+    private fun awaitPort(port: Int, timeoutMillis: Long = 10_000) {
+        val deadline = System.currentTimeMillis() + timeoutMillis
+        while (true) {
+            try {
+                Socket().use { it.connect(InetSocketAddress("127.0.0.1", port), 500) }
+                return
+            } catch (e: IOException) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw AssertionError("Port $port does not accept connections", e)
+                }
+                Thread.sleep(50)
+            }
+        }
+    }
+
+    private fun HttpClient.measure(
+        label: String,
+        url: String,
+        ifNoneMatch: String? = null
+    ) = runBlocking {
+        val notModified = AtomicInteger()
+        val start = System.nanoTime()
+        (1..concurrency).map {
+            async {
+                repeat(requestsPerClient) {
+                    val response = get(url) {
+                        header(HttpHeaders.AcceptEncoding, "gzip")
+                        ifNoneMatch?.let { header(HttpHeaders.IfNoneMatch, it) }
+                    }
+                    if (response.status == HttpStatusCode.NotModified) notModified.incrementAndGet()
+                }
+            }
+        }.awaitAll()
+        val seconds = (System.nanoTime() - start) / 1e9
+        val total = concurrency * requestsPerClient
+        Log.i(
+            "WebUiLoadTest",
+            "%s: %d requests in %.2f s, %.1f requests/s, %d not modified".format(
+                label, total, seconds, total / seconds, notModified.get()
+            )
+        )
+        notModified.get()
+    }
+
+    @Test
+    fun throughput() {
+        val base = startServer()
+        HttpClient(CIO).use { client ->
+            val etag = runBlocking {
+                client.get("$base/data.js").headers[HttpHeaders.ETag]
+            }
+            client.measure("data.js", "$base/data.js")
+            val notModified = client.measure("data.js (If-None-Match)", "$base/data.js", etag)
+            assertEquals(concurrency * requestsPerClient, notModified)
+            val accountId = runBlocking {
+                Regex("\"accounts\":\\[\\{\"id\":(\\d+)")
+                    .find(client.get("$base/data.js").bodyAsText())?.groupValues?.get(1)
+            } ?: return
+            client.measure(
+                "transactions (full history)",
+                "$base/transactions?account_id=$accountId"
+            )
+            client.measure(
+                "transactions (first page)",
+                "$base/transactions?account_id=$accountId&limit=100"
+            )
+        }
+    }
+}
@@ -4,6 +4,8 @@ const dateMode = {
   bookingValue: 3
 };
 
+const pageSize = 100;
+
 document.addEventListener('alpine:init', () => {
     document.title = messages.app_name + " " + messages.title_webui
     let date = new Date();
@@ -29,6 +31,8 @@ document.addEventListener('alpine:init', () => {
         resultCode: 0,
         data: ${data},
         transactions: [],
+        nextPage: null,
+        loadingMore: false,
         activeTransaction :null,
         async loadTransaction(transaction) {
             this.signum = transaction.amount > 0 ? true : false;
@@ -167,18 +171,31 @@ document.addEventListener('alpine:init', () => {
         loadTransactions() {
             this.loading = true
             this.transactions = []
-            fetch("/transactions?account_id=" + this.account, {
+            this.nextPage = null
+            this.fetchTransactions("/transactions?account_id=" + this.account + "&limit=" + pageSize)
+        },
+        loadMoreTransactions() {
+            if (this.nextPage != null && !this.loadingMore) {
+                this.loadingMore = true
+                this.fetchTransactions(this.nextPage)
+            }
+        },
+        fetchTransactions(uri) {
+            fetch(uri, {
                 headers: {
                     'Content-Type': 'application/json'
                 },
                 method: 'GET'
             }).then(response => {
                 this.loading = false;
+                this.loadingMore = false;
                 this.resultCode = response.status;
                 if (!response.ok) {
                     throw Error(response.statusText);
                 }
-                response.json().then(data => { this.transactions = data } );
+                let next = /<([^>]+)>;\s*rel="next"/.exec(response.headers.get('Link'))
+                this.nextPage = next ? next[1] : null
+                response.json().then(data => { this.transactions = this.transactions.concat(data) } );
             }).catch((error) => { this.errorHandler(error); });
         },
         menu : [
@@ -5,6 +5,9 @@ import android.app.PendingIntent
 import android.app.PendingIntent.FLAG_ONE_SHOT
 import android.content.Context
 import android.content.Intent
+import android.content.SharedPreferences
+import android.database.ContentObserver
+import android.net.Uri
 import android.os.IBinder
 import androidx.annotation.PluralsRes
 import androidx.annotation.StringRes
@@ -16,6 +19,7 @@ import io.ktor.http.ContentType
 import io.ktor.http.HttpHeaders
 import io.ktor.http.HttpStatusCode
 import io.ktor.serialization.gson.gson
+import io.ktor.server.application.ApplicationCall
 import io.ktor.server.application.call
 import io.ktor.server.application.install
 import io.ktor.server.auth.Authentication
@@ -29,9 +33,13 @@ import io.ktor.server.engine.connector
 import io.ktor.server.engine.embeddedServer
 import io.ktor.server.engine.sslConnector
 import io.ktor.server.netty.Netty
+import io.ktor.server.plugins.compression.Compression
+import io.ktor.server.plugins.compression.gzip
+import io.ktor.server.plugins.compression.minimumSize
 import io.ktor.server.plugins.contentnegotiation.ContentNegotiation
 import io.ktor.server.plugins.statuspages.StatusPages
 import io.ktor.server.request.receive
+import io.ktor.server.response.header
 import io.ktor.server.response.respond
 import io.ktor.server.response.respondBytes
 import io.ktor.server.response.respondText
@@ -52,7 +60,10 @@ import org.bouncycastle.jce.provider.BouncyCastleProvider
 import org.totschnig.myexpenses.MyApplication
 import org.totschnig.myexpenses.R
 import org.totschnig.myexpenses.db2.Repository
+import org.totschnig.myexpenses.db2.TransactionPageKey
 import org.totschnig.myexpenses.db2.createTransaction
+import org.totschnig.myexpenses.db2.createTransactions
+import org.totschnig.myexpenses.db2.loadTransactionPage
 import org.totschnig.myexpenses.db2.loadTransactions
 import org.totschnig.myexpenses.db2.updateTransaction
 import org.totschnig.myexpenses.di.LocalDateAdapter
@@ -92,10 +103,13 @@ import java.net.ServerSocket
 import java.security.Security
 import java.time.LocalDate
 import java.time.LocalTime
+import java.util.concurrent.atomic.AtomicLong
 import javax.inject.Inject
 
 private const val STOP_CLICK_ACTION = "STOP_CLICK_ACTION"
 
+private const val MAX_PAGE_SIZE = 500
+
 class WebInputService : LifecycleService(), IWebInputService {
 
     @Inject
@@ -123,6 +137,30 @@ class WebInputService : LifecycleService(), IWebInputService {
         prefHandler.getBoolean(PrefKey.WEBUI_HTTPS, false)
     }
 
+    /**
+     * Incremented whenever the provider notifies a change or a preference changes (transaction
+     * list filters and data.js settings are stored there), used for building ETags.
+     */
+    private val dataVersion = AtomicLong()
+
+    private val dataObserver = object : ContentObserver(null) {
+        override fun onChange(selfChange: Boolean) {
+            dataVersion.incrementAndGet()
+        }
+    }
+
+    private val preferenceListener = SharedPreferences.OnSharedPreferenceChangeListener { _, _ ->
+        dataVersion.incrementAndGet()
+    }
+
+    /**
+     * distinguishes ETags of this server instance from those handed out before a restart
+     */
+    private val startTime = System.currentTimeMillis()
+
+    @Volatile
+    private var dataJs: Pair<Long, String>? = null
+
     class LocalBinder(private val webInputService: WeakReference<WebInputService>) : WebUiBinder() {
         override fun getService() = webInputService.get()
     }
@@ -132,6 +170,14 @@ class WebInputService : LifecycleService(), IWebInputService {
         DaggerWebUiComponent.builder().appComponent((application as MyApplication).appComponent)
             .build().inject(this)
         wrappedContext = (application as MyApplication).wrapContext(this)
+        contentResolver.registerContentObserver(
+            Uri.parse("content://${TransactionProvider.AUTHORITY}"),
+            true,
+            dataObserver
+        )
+        (application as MyApplication).settings.registerOnSharedPreferenceChangeListener(
+            preferenceListener
+        )
     }
 
     override fun onBind(intent: Intent): IBinder {
@@ -213,6 +259,11 @@ class WebInputService : LifecycleService(), IWebInputService {
                             }
                             watchPaths = emptyList()
                             module {
+                                install(Compression) {
+                                    gzip {
+                                        minimumSize(1024)
+                                    }
+                                }
                                 install(ContentNegotiation) {
                                     gson {
                                         registerTypeAdapter(
@@ -356,112 +407,12 @@ class WebInputService : LifecycleService(), IWebInputService {
     private fun Route.serve() {
 
         get("data.js") {
-            //noinspection Recycle
-            val categories = contentResolver.query(
-                TransactionProvider.CATEGORIES_URI.buildUpon()
-                    .appendBooleanQueryParameter(
-                        TransactionProvider.QUERY_PARAMETER_HIERARCHICAL
-                    ).build(),
-                arrayOf(KEY_ROWID, KEY_PARENTID, KEY_LABEL, KEY_LEVEL),
-                null, null, null
-            )?.useAndMapToList {
-                mapOf(
-                    "id" to it.getLong(0),
-                    "parent" to it.getLongOrNull(1),
-                    "label" to it.getString(2),
-                    "level" to it.getInt(3)
-                )
-            }
-            val data = mapOf(
-                //noinspection Recycle
-                "accounts" to contentResolver.query(
-                    TransactionProvider.ACCOUNTS_BASE_URI,
-                    arrayOf(KEY_ROWID, KEY_LABEL, KEY_TYPE, KEY_CURRENCY),
-                    "$KEY_SEALED = 0", null, null
-                )?.useAndMapToList {
-                    mapOf(
-                        "id" to it.getLong(0),
-                        "label" to it.getString(1),
-                        "type" to it.getString(2),
-                        "currency" to currencyContext[it.getString(3)].symbol
-                    )
-                },
-                //noinspection Recycle
-                "payees" to contentResolver.query(
-                    TransactionProvider.PAYEES_URI,
-                    arrayOf(KEY_ROWID, KEY_PAYEE_NAME),
-                    "$KEY_PARENTID IS  NULL", null, null
-                )?.useAndMapToList {
-                    mapOf(
-                        "id" to it.getLong(0),
-                        "name" to it.getString(1)
-                    )
-                },
-                "categories" to categories,
-                //noinspection Recycle
-                "tags" to contentResolver.query(
-                    TransactionProvider.TAGS_URI,
-                    arrayOf(KEY_ROWID, KEY_LABEL),
-                    null, null, null
-                )?.useAndMapToList {
-                    mapOf(
-                        "id" to it.getLong(0),
-                        "label" to it.getString(1)
-                    )
-                },
-                //noinspection Recycle
-                "methods" to contentResolver.query(
-                    TransactionProvider.METHODS_URI,
-                    arrayOf(
-                        KEY_ROWID,
-                        KEY_LABEL,
-                        KEY_IS_NUMBERED,
-                        KEY_TYPE,
-                        KEY_ACCOUNT_TPYE_LIST
-                    ),
-                    null, null, null
-                )?.useAndMapToList {
-                    mapOf(
-                        "id" to it.getLong(0),
-                        "label" to it.getString(1),
-                        "isNumbered" to (it.getInt(2) > 0),
-                        "type" to it.getInt(3),
-                        "accountTypes" to it.getString(4)?.split(',')
-                    )
-                },
-            )
-            val categoryTreeDepth = categories?.maxOfOrNull { it["level"] as Int } ?: 0
-            val categoryWatchers = if (categoryTreeDepth > 1) {
-                (0..categoryTreeDepth - 2).joinToString(separator = "\n") {
-                    "this.\$watch('categoryPath[$it].id', value => { this.categoryPath[${it + 1}].id=0 } );"
-                }
-            } else ""
-            val lookup = StringLookup { key ->
-                when (key) {
-                    "category_tree_depth" -> categoryTreeDepth.toString()
-                    "data" -> gson.toJson(data)
-                    "categoryWatchers" -> categoryWatchers
-                    "withValueDate" -> prefHandler.getBoolean(
-                        PrefKey.TRANSACTION_WITH_VALUE_DATE,
-                        false
-                    ).toString()
-
-                    "withTime" -> prefHandler.getBoolean(
-                        PrefKey.TRANSACTION_WITH_TIME,
-                        false
-                    ).toString()
-
-                    else -> throw IllegalStateException("Unknown substitution key $key")
-                }
+            val version = dataVersion.get()
+            call.respondIfNoneMatch("data-$version") {
+                val text = dataJs?.takeIf { it.first == version }?.second
+                    ?: buildDataJs().also { dataJs = version to it }
+                call.respondText(text, ContentType.Text.JavaScript)
             }
-            val stringSubstitutor = StringSubstitutor(
-                lookup,
-                DEFAULT_PREFIX,
-                DEFAULT_SUFFIX,
-                DEFAULT_ESCAPE
-            )
-            val text = stringSubstitutor.replace(readTextFromAssets("data.js"))
-            call.respondText(text, ContentType.Text.JavaScript)
         }
 
         delete("/transactions/{id}") {
@@ -504,12 +455,166 @@ class WebInputService : LifecycleService(), IWebInputService {
             )
         }
 
+        post("/transactions/bulk") {
+            val transactions = call.receive<List<Transaction>>()
+            call.respond(HttpStatusCode.Created, repository.createTransactions(transactions))
+        }
+
         get("/") {
             call.respondText(readTextFromAssets("form.html"), ContentType.Text.Html)
         }
 
         get("/transactions") {
-            call.respond(repository.loadTransactions(call.request.queryParameters["account_id"]!!.toLong()))
+            val parameters = call.request.queryParameters
+            val accountId = parameters["account_id"]!!.toLong()
+            val limit = parameters["limit"]?.toInt()?.coerceIn(1, MAX_PAGE_SIZE)
+            val after = parameters["after"]
+            call.respondIfNoneMatch("transactions-${dataVersion.get()}-$accountId-$limit-$after") {
+                if (limit == null) {
+                    call.respond(repository.loadTransactions(accountId))
+                } else {
+                    val page = repository.loadTransactionPage(
+                        accountId,
+                        limit,
+                        after?.let { TransactionPageKey.parse(it) }
+                    )
+                    page.next?.let {
+                        call.response.header(
+                            HttpHeaders.Link,
+                            "</transactions?account_id=$accountId&limit=$limit&after=$it>; rel=\"next\""
+                        )
+                    }
+                    call.respond(page.transactions)
+                }
+            }
+        }
+    }
+
+    private fun buildDataJs(): String {
+        //noinspection Recycle
+        val categories = contentResolver.query(
+            TransactionProvider.CATEGORIES_URI.buildUpon()
+                .appendBooleanQueryParameter(
+                    TransactionProvider.QUERY_PARAMETER_HIERARCHICAL
+                ).build(),
+            arrayOf(KEY_ROWID, KEY_PARENTID, KEY_LABEL, KEY_LEVEL),
+            null, null, null
+        )?.useAndMapToList {
+            mapOf(
+                "id" to it.getLong(0),
+                "parent" to it.getLongOrNull(1),
+                "label" to it.getString(2),
+                "level" to it.getInt(3)
+            )
+        }
+        val data = mapOf(
+            //noinspection Recycle
+            "accounts" to contentResolver.query(
+                TransactionProvider.ACCOUNTS_BASE_URI,
+                arrayOf(KEY_ROWID, KEY_LABEL, KEY_TYPE, KEY_CURRENCY),
+                "$KEY_SEALED = 0", null, null
+            )?.useAndMapToList {
+                mapOf(
+                    "id" to it.getLong(0),
+                    "label" to it.getString(1),
+                    "type" to it.getString(2),
+                    "currency" to currencyContext[it.getString(3)].symbol
+                )
+            },
+            //noinspection Recycle
+            "payees" to contentResolver.query(
+                TransactionProvider.PAYEES_URI,
+                arrayOf(KEY_ROWID, KEY_PAYEE_NAME),
+                "$KEY_PARENTID IS  NULL", null, null
+            )?.useAndMapToList {
+                mapOf(
+                    "id" to it.getLong(0),
+                    "name" to it.getString(1)
+                )
+            },
+            "categories" to categories,
+            //noinspection Recycle
+            "tags" to contentResolver.query(
+                TransactionProvider.TAGS_URI,
+                arrayOf(KEY_ROWID, KEY_LABEL),
+                null, null, null
+            )?.useAndMapToList {
+                mapOf(
+                    "id" to it.getLong(0),
+                    "label" to it.getString(1)
+                )
+            },
+            //noinspection Recycle
+            "methods" to contentResolver.query(
+                TransactionProvider.METHODS_URI,
+                arrayOf(
+                    KEY_ROWID,
+                    KEY_LABEL,
+                    KEY_IS_NUMBERED,
+                    KEY_TYPE,
+                    KEY_ACCOUNT_TPYE_LIST
+                ),
+                null, null, null
+            )?.useAndMapToList {
+                mapOf(
+                    "id" to it.getLong(0),
+                    "label" to it.getString(1),
+                    "isNumbered" to (it.getInt(2) > 0),
+                    "type" to it.getInt(3),
+                    "accountTypes" to it.getString(4)?.split(',')
+                )
+            },
+        )
+        val categoryTreeDepth = categories?.maxOfOrNull { it["level"] as Int } ?: 0
+        val categoryWatchers = if (categoryTreeDepth > 1) {
+            (0..categoryTreeDepth - 2).joinToString(separator = "\n") {
+                "this.\$watch('categoryPath[$it].id', value => { this.categoryPath[${it + 1}].id=0 } );"
+            }
+        } else ""
+        val lookup = StringLookup { key ->
+            when (key) {
+                "category_tree_depth" -> categoryTreeDepth.toString()
+                "data" -> gson.toJson(data)
+                "categoryWatchers" -> categoryWatchers
+                "withValueDate" -> prefHandler.getBoolean(
+                    PrefKey.TRANSACTION_WITH_VALUE_DATE,
+                    false
+                ).toString()
+
+                "withTime" -> prefHandler.getBoolean(
+                    PrefKey.TRANSACTION_WITH_TIME,
+                    false
+                ).toString()
+
+                else -> throw IllegalStateException("Unknown substitution key $key")
+            }
+        }
+        val stringSubstitutor = StringSubstitutor(
+            lookup,
+            DEFAULT_PREFIX,
+            DEFAULT_SUFFIX,
+            DEFAULT_ESCAPE
+        )
+        return stringSubstitutor.replace(readTextFromAssets("data.js"))
+    }
+
+    /**
+     * Responds with 304 if the client already has the representation identified by [tag],
+     * otherwise lets [block] build the response. ETags are weak, since responses may be compressed.
+     */
+    private suspend fun ApplicationCall.respondIfNoneMatch(
+        tag: String,
+        block: suspend () -> Unit
+    ) {
+        val etag = "W/\"$startTime-$tag\""
+        response.header(HttpHeaders.ETag, etag)
+        response.header(HttpHeaders.CacheControl, "no-cache")
+        if (request.headers[HttpHeaders.IfNoneMatch]?.split(',')
+                ?.any { it.trim() == etag || it.trim() == "*" } == true
+        ) {
+            respond(HttpStatusCode.NotModified)
+        } else {
+            block()
         }
     }
 
@@ -532,6 +637,10 @@ class WebInputService : LifecycleService(), IWebInputService {
         wrappedContext.resources.getQuantityString(resId, quantity, quantity).replace("'", "\\'")
 
     override fun onDestroy() {
+        contentResolver.unregisterContentObserver(dataObserver)
+        (application as MyApplication).settings.unregisterOnSharedPreferenceChangeListener(
+            preferenceListener
+        )
         stopServer()
         super.onDestroy()
     }